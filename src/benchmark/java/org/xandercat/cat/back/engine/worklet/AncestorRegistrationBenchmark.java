@@ -0,0 +1,105 @@
+package org.xandercat.cat.back.engine.worklet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xandercat.cat.back.file.BackupFile;
+
+/**
+ * Compares the time to add the ancestors of 10,000 individually included files to the start files of an inspection,
+ * climbing only to the first ancestor already registered (see LoadCurrentFiles.addAncestors), against climbing to
+ * the root for every included file, as was done prior to v1.6.1.  The included files are directories 8 levels
+ * below a temporary directory, in 50 groups of 200.
+ *
+ * @author Scott Arnold
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AncestorRegistrationBenchmark {
+
+	private static final int GROUPS = 50;
+	private static final int FILES_PER_GROUP = 200;
+
+	private File directory;
+	private File backupDirectory;
+	private List<File> includedFiles = new ArrayList<File>();
+
+	@Setup
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("catback_ancestor_benchmark").toFile();
+		backupDirectory = new File(directory, "backup");
+		File base = new File(directory, "home" + File.separator + "user" + File.separator + "documents" + File.separator + "projects");
+		for (int i = 0; i < GROUPS; i++) {
+			File group = new File(base, "group" + i + File.separator + "src");
+			for (int j = 0; j < FILES_PER_GROUP; j++) {
+				File file = new File(group, "module" + j + File.separator + "main");
+				file.mkdirs();
+				includedFiles.add(file);
+			}
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		delete(directory);
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File child : files) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	@Benchmark
+	public Map<String, BackupFile> registeredAncestors() {
+		Map<String, BackupFile> startFiles = new HashMap<String, BackupFile>();
+		Set<File> registeredFiles = new HashSet<File>();
+		for (File file : includedFiles) {
+			LoadCurrentFiles.addAncestors(file, startFiles, registeredFiles, backupDirectory);
+		}
+		return startFiles;
+	}
+
+	@Benchmark
+	public Map<String, BackupFile> climbToRoot() {
+		Map<String, BackupFile> startFiles = new HashMap<String, BackupFile>();
+		for (File file : includedFiles) {
+			File parent = file.getParentFile();
+			while (parent != null) {
+				BackupFile parentBackupFile = new BackupFile(parent, BackupFile.Type.SOURCE, backupDirectory);
+				if (!startFiles.containsKey(parentBackupFile.getCriticalPath())) {
+					startFiles.put(parentBackupFile.getCriticalPath(), parentBackupFile);
+				}
+				parent = parent.getParentFile();
+			}
+		}
+		return startFiles;
+	}
+}
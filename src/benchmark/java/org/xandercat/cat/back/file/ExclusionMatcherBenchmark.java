@@ -0,0 +1,86 @@
+package org.xandercat.cat.back.file;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xandercat.swing.file.icon.FileIconCache;
+import org.xandercat.swing.file.icon.FileIconSetFactory;
+import org.xandercat.swing.tree.CheckboxFileTree;
+import org.xandercat.swing.tree.CheckboxFileTreeFactory;
+
+/**
+ * Compares the time to look up whether a file is excluded with an ExclusionMatcher against a lookup in an excluded
+ * files CheckboxFileTree, as was done prior to v1.6.1.  Files looked up are 7 segments deep, and about half of them
+ * are within an excluded directory.
+ *
+ * @author Scott Arnold
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExclusionMatcherBenchmark {
+
+	private static final int FILES = 4096;		// power of 2, so the next file is found with a mask
+
+	@Param({ "10", "1000" })
+	public int excludedFiles;
+
+	private ExclusionMatcher exclusionMatcher;
+	private CheckboxFileTree excludedTree;
+	private File[] files = new File[FILES];
+	private int next;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(excludedFiles);
+		File root = new File(File.listRoots()[0], "home" + File.separator + "user");
+		List<File> excluded = new ArrayList<File>();
+		for (int i = 0; i < excludedFiles; i++) {
+			excluded.add(new File(root, "projects" + File.separator + "p" + (2 * i) + File.separator + "target"));
+		}
+		exclusionMatcher = new ExclusionMatcher(excluded);
+		excludedTree = CheckboxFileTreeFactory.createCheckboxFileTree(false, false,
+				new FileIconCache(FileIconSetFactory.buildIconSet(FileIconSetFactory.GLAZE)));
+		for (File file : excluded) {
+			excludedTree.selectAddFile(file, true, true);
+		}
+		for (int i = 0; i < FILES; i++) {
+			String project = "p" + random.nextInt(2 * excludedFiles);
+			String directory = random.nextBoolean()? "target" : "src";
+			files[i] = new File(root, "projects" + File.separator + project + File.separator + directory + File.separator
+					+ "main" + File.separator + "File" + i + ".java");
+		}
+	}
+
+	private File nextFile() {
+		next = (next + 1) & (FILES - 1);
+		return files[next];
+	}
+
+	@Benchmark
+	public boolean exclusionMatcher() {
+		return exclusionMatcher.isExcluded(nextFile());
+	}
+
+	@Benchmark
+	public boolean excludedTree() {
+		return excludedTree.isChecked(nextFile());
+	}
+}
@@ -0,0 +1,85 @@
+package org.xandercat.cat.back.file;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the time to sort keys with a RadixSorter against Collections.sort.  Keys are either critical paths
+ * of files several directories deep, which share long prefixes, or the names of entries in a directory listing.
+ * Each sort is of a fresh copy of the same shuffled keys.
+ *
+ * @author Scott Arnold
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class RadixSorterBenchmark {
+
+	private static final RadixSorter.KeyExtractor<String> KEY = new RadixSorter.KeyExtractor<String>() {
+		public String getKey(String item) {
+			return item;
+		}
+	};
+
+	@Param({ "1000000", "10000000" })
+	public int size;
+
+	@Param({ "paths", "names" })
+	public String keys;
+
+	private List<String> shuffledKeys;
+	private List<String> list;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(size);
+		String root = new File(File.listRoots()[0], "home" + File.separator + "user" + File.separator + "projects").getPath();
+		shuffledKeys = new ArrayList<String>(size);
+		for (int i = 0; i < size; i++) {
+			if ("paths".equals(keys)) {
+				shuffledKeys.add(root + File.separator + "project" + random.nextInt(100) + File.separator + "src"
+						+ File.separator + "module" + random.nextInt(1000) + File.separator + "File" + i + ".java");
+			} else {
+				shuffledKeys.add(Integer.toString(random.nextInt(size), 36) + "_" + i + (random.nextBoolean()? ".txt" : ".jpg"));
+			}
+		}
+		Collections.shuffle(shuffledKeys, random);
+	}
+
+	@Setup(Level.Invocation)
+	public void copyKeys() {
+		list = new ArrayList<String>(shuffledKeys);
+	}
+
+	@Benchmark
+	public List<String> radixSorter() {
+		RadixSorter.sort(list, KEY);
+		return list;
+	}
+
+	@Benchmark
+	public List<String> collectionsSort() {
+		Collections.sort(list);
+		return list;
+	}
+}
@@ -27,6 +27,9 @@ public class CatBackup16 implements Serializable {
 	
 	private static final long serialVersionUID = 2023031901L;
 	
+	public static final int DEFAULT_SCAN_THREADS = 4;
+	public static final int DEFAULT_SORT_MEMORY = 64;	// megabytes
+	
 	private String id;
 	
 	@InputField(title="Backup Name")
@@ -78,6 +81,37 @@ public class CatBackup16 implements Serializable {
 	@ValidateRequired
 	private Integer errorsUntilBackupHalt = Integer.valueOf(10);
 	
+	@InputField(title="Inspection Threads")
+	@ValidateInteger(min=1)
+	@ValidateRequired
+	private Integer scanThreads = Integer.valueOf(DEFAULT_SCAN_THREADS);
+	
+	@InputField(title="Inspection Threads Per Device")
+	private String deviceThreads;	// location=threads separated by semicolons; see DeviceConcurrency
+	
+	@InputField(title="Sort Memory (MB)")
+	@ValidateInteger(min=1)
+	@ValidateRequired
+	private Integer sortMemory = Integer.valueOf(DEFAULT_SORT_MEMORY);
+	
+	@InputField(title="Watch For Changes")
+	private boolean watchForChanges;
+	
+	@InputField(title="Excluded Patterns")
+	private String excludedPatterns;	// patterns separated by semicolons; see ExclusionRule
+	
+	@InputField(title="Compress Backup Metadata")
+	private boolean compressMetadata;	// see MetadataFiles
+	
+	@InputField(title="Compare File Contents")
+	private boolean compareContents;	// see ContentDigester
+	
+	@InputField(title="Compare File Identities")
+	private boolean compareFileIdentities;	// see FileIdentityChangeDetector
+	
+	@InputField(title="Detect Renamed Files")
+	private boolean detectRenamedFiles;	// see RenamedFileDetector
+	
 	public CatBackup16() {
 		this(UUID.randomUUID().toString());	
 	}
@@ -181,6 +215,78 @@ public class CatBackup16 implements Serializable {
 		this.errorsUntilBackupHalt = errorsUntilBackupHalt;
 	}
 
+	public Integer getScanThreads() {
+		return scanThreads;
+	}
+
+	public void setScanThreads(Integer scanThreads) {
+		this.scanThreads = scanThreads;
+	}
+
+	public String getDeviceThreads() {
+		return deviceThreads;
+	}
+
+	public void setDeviceThreads(String deviceThreads) {
+		this.deviceThreads = deviceThreads;
+	}
+
+	public Integer getSortMemory() {
+		return sortMemory;
+	}
+
+	public void setSortMemory(Integer sortMemory) {
+		this.sortMemory = sortMemory;
+	}
+
+	public boolean isWatchForChanges() {
+		return watchForChanges;
+	}
+
+	public void setWatchForChanges(boolean watchForChanges) {
+		this.watchForChanges = watchForChanges;
+	}
+
+	public String getExcludedPatterns() {
+		return excludedPatterns;
+	}
+
+	public void setExcludedPatterns(String excludedPatterns) {
+		this.excludedPatterns = excludedPatterns;
+	}
+
+	public boolean isCompressMetadata() {
+		return compressMetadata;
+	}
+
+	public void setCompressMetadata(boolean compressMetadata) {
+		this.compressMetadata = compressMetadata;
+	}
+
+	public boolean isCompareContents() {
+		return compareContents;
+	}
+
+	public void setCompareContents(boolean compareContents) {
+		this.compareContents = compareContents;
+	}
+
+	public boolean isCompareFileIdentities() {
+		return compareFileIdentities;
+	}
+
+	public void setCompareFileIdentities(boolean compareFileIdentities) {
+		this.compareFileIdentities = compareFileIdentities;
+	}
+
+	public boolean isDetectRenamedFiles() {
+		return detectRenamedFiles;
+	}
+
+	public void setDetectRenamedFiles(boolean detectRenamedFiles) {
+		this.detectRenamedFiles = detectRenamedFiles;
+	}
+
 	public Set<File> getIncludedFiles() {
 		return Collections.unmodifiableSet(includedFiles);
 	}
@@ -288,5 +394,13 @@ public class CatBackup16 implements Serializable {
 		if (errorsUntilBackupHalt == null) {
 			errorsUntilBackupHalt = Integer.valueOf(10);
 		}
+		// scanThreads was added in v1.6.1; need to initialize it for older loads
+		if (scanThreads == null) {
+			scanThreads = Integer.valueOf(DEFAULT_SCAN_THREADS);
+		}
+		// sortMemory was added in v1.6.1; need to initialize it for older loads
+		if (sortMemory == null) {
+			sortMemory = Integer.valueOf(DEFAULT_SORT_MEMORY);
+		}
 	}
 }
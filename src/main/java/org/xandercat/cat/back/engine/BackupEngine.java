@@ -7,8 +7,8 @@ import java.io.File;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
@@ -26,16 +26,33 @@ import org.xandercat.cat.back.engine.worklet.CopyFiles;
 import org.xandercat.cat.back.engine.worklet.LoadBackupFiles;
 import org.xandercat.cat.back.engine.worklet.LoadCurrentFiles;
 import org.xandercat.cat.back.engine.worklet.MoveFiles;
+import org.xandercat.cat.back.engine.worklet.RelocateFiles;
 import org.xandercat.cat.back.file.BackupFile;
-import org.xandercat.cat.back.file.BackupPathGenerator;
+import org.xandercat.cat.back.file.BackupFileIndex;
+import org.xandercat.cat.back.file.ChangeDetector;
+import org.xandercat.cat.back.file.ContentDigester;
+import org.xandercat.cat.back.file.DeviceConcurrency;
+import org.xandercat.cat.back.file.ExclusionMatcher;
+import org.xandercat.cat.back.file.ExclusionRule;
+import org.xandercat.cat.back.file.FileChangeLog;
+import org.xandercat.cat.back.file.FileIdentity;
+import org.xandercat.cat.back.file.FileIdentityChangeDetector;
 import org.xandercat.cat.back.file.FileListData;
+import org.xandercat.cat.back.file.FileListJournal;
+import org.xandercat.cat.back.file.FileListReader;
+import org.xandercat.cat.back.file.FileListShards;
+import org.xandercat.cat.back.file.FileListWriter;
+import org.xandercat.cat.back.file.LengthAndTimeChangeDetector;
+import org.xandercat.cat.back.file.MemoryBudget;
+import org.xandercat.cat.back.file.MetadataFiles;
+import org.xandercat.cat.back.file.RenamedFile;
+import org.xandercat.cat.back.file.SourceScanData;
+import org.xandercat.cat.back.file.TimestampPrecision;
 import org.xandercat.swing.app.ApplicationFrame;
 import org.xandercat.swing.app.CloseListener;
 import org.xandercat.swing.datetime.TimeDuration;
 import org.xandercat.swing.dialog.ProgressMonitor;
-import org.xandercat.swing.file.FileManager;
 import org.xandercat.swing.file.icon.FileIconCache;
-import org.xandercat.swing.tree.CheckboxFileTree;
 import org.xandercat.swing.worker.SwingWorkletManager;
 
 public class BackupEngine extends SwingWorker<Void, BackupEngineProgress> implements SwingWorkletManager<String>, CloseListener {
@@ -45,7 +62,11 @@ public class BackupEngine extends SwingWorker<Void, BackupEngineProgress> implem
 	
 	public static final String LATEST_BACKUP_DIR_NAME = "latest";
 	public static final String LATEST_FILE_LIST_FILE_NAME = ".catback_filelist";
+	public static final String LATEST_FILE_LIST_JOURNAL_FILE_NAME = ".catback_filelist_journal";
+	public static final String SOURCE_LIST_FILE_NAME = ".catback_sourcelist";
+	public static final String SOURCE_FILE_LIST_FILE_NAME = ".catback_sourcelist_files";
 	public static final String INCREMENTAL_SIZE_FILE_NAME = ".catback_isize";
+	public static final String SORT_DIR_NAME = ".catback_sort";
 	public static final String INCREMENTAL_BACKUP_DIR_NAME_DATE_PATTERN = "yyyyMMdd";
 	public static final String INCREMENTAL_BACKUP_DIR_NAME_REGEX_PATTERN = "[\\d]{8}|[\\d]{8}[-][\\d]{1,4}";
 	public static final String STATS_FILENAME = "backup.txt";
@@ -55,12 +76,19 @@ public class BackupEngine extends SwingWorker<Void, BackupEngineProgress> implem
 	private String backupName;
 	private List<BackupEngineListener> listeners;
 	private FileIconCache fileIconCache;
-	private CheckboxFileTree excludedTree;
+	private ExclusionMatcher exclusionMatcher;
+	private String excludedPatterns;
 	private Set<File> currentFilesAndDirectories;
 	private File baseBackupDirectory;			// base backup directory
 	private File backupDirectory;				// backup directory where latest backup is stored
 	private File incrementalBackupDirectory;	// backup directory where incremental backup is stored
-	private File latestFileListFile;            // file that stores the List<BackupFile> for files in latest dir
+	private File latestFileListFile;            // file that stores the manifest of the file list shards for files in latest dir
+	private File latestFileListJournalFile;     // file that records changes to latest dir not yet saved to latestFileListFile
+	private File sourceListFile;                // file that stores when files were last inspected
+	private File sourceFileListFile;            // file that stores the source files found on the last inspection
+	private File changeLogFile;                 // file that records source changes while files are being watched
+	private String selectionKey;                // key for the included and excluded files of the backup
+	private boolean watchForChanges;
 	private boolean showMoveCopyDialog;
 	private boolean limitIncrementalBackups;
 	private TimeDuration keepAtLeastTime;
@@ -71,14 +99,22 @@ public class BackupEngine extends SwingWorker<Void, BackupEngineProgress> implem
 	private boolean copyCancelled;
 	private boolean scanLastBackup;
 	private int errorsUntilHalt;
+	private int scanThreads;
+	private String deviceThreads;
+	private int sortMemory;
 	private ProgressMonitor progressMonitor;
 	private boolean runQuiet;
 	private BackupStats stats;
 	private BackupStat stat = new BackupStat();
 	private LoadBackupFiles loadBackupFiles;
 	private MoveFiles moveFiles;
+	private RelocateFiles relocateFiles;
 	private CopyFiles copyFiles;
 	private long backupSize;  // used to hold size of backup to be saved in backup stat when done
+	private MetadataFiles metadataFiles;		// saves (and optionally compresses) backup metadata files
+	private boolean compareContents;
+	private boolean compareFileIdentities;
+	private boolean detectRenamedFiles;
 	private boolean dryRun;
 	private Long speedFactor;
 	private boolean active;
@@ -86,20 +122,29 @@ public class BackupEngine extends SwingWorker<Void, BackupEngineProgress> implem
 	public BackupEngine(ApplicationFrame parent, 
 			CatBackup16 backup, 
 			FileIconCache fileIconCache, 
-			CheckboxFileTree excludedTree,
 			BackupStats stats) {
 		this.parent = parent;
 		this.stats = stats;
 		this.backupId = backup.getId();
 		this.backupName = backup.getName();
 		this.errorsUntilHalt = backup.getErrorsUntilBackupHalt().intValue();
+		this.scanThreads = backup.getScanThreads().intValue();
+		this.deviceThreads = backup.getDeviceThreads();
+		this.sortMemory = backup.getSortMemory().intValue();
 		this.fileIconCache = fileIconCache;
-		this.excludedTree = excludedTree;
+		this.exclusionMatcher = new ExclusionMatcher(backup.getExcludedFiles());
+		this.excludedPatterns = backup.getExcludedPatterns();
 		this.currentFilesAndDirectories = backup.getIncludedFiles();
 		parent.addCloseListener(this);
 		this.baseBackupDirectory = backup.getBackupDirectory();
 		this.backupDirectory = new File(baseBackupDirectory.getAbsolutePath() + File.separator + LATEST_BACKUP_DIR_NAME);
 		this.latestFileListFile = new File(this.baseBackupDirectory, LATEST_FILE_LIST_FILE_NAME);
+		this.latestFileListJournalFile = new File(this.baseBackupDirectory, LATEST_FILE_LIST_JOURNAL_FILE_NAME);
+		this.sourceListFile = new File(this.baseBackupDirectory, SOURCE_LIST_FILE_NAME);
+		this.sourceFileListFile = new File(this.baseBackupDirectory, SOURCE_FILE_LIST_FILE_NAME);
+		this.changeLogFile = FileChangeLog.getLogFile(backupId);
+		this.selectionKey = FileChangeLog.generateSelectionKey(backup.getIncludedFiles(), backup.getExcludedFiles(), excludedPatterns);
+		this.watchForChanges = backup.isWatchForChanges();
 		SimpleDateFormat incDirFormatter = new SimpleDateFormat(INCREMENTAL_BACKUP_DIR_NAME_DATE_PATTERN);
 		String incDir = incDirFormatter.format(new java.util.Date());
 		this.incrementalBackupDirectory = new File(baseBackupDirectory.getAbsolutePath() + File.separator + incDir);
@@ -115,6 +160,10 @@ public class BackupEngine extends SwingWorker<Void, BackupEngineProgress> implem
 		this.keepNoMoreThanBytes = backup.getKeepNoMoreThanBytes().getBytes();
 		this.leaveCopyWindowOpen = backup.isAlwaysLeaveCopyWindowOpen();
 		this.scanLastBackup = backup.isScanLastBackup();
+		this.metadataFiles = new MetadataFiles(backup.isCompressMetadata());
+		this.compareContents = backup.isCompareContents();
+		this.compareFileIdentities = backup.isCompareFileIdentities();
+		this.detectRenamedFiles = backup.isDetectRenamedFiles();
 	}
 	
 	public void addBackupEngineListener(BackupEngineListener listener) {
@@ -161,6 +210,11 @@ public class BackupEngine extends SwingWorker<Void, BackupEngineProgress> implem
 		} else {
 			log.info("Backup started: " + this.backupName);
 		}
+		FileListJournal fileListJournal = null;
+		ContentDigester contentDigester = null;
+		DeviceConcurrency deviceConcurrency = new DeviceConcurrency(scanThreads);
+		MemoryBudget sortMemoryBudget = new MemoryBudget(sortMemory * MemoryBudget.BYTES_PER_MEGABYTE);
+		File sortDirectory = createSortDirectory();
 		try {
 		
 			this.stat.setBackupId(backupId);
@@ -168,69 +222,152 @@ public class BackupEngine extends SwingWorker<Void, BackupEngineProgress> implem
 			this.stat.setDateStarted(new Date());
 			this.stat.setIncrementalBackupDirectory(incrementalBackupDirectory);
 			
-			LoadCurrentFiles loadCurrentFiles = new LoadCurrentFiles(this, excludedTree, currentFilesAndDirectories, backupDirectory);
+			LoadCurrentFiles loadCurrentFiles = new LoadCurrentFiles(this, exclusionMatcher, currentFilesAndDirectories, backupDirectory);
+			deviceConcurrency.setThreadOverrides(deviceThreads);
+			loadCurrentFiles.setDeviceConcurrency(deviceConcurrency);
+			loadCurrentFiles.setSortMemory(sortMemoryBudget, sortDirectory);
+			List<ExclusionRule> exclusionRules = ExclusionRule.compile(excludedPatterns);
+			loadCurrentFiles.setExclusionRules(exclusionRules);
 			if (dryRun) {
 				loadCurrentFiles.enableDryRun(DRY_RUN_PREFIX, speedFactor);
 			}
+			ChangeDetector changeDetector = createChangeDetector();
+			loadCurrentFiles.setChangeDetector(changeDetector);
+			long scanStarted = System.currentTimeMillis();
+			boolean changedFilesOnly = false;
+			if (watchForChanges) {
+				changedFilesOnly = setChangedFiles(loadCurrentFiles);
+				if (!dryRun) {
+					// source files are written as they are inspected (after the previous source files are loaded)
+					try {
+						loadCurrentFiles.setSourceFileListWriter(new FileListWriter(metadataFiles.openOutput(sourceFileListFile)));
+					} catch (IOException e) {
+						log.warn("Unable to write source file list to " + sourceFileListFile.getAbsolutePath(), e);
+					}
+				}
+			}
 			publishStep(1, loadCurrentFiles);
-			log.info("Running Step 1 - Inspecting files.");
-			List<BackupFile> currentFiles = loadCurrentFiles.execute();		
-			this.stat.setTotalFiles(loadCurrentFiles.getFilesCount());
+			if (changedFilesOnly) {
+				log.info("Running Step 1 - Inspecting files. (Inspecting changed locations only.)");
+			} else {
+				log.info("Running Step 1 - Inspecting files.");
+			}
+			// current files are inspected as they are compared in step 3
+			Iterator<BackupFile> currentFiles = loadCurrentFiles.execute();
 			
 			List<BackupFile> backupFiles = null;
+			boolean backupFilesSaved = false;
 			if (!scanLastBackup) {
 				try {
-					FileListData fileListData = FileManager.loadObject(latestFileListFile, FileListData.class);
+					FileListData fileListData = FileListJournal.loadFileListData(latestFileListFile, latestFileListJournalFile, backupDirectory);
 					backupFiles = fileListData.getBackupFiles();
 					this.backupSize = fileListData.getBackupSize();
+					backupFilesSaved = true;	// journal, if any, is kept; this backup's changes are appended to it
 				} catch (Exception e) {
 					log.warn("Unable to load latest file list from " + latestFileListFile.getAbsolutePath());
 					backupFiles = null;
 				}
 			}
 			if (isCancelled()) {
+				closeLoadFiles(loadCurrentFiles);
 				return null;
 			}
+			Iterator<BackupFile> previousFiles = null;
 			if (scanLastBackup || backupFiles == null) {
 				if (scanLastBackup) {
 					log.info("Running Step 2 - Inspecting Last Backup.");
 				} else {
 					log.info("Running Step 2 - Inspecting Last Backup. (Step cannot be skipped on this run; metadata from last backup unavailable.)");
 				}
-				this.loadBackupFiles = new LoadBackupFiles(this, excludedTree, backupDirectory, stats.getLatestStat());
+				this.loadBackupFiles = new LoadBackupFiles(this, exclusionMatcher, backupDirectory, stats.getLatestStat());
+				loadBackupFiles.setDeviceConcurrency(deviceConcurrency);	// shared, so source and destination on one device share its limit
+				loadBackupFiles.setSortMemory(sortMemoryBudget, sortDirectory);
 				if (dryRun) {
 					loadBackupFiles.enableDryRun(DRY_RUN_PREFIX, speedFactor);
 				}
 				publishStep(2, loadBackupFiles);
-				backupFiles = loadBackupFiles.execute();
-				this.backupSize = loadBackupFiles.getFilesSize();
+				// files in the last backup are inspected as they are compared in step 3
+				previousFiles = loadBackupFiles.execute();
 			} else {
 				log.info("Skipping Step 2 - Inspecting Last Backup. (Using metadata from last backup.)");
+				previousFiles = backupFiles.iterator();
 			}
 			if (isCancelled()) {
+				closeLoadFiles(loadCurrentFiles);
 				return null;
-			}			
-			CompareFiles compareFiles = new CompareFiles(this, currentFiles, backupFiles);
-			if (dryRun) {
-				loadCurrentFiles.enableDryRun(DRY_RUN_PREFIX, speedFactor);
+			}
+			BackupStat latestStat = stats.getLatestStat();
+			long estimatedCurrentFiles = (latestStat == null)? -1 : latestStat.getTotalFiles();
+			long estimatedPreviousFiles = (backupFiles == null)? estimatedCurrentFiles : backupFiles.size();
+			long progressMaximum = (estimatedCurrentFiles < 0)? -1 : estimatedCurrentFiles + estimatedPreviousFiles;
+			CompareFiles compareFiles = new CompareFiles(this, currentFiles, previousFiles, progressMaximum, backupDirectory);
+			// last modified times are compared as precisely as the source and backup file stores keep them
+			TimestampPrecision timestampPrecision = new TimestampPrecision(currentFilesAndDirectories, baseBackupDirectory, !dryRun);
+			this.stat.setLastModifiedPrecision(timestampPrecision.getMaximumPrecision());
+			compareFiles.setTimestampPrecision(timestampPrecision);
+			compareFiles.setChangeDetector(changeDetector);
+			compareFiles.setDetectRenamedFiles(detectRenamedFiles);
+			if (compareContents) {
+				// files are read on at most as many threads as a device is inspected with
+				contentDigester = new ContentDigester(scanThreads);
+				compareFiles.setContentDigester(contentDigester, (latestStat == null || latestStat.getDateStarted() == null)? -1 : latestStat.getDateStarted().getTime());
 			}
 			publishStep(3, compareFiles);
 			if (showMoveCopyDialog && !runQuiet) {
 				compareFiles.enableShowMoveCopyDialog(parent, fileIconCache);
 			}
 			log.info("Running Step 3 - Processing/Comparing Files.");
-			if (!compareFiles.execute().booleanValue()) {
-				this.stat.setBackupStatus(BackupStatus.CANCELLED_BEFORE);
-				cancel(true);
-				return null;
+			boolean proceed = false;
+			try {
+				proceed = compareFiles.execute().booleanValue();
+			} finally {
+				closeLoadFiles(loadCurrentFiles);
 			}
+			if (contentDigester != null) {
+				log.info("Compared contents of " + contentDigester.getFilesDigested() + " files and quick fingerprints of " + contentDigester.getFilesFingerprinted() 
+						+ " files (" + contentDigester.getBytesDigested() + " bytes); " + compareFiles.getFilesUnchangedByContent() + " files with changed last modified times are unchanged");
+				this.stat.setBytesDigested(contentDigester.getBytesDigested());
+				this.stat.setFilesUnchangedByDigest(compareFiles.getFilesUnchangedByContent());
+			}
+			log.debug("Sorting directory listings used at most " + sortMemoryBudget.getPeakReserved() + " of " + sortMemoryBudget.getBudget() 
+					+ " bytes of sort memory" + ((sortMemoryBudget.getRefusals() > 0)? "; listings were written to disk" : ""));
 			if (isCancelled()) {
 				return null;
 			}
+			if (loadBackupFiles != null) {
+				backupFiles = loadBackupFiles.getBackupFiles();
+				this.backupSize = loadBackupFiles.getFilesSize();
+			}
+			if (backupFiles instanceof BackupFileIndex) {
+				log.debug("Latest backup file index holds " + backupFiles.size() + " files in " + ((BackupFileIndex) backupFiles).getMemoryUsage() + " bytes");
+			}
+			this.stat.setTotalFiles(loadCurrentFiles.getFilesCount());
+			if (exclusionRules.size() > 0) {
+				List<ExclusionStat> exclusionStats = new ArrayList<ExclusionStat>();
+				for (ExclusionRule exclusionRule : exclusionRules) {
+					log.info("Exclusion pattern " + exclusionRule.getPattern() + " excluded " + exclusionRule.getEntriesExcluded() 
+							+ " files/directories (" + exclusionRule.getBytesExcluded() + " bytes in files)");
+					exclusionStats.add(new ExclusionStat(exclusionRule.getPattern(), exclusionRule.getEntriesExcluded(), exclusionRule.getBytesExcluded()));
+				}
+				this.stat.setExclusionStats(exclusionStats);
+			}
+			if (loadCurrentFiles.getSourceFileListFingerprint() != null) {
+				try {
+					metadataFiles.saveObject(sourceListFile, new SourceScanData(loadCurrentFiles.getSourceFileListFingerprint(), scanStarted, selectionKey));
+				} catch (Exception e) {
+					log.warn("Unable to save source file list to " + sourceListFile.getAbsolutePath(), e);
+				}
+			}
+			if (!proceed) {
+				this.stat.setBackupStatus(BackupStatus.CANCELLED_BEFORE);
+				cancel(true);
+				return null;
+			}
 			long bytesToMove = compareFiles.getBytesToMove();
 			long bytesToCopy = compareFiles.getBytesToCopy();
 			List<BackupFile> filesToMove = compareFiles.getFilesToMove();
 			List<File> filesToCopy = compareFiles.getFilesToCopy();
+			List<RenamedFile> renamedFiles = compareFiles.getRenamedFiles();
 			
 			if (limitIncrementalBackups) {
 				ApplyIncrementalBackupLimits applyBackupLimits = new ApplyIncrementalBackupLimits(this, 
@@ -238,6 +375,7 @@ public class BackupEngine extends SwingWorker<Void, BackupEngineProgress> implem
 				if (dryRun) {
 					applyBackupLimits.enableDryRun(DRY_RUN_PREFIX, speedFactor);
 				}
+				applyBackupLimits.setMetadataFiles(metadataFiles);
 				publishStep(4, applyBackupLimits);
 				log.info("Running Step 4 - Removing Expired Incremental Backups.");
 				applyBackupLimits.execute();
@@ -248,13 +386,29 @@ public class BackupEngine extends SwingWorker<Void, BackupEngineProgress> implem
 				return null;
 			}			
 			if (!dryRun) {
-				latestFileListFile.delete();  // file contents no longer valid once move/copy steps start
+				// from here on, every move and copy is journaled so the file list remains valid even if the backup is interrupted
+				// the file list is saved in shards by included root, so unchanged roots are not saved again
+				FileListShards fileListShards = FileListShards.forIncludedFiles(currentFilesAndDirectories);
+				fileListJournal = new FileListJournal(latestFileListFile, latestFileListJournalFile, backupDirectory, 
+						new FileListData(backupFiles, backupSize), fileListShards);
+				fileListJournal.setMetadataFiles(metadataFiles);
+				if (!backupFilesSaved) {
+					fileListJournal.checkpoint();
+				}
+			}
+			if (compareFiles.getFilesToUpdate().size() > 0) {
+				updateUnchangedFiles(compareFiles.getFilesToUpdate(), fileListJournal);
+			}
+			if (compareFiles.getFilesToRecord().size() > 0) {
+				recordUnchangedFiles(compareFiles.getFilesToRecord(), fileListJournal);
 			}
 			if (filesToMove.size() > 0) {
 				this.moveFiles = new MoveFiles(this, filesToMove, filesToCopy, incrementalBackupDirectory);
 				if (dryRun) {
 					moveFiles.enableDryRun(DRY_RUN_PREFIX, speedFactor);
 				}
+				moveFiles.setFileListJournal(fileListJournal);
+				moveFiles.setMetadataFiles(metadataFiles);
 				publishStep(5, moveFiles);
 				log.info("Running Step 5 - Moving Old Files.");
 				moveFiles.execute();
@@ -265,6 +419,32 @@ public class BackupEngine extends SwingWorker<Void, BackupEngineProgress> implem
 			if (isCancelled()) {
 				return null;
 			}
+			if (renamedFiles.size() > 0) {
+				// backups of renamed files are now in the incremental backup directory; they are copied from there
+				this.relocateFiles = new RelocateFiles(this, renamedFiles, incrementalBackupDirectory, backupDirectory);
+				if (dryRun) {
+					relocateFiles.enableDryRun(DRY_RUN_PREFIX, speedFactor);
+				}
+				relocateFiles.setFileListJournal(fileListJournal);
+				publishStep(6, relocateFiles);
+				log.info("Running Step 6 - Relocating Renamed Files.");
+				relocateFiles.execute();
+				this.backupSize += relocateFiles.getFilesSize();
+				log.info("Relocated " + relocateFiles.getFilesRelocated() + " renamed files (" + relocateFiles.getFilesSize() + " bytes)");
+				for (BackupFile currentFile : relocateFiles.getRelocationFailures()) {
+					// renamed files that could not be relocated are copied after all
+					filesToCopy.add(currentFile.getFile());
+					bytesToCopy += currentFile.getLength();
+					if (currentFile.getDigest() != null || currentFile.getFileIdentity() != null) {
+						compareFiles.getRecordedFilesToCopy().put(currentFile.getCriticalPath(), currentFile);
+					}
+				}
+			} else {
+				log.info("Skipping Step 6 - Relocating Renamed Files.  (No renamed files were detected.)");
+			}
+			if (isCancelled()) {
+				return null;
+			}
 			if (filesToCopy.size() > 0) {
 				this.copyFiles = new CopyFiles(this, filesToCopy, bytesToCopy, 
 						backupDirectory, fileIconCache, errorsUntilHalt);
@@ -272,8 +452,11 @@ public class BackupEngine extends SwingWorker<Void, BackupEngineProgress> implem
 				if (dryRun) {
 					this.copyFiles.enableDryRun(DRY_RUN_PREFIX, speedFactor);
 				}
-				publishStep(6, copyFiles);
-				log.info("Running Step 6 - Copying New/Changed Files.");
+				this.copyFiles.setFileListJournal(fileListJournal);
+				this.copyFiles.setRecordedFiles(compareFiles.getRecordedFilesToCopy());
+				this.copyFiles.setContentDigester(contentDigester);
+				publishStep(7, copyFiles);
+				log.info("Running Step 7 - Copying New/Changed Files.");
 				boolean haltedDueToErrors = copyFiles.execute();
 				this.resolutionRequired = copyFiles.isResolutionRequired();
 				this.copyCancelled = copyFiles.isCopyCancelled() || haltedDueToErrors;
@@ -281,36 +464,195 @@ public class BackupEngine extends SwingWorker<Void, BackupEngineProgress> implem
 					this.backupSize += copyFiles.getFilesSize();
 				}
 			} else {
-				log.info("Skipping Step 6 - Copying New/Changed Files.  (No files need to be copied.)");
+				log.info("Skipping Step 7 - Copying New/Changed Files.  (No files need to be copied.)");
 			}
 		
-			// finally, save list of backup files to latest directory; 
+		} catch (Exception e) {
+			log.error("Backup did not complete normally.", e);
+			this.stat.setBackupStatus(BackupStatus.ERROR);
+		} finally {
+			deviceConcurrency.shutdown();
+			if (contentDigester != null) {
+				contentDigester.shutdown();
+			}
+			deleteSortDirectory(sortDirectory);
+			// finally, save list of backup files to latest directory, even if the backup did not complete; 
 			// this allows step 2 to be bypassed on next backup if scan last backup flag is off
-			if (!isCancelled() && !copyCancelled) {
-				log.info("Finishing - Saving Metadata For Completed Backup");
+			if (fileListJournal != null) {
+				log.info("Finishing - Saving Metadata For Backup");
 				publish(new BackupEngineProgress("Finishing", "Saving backup file list"));
-				backupFiles.removeAll(filesToMove);
-				for (File file : filesToCopy) {
-					File gfile = new File(backupDirectory.getAbsolutePath() + File.separator + BackupPathGenerator.generateCriticalPath(file));
-					backupFiles.add(new BackupFile(gfile, BackupFile.Type.DESTINATION, backupDirectory));
-				}
-				Collections.sort(backupFiles);
-				if (!dryRun) {
-					FileManager.saveObject(latestFileListFile, new FileListData(backupFiles, backupSize));
+				try {
+					this.backupSize = fileListJournal.commit().getBackupSize();
+				} catch (Exception e) {
+					log.error("Unable to save backup file list.", e);
 				}
 			}
-			
-		} catch (Exception e) {
-			log.error("Backup did not complete normally.", e);
-			this.stat.setBackupStatus(BackupStatus.ERROR);
 		}
 		
 		return null;
 	}
 
+	/**
+	 * Creates the change detector that decides which files have changed.  Source file identities are only 
+	 * compared if they can be read on this platform and the last backup is not scanned, as a scan of the last 
+	 * backup cannot find the identities recorded with it.
+	 * 
+	 * @return		change detector
+	 */
+	private ChangeDetector createChangeDetector() {
+		if (compareFileIdentities) {
+			if (!FileIdentity.isSupported()) {
+				log.info("File identities cannot be read on this platform; files are compared by length and last modified time.");
+			} else if (scanLastBackup) {
+				log.info("File identities are not compared when the previous backup is fully scanned; files are compared by length and last modified time.");
+			} else {
+				return new FileIdentityChangeDetector();
+			}
+		}
+		return new LengthAndTimeChangeDetector();
+	}
+
+	/**
+	 * Update the backups of the given current files, whose contents are unchanged though their last modified 
+	 * times are not, to have the last modified times of the current files, and record them with their 
+	 * content digests, quick fingerprints and source file identities.  Nothing is moved to the incremental 
+	 * backup directory, as nothing but the last modified time changes.
+	 * 
+	 * @param currentFiles			current files of unchanged contents, with digests
+	 * @param fileListJournal		latest backup file list journal, or null for a dry run
+	 */
+	private void updateUnchangedFiles(List<BackupFile> currentFiles, FileListJournal fileListJournal) {
+		if (fileListJournal == null) {
+			log.info(DRY_RUN_PREFIX + "Skipping update of " + currentFiles.size() + " backed up files with unchanged contents");
+			return;
+		}
+		for (BackupFile currentFile : currentFiles) {
+			File file = new File(backupDirectory, currentFile.getCriticalPath());
+			if (!file.setLastModified(currentFile.getLastModified())) {
+				log.warn("Unable to update last modified time of " + file.getAbsolutePath());
+				continue;
+			}
+			BackupFile backupFile = new BackupFile(file, BackupFile.Type.DESTINATION, backupDirectory);
+			if (backupFile.getLength() == currentFile.getLength()) {
+				backupFile.setDigest(currentFile.getDigest());
+				backupFile.setQuickFingerprint(currentFile.getQuickFingerprint());
+				backupFile.setFileIdentity(currentFile.getFileIdentity());
+			}
+			try {
+				fileListJournal.fileAdded(backupFile);
+			} catch (IOException e) {
+				log.warn("Unable to record update of " + file.getAbsolutePath() + " to file list journal", e);
+			}
+		}
+	}
+
+	/**
+	 * Record the given backups of unchanged files with their updated content digests, quick fingerprints and 
+	 * source file identities.  The backups themselves are not touched.
+	 * 
+	 * @param backupFiles			backups of unchanged files, as they are to be recorded
+	 * @param fileListJournal		latest backup file list journal, or null for a dry run
+	 */
+	private void recordUnchangedFiles(List<BackupFile> backupFiles, FileListJournal fileListJournal) {
+		if (fileListJournal == null) {
+			log.info(DRY_RUN_PREFIX + "Skipping record of " + backupFiles.size() + " backed up files with unchanged contents");
+			return;
+		}
+		log.info("Recording " + backupFiles.size() + " backed up files with unchanged contents");
+		try {
+			fileListJournal.filesUpdated(backupFiles);
+		} catch (IOException e) {
+			log.warn("Unable to record updates of unchanged files to file list journal", e);
+		}
+	}
+
+	/**
+	 * Creates the directory for sorted runs of directory listings that do not fit in sort memory.  Runs 
+	 * are kept on the backup drive, as it is sized to hold the backup; for a dry run, or if the directory 
+	 * cannot be created, the default temporary file directory is used instead.  Any runs left from a 
+	 * backup that did not finish are deleted.
+	 * 
+	 * @return		directory for sorted runs, or null for the default temporary file directory
+	 */
+	private File createSortDirectory() {
+		if (dryRun) {
+			return null;
+		}
+		File sortDirectory = new File(baseBackupDirectory, SORT_DIR_NAME);
+		deleteSortDirectory(sortDirectory);
+		if (!sortDirectory.mkdir()) {
+			log.warn("Unable to create sort directory " + sortDirectory.getAbsolutePath() + "; using default temporary directory");
+			return null;
+		}
+		return sortDirectory;
+	}
+	
+	private static void deleteSortDirectory(File sortDirectory) {
+		if (sortDirectory != null && sortDirectory.isDirectory()) {
+			File[] runFiles = sortDirectory.listFiles();
+			if (runFiles != null) {
+				for (File runFile : runFiles) {
+					runFile.delete();
+				}
+			}
+			sortDirectory.delete();
+		}
+	}
+	
+	/**
+	 * Sets the changed files on the given worklet if the source files from the last inspection are available 
+	 * and all changes since the last inspection were recorded in the file change log.
+	 * 
+	 * @param loadCurrentFiles		worklet for step 1
+	 * 
+	 * @return						whether or not only changed files need to be inspected
+	 */
+	private boolean setChangedFiles(LoadCurrentFiles loadCurrentFiles) {
+		if (!sourceListFile.exists()) {
+			return false;
+		}
+		SourceScanData previousScan = null;
+		try {
+			previousScan = MetadataFiles.loadObject(sourceListFile, SourceScanData.class);
+		} catch (Exception e) {
+			log.warn("Unable to load source file list from " + sourceListFile.getAbsolutePath());
+			return false;
+		}
+		if (previousScan == null || !selectionKey.equals(previousScan.getSelectionKey())) {
+			log.info("Source file list is not for the current selection of files; all files will be inspected.");
+			return false;
+		}
+		Set<File> changedFiles = FileChangeLog.getChangedFiles(changeLogFile, selectionKey, previousScan.getScanStarted());
+		if (changedFiles == null) {
+			log.info("Changes since the last inspection were not fully recorded; all files will be inspected.");
+			return false;
+		}
+		List<BackupFile> previousFiles = null;
+		try {
+			previousFiles = FileListReader.load(sourceFileListFile, backupDirectory, previousScan.getSourceFilesFingerprint()).getBackupFiles();
+		} catch (Exception e) {
+			log.warn("Unable to load source file list from " + sourceFileListFile.getAbsolutePath() + "; all files will be inspected.");
+			return false;
+		}
+		log.info(changedFiles.size() + " locations changed since the last inspection.");
+		loadCurrentFiles.setChangedFiles(previousFiles, changedFiles);
+		return true;
+	}
+	
+	/**
+	 * Stops any inspection of files still in progress for steps 1 and 2.
+	 */
+	private void closeLoadFiles(LoadCurrentFiles loadCurrentFiles) {
+		loadCurrentFiles.close();
+		loadCurrentFiles.closeSourceFileList();
+		if (loadBackupFiles != null) {
+			loadBackupFiles.close();
+		}
+	}
+	
 	private void publishStep(int stepNumber, BackupEngineWorklet<?> worklet) {
 		String dryRunPrefix = dryRun? DRY_RUN_PREFIX : "";
-		publish(new BackupEngineProgress(dryRunPrefix + "Step " + stepNumber + "/6: " + worklet.getTitle() + "...", null));
+		publish(new BackupEngineProgress(dryRunPrefix + "Step " + stepNumber + "/7: " + worklet.getTitle() + "...", null));
 	}
 	
 	@Override
@@ -328,6 +670,10 @@ public class BackupEngine extends SwingWorker<Void, BackupEngineProgress> implem
 				this.stat.setFilesMoved(moveFiles.getFilesMoved());
 				this.stat.setIncrementalBackupSize(moveFiles.getFilesSize());
 			}
+			if (this.relocateFiles != null) {
+				this.stat.setFilesRelocated(relocateFiles.getFilesRelocated());
+				this.stat.setBytesRelocated(relocateFiles.getFilesSize());
+			}
 			if (this.copyFiles != null) {
 				while (!copyFiles.isCopyComplete()) { // need to wait on CopyFiles worklet to fully complete
 					try {
@@ -337,12 +683,19 @@ public class BackupEngine extends SwingWorker<Void, BackupEngineProgress> implem
 				}
 				this.stat.setFilesCopied(copyFiles.getFilesCopied());
 			}
+			// metadata saved by a file list compaction still running in the background is not included
+			this.stat.setMetadataBytes(metadataFiles.getBytes());
+			this.stat.setMetadataBytesWritten(metadataFiles.getBytesWritten());
+			if (metadataFiles.isCompress() && metadataFiles.getBytes() > 0) {
+				log.info("Backup metadata compressed from " + metadataFiles.getBytes() + " bytes to " + metadataFiles.getBytesWritten() 
+						+ " bytes (" + (100 * metadataFiles.getBytesWritten() / metadataFiles.getBytes()) + "%)");
+			}
 			try {
 				if (dryRun) {
 					log.info("Stats for dry run (will not be saved): " + stat.toString());
 				} else {
 					stats.addBackupStat(stat);
-					stats.saveStats(baseBackupDirectory);
+					stats.saveStats(baseBackupDirectory, metadataFiles);
 				}
 			} catch (IOException ioe) {
 				log.error("Unable to save backup stats.", ioe);
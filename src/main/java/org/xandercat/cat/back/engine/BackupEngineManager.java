@@ -63,7 +63,7 @@ public class BackupEngineManager implements FileManagerListener<CatBackup16>{
 				executingBackupIDs.add(backup.getId());
 				updateEnabled();
 				FileIconCache fileIconCache = ResourceManager.getInstance().getResource(FileIconCache.class);
-				BackupEngine backupEngine = new BackupEngine(catBackFrame, backup, fileIconCache, excludedTree, stats);
+				BackupEngine backupEngine = new BackupEngine(catBackFrame, backup, fileIconCache, stats);
 				backupEngine.setDryRun(BackupEngineManager.this.dryRun);
 				backupEngine.setDryRunSpeedFactor(speedFactor);
 				backupEngine.addBackupEngineListener(this);
@@ -3,6 +3,7 @@ package org.xandercat.cat.back.engine;
 import java.io.File;
 import java.io.Serializable;
 import java.util.Date;
+import java.util.List;
 
 /**
  * Snapshot statistics for an executed backup.
@@ -24,6 +25,14 @@ public class BackupStat implements Serializable, Comparable<BackupStat> {
 	private File baseBackupDirectory;
 	private File incrementalBackupDirectory;
 	private long incrementalBackupSize;
+	private List<ExclusionStat> exclusionStats;		// added in v1.6.1; null for older stats
+	private long metadataBytes;						// added in v1.6.1; 0 for older stats
+	private long metadataBytesWritten;				// added in v1.6.1; 0 for older stats
+	private long lastModifiedPrecision;				// added in v1.6.1; 0 for older stats
+	private long bytesDigested;						// added in v1.6.1; 0 for older stats
+	private int filesUnchangedByDigest;				// added in v1.6.1; 0 for older stats
+	private int filesRelocated;						// added in v1.6.1; 0 for older stats
+	private long bytesRelocated;					// added in v1.6.1; 0 for older stats
 	
 	public BackupStat() {
 	}
@@ -121,6 +130,108 @@ public class BackupStat implements Serializable, Comparable<BackupStat> {
 		this.incrementalBackupSize = incrementalBackupSize;
 	}
 
+	public List<ExclusionStat> getExclusionStats() {
+		return exclusionStats;
+	}
+
+	public void setExclusionStats(List<ExclusionStat> exclusionStats) {
+		this.exclusionStats = exclusionStats;
+	}
+
+	/**
+	 * Returns the number of bytes of backup metadata (file lists, stats, and incremental backup sizes) saved by
+	 * the backup, before compression.
+	 * 
+	 * @return		bytes of metadata
+	 */
+	public long getMetadataBytes() {
+		return metadataBytes;
+	}
+
+	public void setMetadataBytes(long metadataBytes) {
+		this.metadataBytes = metadataBytes;
+	}
+
+	/**
+	 * Returns the number of bytes written to save the backup metadata, after compression.
+	 * 
+	 * @return		bytes of metadata written
+	 */
+	public long getMetadataBytesWritten() {
+		return metadataBytesWritten;
+	}
+
+	public void setMetadataBytesWritten(long metadataBytesWritten) {
+		this.metadataBytesWritten = metadataBytesWritten;
+	}
+
+	/**
+	 * Returns the coarsest precision, in milliseconds, used to compare last modified times of files.
+	 * 
+	 * @return		last modified precision
+	 */
+	public long getLastModifiedPrecision() {
+		return lastModifiedPrecision;
+	}
+
+	public void setLastModifiedPrecision(long lastModifiedPrecision) {
+		this.lastModifiedPrecision = lastModifiedPrecision;
+	}
+
+	/**
+	 * Returns the number of bytes read to compare the contents of files.
+	 * 
+	 * @return		bytes digested
+	 */
+	public long getBytesDigested() {
+		return bytesDigested;
+	}
+
+	public void setBytesDigested(long bytesDigested) {
+		this.bytesDigested = bytesDigested;
+	}
+
+	/**
+	 * Returns the number of files whose last modified time had changed but whose contents had not, 
+	 * so were not copied.
+	 * 
+	 * @return		files unchanged by content digest
+	 */
+	public int getFilesUnchangedByDigest() {
+		return filesUnchangedByDigest;
+	}
+
+	public void setFilesUnchangedByDigest(int filesUnchangedByDigest) {
+		this.filesUnchangedByDigest = filesUnchangedByDigest;
+	}
+
+	/**
+	 * Returns the number of renamed files whose backups were relocated within the backup rather than 
+	 * copied from the source again.
+	 * 
+	 * @return		files relocated
+	 */
+	public int getFilesRelocated() {
+		return filesRelocated;
+	}
+
+	public void setFilesRelocated(int filesRelocated) {
+		this.filesRelocated = filesRelocated;
+	}
+
+	/**
+	 * Returns the number of bytes in renamed files whose backups were relocated.
+	 * 
+	 * @return		bytes relocated
+	 */
+	public long getBytesRelocated() {
+		return bytesRelocated;
+	}
+
+	public void setBytesRelocated(long bytesRelocated) {
+		this.bytesRelocated = bytesRelocated;
+	}
+
 	@Override
 	public int compareTo(BackupStat o) {
 		return dateStarted.compareTo(o.dateStarted);
@@ -132,6 +243,10 @@ public class BackupStat implements Serializable, Comparable<BackupStat> {
 				+ ", backupStatus=" + backupStatus + ", backupSize=" + backupSize + ", totalFiles=" + totalFiles
 				+ ", filesMoved=" + filesMoved + ", filesCopied=" + filesCopied + ", baseBackupDirectory="
 				+ baseBackupDirectory + ", incrementalBackupDirectory=" + incrementalBackupDirectory
-				+ ", incrementalBackupSize=" + incrementalBackupSize + "]";
+				+ ", incrementalBackupSize=" + incrementalBackupSize + ", exclusionStats=" + exclusionStats
+				+ ", metadataBytes=" + metadataBytes + ", metadataBytesWritten=" + metadataBytesWritten
+				+ ", lastModifiedPrecision=" + lastModifiedPrecision + ", bytesDigested=" + bytesDigested
+				+ ", filesUnchangedByDigest=" + filesUnchangedByDigest + ", filesRelocated=" + filesRelocated 
+				+ ", bytesRelocated=" + bytesRelocated + "]";
 	}
 }
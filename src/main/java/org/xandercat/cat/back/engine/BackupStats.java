@@ -6,7 +6,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.xandercat.cat.back.CatBackSettings;
-import org.xandercat.swing.file.FileManager;
+import org.xandercat.cat.back.file.MetadataFiles;
 
 /**
  * Class for managing backup statistics.
@@ -98,7 +98,7 @@ public class BackupStats {
 		if (baseBackupDirectory != null) {
 			File backupStatsFile = new File(baseBackupDirectory, CatBackSettings.BACKUP_STATS_FILE_NAME);
 			if (backupStatsFile.exists()) {
-				this.backupStats = (List<BackupStat>) FileManager.loadObject(backupStatsFile, ArrayList.class);
+				this.backupStats = (List<BackupStat>) MetadataFiles.loadObject(backupStatsFile, ArrayList.class);
 			}
 		}
 	}
@@ -107,13 +107,14 @@ public class BackupStats {
 	 * Save the current backup statistics to the given base backup location.
 	 * 
 	 * @param baseBackupDirectory		backup location
+	 * @param metadataFiles				metadata files to save the statistics through
 	 * 
 	 * @throws IOException
 	 */
-	public synchronized void saveStats(File baseBackupDirectory) throws IOException {
+	public synchronized void saveStats(File baseBackupDirectory, MetadataFiles metadataFiles) throws IOException {
 		if (this.backupStats != null) {
 			File backupStatsFile = new File(baseBackupDirectory, CatBackSettings.BACKUP_STATS_FILE_NAME);
-			FileManager.saveObject(backupStatsFile, this.backupStats);
+			metadataFiles.saveObject(backupStatsFile, this.backupStats);
 		}
 	}
 }
@@ -0,0 +1,41 @@
+package org.xandercat.cat.back.engine;
+
+import java.io.Serializable;
+
+/**
+ * Statistics for a pattern based exclusion rule for an executed backup.
+ * 
+ * @author Scott Arnold
+ */
+public class ExclusionStat implements Serializable {
+
+	private static final long serialVersionUID = 2023041801L;
+	
+	private String pattern;
+	private long entriesExcluded;
+	private long bytesExcluded;
+	
+	public ExclusionStat(String pattern, long entriesExcluded, long bytesExcluded) {
+		this.pattern = pattern;
+		this.entriesExcluded = entriesExcluded;
+		this.bytesExcluded = bytesExcluded;
+	}
+
+	public String getPattern() {
+		return pattern;
+	}
+
+	public long getEntriesExcluded() {
+		return entriesExcluded;
+	}
+
+	public long getBytesExcluded() {
+		return bytesExcluded;
+	}
+
+	@Override
+	public String toString() {
+		return "ExclusionStat [pattern=" + pattern + ", entriesExcluded=" + entriesExcluded 
+				+ ", bytesExcluded=" + bytesExcluded + "]";
+	}
+}
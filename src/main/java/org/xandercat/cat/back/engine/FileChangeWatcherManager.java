@@ -0,0 +1,77 @@
+package org.xandercat.cat.back.engine;
+
+import java.io.IOException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.xandercat.cat.back.CatBackup16;
+import org.xandercat.cat.back.file.FileChangeLog;
+import org.xandercat.cat.back.file.FileChangeWatcher;
+import org.xandercat.swing.file.FileManager;
+import org.xandercat.swing.file.FileManagerListener;
+
+/**
+ * Manager for watching the files of the open backup for changes.  Files are watched while a backup with
+ * watch for changes enabled is open, and watching is restarted whenever the backup is saved with a
+ * different selection of files.
+ *
+ * @author Scott Arnold
+ */
+public class FileChangeWatcherManager implements FileManagerListener<CatBackup16> {
+
+	private static final Logger log = LogManager.getLogger(FileChangeWatcherManager.class);
+
+	private final FileManager<CatBackup16> backupFileManager;
+	private FileChangeWatcher fileChangeWatcher;
+
+	public FileChangeWatcherManager(FileManager<CatBackup16> backupFileManager) {
+		this.backupFileManager = backupFileManager;
+		this.backupFileManager.addFileManagerListener(this);
+	}
+
+	private void startWatching(CatBackup16 backup) {
+		stopWatching();
+		if (backup == null || !backup.isWatchForChanges()) {
+			return;
+		}
+		fileChangeWatcher = new FileChangeWatcher(backup.getIncludedFiles(), backup.getExcludedFiles(),
+				backup.getExcludedPatterns(), FileChangeLog.getLogFile(backup.getId()));
+		try {
+			fileChangeWatcher.start();
+		} catch (IOException e) {
+			log.warn("Unable to watch files for changes.", e);
+			fileChangeWatcher = null;
+		}
+	}
+
+	private void stopWatching() {
+		if (fileChangeWatcher != null) {
+			fileChangeWatcher.stop();
+			fileChangeWatcher = null;
+		}
+	}
+
+	@Override
+	public void afterOpen(String key) {
+		startWatching(backupFileManager.getObject());
+	}
+
+	@Override
+	public void afterClose() {
+		stopWatching();
+	}
+
+	@Override
+	public void beforeSaveOrClose(CatBackup16 toSave) {
+		boolean watching = (fileChangeWatcher != null);
+		if (watching != toSave.isWatchForChanges() || (watching && !fileChangeWatcher.getSelectionKey().equals(
+				FileChangeLog.generateSelectionKey(toSave.getIncludedFiles(), toSave.getExcludedFiles(), toSave.getExcludedPatterns())))) {
+			startWatching(toSave);
+		}
+	}
+
+	@Override
+	public void filePathChange(String newAbsolutePath) {
+		// no action required
+	}
+}
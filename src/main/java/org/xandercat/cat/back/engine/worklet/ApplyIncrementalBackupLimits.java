@@ -15,9 +15,9 @@ import java.util.Map;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.xandercat.cat.back.engine.BackupEngine;
+import org.xandercat.cat.back.file.MetadataFiles;
 import org.xandercat.swing.datetime.TimeDuration;
 import org.xandercat.swing.file.DirectorySizeCache;
-import org.xandercat.swing.file.FileManager;
 import org.xandercat.swing.file.FilesSize;
 import org.xandercat.swing.util.FileUtil;
 
@@ -33,6 +33,7 @@ public class ApplyIncrementalBackupLimits extends BackupEngineWorklet<Void> {
 	private long bytesToMove;
 	private boolean dryRun;
 	private String dryRunPrefix = "";
+	private MetadataFiles metadataFiles = new MetadataFiles(false);
 	
 	public ApplyIncrementalBackupLimits(BackupEngine backupEngine, File baseBackupDirectory, TimeDuration keepAtLeastTime, TimeDuration keepNoMoreThanTime, long keepNoMoreThanBytes, long bytesToMove) {
 		super(backupEngine);
@@ -43,6 +44,15 @@ public class ApplyIncrementalBackupLimits extends BackupEngineWorklet<Void> {
 		this.bytesToMove = bytesToMove;
 	}
 
+	/**
+	 * Sets the metadata files incremental backup sizes are saved through.
+	 * 
+	 * @param metadataFiles			metadata files
+	 */
+	public void setMetadataFiles(MetadataFiles metadataFiles) {
+		this.metadataFiles = metadataFiles;
+	}
+
 	@Override
 	public String getTitle() {
 		return "Removing expired incremental backups";
@@ -142,7 +152,7 @@ public class ApplyIncrementalBackupLimits extends BackupEngineWorklet<Void> {
 		File sizeFile = new File(incrementalBackupDirectory, BackupEngine.INCREMENTAL_SIZE_FILE_NAME);
 		if (sizeFile.exists()) {
 			try {
-				Long loadedSize = FileManager.loadObject(sizeFile, Long.class);
+				Long loadedSize = MetadataFiles.loadObject(sizeFile, Long.class);
 				if (loadedSize != null && loadedSize.longValue() > 0) {
 					backupSize = loadedSize.longValue();
 				}
@@ -158,7 +168,7 @@ public class ApplyIncrementalBackupLimits extends BackupEngineWorklet<Void> {
 			backupSize = filesSize.getBytes();
 			if (!dryRun) {
 				try {
-					FileManager.saveObject(sizeFile, Long.valueOf(backupSize));
+					metadataFiles.saveObject(sizeFile, Long.valueOf(backupSize));
 				} catch (IOException e) {
 					log.warn("Unable to save incremental backup file size to incremental backup folder " + incrementalBackupDirectory.getAbsolutePath());
 				}
@@ -1,21 +1,21 @@
 package org.xandercat.cat.back.engine.worklet;
 
-import org.xandercat.cat.back.engine.BackupEngine;
 import org.xandercat.swing.worker.SwingWorklet;
+import org.xandercat.swing.worker.SwingWorkletManager;
 
 public abstract class BackupEngineWorklet<T> extends SwingWorklet<T, String> {
 
 	protected long progress;
 	
-	public BackupEngineWorklet(BackupEngine backupEngine) {
-		super(backupEngine);
+	public BackupEngineWorklet(SwingWorkletManager<String> workletManager) {
+		super(workletManager);
 	}
 
 	public abstract String getTitle();
 	
 	public abstract void enableDryRun(String dryRunPrefix, Long speedFactor);
 	
-	protected void advanceProgress(long progressBy) {
+	protected synchronized void advanceProgress(long progressBy) {
 		this.progress += progressBy;
 		setProgress(this.progress);
 	}
@@ -2,26 +2,88 @@ package org.xandercat.cat.back.engine.worklet;
 
 import java.awt.Frame;
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import javax.swing.SwingUtilities;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.xandercat.cat.back.engine.BackupEngine;
 import org.xandercat.cat.back.file.BackupFile;
+import org.xandercat.cat.back.file.BackupFileIndex;
+import org.xandercat.cat.back.file.ChangeDetector;
+import org.xandercat.cat.back.file.ContentDigester;
+import org.xandercat.cat.back.file.LengthAndTimeChangeDetector;
+import org.xandercat.cat.back.file.RenamedFile;
+import org.xandercat.cat.back.file.RenamedFileDetector;
+import org.xandercat.cat.back.file.TimestampPrecision;
 import org.xandercat.cat.back.swing.dialog.MoveCopyDialog;
 import org.xandercat.swing.file.icon.FileIconCache;
 import org.xandercat.swing.table.FileData;
+import org.xandercat.swing.worker.SwingWorkletManager;
 
+/**
+ * Worklet for comparing current files against the files in the latest backup.  Both sets of files are
+ * consumed as sorted streams and merged, so neither needs to be held in memory in full.
+ * 
+ * The streams are read in partitions: a batch of PARTITION_SIZE current files, plus every previous file up to 
+ * the last of them (or, once the current files run out, a batch of previous files).  Every file of a partition 
+ * sorts after every file of the partitions before it, so partitions can be compared independently; they are 
+ * compared in parallel, with at most PENDING_PARTITIONS_PER_THREAD per thread waiting, and their results are added 
+ * in order.  Partitions are compared on threads of the worklet's own, as many as there are processors or threads of 
+ * the content digester, whichever is more, as a partition waits for the content comparisons it submits.  
+ * The results are the same as comparing the streams file by file.  Files are still read from the streams on 
+ * the worklet thread, as reading the current files is what inspects them.
+ * 
+ * If a content digester is set, files of the same length are also compared by content when their last modified 
+ * times differ, or when they match but the file was backed up so close to the start of the last backup that it 
+ * could have been rewritten since without its last modified time showing it.  A file whose contents are unchanged 
+ * is not copied; instead its backup is updated with its last modified time (see getFilesToUpdate()), or if only its 
+ * digest or quick fingerprint was not yet recorded, the backup is left as it is and only its record is updated 
+ * (see getFilesToRecord()).  
+ * Files large enough to have quick fingerprints are compared by quick fingerprint first, and on every backup, 
+ * so a rewrite that kept the last modified time is found by reading a few blocks of the file; a file whose quick 
+ * fingerprint has changed is copied without being digested.  The digest and quick fingerprint of the backed up 
+ * file are taken from the latest backup file list where it has them, so usually only the current file is read.  
+ * Comparisons of a partition are all submitted before any is waited for.
+ * 
+ * Whether a file has changed is decided by the change detector, which by default compares files by length and 
+ * last modified time.  A change detector that compares source file identities (see FileIdentityChangeDetector) 
+ * needs the identity of each file recorded with its backup, so the records of unchanged files whose identities 
+ * are not yet recorded are also updated, and the identities of files to copy are recorded once they are copied 
+ * (see getRecordedFilesToCopy()).  With a content digester, a file whose identity has changed is compared by 
+ * content, the same as a file whose last modified time has changed.
+ * 
+ * If renamed files are detected, files removed and files added are matched once every partition has been compared 
+ * (see RenamedFileDetector).  A file added that matches a file removed is not copied; the backup of the file removed 
+ * is still moved, and can then be relocated to where the file added is backed up (see getRenamedFiles()).
+ * 
+ * @author Scott Arnold
+ */
 public class CompareFiles extends BackupEngineWorklet<Boolean> {
 
 	private static final Logger log = LogManager.getLogger(CompareFiles.class);
 	
-	private List<BackupFile> currentFiles;
-	private List<BackupFile> previousFiles;
+	public static final int PARTITION_SIZE = 4096;
+	public static final int PENDING_PARTITIONS_PER_THREAD = 4;
+	
+	private int partitionSize = PARTITION_SIZE;
+	private Iterator<BackupFile> currentFilesIter;
+	private Iterator<BackupFile> previousFilesIter;
 	private long progressMaximum;
 	private long bytesToCopy;
 	private long bytesToMove;
@@ -29,14 +91,218 @@ public class CompareFiles extends BackupEngineWorklet<Boolean> {
 	private FileIconCache fileIconCache;
 	private Frame parent;
 	private List<File> filesToCopy = new ArrayList<File>();
-	private List<BackupFile> filesToMove = new ArrayList<BackupFile>();
+	private List<BackupFile> filesToMove;
 	private volatile Boolean proceedToNextStep = Boolean.TRUE;
+	private TimestampPrecision timestampPrecision;
+	private ContentDigester contentDigester;
+	private long lastBackupStarted = -1;
+	private List<BackupFile> filesToUpdate = new ArrayList<BackupFile>();
+	private List<BackupFile> filesToRecord = new ArrayList<BackupFile>();
+	private File latestBackupDirectory;
+	private Map<String, BackupFile> recordedFilesToCopy = new HashMap<String, BackupFile>();
+	private ChangeDetector changeDetector = new LengthAndTimeChangeDetector();
+	private int filesUnchangedByContent;
+	private boolean detectRenamedFiles;
+	private List<RenamedFile> renamedFiles = new ArrayList<RenamedFile>();
 	
-	public CompareFiles(BackupEngine backupEngine, List<BackupFile> currentFiles, List<BackupFile> previousFiles) {
-		super(backupEngine);
-		this.currentFiles = currentFiles;
-		this.previousFiles = previousFiles;
-		this.progressMaximum = currentFiles.size() + previousFiles.size();
+	/**
+	 * Comparison of the contents of a current file and its backup, run on the threads of the content digester.
+	 */
+	private class ContentComparison implements Callable<ContentComparison> {
+		private BackupFile previousFile;
+		private BackupFile currentFile;
+		private boolean readable = true;
+		private boolean changed;
+		private boolean previousFingerprinted;		// whether the quick fingerprint of the backup was read rather than recorded
+		private byte[] currentDigest;
+		
+		private ContentComparison(BackupFile previousFile, BackupFile currentFile) {
+			this.previousFile = previousFile;
+			this.currentFile = currentFile;
+		}
+		
+		public ContentComparison call() {
+			try {
+				if (ContentDigester.isQuickFingerprinted(currentFile.getLength())) {
+					currentFile.setQuickFingerprint(contentDigester.quickFingerprint(currentFile.getFile()));
+					if (previousFile.getQuickFingerprint() == 0) {
+						previousFile.setQuickFingerprint(contentDigester.quickFingerprint(previousFile.getFile()));
+						previousFingerprinted = true;
+					}
+					if (currentFile.getQuickFingerprint() != previousFile.getQuickFingerprint()) {
+						changed = true;
+						return this;
+					}
+				}
+				if (isDigestRequired(previousFile, currentFile)) {
+					currentDigest = contentDigester.digest(currentFile.getFile());
+					byte[] previousDigest = (previousFile.getDigest() == null)? contentDigester.digest(previousFile.getFile()) : previousFile.getDigest();
+					changed = !ContentDigester.isEqual(currentDigest, previousDigest);
+				}
+			} catch (IOException e) {
+				log.warn("Unable to compare contents of " + currentFile.getCriticalPath() + ": " + e.getMessage());
+				readable = false;
+			}
+			return this;
+		}
+	}
+	
+	/**
+	 * Files of a partition and the results of comparing them.
+	 */
+	private class Partition implements Callable<Partition> {
+		private List<BackupFile> currentFiles = new ArrayList<BackupFile>();
+		private List<BackupFile> previousFiles = new ArrayList<BackupFile>();
+		private List<File> filesToCopy = new ArrayList<File>();
+		private List<BackupFile> filesToMove = new ArrayList<BackupFile>();
+		private List<BackupFile> filesToUpdate = new ArrayList<BackupFile>();
+		private List<BackupFile> filesToRecord = new ArrayList<BackupFile>();
+		private List<BackupFile> recordedFilesToCopy = new ArrayList<BackupFile>();
+		private List<BackupFile> addedFiles = detectRenamedFiles? new ArrayList<BackupFile>() : null;
+		private List<BackupFile> removedFiles = detectRenamedFiles? new ArrayList<BackupFile>() : null;
+		private List<Future<ContentComparison>> comparisons = new ArrayList<Future<ContentComparison>>();
+		private List<FileData> copyFileData = showMoveCopyDialog? new ArrayList<FileData>() : null;
+		private List<FileData> moveFileData = showMoveCopyDialog? new ArrayList<FileData>() : null;
+		private long bytesToCopy;
+		private long bytesToMove;
+		private int filesUnchangedByContent;
+		
+		public Partition call() throws InterruptedException, ExecutionException {
+			if (contentDigester != null) {
+				submitComparisons();
+			}
+			int k = 0;
+			int c = 0;
+			int p = 0;
+			while (p < previousFiles.size() || c < currentFiles.size()) {
+				BackupFile previousFile = (p < previousFiles.size())? previousFiles.get(p) : null;
+				BackupFile currentFile = (c < currentFiles.size())? currentFiles.get(c) : null;
+				if (previousFile == null || previousFile.compareTo(currentFile) > 0) {
+					// current file is new; copy it
+					copy(currentFile);
+					if (detectRenamedFiles && RenamedFileDetector.isMatched(currentFile)) {
+						addedFiles.add(currentFile);
+					}
+					c++;
+				} else if (currentFile == null || previousFile.compareTo(currentFile) < 0) {
+					// previous file no longer exists; move it
+					move(previousFile);
+					if (detectRenamedFiles && RenamedFileDetector.isMatched(previousFile)) {
+						removedFiles.add(previousFile);
+					}
+					p++;
+				} else if (isComparisonRequired(previousFile, currentFile)) {
+					// file may have changed; compare contents
+					compareContents(comparisons.get(k++).get());
+					p++;
+					c++;
+				} else if (!changeDetector.isFileEquivalent(previousFile, currentFile, getPrecision(currentFile))) {
+					// file has changed; move previous file and copy current file
+					move(previousFile);
+					copy(currentFile);
+					p++;
+					c++;
+				} else {
+					// file is unchanged; its record is updated if its identity is not yet recorded
+					if (isFileIdentityOutOfDate(previousFile, currentFile)) {
+						filesToRecord.add(toRecordedFile(previousFile, currentFile));
+					}
+					p++;
+					c++;
+				}
+			}
+			return this;
+		}
+		
+		/**
+		 * Submit the content comparisons of the files of this partition, in the order they will be needed.
+		 */
+		private void submitComparisons() {
+			int p = 0;
+			for (BackupFile currentFile : currentFiles) {
+				while (p < previousFiles.size() && previousFiles.get(p).compareTo(currentFile) < 0) {
+					p++;
+				}
+				if (p < previousFiles.size() && previousFiles.get(p).compareTo(currentFile) == 0) {
+					BackupFile previousFile = previousFiles.get(p);
+					if (isComparisonRequired(previousFile, currentFile)) {
+						comparisons.add(contentDigester.submit(new ContentComparison(previousFile, currentFile)));
+					}
+				}
+			}
+		}
+		
+		/**
+		 * Add the result of the given content comparison.  If either file could not be read, the files are 
+		 * compared by length and last modified time.
+		 */
+		private void compareContents(ContentComparison comparison) {
+			BackupFile previousFile = comparison.previousFile;
+			BackupFile currentFile = comparison.currentFile;
+			boolean equivalent = changeDetector.isFileEquivalent(previousFile, currentFile, getPrecision(currentFile));
+			if (!comparison.readable) {
+				if (!equivalent) {
+					move(previousFile);
+					copy(currentFile);
+				}
+			} else if (comparison.changed) {
+				currentFile.setDigest(comparison.currentDigest);
+				move(previousFile);
+				copy(currentFile);
+			} else {
+				// unchanged; the backup is updated if its last modified time differs, otherwise its record is updated if 
+				// anything recorded for it is out of date or missing
+				currentFile.setDigest((comparison.currentDigest == null)? previousFile.getDigest() : comparison.currentDigest);
+				if (!equivalent) {
+					filesUnchangedByContent++;
+				}
+				if (Math.abs(previousFile.getLastModified() - currentFile.getLastModified()) >= getPrecision(currentFile)) {
+					filesToUpdate.add(currentFile);
+				} else if (comparison.previousFingerprinted || (comparison.currentDigest != null && previousFile.getDigest() == null)
+						|| isFileIdentityOutOfDate(previousFile, currentFile)) {
+					filesToRecord.add(toRecordedFile(previousFile, currentFile));
+				}
+			}
+		}
+		
+		private void copy(BackupFile currentFile) {
+			File file = currentFile.getFile();
+			filesToCopy.add(file);
+			bytesToCopy += currentFile.getLength();
+			if (!currentFile.isDirectory() && (currentFile.getDigest() != null || currentFile.getFileIdentity() != null)) {
+				recordedFilesToCopy.add(currentFile);
+			}
+			if (showMoveCopyDialog) {
+				copyFileData.add(new FileData(file));
+			}
+		}
+		
+		private void move(BackupFile previousFile) {
+			filesToMove.add(previousFile);
+			bytesToMove += previousFile.getLength();
+			if (showMoveCopyDialog) {
+				moveFileData.add(new FileData(previousFile.getFile()));
+			}
+		}
+	}
+	
+	/**
+	 * Constructs a new compare files worklet.  Current files and previous files must be in critical path order.
+	 * 
+	 * @param workletManager		manager of the worklet (the backup engine)
+	 * @param currentFiles			current files in critical path order
+	 * @param previousFiles			files in latest backup in critical path order
+	 * @param progressMaximum		expected total of current and previous files, or -1 if unknown
+	 * @param latestBackupDirectory	latest backup directory (that previous files are in)
+	 */
+	public CompareFiles(SwingWorkletManager<String> workletManager, Iterator<BackupFile> currentFiles, Iterator<BackupFile> previousFiles, 
+			long progressMaximum, File latestBackupDirectory) {
+		super(workletManager);
+		this.latestBackupDirectory = latestBackupDirectory;
+		this.filesToMove = new BackupFileIndex(latestBackupDirectory);
+		this.currentFilesIter = currentFiles;
+		this.previousFilesIter = previousFiles;
+		this.progressMaximum = progressMaximum;
 	}
 
 	@Override
@@ -49,6 +315,112 @@ public class CompareFiles extends BackupEngineWorklet<Boolean> {
 		// no action required
 	}
 
+	/**
+	 * Sets the number of current files in each partition (or previous files, once the current files run out).  By 
+	 * default, PARTITION_SIZE is used.  The results are the same for any partition size.
+	 * 
+	 * @param partitionSize			number of files per partition
+	 */
+	void setPartitionSize(int partitionSize) {
+		this.partitionSize = partitionSize;
+	}
+
+	/**
+	 * Sets the precision last modified times are compared with.  By default, BackupFile.LAST_MOD_PRECISION
+	 * is used.
+	 * 
+	 * @param timestampPrecision	timestamp precision
+	 */
+	public void setTimestampPrecision(TimestampPrecision timestampPrecision) {
+		this.timestampPrecision = timestampPrecision;
+	}
+	
+	private long getPrecision(BackupFile currentFile) {
+		return (timestampPrecision == null)? BackupFile.LAST_MOD_PRECISION : timestampPrecision.getPrecision(currentFile.getCriticalPath());
+	}
+
+	/**
+	 * Sets the change detector that decides whether files have changed.  By default, files are compared by 
+	 * length and last modified time (see LengthAndTimeChangeDetector).  The current files should be loaded 
+	 * with the same change detector.
+	 * 
+	 * @param changeDetector		change detector
+	 */
+	public void setChangeDetector(ChangeDetector changeDetector) {
+		this.changeDetector = changeDetector;
+	}
+	
+	/**
+	 * Returns whether or not the given current file has a source file identity that is not the one recorded for 
+	 * its backup.
+	 */
+	private static boolean isFileIdentityOutOfDate(BackupFile previousFile, BackupFile currentFile) {
+		return !currentFile.isDirectory() && currentFile.getFileIdentity() != null 
+				&& !currentFile.getFileIdentity().equals(previousFile.getFileIdentity());
+	}
+	
+	/**
+	 * Returns the backup of the given unchanged file as it is to be recorded: with the length and last modified 
+	 * time of the backup, and the digest, quick fingerprint and source file identity of the current file where 
+	 * known.
+	 */
+	private BackupFile toRecordedFile(BackupFile previousFile, BackupFile currentFile) {
+		BackupFile recordedFile = new BackupFile(previousFile.getCriticalPath(), BackupFile.Type.DESTINATION, latestBackupDirectory, 
+				previousFile.getLength(), previousFile.getLastModified(), false);
+		recordedFile.setDigest((currentFile.getDigest() == null)? previousFile.getDigest() : currentFile.getDigest());
+		recordedFile.setQuickFingerprint((currentFile.getQuickFingerprint() == 0)? previousFile.getQuickFingerprint() : currentFile.getQuickFingerprint());
+		recordedFile.setFileIdentity(currentFile.getFileIdentity());
+		return recordedFile;
+	}
+
+	/**
+	 * Sets the content digester used to compare files by content.  By default, files are compared by length and
+	 * last modified time only.
+	 * 
+	 * @param contentDigester		content digester
+	 * @param lastBackupStarted		time the last backup was started, or -1 if unknown
+	 */
+	public void setContentDigester(ContentDigester contentDigester, long lastBackupStarted) {
+		this.contentDigester = contentDigester;
+		this.lastBackupStarted = lastBackupStarted;
+	}
+	
+	/**
+	 * Returns whether or not the given files of the same critical path need to be compared by content: they are 
+	 * files of the same length, and either large enough to have quick fingerprints or need to be digested.
+	 */
+	private boolean isComparisonRequired(BackupFile previousFile, BackupFile currentFile) {
+		if (contentDigester == null || previousFile.isDirectory() || currentFile.isDirectory() 
+				|| previousFile.getLength() != currentFile.getLength()) {
+			return false;
+		}
+		return ContentDigester.isQuickFingerprinted(currentFile.getLength()) || isDigestRequired(previousFile, currentFile);
+	}
+	
+	/**
+	 * Returns whether or not the given files of the same critical path and length need to be digested: either 
+	 * the change detector finds them changed (as when their last modified times differ), or the previous file was 
+	 * last modified so close to the start of the last backup that it could have been rewritten after being backed 
+	 * up and still have a last modified time within the precision of the one backed up.
+	 */
+	private boolean isDigestRequired(BackupFile previousFile, BackupFile currentFile) {
+		long precision = getPrecision(currentFile);
+		if (!changeDetector.isFileEquivalent(previousFile, currentFile, precision)) {
+			return true;
+		}
+		return lastBackupStarted >= 0 && previousFile.getLastModified() + precision > lastBackupStarted;
+	}
+
+	/**
+	 * Sets whether or not to detect files that were renamed or moved since the latest backup.  By default, a file 
+	 * renamed is copied again.
+	 * 
+	 * @param detectRenamedFiles	whether or not to detect renamed files
+	 */
+	public void setDetectRenamedFiles(boolean detectRenamedFiles) {
+		this.detectRenamedFiles = detectRenamedFiles;
+	}
+
 	public void enableShowMoveCopyDialog(Frame parent, FileIconCache fileIconCache) {
 		this.showMoveCopyDialog = true;
 		this.parent = parent;
@@ -58,53 +430,58 @@ public class CompareFiles extends BackupEngineWorklet<Boolean> {
 	@Override
 	public Boolean execute() throws Exception {
 		log.debug("Comparing previous list to current list...");
-		Iterator<BackupFile> previousFilesIter = previousFiles.iterator();
-		Iterator<BackupFile> currentFilesIter = currentFiles.iterator();
-		BackupFile previousFile = previousFilesIter.hasNext()? previousFilesIter.next() : null;
-		BackupFile currentFile = currentFilesIter.hasNext()? currentFilesIter.next() : null;
 		final List<FileData> moveFileData = showMoveCopyDialog? new ArrayList<FileData>() : null;
 		final List<FileData> copyFileData = showMoveCopyDialog? new ArrayList<FileData>() : null;
-		while (!isCancelled() && (previousFile != null || currentFile != null)) {
-			if (currentFile != null) {
-				publish("Comparing " + currentFile.getFile().getName());
-			}
-			if (previousFile == null || previousFile.compareTo(currentFile) > 0) {
-				//log.debug("Previous is greater than current (or previous is null), moving current to copy list");
-				filesToCopy.add(currentFile.getFile());
-				bytesToCopy += currentFile.getFile().length();
-				if (showMoveCopyDialog) {
-					copyFileData.add(new FileData(currentFile.getFile()));
+		Deque<Future<Partition>> pendingPartitions = new ArrayDeque<Future<Partition>>();
+		RenamedFileDetector renamedFileDetector = detectRenamedFiles? new RenamedFileDetector(timestampPrecision, contentDigester) : null;
+		BackupFile previousFile = nextFile(previousFilesIter, null);
+		BackupFile currentFile = nextFile(currentFilesIter, null);
+		int threads = Math.max(Runtime.getRuntime().availableProcessors(), (contentDigester == null)? 1 : contentDigester.getThreads());
+		ExecutorService partitionExecutor = (threads > 1)? Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "CatBack Compare");
+				thread.setDaemon(true);
+				return thread;
+			}
+		}) : null;
+		try {
+			while (!isCancelled() && (previousFile != null || currentFile != null)) {
+				// cut the next partition: a batch of current files, and every previous file up to the last of them
+				Partition partition = new Partition();
+				while (currentFile != null && partition.currentFiles.size() < partitionSize) {
+					partition.currentFiles.add(currentFile);
+					currentFile = nextFile(currentFilesIter, currentFile);
 				}
-				currentFile = currentFilesIter.hasNext()? currentFilesIter.next() : null;
-				advanceProgress(1);
-			} else if (currentFile == null || previousFile.compareTo(currentFile) < 0) {
-				//log.debug("Previous is less than current (or current is null), moving previous to generation list");
-				filesToMove.add(previousFile);
-				bytesToMove += previousFile.getFile().length();
-				if (showMoveCopyDialog) {
-					moveFileData.add(new FileData(previousFile.getFile()));
+				BackupFile lastCurrentFile = partition.currentFiles.isEmpty()? null : partition.currentFiles.get(partition.currentFiles.size() - 1);
+				while (previousFile != null && ((lastCurrentFile != null && previousFile.compareTo(lastCurrentFile) <= 0) 
+						|| (currentFile == null && partition.previousFiles.size() < partitionSize))) {
+					partition.previousFiles.add(previousFile);
+					previousFile = nextFile(previousFilesIter, previousFile);
 				}
-				previousFile = previousFilesIter.hasNext()? previousFilesIter.next() : null; 
-				advanceProgress(1);
-			} else if (!previousFile.isFileEquivalent(currentFile)) {
-				//log.debug("Previous == current; file is changed, moving previous to generation list and current to copy list");
-				filesToMove.add(previousFile);
-				filesToCopy.add(currentFile.getFile());
-				bytesToCopy += currentFile.getFile().length();
-				bytesToMove += previousFile.getFile().length();
-				if (showMoveCopyDialog) {
-					copyFileData.add(new FileData(currentFile.getFile()));
-					moveFileData.add(new FileData(previousFile.getFile()));
+				if (lastCurrentFile != null) {
+					publish("Comparing " + lastCurrentFile.getName());
+				}
+				if (partitionExecutor != null) {
+					pendingPartitions.addLast(partitionExecutor.submit(partition));
+					while (pendingPartitions.size() > PENDING_PARTITIONS_PER_THREAD * threads) {
+						addResults(pendingPartitions.removeFirst().get(), copyFileData, moveFileData, renamedFileDetector);
+					}
+				} else {
+					addResults(partition.call(), copyFileData, moveFileData, renamedFileDetector);
 				}
-				previousFile = previousFilesIter.hasNext()? previousFilesIter.next() : null; 
-				currentFile = currentFilesIter.hasNext()? currentFilesIter.next() : null;	
-				advanceProgress(2);
-			} else {
-				//log.debug("Previous == current; file is unchanged, file will be skipped");
-				previousFile = previousFilesIter.hasNext()? previousFilesIter.next() : null; 
-				currentFile = currentFilesIter.hasNext()? currentFilesIter.next() : null;
-				advanceProgress(2);
 			}
+			while (!pendingPartitions.isEmpty()) {
+				addResults(pendingPartitions.removeFirst().get(), copyFileData, moveFileData, renamedFileDetector);
+			}
+		} finally {
+			if (partitionExecutor != null) {
+				// partitions not yet added (only if cancelled or failed) are stopped
+				partitionExecutor.shutdownNow();
+			}
+		}
+		if (renamedFileDetector != null && !isCancelled()) {
+			publish("Detecting renamed files");
+			removeRenamedFiles(renamedFileDetector.detect(), copyFileData);
 		}
 		if (showMoveCopyDialog && !isCancelled()) {
 			publish("Waiting to proceed...");
@@ -124,9 +501,86 @@ public class CompareFiles extends BackupEngineWorklet<Boolean> {
 		return proceedToNextStep;
 	}
 
+	/**
+	 * Add the results of comparing the given partition.
+	 */
+	private void addResults(Partition partition, List<FileData> copyFileData, List<FileData> moveFileData, RenamedFileDetector renamedFileDetector) {
+		filesToCopy.addAll(partition.filesToCopy);
+		filesToMove.addAll(partition.filesToMove);
+		filesToUpdate.addAll(partition.filesToUpdate);
+		filesToRecord.addAll(partition.filesToRecord);
+		filesUnchangedByContent += partition.filesUnchangedByContent;
+		for (BackupFile recordedFile : partition.recordedFilesToCopy) {
+			recordedFilesToCopy.put(recordedFile.getCriticalPath(), recordedFile);
+		}
+		bytesToCopy += partition.bytesToCopy;
+		bytesToMove += partition.bytesToMove;
+		if (showMoveCopyDialog) {
+			copyFileData.addAll(partition.copyFileData);
+			moveFileData.addAll(partition.moveFileData);
+		}
+		if (renamedFileDetector != null) {
+			for (BackupFile removedFile : partition.removedFiles) {
+				renamedFileDetector.fileRemoved(removedFile);
+			}
+			for (BackupFile addedFile : partition.addedFiles) {
+				renamedFileDetector.fileAdded(addedFile);
+			}
+		}
+		advanceProgress(partition.currentFiles.size() + partition.previousFiles.size());
+	}
+
+	/**
+	 * Remove the current files of the given renamed files from the files to copy, and from the files to copy to be 
+	 * shown (if any).  The previous files are still moved.
+	 */
+	private void removeRenamedFiles(List<RenamedFile> renamedFiles, List<FileData> copyFileData) {
+		if (renamedFiles.isEmpty()) {
+			return;
+		}
+		Set<File> renamedFilesToCopy = new HashSet<File>();
+		for (RenamedFile renamedFile : renamedFiles) {
+			BackupFile currentFile = renamedFile.getCurrentFile();
+			renamedFilesToCopy.add(currentFile.getFile());
+			recordedFilesToCopy.remove(currentFile.getCriticalPath());
+			bytesToCopy -= currentFile.getLength();
+		}
+		List<File> remainingFilesToCopy = new ArrayList<File>(filesToCopy.size() - renamedFilesToCopy.size());
+		for (File file : filesToCopy) {
+			if (!renamedFilesToCopy.contains(file)) {
+				remainingFilesToCopy.add(file);
+			}
+		}
+		filesToCopy = remainingFilesToCopy;
+		if (showMoveCopyDialog) {
+			copyFileData.clear();
+			for (File file : filesToCopy) {
+				copyFileData.add(new FileData(file));
+			}
+		}
+		this.renamedFiles = renamedFiles;
+		log.info(renamedFiles.size() + " renamed files detected");
+	}
+
+	/**
+	 * Returns the next file from the given iterator, or null if there are no more files.  Merging depends on 
+	 * files being in strictly increasing critical path order, so any file out of order stops the comparison.
+	 */
+	private static BackupFile nextFile(Iterator<BackupFile> iter, BackupFile lastFile) {
+		if (!iter.hasNext()) {
+			return null;
+		}
+		BackupFile backupFile = iter.next();
+		if (lastFile != null && backupFile.compareTo(lastFile) <= 0) {
+			throw new IllegalStateException("Files are not in critical path order: " + lastFile.getCriticalPath() + ", " + backupFile.getCriticalPath());
+		}
+		return backupFile;
+	}
+	
 	@Override
 	public long getProgressMaximum() {
-		return progressMaximum;
+		// maximum is only an estimate, as files are inspected while they are compared
+		return (progressMaximum < 0)? -1 : Math.max(progressMaximum, progress);
 	}
 
 	public long getBytesToCopy() {
@@ -144,4 +598,55 @@ public class CompareFiles extends BackupEngineWorklet<Boolean> {
 	public List<BackupFile> getFilesToMove() {
 		return filesToMove;
 	}
+
+	/**
+	 * Returns the current files whose contents are the same as those of their backups, but whose last modified 
+	 * times differ from those of their backups.  Each file has its digest (if known) and quick fingerprint (if 
+	 * large enough) set.
+	 * 
+	 * @return		current files of unchanged contents
+	 */
+	public List<BackupFile> getFilesToUpdate() {
+		return filesToUpdate;
+	}
+
+	/**
+	 * Returns the backups of unchanged files whose last modified times are the same as those of the current files, 
+	 * but whose digests, quick fingerprints or source file identities are out of date or not yet recorded, as they 
+	 * are to be recorded.  The backups themselves need no change.
+	 * 
+	 * @return		backups of unchanged files to record
+	 */
+	public List<BackupFile> getFilesToRecord() {
+		return filesToRecord;
+	}
+
+	/**
+	 * Returns the current files to be copied that have a digest or source file identity, by critical path, so 
+	 * those can be recorded once the files are copied.
+	 * 
+	 * @return		current files to copy with a digest or file identity
+	 */
+	public Map<String, BackupFile> getRecordedFilesToCopy() {
+		return recordedFilesToCopy;
+	}
+
+	/**
+	 * Returns the files found to be renamed since the latest backup, in the order of their current files.  The 
+	 * current files are not among the files to copy.
+	 * 
+	 * @return		renamed files
+	 */
+	public List<RenamedFile> getRenamedFiles() {
+		return renamedFiles;
+	}
+
+	/**
+	 * Returns the number of files whose last modified times had changed but whose contents had not.
+	 * 
+	 * @return		number of files unchanged by content
+	 */
+	public int getFilesUnchangedByContent() {
+		return filesUnchangedByContent;
+	}
 }
@@ -1,13 +1,18 @@
 package org.xandercat.cat.back.engine.worklet;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.xandercat.cat.back.engine.BackupEngine;
+import org.xandercat.cat.back.file.BackupFile;
 import org.xandercat.cat.back.file.BackupPathGenerator;
+import org.xandercat.cat.back.file.ContentDigester;
+import org.xandercat.cat.back.file.FileListJournal;
 import org.xandercat.swing.file.FileCopier;
 import org.xandercat.swing.file.FileCopyListener;
 import org.xandercat.swing.file.FileCopyProgressListener;
@@ -35,6 +40,9 @@ public class CopyFiles extends BackupEngineWorklet<Boolean> implements FileCopyL
 	private boolean dryRun;
 	private Long speedFactor;
 	private String dryRunPrefix = "";
+	private FileListJournal fileListJournal;
+	private Map<String, BackupFile> recordedFiles;
+	private ContentDigester contentDigester;
 	
 	public CopyFiles(BackupEngine backupEngine, List<File> filesToCopy, long bytesToCopy, 
 			File backupDirectory, FileIconCache fileIconCache, int errorsUntilHalt) {
@@ -61,6 +69,36 @@ public class CopyFiles extends BackupEngineWorklet<Boolean> implements FileCopyL
 		this.alwaysLeaveCopyWindowOpen = alwaysLeaveCopyWindowOpen;
 	}
 	
+	/**
+	 * Sets the journal that copied files are recorded to.
+	 * 
+	 * @param fileListJournal		latest backup file list journal
+	 */
+	public void setFileListJournal(FileListJournal fileListJournal) {
+		this.fileListJournal = fileListJournal;
+	}
+	
+	/**
+	 * Sets the files to copy that were digested or given source file identities when compared, by critical 
+	 * path.  The digest and identity of a file are recorded with its copy if the file is unchanged since it 
+	 * was compared.
+	 * 
+	 * @param recordedFiles			files to copy with a digest or file identity
+	 */
+	public void setRecordedFiles(Map<String, BackupFile> recordedFiles) {
+		this.recordedFiles = recordedFiles;
+	}
+	
+	/**
+	 * Sets the content digester used to record quick fingerprints of copied files that are large enough to 
+	 * have them.  The fingerprint is read from the copy.
+	 * 
+	 * @param contentDigester		content digester
+	 */
+	public void setContentDigester(ContentDigester contentDigester) {
+		this.contentDigester = contentDigester;
+	}
+	
 	@Override
 	public Boolean execute() throws Exception {
 		log.debug(dryRunPrefix + "Backing up " + filesToCopy.size() + " files to main backup directory...");
@@ -139,6 +177,30 @@ public class CopyFiles extends BackupEngineWorklet<Boolean> implements FileCopyL
 			filesCopied++;	
 		}
 		filesSize += from.length();
+		if (fileListJournal != null && to != null && result == FileCopier.CopyResult.COPIED && to.exists()) {
+			// only completed copies are recorded; a failed or cancelled copy may have left a partial file, which 
+			// is left out of the file list so it is copied again.  Attributes are read from the copy so the file 
+			// list matches what is actually in the backup
+			try {
+				BackupFile copiedFile = new BackupFile(to, BackupFile.Type.DESTINATION, backupDirectory);
+				BackupFile recordedFile = (recordedFiles == null)? null : recordedFiles.get(copiedFile.getCriticalPath());
+				if (recordedFile != null && from.length() == recordedFile.getLength() && from.lastModified() == recordedFile.getLastModified()
+						&& copiedFile.getLength() == recordedFile.getLength()) {
+					copiedFile.setDigest(recordedFile.getDigest());
+					copiedFile.setFileIdentity(recordedFile.getFileIdentity());
+				}
+				if (contentDigester != null && !isDirectory && ContentDigester.isQuickFingerprinted(copiedFile.getLength())) {
+					try {
+						copiedFile.setQuickFingerprint(contentDigester.quickFingerprint(to));
+					} catch (IOException e) {
+						log.warn("Unable to read quick fingerprint of " + to.getAbsolutePath() + ": " + e.getMessage());
+					}
+				}
+				fileListJournal.fileAdded(copiedFile);
+			} catch (Exception e) {
+				log.warn("Unable to record copy of " + to.getAbsolutePath() + " to file list journal", e);
+			}
+		}
 	}
 
 	public void fileCopying(File from, File to, boolean isDirectory) {
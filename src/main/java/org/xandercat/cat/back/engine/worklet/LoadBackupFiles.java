@@ -1,8 +1,7 @@
 package org.xandercat.cat.back.engine.worklet;
 
 import java.io.File;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
 import org.apache.logging.log4j.LogManager;
@@ -10,7 +9,9 @@ import org.apache.logging.log4j.Logger;
 import org.xandercat.cat.back.engine.BackupEngine;
 import org.xandercat.cat.back.engine.BackupStat;
 import org.xandercat.cat.back.file.BackupFile;
-import org.xandercat.swing.tree.CheckboxFileTree;
+import org.xandercat.cat.back.file.BackupFileIndex;
+import org.xandercat.cat.back.file.ExclusionMatcher;
+import org.xandercat.cat.back.file.SortedDirectoryWalker;
 
 public class LoadBackupFiles extends LoadFilesWorklet<List<BackupFile>> {
 
@@ -18,8 +19,8 @@ public class LoadBackupFiles extends LoadFilesWorklet<List<BackupFile>> {
 	
 	private long totalFiles;
 	
-	public LoadBackupFiles(BackupEngine backupEngine, CheckboxFileTree excludedTree, File backupDirectory, BackupStat statLastBackup) {
-		super(backupEngine, excludedTree, new ArrayList<BackupFile>(), backupDirectory);
+	public LoadBackupFiles(BackupEngine backupEngine, ExclusionMatcher exclusionMatcher, File backupDirectory, BackupStat statLastBackup) {
+		super(backupEngine, exclusionMatcher, new BackupFileIndex(backupDirectory), backupDirectory);
 		this.totalFiles = (statLastBackup == null)? 0 : statLastBackup.getTotalFiles();
 	}
 
@@ -33,21 +34,30 @@ public class LoadBackupFiles extends LoadFilesWorklet<List<BackupFile>> {
 		// no action required
 	}
 
+	/**
+	 * Returns an iterator over the files in the latest backup directory in critical path order.  Files 
+	 * are inspected as the iterator is consumed, and each file returned is also added to the list 
+	 * returned by getBackupFiles().
+	 */
 	@Override
-	public List<BackupFile> execute() throws Exception {
+	public Iterator<BackupFile> execute() throws Exception {
 		log.debug("Loading previous files list (est. " + totalFiles + ")...");
-		List<BackupFile> previousFiles = backupFiles;
-		loadFilesForDirectory(backupDirectory, BackupFile.Type.DESTINATION);
-		if (isCancelled()) {
-			return new ArrayList<BackupFile>();
-		}
-		Collections.sort(previousFiles);
-		log.debug("Total previous files: " + previousFiles.size());
-		return previousFiles;
+		SortedDirectoryWalker walker = createSortedWalker(BackupFile.Type.DESTINATION);
+		walker.addDirectory(backupDirectory);
+		return loadingIterator(walker, true);
+	}
+	
+	/**
+	 * Returns the sorted list of files returned so far by the iterator returned from execute().
+	 * 
+	 * @return		sorted list of files in the latest backup directory
+	 */
+	public List<BackupFile> getBackupFiles() {
+		return backupFiles;
 	}
 
 	@Override
 	public long getProgressMaximum() {
 		return -1;
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
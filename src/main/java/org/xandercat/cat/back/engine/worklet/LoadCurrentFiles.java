@@ -1,20 +1,27 @@
 package org.xandercat.cat.back.engine.worklet;
 
 import java.io.File;
-import java.util.ArrayList;
+import java.io.IOException;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.xandercat.cat.back.engine.BackupEngine;
 import org.xandercat.cat.back.file.BackupFile;
+import org.xandercat.cat.back.file.BackupFileListEditor;
+import org.xandercat.cat.back.file.ExclusionMatcher;
+import org.xandercat.cat.back.file.FileListFingerprint;
+import org.xandercat.cat.back.file.FileListWriter;
+import org.xandercat.cat.back.file.SortedDirectoryWalker;
 import org.xandercat.swing.file.DirectorySizeCache;
 import org.xandercat.swing.file.FilesSize;
-import org.xandercat.swing.tree.CheckboxFileTree;
 import org.xandercat.swing.util.PlatformTool;
 
 public class LoadCurrentFiles extends LoadFilesWorklet<Set<BackupFile>> {
@@ -24,9 +31,14 @@ public class LoadCurrentFiles extends LoadFilesWorklet<Set<BackupFile>> {
 	private Set<File> files;
 	private long totalFiles = -1;
 	private boolean directorySizeLoadStarted;
+	private List<BackupFile> previousFiles;
+	private Set<File> changedFiles;
+	private int incrementalFilesCount = -1;
+	private FileListWriter sourceFileListWriter;
+	private FileListFingerprint sourceFileListFingerprint;
 	
-	public LoadCurrentFiles(BackupEngine backupEngine, CheckboxFileTree excludedTree, Set<File> files, File backupDirectory) {
-		super(backupEngine, excludedTree, new HashSet<BackupFile>(), backupDirectory);
+	public LoadCurrentFiles(BackupEngine backupEngine, ExclusionMatcher exclusionMatcher, Set<File> files, File backupDirectory) {
+		super(backupEngine, exclusionMatcher, new HashSet<BackupFile>(), backupDirectory);
 		this.files = files;
 	}
 
@@ -40,57 +52,320 @@ public class LoadCurrentFiles extends LoadFilesWorklet<Set<BackupFile>> {
 		// no action required
 	}
 
+	/**
+	 * Sets the files found when files were last inspected along with the files and directories that have
+	 * changed since.  When set, only the changed files and directories are inspected; a changed directory is
+	 * listed with the same directory walk as a full inspection, but only the files directly within it are
+	 * compared to the previous inspection.
+	 * 
+	 * @param previousFiles		sorted source files found when files were last inspected
+	 * @param changedFiles		files and directories changed since the last inspection
+	 */
+	public void setChangedFiles(List<BackupFile> previousFiles, Set<File> changedFiles) {
+		this.previousFiles = previousFiles;
+		this.changedFiles = changedFiles;
+	}
+	
+	@Override
+	public int getFilesCount() {
+		return (incrementalFilesCount >= 0)? incrementalFilesCount : super.getFilesCount();
+	}
+	
+	/**
+	 * Sets a writer the files returned are also written to as they are returned.  The file list is finished 
+	 * once all files have been returned; if inspection is cancelled or a file cannot be written, the file 
+	 * list is left unfinished.
+	 * 
+	 * @param sourceFileListWriter		writer for the files returned
+	 */
+	public void setSourceFileListWriter(FileListWriter sourceFileListWriter) {
+		this.sourceFileListWriter = sourceFileListWriter;
+	}
+	
+	/**
+	 * Returns the fingerprint of the source file list written, or null if no file list was set or it was 
+	 * not finished.
+	 * 
+	 * @return		fingerprint of the source file list
+	 */
+	public FileListFingerprint getSourceFileListFingerprint() {
+		return sourceFileListFingerprint;
+	}
+	
+	/**
+	 * Close the source file list, if it is still open; a file list closed before all files were returned 
+	 * is left unfinished.
+	 */
+	public void closeSourceFileList() {
+		if (sourceFileListWriter != null) {
+			try {
+				sourceFileListWriter.close();
+			} catch (IOException e) {
+				log.warn("Unable to close source file list", e);
+			}
+			sourceFileListWriter = null;
+		}
+	}
+	
+	/**
+	 * Returns an iterator over the current files in critical path order, including the parent directories 
+	 * of the included files.  Files are inspected as the iterator is consumed.
+	 */
 	@Override
-	public List<BackupFile> execute() throws Exception {
+	public Iterator<BackupFile> execute() throws Exception {
+		if (previousFiles != null) {
+			return writingIterator(executeForChangedFiles());
+		}
 		log.debug("Loading current files list...");
-		Set<BackupFile> currentFilesSet = backupFiles;	// start out using set for performance
+		Map<String, BackupFile> startFiles = new HashMap<String, BackupFile>();
+		Set<String> walkedDirectories = new HashSet<String>();
+		Set<File> registeredFiles = new HashSet<File>();
 		for (File file : files) {
 			if (isCancelled()) {
-				return new ArrayList<BackupFile>();
+				return Collections.<BackupFile>emptyList().iterator();
 			}
 			if (isExcluded(file)) {
 				continue;
 			}
-			publish("Inspecting " + file.getName());
-			if (file.isDirectory()) {
-				loadFilesForDirectory(file, BackupFile.Type.SOURCE);
-			} 
-			loadFile(file, BackupFile.Type.SOURCE);
-			File parent = file.getParentFile();
-			while (parent != null) {
-				BackupFile parentBackupFile = new BackupFile(parent, BackupFile.Type.SOURCE, backupDirectory);
-				if (!currentFilesSet.contains(parentBackupFile)) {
-					currentFilesSet.add(parentBackupFile);
-				}
-				parent = parent.getParentFile();
+			BackupFile backupFile = new BackupFile(file, BackupFile.Type.SOURCE, backupDirectory, readAttributesIfReadable(file));
+			startFiles.put(backupFile.getCriticalPath(), backupFile);
+			if (backupFile.isDirectory()) {
+				walkedDirectories.add(backupFile.getCriticalPath());
 			}
+			addAncestors(file, startFiles, registeredFiles, backupDirectory);
 		}
 		if (PlatformTool.isMac()) {		// remove Mac root "/"
-			log.debug("Platform is Mac; attempting to remove Mac root from current files list (list size " + currentFilesSet.size() + ")");
+			log.debug("Platform is Mac; attempting to remove Mac root from current files list (list size " + startFiles.size() + ")");
 			BackupFile macRoot = new BackupFile(new File("/"), BackupFile.Type.SOURCE, backupDirectory);
-			if (currentFilesSet.remove(macRoot)) {
+			if (startFiles.remove(macRoot.getCriticalPath()) != null) {
 				log.debug("Mac root removed");
 			} else {
 				log.warn("Unable to remove Mac root file; Mac root not found in list of current files");
 			}
 		}
-		// transfer set of files into list so it can be sorted
-		// we use an iterator to avoid having potentially two enormous collections at once
-		List<BackupFile> currentFiles = new ArrayList<BackupFile>();
-		for (Iterator<BackupFile> iter = currentFilesSet.iterator(); iter.hasNext();) {
-			if (isCancelled()) {
-				return new ArrayList<BackupFile>();
+		SortedDirectoryWalker walker = createSortedWalker(BackupFile.Type.SOURCE);
+		for (BackupFile backupFile : startFiles.values()) {
+			// files within walked directories will be found by the walk
+			if (!isWithinWalkedDirectory(backupFile.getCriticalPath(), walkedDirectories)) {
+				walker.addFile(backupFile, walkedDirectories.contains(backupFile.getCriticalPath()));
 			}
-			BackupFile backupFile = iter.next();
-			currentFiles.add(backupFile);
-			iter.remove();
 		}
-		currentFilesSet = null;
-		Collections.sort(currentFiles);
-		log.debug("Total current files/directories: " + currentFiles.size());		
-		return currentFiles;
+		return writingIterator(loadingIterator(walker, false));
+	}
+	
+	/**
+	 * Returns an iterator that writes the files returned by the given iterator to the source file list, 
+	 * if one was set.
+	 */
+	private Iterator<BackupFile> writingIterator(final Iterator<BackupFile> iterator) {
+		if (sourceFileListWriter == null) {
+			return iterator;
+		}
+		return new Iterator<BackupFile>() {
+			public boolean hasNext() {
+				boolean hasNext = iterator.hasNext();
+				if (!hasNext && sourceFileListWriter != null && !isCancelled()) {
+					try {
+						sourceFileListWriter.finish(0);
+						sourceFileListFingerprint = sourceFileListWriter.getFingerprint();
+					} catch (IOException e) {
+						log.warn("Unable to finish source file list", e);
+					}
+					sourceFileListWriter = null;
+				}
+				return hasNext;
+			}
+			public BackupFile next() {
+				BackupFile backupFile = iterator.next();
+				if (sourceFileListWriter != null) {
+					try {
+						sourceFileListWriter.write(backupFile);
+					} catch (IOException e) {
+						log.warn("Unable to write source file list", e);
+						closeSourceFileList();
+					}
+				}
+				return backupFile;
+			}
+		};
+	}
+
+	/**
+	 * Add the ancestors of the given included file to the given start files.  Registered files are the included 
+	 * files and ancestors already added; since the ancestors of a registered file are always registered with it, 
+	 * climbing stops at the first ancestor found there, and nothing is added for an included file that was 
+	 * already added as the ancestor of another.
+	 * 
+	 * @param file					included file
+	 * @param startFiles			start files by critical path
+	 * @param registeredFiles		included files and ancestors already added
+	 * @param backupDirectory		latest backup directory
+	 */
+	static void addAncestors(File file, Map<String, BackupFile> startFiles, Set<File> registeredFiles, File backupDirectory) {
+		if (!registeredFiles.add(file)) {
+			return;
+		}
+		File parent = file.getParentFile();
+		while (parent != null && registeredFiles.add(parent)) {
+			BackupFile parentBackupFile = new BackupFile(parent, BackupFile.Type.SOURCE, backupDirectory);
+			startFiles.put(parentBackupFile.getCriticalPath(), parentBackupFile);
+			parent = parent.getParentFile();
+		}
 	}
 
+	private static boolean isWithinWalkedDirectory(String criticalPath, Set<String> walkedDirectories) {
+		int i = criticalPath.lastIndexOf(File.separatorChar);
+		while (i >= 0) {
+			criticalPath = criticalPath.substring(0, i);
+			if (walkedDirectories.contains(criticalPath)) {
+				return true;
+			}
+			i = criticalPath.lastIndexOf(File.separatorChar);
+		}
+		return false;
+	}
+	
+	@Override
+	protected boolean isExcluded(File file, BasicFileAttributes attributes) {
+		// exclusion rules do not apply to files that were explicitly included
+		if (files.contains(file)) {
+			return isExcluded(file);
+		}
+		return super.isExcluded(file, attributes);
+	}
+	
+	/**
+	 * Returns an iterator over the current files, merged from the files of the previous inspection and the 
+	 * changed files.  Files of the previous inspection are returned as source files, without creating a new 
+	 * list of all files.
+	 */
+	private Iterator<BackupFile> executeForChangedFiles() {
+		log.debug("Loading current files list from previous inspection with " + changedFiles.size() + " changed locations...");
+		BackupFileListEditor editor = new BackupFileListEditor(previousFiles, 0);
+		for (File changedFile : changedFiles) {
+			if (isCancelled()) {
+				return Collections.<BackupFile>emptyList().iterator();
+			}
+			if (!isIncluded(changedFile) || isExcluded(changedFile)) {
+				continue;
+			}
+			publish("Inspecting " + changedFile.getName());
+			inspectChangedFile(editor, changedFile);
+			// directories walked for the changed file are collected in backupFiles
+			for (BackupFile backupFile : backupFiles) {
+				editor.addFile(backupFile);
+			}
+			backupFiles.clear();
+		}
+		final Iterator<BackupFile> mergeIterator = editor.iterator();
+		this.incrementalFilesCount = 0;
+		return new Iterator<BackupFile>() {
+			public boolean hasNext() {
+				return mergeIterator.hasNext();
+			}
+			public BackupFile next() {
+				BackupFile backupFile = toSourceFile(mergeIterator.next());
+				if (!backupFile.isDirectory()) {
+					incrementalFilesCount++;
+				}
+				return backupFile;
+			}
+		};
+	}
+	
+	private static BackupFile toSourceFile(BackupFile backupFile) {
+		if (backupFile.getType() == BackupFile.Type.SOURCE) {
+			return backupFile;
+		}
+		BackupFile sourceFile = new BackupFile(backupFile.getCriticalPath(), BackupFile.Type.SOURCE, null, backupFile.getLength(), backupFile.getLastModified(), 
+				backupFile.isDirectory());
+		sourceFile.setDigest(backupFile.getDigest());
+		sourceFile.setQuickFingerprint(backupFile.getQuickFingerprint());
+		sourceFile.setFileIdentity(backupFile.getFileIdentity());
+		return sourceFile;
+	}
+	
+	/**
+	 * Update the given editor for a changed file or directory.  For a directory, the directory itself and 
+	 * the files directly within it are compared against the previous inspection; directories that were not 
+	 * previously found are walked in full.
+	 */
+	private void inspectChangedFile(BackupFileListEditor editor, File file) {
+		BasicFileAttributes attributes = readAttributesIfReadable(file);
+		BackupFile backupFile = new BackupFile(file, BackupFile.Type.SOURCE, backupDirectory, attributes);
+		BackupFile previous = editor.getFile(backupFile.getCriticalPath());
+		if (attributes == null && !files.contains(file)) {
+			// file no longer exists (included files are kept even when missing, the same as a full inspection)
+			if (previous != null) {
+				editor.removeFile(previous.getCriticalPath(), previous.isDirectory());
+			}
+			return;
+		}
+		if (previous != null && previous.isDirectory() != backupFile.isDirectory()) {
+			editor.removeFile(previous.getCriticalPath(), previous.isDirectory());
+			previous = null;
+		}
+		editor.addFile(backupFile);
+		advanceProgress(1);
+		if (!backupFile.isDirectory()) {
+			return;
+		}
+		if (previous == null) {
+			loadFilesForDirectory(file, BackupFile.Type.SOURCE);
+			return;
+		}
+		Map<String, BackupFile> previousChildren = new HashMap<String, BackupFile>();
+		for (BackupFile child : editor.getChildren(backupFile.getCriticalPath())) {
+			previousChildren.put(child.getCriticalPath(), child);
+		}
+		// files directly within the directory are listed and inspected the same way as for a full inspection
+		SortedDirectoryWalker walker = createSortedWalker(BackupFile.Type.SOURCE);
+		walker.setWalkSubdirectories(false);
+		walker.addDirectory(file);
+		try {
+			while (walker.hasNext()) {
+				BackupFile child = walker.next();
+				BackupFile previousChild = previousChildren.remove(child.getCriticalPath());
+				if (previousChild != null && previousChild.isDirectory() != child.isDirectory()) {
+					editor.removeFile(previousChild.getCriticalPath(), previousChild.isDirectory());
+					previousChild = null;
+				}
+				editor.addFile(child);
+				advanceProgress(1);
+				if (previousChild == null && child.isDirectory()) {
+					loadFilesForDirectory(child.getFile(), BackupFile.Type.SOURCE);
+				}
+			}
+		} finally {
+			close();
+		}
+		if (isCancelled()) {
+			// a listing cut short would make the files not yet listed appear to have been removed
+			return;
+		}
+		for (BackupFile removed : previousChildren.values()) {
+			editor.removeFile(removed.getCriticalPath(), removed.isDirectory());
+		}
+	}
+	
+	private boolean isIncluded(File file) {
+		while (file != null) {
+			if (files.contains(file)) {
+				return true;
+			}
+			file = file.getParentFile();
+		}
+		return false;
+	}
+	
+	private BasicFileAttributes readAttributesIfReadable(File file) {
+		try {
+			return readAttributes(file);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+	
 	@Override
 	public long getProgressMaximum() {
 		if (totalFiles <= 0) {
@@ -1,65 +1,247 @@
 package org.xandercat.cat.back.engine.worklet;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 
 import org.xandercat.cat.back.engine.BackupEngine;
 import org.xandercat.cat.back.file.BackupFile;
-import org.xandercat.swing.tree.CheckboxFileTree;
-import org.xandercat.swing.util.PlatformTool;
+import org.xandercat.cat.back.file.ChangeDetector;
+import org.xandercat.cat.back.file.DeviceConcurrency;
+import org.xandercat.cat.back.file.DirectoryWalkerFilter;
+import org.xandercat.cat.back.file.DirectoryWalkerListener;
+import org.xandercat.cat.back.file.ExclusionMatcher;
+import org.xandercat.cat.back.file.ExclusionRule;
+import org.xandercat.cat.back.file.MemoryBudget;
+import org.xandercat.cat.back.file.ParallelDirectoryWalker;
+import org.xandercat.cat.back.file.SortedDirectoryWalker;
 
 /**
- * Worklet for loading a list of BackupFile.
+ * Worklet for loading BackupFile.  Worklets return an iterator over the files in critical path order;
+ * files may be inspected as the iterator is consumed rather than when the worklet is executed.
  * 
  * @author Scott Arnold
  */
-public abstract class LoadFilesWorklet<T extends Collection<BackupFile>> extends BackupEngineWorklet<List<BackupFile>> {
+public abstract class LoadFilesWorklet<T extends Collection<BackupFile>> extends BackupEngineWorklet<Iterator<BackupFile>> {
 	
 	protected T backupFiles;
 	protected File backupDirectory;
-	protected CheckboxFileTree excludedTree;
+	protected ExclusionMatcher exclusionMatcher;
+	private List<ExclusionRule> exclusionRules;
 	private volatile long filesSize;
 	private volatile int filesCount;
+	private DeviceConcurrency deviceConcurrency;
+	private MemoryBudget sortMemory;
+	private File sortDirectory;
+	private SortedDirectoryWalker sortedWalker;
+	private ChangeDetector changeDetector;
 	
-	public LoadFilesWorklet(BackupEngine backupEngine, CheckboxFileTree excludedTree, T backupFiles, File backupDirectory) {
+	public LoadFilesWorklet(BackupEngine backupEngine, ExclusionMatcher exclusionMatcher, T backupFiles, File backupDirectory) {
 		super(backupEngine);
 		this.backupFiles = backupFiles;
-		this.excludedTree = excludedTree;
+		this.exclusionMatcher = exclusionMatcher;
 		this.backupDirectory = backupDirectory;
 	}
 	
+	/**
+	 * Sets the devices and number of threads per device used to walk directories.  Default is a 
+	 * single thread per device.  The same device concurrency should be shared by all worklets of a 
+	 * backup so that limits apply across them.
+	 * 
+	 * @param deviceConcurrency		devices and directory walking threads
+	 */
+	public void setDeviceConcurrency(DeviceConcurrency deviceConcurrency) {
+		this.deviceConcurrency = deviceConcurrency;
+	}
+	
+	/**
+	 * Sets the memory shared by directory listings as they are sorted and the directory for sorted runs 
+	 * that do not fit in memory.  See SortedDirectoryWalker.setSortMemory(MemoryBudget, File).
+	 * 
+	 * @param sortMemory			memory budget for sorting listings (can be null)
+	 * @param sortDirectory			directory for sorted runs (can be null)
+	 */
+	public void setSortMemory(MemoryBudget sortMemory, File sortDirectory) {
+		this.sortMemory = sortMemory;
+		this.sortDirectory = sortDirectory;
+	}
+	
+	/**
+	 * Sets the change detector that reads the attributes of the files loaded, so files are loaded with any 
+	 * attributes it compares files by.  By default, only basic file attributes are read.
+	 * 
+	 * @param changeDetector		change detector
+	 */
+	public void setChangeDetector(ChangeDetector changeDetector) {
+		this.changeDetector = changeDetector;
+	}
+	
+	/**
+	 * Returns the attributes of the given file, read by the change detector if one is set.
+	 * 
+	 * @param file					file to read the attributes of
+	 * 
+	 * @return						attributes of the file
+	 * 
+	 * @throws IOException			if the attributes cannot be read
+	 */
+	protected BasicFileAttributes readAttributes(File file) throws IOException {
+		if (changeDetector != null) {
+			return changeDetector.readAttributes(file);
+		}
+		return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+	}
+	
+	private DeviceConcurrency getDeviceConcurrency() {
+		if (deviceConcurrency == null) {
+			deviceConcurrency = new DeviceConcurrency(1);
+		}
+		return deviceConcurrency;
+	}
+	
+	/**
+	 * Sets the pattern based exclusion rules to apply to files found within directories.  Rules are
+	 * not applied to files passed to isExcluded(File) directly.
+	 * 
+	 * @param exclusionRules	exclusion rules
+	 */
+	public void setExclusionRules(List<ExclusionRule> exclusionRules) {
+		this.exclusionRules = exclusionRules;
+	}
+	
 	protected boolean isExcluded(File file) {
-		return excludedTree.isChecked(file);
+		return exclusionMatcher.isExcluded(file);
+	}
+	
+	protected boolean isExcluded(File file, BasicFileAttributes attributes) {
+		if (exclusionMatcher.isExcluded(file)) {
+			return true;
+		}
+		if (exclusionRules != null) {
+			boolean directory = (attributes != null && attributes.isDirectory());
+			for (ExclusionRule exclusionRule : exclusionRules) {
+				if (exclusionRule.matches(file, directory)) {
+					exclusionRule.recordExcluded((attributes == null || directory)? 0 : attributes.size());
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+	
+	protected void listingProgress(File directory, int entriesListed) {
+		publish("Listing " + directory.getName() + " (" + entriesListed + " files)");
 	}
 	
-	protected void loadFile(File file, BackupFile.Type type) {
-		backupFiles.add(new BackupFile(file, type, backupDirectory));
-		filesSize += file.length();
-		if (!file.isDirectory()) {
+	protected void loadFile(File file, BasicFileAttributes attributes, BackupFile.Type type) {
+		loadFile(new BackupFile(file, type, backupDirectory, attributes));
+	}
+	
+	protected synchronized void loadFile(BackupFile backupFile) {
+		backupFiles.add(backupFile);
+		countFile(backupFile);
+	}
+	
+	protected synchronized void countFile(BackupFile backupFile) {
+		filesSize += backupFile.getLength();
+		if (!backupFile.isDirectory()) {
 			filesCount++;
 		}
-		publish("Inspecting " + file.getName());
+		publish("Inspecting " + backupFile.getName());
 		advanceProgress(1);
 	}
 	
-	protected void loadFilesForDirectory(File directory, BackupFile.Type type) {
+	protected void loadFilesForDirectory(File directory, final BackupFile.Type type) {
 		if (!isCancelled()) {
-			File[] dirFiles = directory.listFiles(PlatformTool.FILE_FILTER);
-			if (dirFiles != null) {
-				for (File file : dirFiles) {
-					if (isExcluded(file)) {
-						continue;
-					}
-					if (file.isDirectory()) {
-						loadFilesForDirectory(file, type);
-					} 
-					loadFile(file, type);
+			ParallelDirectoryWalker walker = new ParallelDirectoryWalker(getDeviceConcurrency().getDevice(directory).getThreads(), new DirectoryWalkerListener() {
+				public boolean isWalkCancelled() {
+					return isCancelled();
+				}
+				public BasicFileAttributes readAttributes(File file) throws IOException {
+					return LoadFilesWorklet.this.readAttributes(file);
+				}
+				public boolean isExcluded(File file, BasicFileAttributes attributes) {
+					return LoadFilesWorklet.this.isExcluded(file, attributes);
 				}
+				public void listingProgress(File directory, int entriesListed) {
+					LoadFilesWorklet.this.listingProgress(directory, entriesListed);
+				}
+				public void fileFound(File file, BasicFileAttributes attributes) {
+					loadFile(file, attributes, type);
+				}
+			});
+			walker.walk(directory);
+		}
+	}
+	
+	/**
+	 * Creates a walker that returns files in critical path order using this worklet's device concurrency and exclusions.
+	 * 
+	 * @param type		type of backup files to create
+	 * 
+	 * @return			sorted directory walker
+	 */
+	protected SortedDirectoryWalker createSortedWalker(BackupFile.Type type) {
+		close();
+		sortedWalker = new SortedDirectoryWalker(getDeviceConcurrency(), new DirectoryWalkerFilter() {
+			public boolean isWalkCancelled() {
+				return isCancelled();
 			}
+			public BasicFileAttributes readAttributes(File file) throws IOException {
+				return LoadFilesWorklet.this.readAttributes(file);
+			}
+			public boolean isExcluded(File file, BasicFileAttributes attributes) {
+				return LoadFilesWorklet.this.isExcluded(file, attributes);
+			}
+			public void listingProgress(File directory, int entriesListed) {
+				LoadFilesWorklet.this.listingProgress(directory, entriesListed);
+			}
+		}, type, backupDirectory);
+		sortedWalker.setSortMemory(sortMemory, sortDirectory);
+		return sortedWalker;
+	}
+	
+	/**
+	 * Stops any walk still in progress for the iterator returned by execute() and releases the threads
+	 * used by it.  Should be called once the iterator is no longer needed, whether or not it was exhausted.
+	 */
+	public void close() {
+		if (sortedWalker != null) {
+			sortedWalker.close();
+			sortedWalker = null;
 		}
 	}
 	
+	/**
+	 * Returns an iterator over the given files that counts each file as it is returned.  If load is true, 
+	 * each file is also added to backupFiles.
+	 * 
+	 * @param files		files to iterate over
+	 * @param load		whether or not to add files to backupFiles
+	 * 
+	 * @return			iterator over files
+	 */
+	protected Iterator<BackupFile> loadingIterator(final Iterator<BackupFile> files, final boolean load) {
+		return new Iterator<BackupFile>() {
+			public boolean hasNext() {
+				return files.hasNext();
+			}
+			public BackupFile next() {
+				BackupFile backupFile = files.next();
+				if (load) {
+					loadFile(backupFile);
+				} else {
+					countFile(backupFile);
+				}
+				return backupFile;
+			}
+		};
+	}
+	
 	public long getFilesSize() {
 		return filesSize;
 	}
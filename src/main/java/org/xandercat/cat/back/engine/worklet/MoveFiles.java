@@ -8,8 +8,9 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.xandercat.cat.back.engine.BackupEngine;
 import org.xandercat.cat.back.file.BackupFile;
+import org.xandercat.cat.back.file.FileListJournal;
+import org.xandercat.cat.back.file.MetadataFiles;
 import org.xandercat.swing.file.DirectorySizeCache;
-import org.xandercat.swing.file.FileManager;
 import org.xandercat.swing.file.FilesSize;
 
 public class MoveFiles extends BackupEngineWorklet<Void> {
@@ -19,6 +20,8 @@ public class MoveFiles extends BackupEngineWorklet<Void> {
 	private List<BackupFile> filesToMove;
 	private List<File> filesToCopy;
 	private File incrementalBackupDirectory;
+	private FileListJournal fileListJournal;
+	private MetadataFiles metadataFiles = new MetadataFiles(false);
 	private volatile int filesMoved;
 	private volatile long filesSize;
 	private boolean dryRun;
@@ -31,6 +34,24 @@ public class MoveFiles extends BackupEngineWorklet<Void> {
 		this.incrementalBackupDirectory = incrementalBackupDirectory;
 	}
 
+	/**
+	 * Sets the journal that successfully moved files are recorded to.
+	 * 
+	 * @param fileListJournal		latest backup file list journal
+	 */
+	public void setFileListJournal(FileListJournal fileListJournal) {
+		this.fileListJournal = fileListJournal;
+	}
+
+	/**
+	 * Sets the metadata files the size of the incremental backup is saved through.
+	 * 
+	 * @param metadataFiles			metadata files
+	 */
+	public void setMetadataFiles(MetadataFiles metadataFiles) {
+		this.metadataFiles = metadataFiles;
+	}
+
 	@Override
 	public String getTitle() {
 		return "Moving old files";
@@ -61,15 +82,17 @@ public class MoveFiles extends BackupEngineWorklet<Void> {
 				continue;
 			}
 			try {
+				File file = latestFile.getFile();
 				File generationFile = latestFile.toGenerationFile(incrementalBackupDirectory);
-				log.debug("Renaming " + latestFile.getFile().getAbsolutePath() + " to " + generationFile.getAbsolutePath());
+				log.debug("Renaming " + file.getAbsolutePath() + " to " + generationFile.getAbsolutePath());
 				publish(dryRunPrefix + "Moving " + generationFile.getName());
 				if (!dryRun) {
 					generationFile.getParentFile().mkdirs();
-					if (!latestFile.getFile().renameTo(generationFile)) {
+					if (!file.renameTo(generationFile)) {
 						moveFailures.add(latestFile);
 						log.warn("Unable to move file " + latestFile.toString());
 					} else {
+						recordMove(latestFile);
 						if (generationFile.isDirectory()) {
 							directoriesMoved.add(latestFile);
 							FilesSize size = DirectorySizeCache.getInstance().loadDirectorySize(generationFile);
@@ -80,7 +103,7 @@ public class MoveFiles extends BackupEngineWorklet<Void> {
 							filesSize += generationFile.length();
 						}
 						// remove any directory that is empty and is not itself to be backed up
-						File parent = latestFile.getFile().getParentFile();
+						File parent = file.getParentFile();
 						while (parent != null && parent.listFiles() == null) {
 							if (!filesToCopy.contains(parent)) {	// potentially expensive call, but shouldn't happen often
 								try {
@@ -112,7 +135,7 @@ public class MoveFiles extends BackupEngineWorklet<Void> {
 			if (dryRun) {
 				log.info(dryRunPrefix + " skipping creation of incremental directory file: " + sizeFile.getAbsolutePath());
 			} else {
-				FileManager.saveObject(sizeFile, Long.valueOf(filesSize));
+				metadataFiles.saveObject(sizeFile, Long.valueOf(filesSize));
 			}
 		} catch (Exception e) {
 			log.warn("Unable to save incremental backup size to file: " + sizeFile.getAbsolutePath());
@@ -123,6 +146,16 @@ public class MoveFiles extends BackupEngineWorklet<Void> {
 		return null;
 	}
 	
+	private void recordMove(BackupFile latestFile) {
+		if (fileListJournal != null) {
+			try {
+				fileListJournal.fileRemoved(latestFile);
+			} catch (Exception e) {
+				log.warn("Unable to record move of " + latestFile.toString() + " to file list journal", e);
+			}
+		}
+	}
+	
 	/**
 	 * Returns whether or not the given backup file has already been moved due to the move
 	 * of a parent directory.  Note that this method requires that backup files be ordered
@@ -0,0 +1,156 @@
+package org.xandercat.cat.back.engine.worklet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.xandercat.cat.back.engine.BackupEngine;
+import org.xandercat.cat.back.file.BackupFile;
+import org.xandercat.cat.back.file.FileListJournal;
+import org.xandercat.cat.back.file.RenamedFile;
+
+/**
+ * Worklet for relocating the backups of renamed files within the backup, rather than copying the renamed files
+ * from the source again.  Run once old files have been moved, the backup of each renamed file is in the
+ * incremental backup directory under its old critical path, where it is kept; it is copied within the backup
+ * file store to the latest backup directory under its new critical path.  The relocated backup is a separate
+ * file from the one kept in the incremental backup directory, so later changes to it (such as a new last
+ * modified time, see BackupEngine.updateUnchangedFiles) leave the incremental backup as it was.
+ *
+ * A renamed file whose old backup is not in the incremental backup directory (as when it could not be moved)
+ * cannot be relocated; it is returned as a relocation failure, to be copied from the source instead.
+ *
+ * @author Scott Arnold
+ */
+public class RelocateFiles extends BackupEngineWorklet<Void> {
+
+	private static final Logger log = LogManager.getLogger(RelocateFiles.class);
+
+	private List<RenamedFile> renamedFiles;
+	private File incrementalBackupDirectory;
+	private File backupDirectory;
+	private FileListJournal fileListJournal;
+	private List<BackupFile> relocationFailures = new ArrayList<BackupFile>();
+	private volatile int filesRelocated;
+	private volatile long filesSize;
+	private boolean dryRun;
+	private String dryRunPrefix = "";
+
+	public RelocateFiles(BackupEngine backupEngine, List<RenamedFile> renamedFiles, File incrementalBackupDirectory, File backupDirectory) {
+		super(backupEngine);
+		this.renamedFiles = renamedFiles;
+		this.incrementalBackupDirectory = incrementalBackupDirectory;
+		this.backupDirectory = backupDirectory;
+	}
+
+	/**
+	 * Sets the journal that relocated files are recorded to.
+	 *
+	 * @param fileListJournal		latest backup file list journal
+	 */
+	public void setFileListJournal(FileListJournal fileListJournal) {
+		this.fileListJournal = fileListJournal;
+	}
+
+	@Override
+	public String getTitle() {
+		return "Relocating renamed files";
+	}
+
+	@Override
+	public void enableDryRun(String dryRunPrefix, Long speedFactor) {
+		this.dryRun = true;
+		this.dryRunPrefix = dryRunPrefix;
+	}
+
+	@Override
+	public Void execute() throws Exception {
+		log.debug(dryRunPrefix + "Relocating backups of renamed files...");
+		for (RenamedFile renamedFile : renamedFiles) {
+			if (isCancelled()) {
+				break;
+			}
+			BackupFile previousFile = renamedFile.getPreviousFile();
+			BackupFile currentFile = renamedFile.getCurrentFile();
+			File generationFile = previousFile.toGenerationFile(incrementalBackupDirectory);
+			File file = new File(backupDirectory, currentFile.getCriticalPath());
+			publish(dryRunPrefix + "Relocating " + file.getName());
+			if (dryRun) {
+				log.info(dryRunPrefix + "Relocating " + generationFile.getAbsolutePath() + " to " + file.getAbsolutePath());
+				filesRelocated++;
+				filesSize += currentFile.getLength();
+			} else if (!generationFile.isFile() || generationFile.length() != previousFile.getLength() || file.exists()) {
+				log.warn("Unable to relocate " + previousFile.getCriticalPath() + " to " + currentFile.getCriticalPath() + "; file will be copied");
+				relocationFailures.add(currentFile);
+			} else {
+				try {
+					relocate(generationFile, file);
+					recordRelocation(previousFile, currentFile, file);
+					filesRelocated++;
+					filesSize += currentFile.getLength();
+				} catch (IOException e) {
+					log.warn("Unable to relocate " + previousFile.getCriticalPath() + " to " + currentFile.getCriticalPath() + "; file will be copied", e);
+					relocationFailures.add(currentFile);
+				}
+			}
+			advanceProgress(1);
+		}
+		return null;
+	}
+
+	/**
+	 * Copy the given file to the given new file.
+	 */
+	private void relocate(File generationFile, File file) throws IOException {
+		file.getParentFile().mkdirs();
+		Files.copy(generationFile.toPath(), file.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+	}
+
+	/**
+	 * Record the given relocated file to the journal.  Its contents are those of the previous backup, so it keeps
+	 * the digest and quick fingerprint recorded for it, and takes the source file identity of the current file.
+	 */
+	private void recordRelocation(BackupFile previousFile, BackupFile currentFile, File file) {
+		if (fileListJournal != null) {
+			BackupFile backupFile = new BackupFile(file, BackupFile.Type.DESTINATION, backupDirectory);
+			if (backupFile.getLength() == previousFile.getLength()) {
+				backupFile.setDigest(previousFile.getDigest());
+				backupFile.setQuickFingerprint(previousFile.getQuickFingerprint());
+				backupFile.setFileIdentity(currentFile.getFileIdentity());
+			}
+			try {
+				fileListJournal.fileAdded(backupFile);
+			} catch (Exception e) {
+				log.warn("Unable to record relocation of " + file.getAbsolutePath() + " to file list journal", e);
+			}
+		}
+	}
+
+	@Override
+	public long getProgressMaximum() {
+		return renamedFiles.size();
+	}
+
+	/**
+	 * Returns the current files of the renamed files that could not be relocated, which need to be copied from
+	 * the source instead.
+	 *
+	 * @return		current files not relocated
+	 */
+	public List<BackupFile> getRelocationFailures() {
+		return relocationFailures;
+	}
+
+	public int getFilesRelocated() {
+		return filesRelocated;
+	}
+
+	public long getFilesSize() {
+		return filesSize;
+	}
+}
@@ -1,11 +1,27 @@
 package org.xandercat.cat.back.file;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
 
 /**
  * BackupFile contains information on a File that allows a source file to be compared against
- * a backup file.
+ * a backup file.  File attributes (length, last modified time, and whether or not the file is a 
+ * directory) are captured once when the BackupFile is created so that comparing backup files does
+ * not require any further file system access.
+ * 
+ * Only the critical path of the file and the root it is within are kept; the File itself is created 
+ * each time getFile() is called, which is only needed to move or copy the file.  The root of a 
+ * destination file is the latest backup directory, which is shared by every destination file; source 
+ * files are relative to the file system root, so they need no root at all.
+ * 
+ * A BackupFile may also hold a digest and a quick fingerprint of the contents of the file (see 
+ * ContentDigester), for files whose contents have been digested or fingerprinted, and the identity of
+ * the source file (see FileIdentity), for source files inspected by a FileIdentityChangeDetector and the
+ * backups of those files.
  * 
  * @author Scott C Arnold
  */
@@ -13,29 +29,134 @@ public class BackupFile implements Comparable<BackupFile>, Serializable {
 
 	private static final long serialVersionUID = 2013072001L;
 
-	public static final long LAST_MOD_PRECISION = 1000000;  //upped to 1000k from 1k due to thumb drive behavior
+	public static final long LAST_MOD_PRECISION = 1000000;  //upped to 1000k from 1k due to thumb drive behavior; see TimestampPrecision
 			
-	private File file;
+	private File root;					// latest backup directory for destination files; null for source files
+	private File file;					// only set while reading a BackupFile serialized prior to v1.6.1
 	private Type type;
 	private String criticalPath;
+	private long length;
+	private long lastModified;
+	private boolean directory;
+	private boolean attributesCaptured;	// false for BackupFile serialized prior to v1.6.1
+	private byte[] digest;				// digest of the contents of the file, or null if not digested
+	private long quickFingerprint;		// quick fingerprint of the contents of the file, or 0 if not fingerprinted
+	private FileIdentity fileIdentity;	// identity of the source file, or null if unknown
 	
 	public enum Type {
 		SOURCE, DESTINATION;
 	}
 	
+	/**
+	 * Constructs a new BackupFile, reading the attributes of the file from the file system.
+	 * 
+	 * @param file						the file
+	 * @param type						whether file is a source file or a file in the latest backup directory
+	 * @param latestBackupDirectory		latest backup directory (used for destination files only)
+	 */
 	public BackupFile(File file, Type type, File latestBackupDirectory) {
-		this.file = file;
+		this(file, type, latestBackupDirectory, readAttributes(file));
+	}
+	
+	/**
+	 * Constructs a new BackupFile using attributes that have already been read for the file.  If 
+	 * attributes is null, the file is treated as an empty non-directory file (this is the same 
+	 * result java.io.File gives for a file that cannot be read).
+	 * 
+	 * @param file						the file
+	 * @param type						whether file is a source file or a file in the latest backup directory
+	 * @param latestBackupDirectory		latest backup directory (used for destination files only)
+	 * @param attributes				attributes of the file
+	 */
+	public BackupFile(File file, Type type, File latestBackupDirectory, BasicFileAttributes attributes) {
 		this.type = type;
 		if (type == Type.SOURCE) {
 			this.criticalPath = BackupPathGenerator.generateCriticalPath(file);
 		} else if (type == Type.DESTINATION) {
+			this.root = latestBackupDirectory;
 			int beginIndex = latestBackupDirectory.getAbsolutePath().length() + File.separator.length();
 			this.criticalPath = file.getAbsolutePath().substring(beginIndex); 
 		}
+		setAttributes(attributes);
+	}
+	
+	/**
+	 * Constructs a new BackupFile using previously recorded attributes.
+	 * 
+	 * @param file						the file
+	 * @param type						whether file is a source file or a file in the latest backup directory
+	 * @param latestBackupDirectory		latest backup directory (used for destination files only)
+	 * @param length					length of the file in bytes
+	 * @param lastModified				last modified time of the file
+	 * @param directory					whether or not the file is a directory
+	 */
+	public BackupFile(File file, Type type, File latestBackupDirectory, long length, long lastModified, boolean directory) {
+		this(file, type, latestBackupDirectory, (BasicFileAttributes) null);
+		this.length = length;
+		this.lastModified = lastModified;
+		this.directory = directory;
 	}
 	
+	/**
+	 * Constructs a new BackupFile for the file with the given critical path using previously recorded
+	 * attributes.  No File is created for the file.
+	 * 
+	 * @param criticalPath				critical path of the file
+	 * @param type						whether file is a source file or a file in the latest backup directory
+	 * @param latestBackupDirectory		latest backup directory (used for destination files only)
+	 * @param length					length of the file in bytes
+	 * @param lastModified				last modified time of the file
+	 * @param directory					whether or not the file is a directory
+	 */
+	public BackupFile(String criticalPath, Type type, File latestBackupDirectory, long length, long lastModified, boolean directory) {
+		this.type = type;
+		this.root = (type == Type.DESTINATION)? latestBackupDirectory : null;
+		this.criticalPath = criticalPath;
+		this.length = length;
+		this.lastModified = lastModified;
+		this.directory = directory;
+		this.attributesCaptured = true;
+	}
+	
+	private static BasicFileAttributes readAttributes(File file) {
+		try {
+			return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+	
+	private void setAttributes(BasicFileAttributes attributes) {
+		if (attributes != null) {
+			this.directory = attributes.isDirectory();
+			this.length = attributes.size();
+			this.lastModified = attributes.lastModifiedTime().toMillis();
+			if (attributes instanceof FileIdentity.Attributes) {
+				this.fileIdentity = ((FileIdentity.Attributes) attributes).getFileIdentity();
+			}
+		}
+		this.attributesCaptured = true;
+	}
+	
+	/**
+	 * Returns the file.  A new File is created on each call.
+	 * 
+	 * @return		the file
+	 */
 	public File getFile() {
-		return file;
+		if (type == Type.DESTINATION) {
+			return new File(root, criticalPath);
+		}
+		return BackupPathGenerator.generateSourceFile(criticalPath);
+	}
+	
+	/**
+	 * Returns the name of the file, without creating a File.
+	 * 
+	 * @return		name of the file
+	 */
+	public String getName() {
+		return criticalPath.substring(criticalPath.lastIndexOf(File.separatorChar) + 1);
 	}
 
 	public Type getType() {
@@ -46,6 +167,58 @@ public class BackupFile implements Comparable<BackupFile>, Serializable {
 		return criticalPath;
 	}
 	
+	public long getLength() {
+		return length;
+	}
+	
+	public long getLastModified() {
+		return lastModified;
+	}
+	
+	public boolean isDirectory() {
+		return directory;
+	}
+	
+	/**
+	 * Returns the digest of the contents of the file, or null if the contents have not been digested.
+	 * 
+	 * @return		digest of the file contents
+	 */
+	public byte[] getDigest() {
+		return digest;
+	}
+	
+	public void setDigest(byte[] digest) {
+		this.digest = digest;
+	}
+	
+	/**
+	 * Returns the quick fingerprint of the contents of the file, or 0 if the file has not been fingerprinted.
+	 * 
+	 * @return		quick fingerprint of the file contents
+	 */
+	public long getQuickFingerprint() {
+		return quickFingerprint;
+	}
+	
+	public void setQuickFingerprint(long quickFingerprint) {
+		this.quickFingerprint = quickFingerprint;
+	}
+	
+	/**
+	 * Returns the identity of the source file, or null if it is unknown.  For a destination file, this is the 
+	 * identity of the source file it is the backup of.
+	 * 
+	 * @return		identity of the source file
+	 */
+	public FileIdentity getFileIdentity() {
+		return fileIdentity;
+	}
+	
+	public void setFileIdentity(FileIdentity fileIdentity) {
+		this.fileIdentity = fileIdentity;
+	}
+	
 	public int compareTo(BackupFile other) {
 		return (other == null)? -1 : criticalPath.compareTo(other.criticalPath);
 	}
@@ -64,12 +237,26 @@ public class BackupFile implements Comparable<BackupFile>, Serializable {
 	}
 	
 	public boolean isFileEquivalent(BackupFile other) {
+		return isFileEquivalent(other, LAST_MOD_PRECISION);
+	}
+	
+	/**
+	 * Returns whether or not the given file is the same file with the same contents, judging by length and
+	 * last modified time, and by quick fingerprint if both files have one.  Last modified times that differ by 
+	 * less than the given precision are considered the same; a precision of 1 requires them to be equal.
+	 * 
+	 * @param other					other file
+	 * @param lastModPrecision		precision of last modified times in milliseconds
+	 * 
+	 * @return						whether or not the files are equivalent
+	 */
+	public boolean isFileEquivalent(BackupFile other, long lastModPrecision) {
 		if (!criticalPath.equals(other.criticalPath)) {
 			return false;
 		}
-		return (file.isDirectory() || 
-				(file.length() == other.file.length() && 
-						(file.lastModified() / LAST_MOD_PRECISION == other.file.lastModified() / LAST_MOD_PRECISION)));
+		return (directory || 
+				(length == other.length && Math.abs(lastModified - other.lastModified) < lastModPrecision
+						&& (quickFingerprint == 0 || other.quickFingerprint == 0 || quickFingerprint == other.quickFingerprint)));
 //		if (!fe || (file.getName() != null && file.getName().equals("BackupFile.java"))) {
 //			System.out.println("cp1:" + criticalPath);
 //			System.out.println("cp2:" + other.criticalPath);
@@ -91,10 +278,26 @@ public class BackupFile implements Comparable<BackupFile>, Serializable {
 	
 	@Override
 	public String toString() {
-		return criticalPath + " [" + type.toString() + "->" + file.getAbsolutePath() + "]";
+		return criticalPath + " [" + type.toString() + "->" + getFile().getAbsolutePath() + "]";
 	}
 	
 	public File toGenerationFile(File generationBackupDirectory) {
 		return new File(generationBackupDirectory.getAbsolutePath() + File.separator + criticalPath);
 	}
+	
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		if (file != null) {
+			// the file itself was serialized prior to v1.6.1; only the root it is within is kept now
+			if (type == Type.DESTINATION) {
+				String path = file.getAbsolutePath();
+				root = new File(path.substring(0, Math.max(0, path.length() - criticalPath.length() - File.separator.length())));
+			}
+			// attributes were added in v1.6.1; need to read them from the file system for older loads
+			if (!attributesCaptured) {
+				setAttributes(readAttributes(file));
+			}
+			file = null;
+		}
+	}
 }
@@ -0,0 +1,66 @@
+package org.xandercat.cat.back.file;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * A sorted list of destination backup files whose attributes can be read by position without creating
+ * a BackupFile for each file.
+ *
+ * @author Scott Arnold
+ */
+public interface BackupFileColumns extends List<BackupFile> {
+
+	/**
+	 * Returns the latest backup directory the files of this list are in.
+	 *
+	 * @return		latest backup directory
+	 */
+	public File getLatestBackupDirectory();
+
+	public String getCriticalPath(int index);
+
+	public long getLength(int index);
+
+	public long getLastModified(int index);
+
+	public boolean isDirectory(int index);
+
+	/**
+	 * Returns the digest of the contents of the file at the given index, or null if the file has no digest.
+	 *
+	 * @param index		index of file
+	 *
+	 * @return			digest of the file contents
+	 */
+	public byte[] getDigest(int index);
+
+	/**
+	 * Returns the quick fingerprint of the contents of the file at the given index, or 0 if the file has no
+	 * quick fingerprint.
+	 *
+	 * @param index		index of file
+	 *
+	 * @return			quick fingerprint of the file contents
+	 */
+	public long getQuickFingerprint(int index);
+
+	/**
+	 * Returns the identity of the source file of the file at the given index, or null if unknown.
+	 *
+	 * @param index		index of file
+	 *
+	 * @return			identity of the source file
+	 */
+	public FileIdentity getFileIdentity(int index);
+
+	/**
+	 * Returns the index of the first file whose critical path is not less than the given critical path,
+	 * or the size of the list if there is no such file.
+	 *
+	 * @param criticalPath		critical path to search for
+	 *
+	 * @return					index of first file not less than the critical path
+	 */
+	public int search(String criticalPath);
+}
@@ -0,0 +1,534 @@
+package org.xandercat.cat.back.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * BackupFileIndex is a compact, sorted list of the files in the latest backup directory.  Rather than
+ * holding a BackupFile (with its java.io.File and critical path) for every file, attributes are held in
+ * primitive arrays, and each path is held as the index of its parent directory plus the UTF-8 bytes of its
+ * name in a shared pool.  A BackupFile is created only when an element is retrieved.  A typical index
+ * takes 25 bytes per file plus the length of the file's name.  Content digests, quick fingerprints and source
+ * file identities are held only for the files that have them, as the index of the file plus the digest,
+ * fingerprint or identity.
+ *
+ * Files can only be added in critical path order, and cannot be removed or replaced; use a
+ * BackupFileListEditor to make changes, which builds a new index when changes are applied.  An index is
+ * not safe for use by multiple threads while files are being added.
+ *
+ * @author Scott Arnold
+ */
+public class BackupFileIndex extends AbstractList<BackupFile> implements BackupFileColumns, RandomAccess, Serializable {
+
+	private static final long serialVersionUID = 2023042901L;
+
+	private static final int INITIAL_CAPACITY = 1024;
+	private static final int NO_PARENT = -1;
+
+	private File latestBackupDirectory;
+	private int size;
+	private transient long[] lengths;
+	private transient long[] lastModifieds;
+	private transient int[] parents;		// index of parent directory, or NO_PARENT if name holds the whole path
+	private transient int[] nameOffsets;	// offset of each name in names; name i ends where name i + 1 begins
+	private transient byte[] names;
+	private transient long[] directories;	// bit set of entries that are directories
+	private transient int namesLength;
+	private transient int[] digestIndexes;	// sorted indexes of entries with digests; null until a digest is added
+	private transient byte[] digests;		// digest of each entry of digestIndexes, one after another
+	private transient int digestCount;
+	private transient int[] fingerprintIndexes;	// sorted indexes of entries with quick fingerprints; null until one is added
+	private transient long[] fingerprints;
+	private transient int fingerprintCount;
+	private transient int[] identityIndexes;	// sorted indexes of entries with file identities; null until one is added
+	private transient long[] identities;		// device, inode and status change time of each entry of identityIndexes
+	private transient int identityCount;
+
+	// used while adding files only; directories that files could still be added to, and the last path added
+	private transient List<String> openDirectoryPaths;
+	private transient List<Integer> openDirectoryIndexes;
+	private transient String lastCriticalPath;
+
+	/**
+	 * Constructs a new, empty index for files in the given latest backup directory.
+	 *
+	 * @param latestBackupDirectory		latest backup directory
+	 */
+	public BackupFileIndex(File latestBackupDirectory) {
+		this.latestBackupDirectory = latestBackupDirectory;
+		allocate(INITIAL_CAPACITY, INITIAL_CAPACITY * 16);
+	}
+
+	/**
+	 * Returns a new index holding the given backup files.  The backup files must be sorted.
+	 *
+	 * @param backupFiles				sorted list of destination backup files
+	 * @param latestBackupDirectory		latest backup directory
+	 *
+	 * @return							index of backup files
+	 */
+	public static BackupFileIndex copyOf(List<BackupFile> backupFiles, File latestBackupDirectory) {
+		if (backupFiles instanceof BackupFileIndex) {
+			return (BackupFileIndex) backupFiles;
+		}
+		BackupFileIndex index = new BackupFileIndex(latestBackupDirectory);
+		for (BackupFile backupFile : backupFiles) {
+			index.add(backupFile);
+		}
+		index.trimToSize();
+		return index;
+	}
+
+	private void allocate(int capacity, int namesCapacity) {
+		this.lengths = new long[capacity];
+		this.lastModifieds = new long[capacity];
+		this.parents = new int[capacity];
+		this.nameOffsets = new int[capacity + 1];
+		this.directories = new long[(capacity + 63) / 64];
+		this.names = new byte[namesCapacity];
+	}
+
+	/**
+	 * Returns the latest backup directory the files of this index are in.
+	 *
+	 * @return		latest backup directory
+	 */
+	public File getLatestBackupDirectory() {
+		return latestBackupDirectory;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Add a file to the end of this index.  The file must be a destination file whose critical path
+	 * follows that of the last file added.
+	 *
+	 * @param backupFile		file to add
+	 *
+	 * @return					true
+	 */
+	@Override
+	public boolean add(BackupFile backupFile) {
+		if (backupFile.getType() != BackupFile.Type.DESTINATION) {
+			throw new IllegalArgumentException("Only destination files can be added to a backup file index.");
+		}
+		add(backupFile.getCriticalPath(), backupFile.getLength(), backupFile.getLastModified(), backupFile.isDirectory(), backupFile.getDigest(), backupFile.getQuickFingerprint(), 
+				backupFile.getFileIdentity());
+		return true;
+	}
+
+	/**
+	 * Add a file to the end of this index.  The critical path must follow that of the last file added.
+	 *
+	 * @param criticalPath		critical path of the file
+	 * @param length			length of the file
+	 * @param lastModified		last modified time of the file
+	 * @param directory			whether or not the file is a directory
+	 */
+	public void add(String criticalPath, long length, long lastModified, boolean directory) {
+		add(criticalPath, length, lastModified, directory, null, 0, null);
+	}
+
+	/**
+	 * Add a file with a content digest, quick fingerprint or source file identity to the end of this index.  
+	 * The critical path must follow that of the last file added.
+	 *
+	 * @param criticalPath		critical path of the file
+	 * @param length			length of the file
+	 * @param lastModified		last modified time of the file
+	 * @param directory			whether or not the file is a directory
+	 * @param digest			digest of the contents of the file, or null if none
+	 * @param quickFingerprint	quick fingerprint of the contents of the file, or 0 if none
+	 * @param fileIdentity		identity of the source file, or null if unknown
+	 */
+	public void add(String criticalPath, long length, long lastModified, boolean directory, byte[] digest, long quickFingerprint, 
+			FileIdentity fileIdentity) {
+		if (digest != null && digest.length != ContentDigester.DIGEST_LENGTH) {
+			throw new IllegalArgumentException("Digest must be " + ContentDigester.DIGEST_LENGTH + " bytes: " + criticalPath);
+		}
+		if (size > 0) {
+			if (lastCriticalPath == null) {
+				lastCriticalPath = getCriticalPath(size - 1);
+			}
+			if (criticalPath.compareTo(lastCriticalPath) <= 0) {
+				throw new IllegalArgumentException("Files must be added in critical path order: " + lastCriticalPath + ", " + criticalPath);
+			}
+		}
+		if (openDirectoryPaths == null) {
+			openDirectoryPaths = new ArrayList<String>();
+			openDirectoryIndexes = new ArrayList<Integer>();
+		}
+		int parent = NO_PARENT;
+		int nameStart = 0;
+		int separatorIndex = criticalPath.lastIndexOf(File.separatorChar);
+		for (int i = openDirectoryPaths.size() - 1; i >= 0; i--) {
+			String openDirectoryPath = openDirectoryPaths.get(i);
+			if (isWithin(criticalPath, openDirectoryPath)) {
+				if (openDirectoryPath.length() == separatorIndex && parent == NO_PARENT) {
+					parent = openDirectoryIndexes.get(i).intValue();
+					nameStart = separatorIndex + 1;
+				}
+			} else if (isAfterDirectory(criticalPath, openDirectoryPath)) {
+				// nothing after this path can be within the directory
+				openDirectoryPaths.remove(i);
+				openDirectoryIndexes.remove(i);
+			}
+		}
+		byte[] name = criticalPath.substring(nameStart).getBytes(StandardCharsets.UTF_8);
+		ensureCapacity(size + 1, namesLength + name.length);
+		lengths[size] = length;
+		lastModifieds[size] = lastModified;
+		parents[size] = parent;
+		nameOffsets[size] = namesLength;
+		System.arraycopy(name, 0, names, namesLength, name.length);
+		namesLength += name.length;
+		nameOffsets[size + 1] = namesLength;
+		if (directory) {
+			directories[size >> 6] |= (1L << size);
+			openDirectoryPaths.add(criticalPath);
+			openDirectoryIndexes.add(Integer.valueOf(size));
+		}
+		if (digest != null) {
+			addDigest(size, digest);
+		}
+		if (quickFingerprint != 0) {
+			addQuickFingerprint(size, quickFingerprint);
+		}
+		if (fileIdentity != null) {
+			addFileIdentity(size, fileIdentity);
+		}
+		lastCriticalPath = criticalPath;
+		size++;
+	}
+
+	private void addDigest(int index, byte[] digest) {
+		if (digestIndexes == null) {
+			digestIndexes = new int[16];
+			digests = new byte[16 * ContentDigester.DIGEST_LENGTH];
+		} else if (digestCount == digestIndexes.length) {
+			digestIndexes = Arrays.copyOf(digestIndexes, digestCount * 2);
+			digests = Arrays.copyOf(digests, digestCount * 2 * ContentDigester.DIGEST_LENGTH);
+		}
+		digestIndexes[digestCount] = index;
+		System.arraycopy(digest, 0, digests, digestCount * ContentDigester.DIGEST_LENGTH, ContentDigester.DIGEST_LENGTH);
+		digestCount++;
+	}
+
+	private void addQuickFingerprint(int index, long quickFingerprint) {
+		if (fingerprintIndexes == null) {
+			fingerprintIndexes = new int[16];
+			fingerprints = new long[16];
+		} else if (fingerprintCount == fingerprintIndexes.length) {
+			fingerprintIndexes = Arrays.copyOf(fingerprintIndexes, fingerprintCount * 2);
+			fingerprints = Arrays.copyOf(fingerprints, fingerprintCount * 2);
+		}
+		fingerprintIndexes[fingerprintCount] = index;
+		fingerprints[fingerprintCount] = quickFingerprint;
+		fingerprintCount++;
+	}
+
+	private void addFileIdentity(int index, FileIdentity fileIdentity) {
+		if (identityIndexes == null) {
+			identityIndexes = new int[16];
+			identities = new long[16 * 3];
+		} else if (identityCount == identityIndexes.length) {
+			identityIndexes = Arrays.copyOf(identityIndexes, identityCount * 2);
+			identities = Arrays.copyOf(identities, identityCount * 2 * 3);
+		}
+		identityIndexes[identityCount] = index;
+		identities[identityCount * 3] = fileIdentity.getDevice();
+		identities[identityCount * 3 + 1] = fileIdentity.getInode();
+		identities[identityCount * 3 + 2] = fileIdentity.getChangeTime();
+		identityCount++;
+	}
+
+	private static boolean isWithin(String criticalPath, String directoryPath) {
+		return criticalPath.length() > directoryPath.length()
+				&& criticalPath.charAt(directoryPath.length()) == File.separatorChar
+				&& criticalPath.startsWith(directoryPath);
+	}
+
+	/**
+	 * Returns whether or not the given path, which is not within the given directory, sorts after every 
+	 * path within the directory.
+	 */
+	private static boolean isAfterDirectory(String criticalPath, String directoryPath) {
+		int n = Math.min(criticalPath.length(), directoryPath.length());
+		for (int i = 0; i < n; i++) {
+			char c = criticalPath.charAt(i);
+			char d = directoryPath.charAt(i);
+			if (c != d) {
+				return c > d;
+			}
+		}
+		return criticalPath.length() > directoryPath.length() && criticalPath.charAt(directoryPath.length()) > File.separatorChar;
+	}
+
+	private void ensureCapacity(int capacity, int namesCapacity) {
+		if (capacity > lengths.length) {
+			int newCapacity = Math.max(capacity, lengths.length + (lengths.length >> 1));
+			lengths = Arrays.copyOf(lengths, newCapacity);
+			lastModifieds = Arrays.copyOf(lastModifieds, newCapacity);
+			parents = Arrays.copyOf(parents, newCapacity);
+			nameOffsets = Arrays.copyOf(nameOffsets, newCapacity + 1);
+			directories = Arrays.copyOf(directories, (newCapacity + 63) / 64);
+		}
+		if (namesCapacity > names.length) {
+			names = Arrays.copyOf(names, Math.max(namesCapacity, names.length + (names.length >> 1)));
+		}
+	}
+
+	/**
+	 * Release any capacity not used by the files added so far.
+	 */
+	public void trimToSize() {
+		lengths = Arrays.copyOf(lengths, size);
+		lastModifieds = Arrays.copyOf(lastModifieds, size);
+		parents = Arrays.copyOf(parents, size);
+		nameOffsets = Arrays.copyOf(nameOffsets, size + 1);
+		directories = Arrays.copyOf(directories, (size + 63) / 64);
+		names = Arrays.copyOf(names, namesLength);
+		if (digestIndexes != null) {
+			digestIndexes = Arrays.copyOf(digestIndexes, digestCount);
+			digests = Arrays.copyOf(digests, digestCount * ContentDigester.DIGEST_LENGTH);
+		}
+		if (fingerprintIndexes != null) {
+			fingerprintIndexes = Arrays.copyOf(fingerprintIndexes, fingerprintCount);
+			fingerprints = Arrays.copyOf(fingerprints, fingerprintCount);
+		}
+		if (identityIndexes != null) {
+			identityIndexes = Arrays.copyOf(identityIndexes, identityCount);
+			identities = Arrays.copyOf(identities, identityCount * 3);
+		}
+	}
+
+	/**
+	 * Returns the approximate number of bytes of memory used by the index (not including the
+	 * temporary lists used while adding files).
+	 *
+	 * @return		approximate memory used in bytes
+	 */
+	public long getMemoryUsage() {
+		return 8L * lengths.length + 8L * lastModifieds.length + 4L * parents.length
+				+ 4L * nameOffsets.length + 8L * directories.length + names.length
+				+ ((digestIndexes == null)? 0 : 4L * digestIndexes.length + digests.length)
+				+ ((fingerprintIndexes == null)? 0 : 12L * fingerprintIndexes.length)
+				+ ((identityIndexes == null)? 0 : 28L * identityIndexes.length);
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+	}
+
+	public long getLength(int index) {
+		checkIndex(index);
+		return lengths[index];
+	}
+
+	public long getLastModified(int index) {
+		checkIndex(index);
+		return lastModifieds[index];
+	}
+
+	public boolean isDirectory(int index) {
+		checkIndex(index);
+		return (directories[index >> 6] & (1L << index)) != 0;
+	}
+
+	public byte[] getDigest(int index) {
+		checkIndex(index);
+		if (digestCount == 0) {
+			return null;
+		}
+		int i = Arrays.binarySearch(digestIndexes, 0, digestCount, index);
+		if (i < 0) {
+			return null;
+		}
+		int offset = i * ContentDigester.DIGEST_LENGTH;
+		return Arrays.copyOfRange(digests, offset, offset + ContentDigester.DIGEST_LENGTH);
+	}
+
+	public long getQuickFingerprint(int index) {
+		checkIndex(index);
+		if (fingerprintCount == 0) {
+			return 0;
+		}
+		int i = Arrays.binarySearch(fingerprintIndexes, 0, fingerprintCount, index);
+		return (i < 0)? 0 : fingerprints[i];
+	}
+
+	public FileIdentity getFileIdentity(int index) {
+		checkIndex(index);
+		if (identityCount == 0) {
+			return null;
+		}
+		int i = Arrays.binarySearch(identityIndexes, 0, identityCount, index);
+		return (i < 0)? null : new FileIdentity(identities[i * 3], identities[i * 3 + 1], identities[i * 3 + 2]);
+	}
+
+	/**
+	 * Returns the critical path of the file at the given index.
+	 *
+	 * @param index		index of file
+	 *
+	 * @return			critical path of file
+	 */
+	public String getCriticalPath(int index) {
+		checkIndex(index);
+		return getCriticalPath(index, NO_PARENT, null);
+	}
+
+	public int search(String criticalPath) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (getCriticalPath(mid).compareTo(criticalPath) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the critical path of the file at the given index, using the given known parent path
+	 * if the file's parent is the given known parent.
+	 */
+	private String getCriticalPath(int index, int knownParent, String knownParentPath) {
+		String name = getName(index);
+		int parent = parents[index];
+		if (parent == NO_PARENT) {
+			return name;
+		}
+		String parentPath = (parent == knownParent)? knownParentPath : getCriticalPath(parent, NO_PARENT, null);
+		return parentPath + File.separator + name;
+	}
+
+	private String getName(int index) {
+		return new String(names, nameOffsets[index], nameOffsets[index + 1] - nameOffsets[index], StandardCharsets.UTF_8);
+	}
+
+	private BackupFile createBackupFile(int index, String criticalPath) {
+		BackupFile backupFile = new BackupFile(criticalPath, BackupFile.Type.DESTINATION, latestBackupDirectory, lengths[index], lastModifieds[index], isDirectory(index));
+		if (digestCount > 0) {
+			backupFile.setDigest(getDigest(index));
+		}
+		if (fingerprintCount > 0) {
+			backupFile.setQuickFingerprint(getQuickFingerprint(index));
+		}
+		if (identityCount > 0) {
+			backupFile.setFileIdentity(getFileIdentity(index));
+		}
+		return backupFile;
+	}
+
+	/**
+	 * Returns a new BackupFile for the file at the given index.
+	 */
+	@Override
+	public BackupFile get(int index) {
+		return createBackupFile(index, getCriticalPath(index));
+	}
+
+	/**
+	 * Returns an iterator over the files of this index.  The path of the parent directory of the last
+	 * file returned is reused, so iterating does not rebuild the full path of every file.
+	 */
+	@Override
+	public Iterator<BackupFile> iterator() {
+		return new Iterator<BackupFile>() {
+			private int index;
+			private int lastParent = NO_PARENT;
+			private String lastParentPath;
+			public boolean hasNext() {
+				return index < size;
+			}
+			public BackupFile next() {
+				if (index >= size) {
+					throw new NoSuchElementException();
+				}
+				int parent = parents[index];
+				if (parent != NO_PARENT && parent != lastParent) {
+					lastParentPath = getCriticalPath(parent, NO_PARENT, null);
+					lastParent = parent;
+				}
+				BackupFile backupFile = createBackupFile(index, getCriticalPath(index, lastParent, lastParentPath));
+				index++;
+				return backupFile;
+			}
+		};
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		trimToSize();
+		out.defaultWriteObject();
+		out.writeObject(lengths);
+		out.writeObject(lastModifieds);
+		out.writeObject(parents);
+		out.writeObject(nameOffsets);
+		out.writeObject(directories);
+		out.writeObject(names);
+		out.writeObject(digestIndexes);
+		out.writeObject(digests);
+		out.writeObject(fingerprintIndexes);
+		out.writeObject(fingerprints);
+		out.writeObject(identityIndexes);
+		out.writeObject(identities);
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		lengths = (long[]) in.readObject();
+		lastModifieds = (long[]) in.readObject();
+		parents = (int[]) in.readObject();
+		nameOffsets = (int[]) in.readObject();
+		directories = (long[]) in.readObject();
+		names = (byte[]) in.readObject();
+		namesLength = names.length;
+		digestIndexes = (int[]) in.readObject();
+		digests = (byte[]) in.readObject();
+		fingerprintIndexes = (int[]) in.readObject();
+		fingerprints = (long[]) in.readObject();
+		identityIndexes = (int[]) in.readObject();
+		identities = (long[]) in.readObject();
+		if (digestIndexes != null) {
+			digestCount = digestIndexes.length;
+			if (digests == null || digests.length != digestCount * ContentDigester.DIGEST_LENGTH) {
+				throw new IOException("Backup file index is damaged.");
+			}
+		}
+		if (fingerprintIndexes != null) {
+			fingerprintCount = fingerprintIndexes.length;
+			if (fingerprints == null || fingerprints.length != fingerprintCount) {
+				throw new IOException("Backup file index is damaged.");
+			}
+		}
+		if (identityIndexes != null) {
+			identityCount = identityIndexes.length;
+			if (identities == null || identities.length != identityCount * 3) {
+				throw new IOException("Backup file index is damaged.");
+			}
+		}
+		if (lengths.length != size || nameOffsets.length != size + 1 || nameOffsets[size] != namesLength) {
+			throw new IOException("Backup file index is damaged.");
+		}
+	}
+}
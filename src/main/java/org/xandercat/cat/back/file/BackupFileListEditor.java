@@ -0,0 +1,313 @@
+package org.xandercat.cat.back.file;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * BackupFileListEditor applies additions and removals to a sorted list of backup files without
+ * re-sorting the list.  Changes are held in a sorted map until they are applied, at which point they
+ * are merged into the list in a single pass.  Removing a directory removes everything within it.
+ * The total size of the files in the list is kept up to date as changes are made.  If the list is a
+ * BackupFileIndex or MappedBackupFileList, the list with changes applied is a BackupFileIndex.  The files 
+ * with changes applied can also be iterated without creating a new list (see iterator()).
+ * 
+ * @author Scott Arnold
+ */
+public class BackupFileListEditor {
+
+	private List<BackupFile> backupFiles;		// sorted list as of last time changes were applied
+	private long backupSize;
+	private SortedMap<String, BackupFile> changes = new TreeMap<String, BackupFile>();	// null value indicates removal
+	private Set<String> removedDirectories = new HashSet<String>();
+
+	/**
+	 * Constructs a new editor for the given list of backup files.  The list must be sorted.
+	 * 
+	 * @param backupFiles		sorted list of backup files
+	 * @param backupSize		total size of the backup files
+	 */
+	public BackupFileListEditor(List<BackupFile> backupFiles, long backupSize) {
+		this.backupFiles = backupFiles;
+		this.backupSize = backupSize;
+	}
+	
+	/**
+	 * Returns the total size of the backup files, including changes not yet applied.
+	 * 
+	 * @return		total size of backup files
+	 */
+	public long getBackupSize() {
+		return backupSize;
+	}
+	
+	/**
+	 * Returns whether or not there are changes that have not yet been applied.
+	 * 
+	 * @return		whether or not there are unapplied changes
+	 */
+	public boolean hasChanges() {
+		return !changes.isEmpty();
+	}
+	
+	/**
+	 * Returns the sorted list of backup files with all changes applied.
+	 * 
+	 * @return		sorted list of backup files
+	 */
+	public List<BackupFile> getBackupFiles() {
+		applyChanges();
+		return backupFiles;
+	}
+	
+	/**
+	 * Returns an iterator over the sorted backup files with all changes applied.  Changes are merged into 
+	 * the list as it is iterated, so no new list is created; the editor must not be changed while the 
+	 * iterator is in use.  Files of the list are returned as they are in the list, and added files as they 
+	 * were added.
+	 * 
+	 * @return		iterator over the sorted backup files
+	 */
+	public Iterator<BackupFile> iterator() {
+		return changes.isEmpty()? backupFiles.iterator() : new MergeIterator();
+	}
+	
+	/**
+	 * Add the given backup file, replacing any backup file with the same critical path.
+	 * 
+	 * @param backupFile		backup file to add
+	 */
+	public void addFile(BackupFile backupFile) {
+		BackupFile existing = getFile(backupFile.getCriticalPath());
+		if (existing != null) {
+			backupSize -= existing.getLength();
+		}
+		backupSize += backupFile.getLength();
+		changes.put(backupFile.getCriticalPath(), backupFile);
+	}
+	
+	/**
+	 * Remove the backup file with the given critical path.  If the file is a directory, all files
+	 * within the directory are also removed.
+	 * 
+	 * @param criticalPath		critical path of file to remove
+	 * @param directory			whether or not the file is a directory
+	 */
+	public void removeFile(String criticalPath, boolean directory) {
+		BackupFile existing = getFile(criticalPath);
+		if (existing != null) {
+			backupSize -= existing.getLength();
+		}
+		if (directory) {
+			String prefix = criticalPath + File.separator;
+			SortedMap<String, BackupFile> changesWithin = changes.subMap(prefix, prefixEnd(criticalPath));
+			// remove files within the directory from the size; files are removed from the list when changes are applied
+			for (int i = indexOf(prefix); i < backupFiles.size(); i++) {
+				String path = getCriticalPath(i);
+				if (!path.startsWith(prefix)) {
+					break;
+				}
+				if (!changesWithin.containsKey(path) && !isRemovedByDirectory(path)) {
+					backupSize -= getLength(i);
+				}
+			}
+			// remove pending changes within the directory
+			for (BackupFile pending : changesWithin.values()) {
+				if (pending != null) {
+					backupSize -= pending.getLength();
+				}
+			}
+			changesWithin.clear();
+			removedDirectories.add(criticalPath);
+		}
+		changes.put(criticalPath, null);
+	}
+
+	/**
+	 * Returns the backup file for the given critical path, including changes not yet applied.
+	 * 
+	 * @param criticalPath		critical path
+	 * 
+	 * @return					backup file, or null if there is no file for the critical path
+	 */
+	public BackupFile getFile(String criticalPath) {
+		if (changes.containsKey(criticalPath)) {
+			return changes.get(criticalPath);
+		}
+		if (isRemovedByDirectory(criticalPath)) {
+			return null;
+		}
+		int i = indexOf(criticalPath);
+		if (i < backupFiles.size() && getCriticalPath(i).equals(criticalPath)) {
+			return backupFiles.get(i);
+		}
+		return null;
+	}
+	
+	/**
+	 * Returns the backup files directly within the directory with the given critical path, 
+	 * including changes not yet applied.  Returned files are not sorted.
+	 * 
+	 * @param criticalPath		critical path of directory
+	 * 
+	 * @return					backup files directly within the directory
+	 */
+	public List<BackupFile> getChildren(String criticalPath) {
+		List<BackupFile> children = new ArrayList<BackupFile>();
+		String prefix = criticalPath + File.separator;
+		SortedMap<String, BackupFile> changesWithin = changes.subMap(prefix, prefixEnd(criticalPath));
+		if (!isRemovedByDirectory(prefix)) {
+			for (int i = indexOf(prefix); i < backupFiles.size(); i++) {
+				String path = getCriticalPath(i);
+				if (!path.startsWith(prefix)) {
+					break;
+				}
+				if (path.indexOf(File.separatorChar, prefix.length()) < 0 && !changesWithin.containsKey(path)) {
+					children.add(backupFiles.get(i));
+				}
+			}
+		}
+		for (Map.Entry<String, BackupFile> change : changesWithin.entrySet()) {
+			if (change.getValue() != null && change.getKey().indexOf(File.separatorChar, prefix.length()) < 0) {
+				children.add(change.getValue());
+			}
+		}
+		return children;
+	}
+	
+	private static String prefixEnd(String criticalPath) {
+		return criticalPath + (char) (File.separatorChar + 1);
+	}
+	
+	/**
+	 * Returns whether or not any parent directory of the given critical path has been removed
+	 * since changes were last applied.
+	 */
+	private boolean isRemovedByDirectory(String criticalPath) {
+		if (removedDirectories.isEmpty()) {
+			return false;
+		}
+		int i = criticalPath.lastIndexOf(File.separatorChar);
+		while (i > 0) {
+			String parentPath = criticalPath.substring(0, i);
+			if (removedDirectories.contains(parentPath)) {
+				return true;
+			}
+			i = parentPath.lastIndexOf(File.separatorChar);
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the critical path of the backup file at the given index, without creating a BackupFile if the
+	 * list is a BackupFileColumns.
+	 */
+	private String getCriticalPath(int i) {
+		if (backupFiles instanceof BackupFileColumns) {
+			return ((BackupFileColumns) backupFiles).getCriticalPath(i);
+		}
+		return backupFiles.get(i).getCriticalPath();
+	}
+	
+	private long getLength(int i) {
+		if (backupFiles instanceof BackupFileColumns) {
+			return ((BackupFileColumns) backupFiles).getLength(i);
+		}
+		return backupFiles.get(i).getLength();
+	}
+
+	/**
+	 * Returns the index of the first backup file whose critical path is not less than the given critical path.
+	 */
+	private int indexOf(String criticalPath) {
+		if (backupFiles instanceof BackupFileColumns) {
+			return ((BackupFileColumns) backupFiles).search(criticalPath);
+		}
+		int low = 0;
+		int high = backupFiles.size();
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (getCriticalPath(mid).compareTo(criticalPath) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Iterator that merges pending changes into the sorted list of backup files as it is iterated.
+	 */
+	private class MergeIterator implements Iterator<BackupFile> {
+		private Iterator<BackupFile> baseIter = backupFiles.iterator();
+		private Iterator<Map.Entry<String, BackupFile>> changeIter = changes.entrySet().iterator();
+		private BackupFile base = baseIter.hasNext()? baseIter.next() : null;
+		private Map.Entry<String, BackupFile> change = changeIter.hasNext()? changeIter.next() : null;
+		private BackupFile next = advance();
+		
+		private BackupFile advance() {
+			while (base != null || change != null) {
+				int c = (base == null)? 1 : (change == null)? -1 : base.getCriticalPath().compareTo(change.getKey());
+				if (c < 0) {
+					BackupFile file = base;
+					base = baseIter.hasNext()? baseIter.next() : null;
+					if (!isRemovedByDirectory(file.getCriticalPath())) {
+						return file;
+					}
+				} else {
+					BackupFile file = change.getValue();
+					change = changeIter.hasNext()? changeIter.next() : null;
+					if (c == 0) {
+						base = baseIter.hasNext()? baseIter.next() : null;
+					}
+					if (file != null) {
+						return file;
+					}
+				}
+			}
+			return null;
+		}
+		
+		public boolean hasNext() {
+			return next != null;
+		}
+		
+		public BackupFile next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			BackupFile file = next;
+			next = advance();
+			return file;
+		}
+	}
+	
+	/**
+	 * Merge pending changes into the sorted list of backup files.
+	 */
+	private void applyChanges() {
+		if (changes.isEmpty()) {
+			return;
+		}
+		List<BackupFile> merged = (backupFiles instanceof BackupFileColumns)? 
+				new BackupFileIndex(((BackupFileColumns) backupFiles).getLatestBackupDirectory()) : new ArrayList<BackupFile>(backupFiles.size() + changes.size());
+		Iterator<BackupFile> mergeIter = new MergeIterator();
+		while (mergeIter.hasNext()) {
+			merged.add(mergeIter.next());
+		}
+		if (merged instanceof BackupFileIndex) {
+			((BackupFileIndex) merged).trimToSize();
+		}
+		this.backupFiles = merged;
+		this.changes.clear();
+		this.removedDirectories.clear();
+	}
+}
@@ -35,6 +35,23 @@ public class BackupPathGenerator implements FileCopierPathGenerator {
 		return criticalPath;
 	}
 	
+	/**
+	 * Returns the source file the given critical path was generated for; this is the reverse of
+	 * generateCriticalPath.
+	 * 
+	 * @param criticalPath	critical path of a source file
+	 * 
+	 * @return				the source file
+	 */
+	public static File generateSourceFile(String criticalPath) {
+		if (File.separatorChar == '\\' && criticalPath.length() > 0 && Character.isLetter(criticalPath.charAt(0))
+				&& (criticalPath.length() == 1 || criticalPath.charAt(1) == File.separatorChar)) {
+			// drive letter was kept without the colon (C:\Users is C\Users, and C:\ is C)
+			return new File(criticalPath.charAt(0) + ":" + File.separator + ((criticalPath.length() > 2)? criticalPath.substring(2) : ""));
+		}
+		return new File(File.separator + criticalPath);
+	}
+	
 	public BackupPathGenerator(File backupDirectory) {
 		this.backupDirectory = backupDirectory;
 	}
@@ -0,0 +1,207 @@
+package org.xandercat.cat.back.file;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.Deflater;
+
+/**
+ * BlockDeflaterOutputStream compresses data with Deflater in independent blocks of BLOCK_SIZE bytes.  Full
+ * blocks are compressed in parallel by a shared pool of threads, one per processor, with at most
+ * MAX_PENDING_BLOCKS_PER_THREAD blocks per thread held in memory at once; blocks are always written in order.
+ * The last block is compressed on the writing thread, so data smaller than a block is never handed off.
+ * Flushing the stream does not end the current block.  Use BlockInflaterInputStream to read the data.
+ *
+ * The format is the MAGIC number, the format VERSION, the block size, and for each block the uncompressed
+ * length, the compressed length and the compressed data (a zlib stream, which includes an Adler-32 checksum
+ * of the block), followed by an uncompressed length of 0.  Lengths are written as big-endian integers.
+ *
+ * @author Scott Arnold
+ */
+public class BlockDeflaterOutputStream extends OutputStream {
+
+	public static final int MAGIC = 0x43425A42;		// "CBZB"
+	public static final byte VERSION = 1;
+	public static final int HEADER_LENGTH = 9;
+	public static final int BLOCK_SIZE = 256 * 1024;
+	public static final int MAX_PENDING_BLOCKS_PER_THREAD = 2;
+
+	private static final int THREADS = Runtime.getRuntime().availableProcessors();
+	private static final ExecutorService compressionExecutor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "CatBack Metadata Compression");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private DataOutputStream out;
+	private byte[] block = new byte[BLOCK_SIZE];
+	private int blockLength;
+	private Deque<Future<byte[]>> pendingBlocks = new ArrayDeque<Future<byte[]>>();
+	private long bytesIn;
+	private long bytesOut;
+	private boolean closed;
+
+	/**
+	 * Constructs a new block deflater output stream, writing the header to the given stream.
+	 *
+	 * @param out				stream to write compressed data to
+	 *
+	 * @throws IOException		if the header cannot be written
+	 */
+	public BlockDeflaterOutputStream(OutputStream out) throws IOException {
+		this.out = new DataOutputStream(out);
+		this.out.writeInt(MAGIC);
+		this.out.writeByte(VERSION);
+		this.out.writeInt(BLOCK_SIZE);
+		this.bytesOut = HEADER_LENGTH;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (blockLength == BLOCK_SIZE) {
+			endBlock();
+		}
+		block[blockLength++] = (byte) b;
+		bytesIn++;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			if (blockLength == BLOCK_SIZE) {
+				endBlock();
+			}
+			int n = Math.min(len, BLOCK_SIZE - blockLength);
+			System.arraycopy(b, off, block, blockLength, n);
+			blockLength += n;
+			bytesIn += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Compress the current block, or submit it to be compressed, and start a new block.
+	 */
+	private void endBlock() throws IOException {
+		if (blockLength == 0) {
+			return;
+		}
+		if (THREADS > 1 && blockLength == BLOCK_SIZE) {
+			final byte[] data = block;
+			pendingBlocks.addLast(compressionExecutor.submit(new Callable<byte[]>() {
+				public byte[] call() {
+					return compress(data, BLOCK_SIZE);
+				}
+			}));
+			block = new byte[BLOCK_SIZE];
+			while (pendingBlocks.size() > THREADS * MAX_PENDING_BLOCKS_PER_THREAD) {
+				writePendingBlock();
+			}
+		} else {
+			while (!pendingBlocks.isEmpty()) {
+				writePendingBlock();
+			}
+			writeBlock(blockLength, compress(block, blockLength));
+		}
+		blockLength = 0;
+	}
+
+	private void writePendingBlock() throws IOException {
+		Future<byte[]> pendingBlock = pendingBlocks.removeFirst();
+		try {
+			writeBlock(BLOCK_SIZE, pendingBlock.get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while compressing");
+		} catch (ExecutionException e) {
+			throw new IOException("Unable to compress block", e.getCause());
+		}
+	}
+
+	private void writeBlock(int uncompressedLength, byte[] compressed) throws IOException {
+		out.writeInt(uncompressedLength);
+		out.writeInt(compressed.length);
+		out.write(compressed);
+		bytesOut += 8 + compressed.length;
+	}
+
+	private static byte[] compress(byte[] data, int length) {
+		Deflater deflater = new Deflater();
+		try {
+			deflater.setInput(data, 0, length);
+			deflater.finish();
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2 + 64);
+			byte[] buffer = new byte[16 * 1024];
+			while (!deflater.finished()) {
+				int n = deflater.deflate(buffer);
+				compressed.write(buffer, 0, n);
+			}
+			return compressed.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Flush the blocks compressed so far.  The current block is not ended.
+	 */
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	/**
+	 * Compress the last block, write the end of the data, and close the underlying stream.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			endBlock();
+			while (!pendingBlocks.isEmpty()) {
+				writePendingBlock();
+			}
+			out.writeInt(0);
+			bytesOut += 4;
+		} finally {
+			for (Future<byte[]> pendingBlock : pendingBlocks) {
+				pendingBlock.cancel(false);
+			}
+			out.close();
+		}
+	}
+
+	/**
+	 * Returns the number of bytes written to this stream (before compression).
+	 *
+	 * @return		number of uncompressed bytes
+	 */
+	public long getBytesIn() {
+		return bytesIn;
+	}
+
+	/**
+	 * Returns the number of bytes written to the underlying stream (after compression).
+	 *
+	 * @return		number of compressed bytes
+	 */
+	public long getBytesOut() {
+		return bytesOut;
+	}
+}
@@ -0,0 +1,134 @@
+package org.xandercat.cat.back.file;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * BlockInflaterInputStream reads data written by BlockDeflaterOutputStream, decompressing one block at a
+ * time.  Data that is damaged or incomplete causes an IOException.
+ *
+ * @author Scott Arnold
+ */
+public class BlockInflaterInputStream extends InputStream {
+
+	private static final int MAX_BLOCK_SIZE = 64 * 1024 * 1024;
+
+	private DataInputStream in;
+	private Inflater inflater = new Inflater();
+	private int blockSize;
+	private byte[] block;
+	private byte[] compressed = new byte[0];
+	private int position;
+	private int length;
+	private boolean ended;
+
+	/**
+	 * Constructs a new block inflater input stream, reading the header from the given stream.
+	 *
+	 * @param in				stream to read compressed data from
+	 *
+	 * @throws IOException		if the header cannot be read or is not that of compressed data
+	 */
+	public BlockInflaterInputStream(InputStream in) throws IOException {
+		this.in = new DataInputStream(in);
+		try {
+			if (this.in.readInt() != BlockDeflaterOutputStream.MAGIC) {
+				throw new IOException("Data is not compressed data.");
+			}
+			byte version = this.in.readByte();
+			if (version > BlockDeflaterOutputStream.VERSION) {
+				throw new IOException("Compressed data was written by a newer version of CatBack (format version " + version + ").");
+			}
+			this.blockSize = this.in.readInt();
+		} catch (EOFException e) {
+			throw new IOException("Compressed data is incomplete.", e);
+		}
+		if (blockSize <= 0 || blockSize > MAX_BLOCK_SIZE) {
+			throw new IOException("Compressed data is damaged.");
+		}
+		this.block = new byte[blockSize];
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (position == length && !nextBlock()) {
+			return -1;
+		}
+		return block[position++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (position == length && !nextBlock()) {
+			return -1;
+		}
+		int n = Math.min(len, length - position);
+		System.arraycopy(block, position, b, off, n);
+		position += n;
+		return n;
+	}
+
+	@Override
+	public int available() {
+		return length - position;
+	}
+
+	/**
+	 * Read and decompress the next block.
+	 *
+	 * @return		whether or not there was another block
+	 */
+	private boolean nextBlock() throws IOException {
+		if (ended) {
+			return false;
+		}
+		try {
+			int uncompressedLength = in.readInt();
+			if (uncompressedLength == 0) {
+				ended = true;
+				return false;
+			}
+			int compressedLength = in.readInt();
+			if (uncompressedLength < 0 || uncompressedLength > blockSize || compressedLength <= 0 || compressedLength > blockSize + blockSize / 8 + 1024) {
+				throw new IOException("Compressed data is damaged.");
+			}
+			if (compressed.length < compressedLength) {
+				compressed = new byte[compressedLength];
+			}
+			in.readFully(compressed, 0, compressedLength);
+			inflater.reset();
+			inflater.setInput(compressed, 0, compressedLength);
+			int inflated = 0;
+			while (inflated < uncompressedLength && !inflater.finished()) {
+				int n = inflater.inflate(block, inflated, uncompressedLength - inflated);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				inflated += n;
+			}
+			if (inflated != uncompressedLength || !inflater.finished()) {
+				throw new IOException("Compressed data is damaged.");
+			}
+			position = 0;
+			length = uncompressedLength;
+			return true;
+		} catch (EOFException e) {
+			throw new IOException("Compressed data is incomplete.", e);
+		} catch (DataFormatException e) {
+			throw new IOException("Compressed data is damaged.", e);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		inflater.end();
+		in.close();
+	}
+}
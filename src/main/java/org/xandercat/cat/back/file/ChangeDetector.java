@@ -0,0 +1,38 @@
+package org.xandercat.cat.back.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Interface to be implemented by any class that decides whether a source file has changed since it was
+ * backed up.  A change detector also reads the attributes of source files as they are inspected, so it can
+ * read whatever attributes it compares files by along with the attributes every file has.  Methods of this
+ * interface may be called from multiple threads and must be thread-safe.
+ *
+ * @author Scott Arnold
+ */
+public interface ChangeDetector {
+
+	/**
+	 * Returns the attributes of the given source file, read with a single call to the file system.
+	 *
+	 * @param file				file to read the attributes of
+	 *
+	 * @return					attributes of the file
+	 *
+	 * @throws IOException		if the attributes cannot be read
+	 */
+	public BasicFileAttributes readAttributes(File file) throws IOException;
+
+	/**
+	 * Returns whether or not the given current file is unchanged from its backup.
+	 *
+	 * @param previousFile			file in the latest backup
+	 * @param currentFile			current file of the same critical path
+	 * @param lastModPrecision		precision of last modified times in milliseconds
+	 *
+	 * @return						whether or not the files are equivalent
+	 */
+	public boolean isFileEquivalent(BackupFile previousFile, BackupFile currentFile, long lastModPrecision);
+}
@@ -0,0 +1,228 @@
+package org.xandercat.cat.back.file;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ContentDigester computes digests of the contents of files, so a file whose length and last modified time
+ * do not show whether it has changed can be compared by content.  Files are read on a fixed pool of threads,
+ * so no more than the given number of files are read at once however many files are submitted.  The number
+ * of files and bytes read are counted.
+ *
+ * Files of at least QUICK_FINGERPRINT_MIN_LENGTH bytes can also be given a quick fingerprint, which is read from
+ * a few blocks of QUICK_FINGERPRINT_BLOCK_SIZE bytes only: the first block, the last block, and
+ * QUICK_FINGERPRINT_MIDDLE_BLOCKS blocks evenly spaced between them.  Blocks are read with positional reads,
+ * so nothing else of the file is read.  A file whose quick fingerprint has changed has certainly changed; one
+ * whose quick fingerprint is the same has at least not been rewritten or appended to, as is usual for media
+ * and database files that change, but could still have been changed between the blocks read.
+ *
+ * Digests are MD5, which is fast and, for telling whether a file has changed, as good as any longer digest;
+ * it is not used to guard against files made to collide on purpose.
+ *
+ * @author Scott Arnold
+ */
+public class ContentDigester {
+
+	public static final String ALGORITHM = "MD5";
+	public static final int DIGEST_LENGTH = 16;
+	public static final long QUICK_FINGERPRINT_MIN_LENGTH = 1024 * 1024;
+	public static final int QUICK_FINGERPRINT_BLOCK_SIZE = 4096;
+	public static final int QUICK_FINGERPRINT_MIDDLE_BLOCKS = 3;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private ExecutorService executor;
+	private int threads;
+	private AtomicLong filesDigested = new AtomicLong();
+	private AtomicLong filesFingerprinted = new AtomicLong();
+	private AtomicLong bytesDigested = new AtomicLong();
+
+	/**
+	 * Constructs a new content digester.
+	 *
+	 * @param threads		number of threads to read files with
+	 */
+	public ContentDigester(int threads) {
+		this.threads = Math.max(1, threads);
+		this.executor = Executors.newFixedThreadPool(this.threads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "CatBack Content Digest");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Returns the number of threads files are read with.
+	 *
+	 * @return				number of threads
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Submit the given task, which digests or fingerprints files, to be run on the threads of this digester.
+	 *
+	 * @param task			task to run
+	 *
+	 * @return				future result of the task
+	 */
+	public <T> Future<T> submit(Callable<T> task) {
+		return executor.submit(task);
+	}
+
+	/**
+	 * Returns the digest of the contents of the given file, read on the calling thread.
+	 *
+	 * @param file				file to digest
+	 *
+	 * @return					digest of the file
+	 *
+	 * @throws IOException		if the file cannot be read
+	 */
+	public byte[] digest(File file) throws IOException {
+		MessageDigest messageDigest = createMessageDigest();
+		byte[] buffer = new byte[BUFFER_SIZE];
+		long bytes = 0;
+		InputStream in = new FileInputStream(file);
+		try {
+			int n;
+			while ((n = in.read(buffer)) >= 0) {
+				messageDigest.update(buffer, 0, n);
+				bytes += n;
+			}
+		} finally {
+			in.close();
+			bytesDigested.addAndGet(bytes);
+		}
+		filesDigested.incrementAndGet();
+		return messageDigest.digest();
+	}
+
+	/**
+	 * Returns whether or not a file of the given length is large enough to be given a quick fingerprint.
+	 *
+	 * @param length			length of file
+	 *
+	 * @return					whether or not files of the length have quick fingerprints
+	 */
+	public static boolean isQuickFingerprinted(long length) {
+		return length >= QUICK_FINGERPRINT_MIN_LENGTH;
+	}
+
+	/**
+	 * Returns the quick fingerprint of the given file, read on the calling thread.  The length of the file is
+	 * part of the fingerprint.  A fingerprint is never 0.
+	 *
+	 * @param file				file to fingerprint
+	 *
+	 * @return					quick fingerprint of the file
+	 *
+	 * @throws IOException		if the file cannot be read
+	 */
+	public long quickFingerprint(File file) throws IOException {
+		MessageDigest messageDigest = createMessageDigest();
+		ByteBuffer buffer = ByteBuffer.allocate(QUICK_FINGERPRINT_BLOCK_SIZE);
+		long bytes = 0;
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			long length = channel.size();
+			buffer.putLong(length);
+			buffer.flip();
+			messageDigest.update(buffer);
+			long lastBlock = Math.max(0, length - QUICK_FINGERPRINT_BLOCK_SIZE);
+			int blocks = QUICK_FINGERPRINT_MIDDLE_BLOCKS + 2;
+			for (int i = 0; i < blocks; i++) {
+				// middle blocks are aligned to the block size, which is that of most file system blocks
+				long position = (i == blocks - 1)? lastBlock : lastBlock / (blocks - 1) * i / QUICK_FINGERPRINT_BLOCK_SIZE * QUICK_FINGERPRINT_BLOCK_SIZE;
+				buffer.clear();
+				int n;
+				while (buffer.hasRemaining() && (n = channel.read(buffer, position + buffer.position())) >= 0) {
+					bytes += n;
+				}
+				buffer.flip();
+				messageDigest.update(buffer);
+			}
+		} finally {
+			channel.close();
+			bytesDigested.addAndGet(bytes);
+		}
+		filesFingerprinted.incrementAndGet();
+		byte[] digest = messageDigest.digest();
+		long fingerprint = 0;
+		for (int i = 0; i < 8; i++) {
+			fingerprint = (fingerprint << 8) | (digest[i] & 0xFF);
+		}
+		return (fingerprint == 0)? 1 : fingerprint;
+	}
+
+	private static MessageDigest createMessageDigest() {
+		try {
+			return MessageDigest.getInstance(ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(ALGORITHM + " is required of every Java platform", e);
+		}
+	}
+
+	/**
+	 * Returns whether or not the given digests are both known and equal.
+	 *
+	 * @param digest1		first digest, or null if unknown
+	 * @param digest2		second digest, or null if unknown
+	 *
+	 * @return				whether or not the digests are equal
+	 */
+	public static boolean isEqual(byte[] digest1, byte[] digest2) {
+		return digest1 != null && digest2 != null && Arrays.equals(digest1, digest2);
+	}
+
+	/**
+	 * Returns the number of files digested so far.
+	 *
+	 * @return		number of files digested
+	 */
+	public long getFilesDigested() {
+		return filesDigested.get();
+	}
+
+	/**
+	 * Returns the number of files given quick fingerprints so far.
+	 *
+	 * @return		number of files fingerprinted
+	 */
+	public long getFilesFingerprinted() {
+		return filesFingerprinted.get();
+	}
+
+	/**
+	 * Returns the number of bytes read to digest and fingerprint files so far.
+	 *
+	 * @return		number of bytes digested
+	 */
+	public long getBytesDigested() {
+		return bytesDigested.get();
+	}
+
+	/**
+	 * Stop the threads of this digester.  Files not yet digested are not digested.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,258 @@
+package org.xandercat.cat.back.file;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * DeviceConcurrency groups files by the device (file store) they are on and limits the number of threads
+ * used to inspect files on each device.  Each device has its own pool of threads, so inspecting files on
+ * one device does not hold up inspecting files on another, and a slow device is not overloaded by the
+ * number of threads that suits a fast one.
+ *
+ * By default, rotational devices (hard disks) get a single thread, while all other devices get the default
+ * number of threads.  On Linux, whether or not a device is rotational is read from the queue/rotational
+ * attribute of the block device in /sys/block; on other platforms devices are not known to be rotational.  The
+ * number of threads for the device of any location can also be set explicitly, which overrides the default.
+ *
+ * Files are assigned to a device by location as given, so a device mounted within a directory that is
+ * walked is treated as part of the device of the directory.
+ *
+ * @author Scott Arnold
+ */
+public class DeviceConcurrency {
+
+	private static final Logger log = LogManager.getLogger(DeviceConcurrency.class);
+
+	public static final int ROTATIONAL_THREADS = 1;
+	public static final String OVERRIDE_SEPARATOR = ";";
+
+	private static final File SYS_CLASS_BLOCK = new File("/sys/class/block");
+
+	/**
+	 * A device and the pool of threads used to inspect files on it.
+	 */
+	public static class Device {
+
+		private String name;
+		private int threads;
+		private Boolean rotational;
+		private ExecutorService pool;
+
+		private Device(String name, int threads, Boolean rotational) {
+			this.name = name;
+			this.threads = threads;
+			this.rotational = rotational;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getThreads() {
+			return threads;
+		}
+
+		/**
+		 * Returns whether or not the device is rotational, or null if unknown.
+		 */
+		public Boolean getRotational() {
+			return rotational;
+		}
+
+		/**
+		 * Submit a task to be run on this device's threads.
+		 *
+		 * @param task		task to run
+		 *
+		 * @return			future for the result of the task
+		 */
+		public synchronized <T> Future<T> submit(Callable<T> task) {
+			if (pool == null) {
+				final String threadName = "CatBack Inspect " + name;
+				pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, threadName);
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+			}
+			return pool.submit(task);
+		}
+
+		private synchronized void shutdown() {
+			if (pool != null) {
+				pool.shutdownNow();
+				pool = null;
+			}
+		}
+
+		@Override
+		public String toString() {
+			return name + " (" + threads + " threads, rotational: " + ((rotational == null)? "unknown" : rotational.toString()) + ")";
+		}
+	}
+
+	private int defaultThreads;
+	private Map<FileStore, Integer> threadOverrides = new HashMap<FileStore, Integer>();
+	private Map<FileStore, Device> devices = new HashMap<FileStore, Device>();
+	private Device unknownDevice;
+
+	/**
+	 * Constructs a new device concurrency with the given default number of threads per device.
+	 *
+	 * @param defaultThreads		number of threads for devices that are not rotational
+	 */
+	public DeviceConcurrency(int defaultThreads) {
+		if (defaultThreads < 1) {
+			throw new IllegalArgumentException("Threads must be at least 1.");
+		}
+		this.defaultThreads = defaultThreads;
+		this.unknownDevice = new Device("unknown", defaultThreads, null);
+	}
+
+	/**
+	 * Sets the number of threads for devices from a list of overrides in the form location=threads separated
+	 * by semicolons (for example, "/mnt/backup=1; /home=8").  Each location sets the number of threads for the
+	 * device it is on.  Overrides that cannot be read are logged and ignored.
+	 *
+	 * @param overrides			overrides separated by semicolons (can be null)
+	 */
+	public void setThreadOverrides(String overrides) {
+		if (overrides == null) {
+			return;
+		}
+		for (String override : overrides.split(OVERRIDE_SEPARATOR)) {
+			override = override.trim();
+			if (override.length() == 0) {
+				continue;
+			}
+			int i = override.lastIndexOf('=');
+			try {
+				if (i < 0) {
+					throw new NumberFormatException("Missing =");
+				}
+				int threads = Integer.parseInt(override.substring(i + 1).trim());
+				if (threads < 1) {
+					throw new NumberFormatException("Threads must be at least 1");
+				}
+				setThreads(new File(override.substring(0, i).trim()), threads);
+			} catch (NumberFormatException e) {
+				log.warn("Ignoring device threads override \"" + override + "\": " + e.getMessage());
+			} catch (IOException e) {
+				log.warn("Ignoring device threads override \"" + override + "\"; unable to determine device.", e);
+			}
+		}
+	}
+
+	/**
+	 * Sets the number of threads for the device the given location is on.
+	 *
+	 * @param location			location on the device
+	 * @param threads			number of threads
+	 *
+	 * @throws IOException		if the device cannot be determined
+	 */
+	public synchronized void setThreads(File location, int threads) throws IOException {
+		threadOverrides.put(Files.getFileStore(location.toPath()), Integer.valueOf(threads));
+	}
+
+	/**
+	 * Returns the device the given file is on.  If the device cannot be determined, a shared device with the
+	 * default number of threads is returned.
+	 *
+	 * @param file		file
+	 *
+	 * @return			device the file is on
+	 */
+	public synchronized Device getDevice(File file) {
+		FileStore fileStore = null;
+		try {
+			fileStore = Files.getFileStore(file.toPath());
+		} catch (IOException e) {
+			return unknownDevice;
+		}
+		Device device = devices.get(fileStore);
+		if (device == null) {
+			Boolean rotational = isRotational(fileStore);
+			Integer threads = threadOverrides.get(fileStore);
+			if (threads == null) {
+				threads = Integer.valueOf(Boolean.TRUE.equals(rotational)? ROTATIONAL_THREADS : defaultThreads);
+			}
+			device = new Device(fileStore.name(), threads.intValue(), rotational);
+			devices.put(fileStore, device);
+			log.info("Inspecting files on device " + device);
+		}
+		return device;
+	}
+
+	/**
+	 * Returns the devices found so far.
+	 *
+	 * @return			devices found so far
+	 */
+	public synchronized List<Device> getDevices() {
+		return new ArrayList<Device>(devices.values());
+	}
+
+	/**
+	 * Stop all threads used for inspecting files.
+	 */
+	public synchronized void shutdown() {
+		for (Device device : devices.values()) {
+			device.shutdown();
+		}
+		unknownDevice.shutdown();
+	}
+
+	/**
+	 * Returns whether or not the given file store is on a rotational device, or null if unknown.  Only
+	 * Linux block devices can be determined.
+	 */
+	private static Boolean isRotational(FileStore fileStore) {
+		if (!SYS_CLASS_BLOCK.isDirectory()) {
+			return null;
+		}
+		String name = fileStore.name();	// e.g. /dev/sda1, /dev/mapper/vg-root, or server:/export for network file systems
+		if (!name.startsWith("/dev/")) {
+			return null;
+		}
+		try {
+			// resolve links such as /dev/mapper/vg-root -> /dev/dm-0 and /sys/class/block/sda1 -> .../block/sda/sda1
+			Path blockDevice = new File(SYS_CLASS_BLOCK, new File(name).getCanonicalFile().getName()).getCanonicalFile().toPath();
+			File rotationalFile = blockDevice.resolve("queue/rotational").toFile();
+			if (!rotationalFile.exists()) {
+				rotationalFile = blockDevice.getParent().resolve("queue/rotational").toFile();	// partition of block device
+			}
+			if (!rotationalFile.exists()) {
+				return null;
+			}
+			BufferedReader reader = new BufferedReader(new FileReader(rotationalFile));
+			try {
+				return Boolean.valueOf("1".equals(reader.readLine().trim()));
+			} finally {
+				reader.close();
+			}
+		} catch (Exception e) {
+			log.debug("Unable to determine whether device " + name + " is rotational.", e);
+			return null;
+		}
+	}
+}
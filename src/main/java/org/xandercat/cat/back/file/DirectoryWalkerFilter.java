@@ -0,0 +1,51 @@
+package org.xandercat.cat.back.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Interface to be implemented by any class that controls which files a directory walker visits.
+ * Methods of this interface may be called from a walker's worker threads and must be thread-safe.
+ *
+ * @author Scott Arnold
+ */
+public interface DirectoryWalkerFilter {
+
+	/**
+	 * Returns whether or not the walk should stop.  This is checked before each directory is listed.
+	 *
+	 * @return		whether or not the walk has been cancelled
+	 */
+	public boolean isWalkCancelled();
+
+	/**
+	 * Returns the attributes of the given file.  This is called once for each file found by the walker.
+	 *
+	 * @param file				file found
+	 *
+	 * @return					attributes of the file
+	 *
+	 * @throws IOException		if the attributes cannot be read
+	 */
+	public BasicFileAttributes readAttributes(File file) throws IOException;
+
+	/**
+	 * Returns whether or not the given file should be skipped.  Excluded directories are not descended into.
+	 *
+	 * @param file			file to test
+	 * @param attributes	attributes of the file, or null if unreadable
+	 *
+	 * @return				whether or not file is excluded
+	 */
+	public boolean isExcluded(File file, BasicFileAttributes attributes);
+
+	/**
+	 * Called periodically while a large directory is being listed, so progress can be shown before the
+	 * files within the directory are passed on.
+	 *
+	 * @param directory			directory being listed
+	 * @param entriesListed		number of entries listed so far
+	 */
+	public void listingProgress(File directory, int entriesListed);
+}
@@ -0,0 +1,23 @@
+package org.xandercat.cat.back.file;
+
+import java.io.File;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Interface to be implemented by any class that receives the files found by a
+ * ParallelDirectoryWalker.  Methods of this interface are called from the walker's worker
+ * threads and must be thread-safe.
+ *
+ * @author Scott Arnold
+ */
+public interface DirectoryWalkerListener extends DirectoryWalkerFilter {
+
+	/**
+	 * Method called for each file or directory found that is not excluded.  Attributes are read
+	 * once by the walker and will be null if they could not be read.
+	 *
+	 * @param file			file or directory found
+	 * @param attributes	attributes of the file, or null if unreadable
+	 */
+	public void fileFound(File file, BasicFileAttributes attributes);
+}
@@ -0,0 +1,187 @@
+package org.xandercat.cat.back.file;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * ExclusionMatcher determines whether or not files are excluded from a backup.  A file is excluded if it
+ * is one of the excluded files or is within an excluded directory.
+ *
+ * The excluded files are compiled into a trie of path segments with the children of each node held in a
+ * sorted array.  A lookup walks the absolute path of the file one segment at a time, comparing segments
+ * in place, so it takes time proportional to the depth of the path and does not allocate any objects.
+ * The matcher is immutable and can be shared between threads.  Path segments are compared the same way
+ * java.io.File compares paths (case insensitive on Windows).
+ *
+ * @author Scott Arnold
+ */
+public final class ExclusionMatcher {
+
+	private static final boolean IGNORE_CASE = new File("a").equals(new File("A"));
+	private static final Node[] NO_CHILDREN = new Node[0];
+
+	private static final Comparator<String> SEGMENT_COMPARATOR = new Comparator<String>() {
+		public int compare(String s1, String s2) {
+			return compareSegment(s1, 0, s1.length(), s2);
+		}
+	};
+
+	private static class Node {
+		private String segment;
+		private boolean excluded;
+		private Node[] children = NO_CHILDREN;
+
+		private Node(String segment) {
+			this.segment = segment;
+		}
+	}
+
+	private final Node root;
+	private final boolean empty;
+
+	/**
+	 * Constructs a new matcher for the given excluded files.
+	 *
+	 * @param excludedFiles		files and directories excluded from the backup
+	 */
+	public ExclusionMatcher(Collection<File> excludedFiles) {
+		BuildNode buildRoot = new BuildNode(null);
+		for (File file : excludedFiles) {
+			String path = file.getAbsolutePath();
+			BuildNode node = buildRoot;
+			int start = 0;
+			while (start <= path.length() && !node.excluded) {
+				int end = segmentEnd(path, start);
+				if (end > start) {
+					node = node.getChild(path.substring(start, end));
+				}
+				start = end + 1;
+			}
+			node.excluded = true;
+		}
+		this.root = buildRoot.compile();
+		this.empty = excludedFiles.isEmpty();
+	}
+
+	/**
+	 * Returns whether or not the given file is excluded or is within an excluded directory.
+	 *
+	 * @param file		file to test
+	 *
+	 * @return			whether or not the file is excluded
+	 */
+	public boolean isExcluded(File file) {
+		return !empty && isExcluded(file.getAbsolutePath());
+	}
+
+	/**
+	 * Returns whether or not the file with the given absolute path is excluded or is within an excluded directory.
+	 *
+	 * @param absolutePath		absolute path of the file to test
+	 *
+	 * @return					whether or not the file is excluded
+	 */
+	public boolean isExcluded(String absolutePath) {
+		Node node = root;
+		int start = 0;
+		while (!node.excluded) {
+			if (start > absolutePath.length()) {
+				return false;
+			}
+			int end = segmentEnd(absolutePath, start);
+			if (end > start) {
+				node = findChild(node, absolutePath, start, end);
+				if (node == null) {
+					return false;
+				}
+			}
+			start = end + 1;
+		}
+		return true;
+	}
+
+	private static int segmentEnd(String path, int start) {
+		int end = path.indexOf(File.separatorChar, start);
+		return (end < 0)? path.length() : end;
+	}
+
+	private static Node findChild(Node node, String path, int start, int end) {
+		Node[] children = node.children;
+		int low = 0;
+		int high = children.length - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int c = compareSegment(path, start, end, children[mid].segment);
+			if (c > 0) {
+				low = mid + 1;
+			} else if (c < 0) {
+				high = mid - 1;
+			} else {
+				return children[mid];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Compare the region of path from start to end against the given segment.
+	 */
+	private static int compareSegment(String path, int start, int end, String segment) {
+		int length = end - start;
+		int n = Math.min(length, segment.length());
+		for (int i = 0; i < n; i++) {
+			char c1 = path.charAt(start + i);
+			char c2 = segment.charAt(i);
+			if (c1 != c2) {
+				if (IGNORE_CASE) {
+					c1 = Character.toLowerCase(Character.toUpperCase(c1));
+					c2 = Character.toLowerCase(Character.toUpperCase(c2));
+					if (c1 == c2) {
+						continue;
+					}
+				}
+				return c1 - c2;
+			}
+		}
+		return length - segment.length();
+	}
+
+	/**
+	 * Mutable node used while building the trie.
+	 */
+	private static class BuildNode {
+		private String segment;
+		private boolean excluded;
+		private Map<String, BuildNode> children = new TreeMap<String, BuildNode>(SEGMENT_COMPARATOR);
+
+		private BuildNode(String segment) {
+			this.segment = segment;
+		}
+
+		private BuildNode getChild(String segment) {
+			BuildNode child = children.get(segment);
+			if (child == null) {
+				child = new BuildNode(segment);
+				children.put(segment, child);
+			}
+			return child;
+		}
+
+		private Node compile() {
+			Node node = new Node(segment);
+			node.excluded = excluded;
+			if (!excluded && children.size() > 0) {
+				// children are already in segment order
+				node.children = new Node[children.size()];
+				int i = 0;
+				for (BuildNode child : children.values()) {
+					node.children[i++] = child.compile();
+				}
+			}
+			return node;
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package org.xandercat.cat.back.file;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.xandercat.common.util.file.FileUtil;
+
+/**
+ * ExclusionRule excludes files from a backup by pattern rather than by location.  Patterns are made up
+ * of file name patterns separated by forward slashes (on all platforms), where each file name pattern
+ * may use the wildcards * and ?.  In addition:
+ *
+ * <ul>
+ * <li>a pattern ending with / only matches directories</li>
+ * <li>a path segment of ** matches any number of directories</li>
+ * <li>a pattern starting with / is matched from the root of the file system; any other pattern is matched
+ *     against the end of the file path (so *.iso and node_modules/ match at any depth)</li>
+ * </ul>
+ *
+ * Rules are compiled once and can be shared between threads.  Each rule also counts the entries and bytes
+ * it excludes; an excluded directory counts as one entry, since the files within it are never inspected.
+ *
+ * @author Scott Arnold
+ */
+public class ExclusionRule {
+
+	public static final String PATTERN_SEPARATOR = ";";
+
+	private static final boolean IGNORE_CASE = new File("a").equals(new File("A"));
+
+	private String pattern;
+	private Pattern[] segments;		// null segment represents **
+	private boolean directoriesOnly;
+	private Pattern namePattern;	// used instead of segments when pattern is a single unanchored segment
+	private AtomicLong entriesExcluded = new AtomicLong();
+	private AtomicLong bytesExcluded = new AtomicLong();
+
+	/**
+	 * Compile the given list of patterns separated by semicolons into a list of exclusion rules.
+	 *
+	 * @param patterns		patterns separated by semicolons (can be null)
+	 *
+	 * @return				list of exclusion rules
+	 */
+	public static List<ExclusionRule> compile(String patterns) {
+		List<ExclusionRule> rules = new ArrayList<ExclusionRule>();
+		if (patterns != null) {
+			for (String pattern : patterns.split(PATTERN_SEPARATOR)) {
+				pattern = pattern.trim();
+				if (pattern.length() > 0) {
+					rules.add(new ExclusionRule(pattern));
+				}
+			}
+		}
+		return rules;
+	}
+
+	/**
+	 * Constructs a new exclusion rule for the given pattern.
+	 *
+	 * @param pattern		exclusion pattern
+	 */
+	public ExclusionRule(String pattern) {
+		this.pattern = pattern;
+		String rulePattern = pattern.replace('\\', '/');
+		if (rulePattern.endsWith("/")) {
+			this.directoriesOnly = true;
+			rulePattern = rulePattern.substring(0, rulePattern.length() - 1);
+		}
+		boolean anchored = rulePattern.startsWith("/");
+		List<Pattern> segmentList = new ArrayList<Pattern>();
+		if (!anchored) {
+			segmentList.add(null);
+		}
+		for (String segment : rulePattern.split("/")) {
+			if (segment.length() == 0) {
+				continue;
+			}
+			if (segment.equals("**")) {
+				if (segmentList.isEmpty() || segmentList.get(segmentList.size() - 1) != null) {
+					segmentList.add(null);
+				}
+			} else {
+				segmentList.add(compileSegment(segment));
+			}
+		}
+		if (segmentList.size() == 2 && segmentList.get(0) == null && segmentList.get(1) != null) {
+			this.namePattern = segmentList.get(1);
+		} else {
+			this.segments = segmentList.toArray(new Pattern[segmentList.size()]);
+		}
+	}
+
+	private static Pattern compileSegment(String segment) {
+		return Pattern.compile(FileUtil.generateRegularExpression(segment), IGNORE_CASE? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0);
+	}
+
+	public String getPattern() {
+		return pattern;
+	}
+
+	public long getEntriesExcluded() {
+		return entriesExcluded.get();
+	}
+
+	public long getBytesExcluded() {
+		return bytesExcluded.get();
+	}
+
+	/**
+	 * Returns whether or not the given file matches this rule.
+	 *
+	 * @param file			file to test
+	 * @param directory		whether or not the file is a directory
+	 *
+	 * @return				whether or not the file matches this rule
+	 */
+	public boolean matches(File file, boolean directory) {
+		if (directoriesOnly && !directory) {
+			return false;
+		}
+		if (namePattern != null) {
+			return namePattern.matcher(file.getName()).matches();
+		}
+		return matches(FileUtil.splitOnFileSeparator(file), 0, 0);
+	}
+
+	private boolean matches(String[] path, int segmentIndex, int pathIndex) {
+		while (pathIndex < path.length && path[pathIndex].length() == 0) {
+			pathIndex++;	// skip empty root segment
+		}
+		if (segmentIndex == segments.length) {
+			return pathIndex == path.length;
+		}
+		if (segments[segmentIndex] == null) {
+			for (int i = pathIndex; i <= path.length; i++) {
+				if (matches(path, segmentIndex + 1, i)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		return pathIndex < path.length
+				&& segments[segmentIndex].matcher(path[pathIndex]).matches()
+				&& matches(path, segmentIndex + 1, pathIndex + 1);
+	}
+
+	/**
+	 * Record that a file was excluded by this rule.
+	 *
+	 * @param bytes		size of the file excluded (0 for directories)
+	 */
+	public void recordExcluded(long bytes) {
+		entriesExcluded.incrementAndGet();
+		bytesExcluded.addAndGet(bytes);
+	}
+
+	@Override
+	public String toString() {
+		return pattern;
+	}
+}
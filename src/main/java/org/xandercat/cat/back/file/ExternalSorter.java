@@ -0,0 +1,323 @@
+package org.xandercat.cat.back.file;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * ExternalSorter sorts more items than should be held in memory at once.  Items are collected in memory
+ * until the run size is reached, at which point they are sorted and written to a temporary run file.  The
+ * sorted items are then returned by merging the run files along with any items still in memory, so only
+ * one item per run is held in memory while merging.  If the run size is never reached, no files are
+ * written and items are simply sorted in memory.
+ *
+ * Instead of a fixed run size, a sorter can be given a MemoryBudget shared with other sorters along with
+ * an estimate of the memory used by each item.  Items are then written to a run file once the budget is
+ * used up, so the number of items held in memory adapts to the size of the items and to the number of
+ * sorters in use at the same time.  A run is not written until it holds at least MINIMUM_RUN_SIZE items,
+ * so a budget that is used up elsewhere does not cause many tiny run files.
+ *
+ * If a sort key is set, items are sorted in memory by their keys with a RadixSorter; the order of the keys
+ * must be the same as the natural order of the items.
+ *
+ * Run files are deleted once the merge completes or the sorter is closed.
+ *
+ * @author Scott Arnold
+ */
+public class ExternalSorter<T extends Comparable<? super T> & Serializable> implements Iterable<T> {
+
+	private static final String RUN_FILE_PREFIX = "catback_sort_";
+	private static final String RUN_FILE_SUFFIX = ".run";
+	private static final int RESET_INTERVAL = 1024;		// object streams keep a reference to every object until reset
+
+	public static final int MINIMUM_RUN_SIZE = 1000;
+
+	/**
+	 * Estimates the memory used by an item held in memory.
+	 */
+	public interface ItemSizer<T> {
+		public long sizeOf(T item);
+	}
+
+	private int runSize;
+	private MemoryBudget memoryBudget;
+	private ItemSizer<? super T> itemSizer;
+	private RadixSorter.KeyExtractor<? super T> sortKey;
+	private long reservedBytes;
+	private File tempDirectory;
+	private List<T> items = new ArrayList<T>();
+	private List<File> runFiles = new ArrayList<File>();
+	private List<ObjectInputStream> openRuns = new ArrayList<ObjectInputStream>();
+	private long size;
+
+	/**
+	 * Constructs a new external sorter.
+	 *
+	 * @param runSize			maximum number of items to hold in memory before writing a run file
+	 * @param tempDirectory		directory for run files, or null for the default temporary file directory
+	 */
+	public ExternalSorter(int runSize, File tempDirectory) {
+		if (runSize < 1) {
+			throw new IllegalArgumentException("Run size must be at least 1.");
+		}
+		this.runSize = runSize;
+		this.tempDirectory = tempDirectory;
+	}
+
+	/**
+	 * Constructs a new external sorter that holds items in memory until the given memory budget is used up.
+	 *
+	 * @param memoryBudget		memory budget shared by sorters
+	 * @param itemSizer			estimates the memory used by each item
+	 * @param tempDirectory		directory for run files, or null for the default temporary file directory
+	 */
+	public ExternalSorter(MemoryBudget memoryBudget, ItemSizer<? super T> itemSizer, File tempDirectory) {
+		this.runSize = Integer.MAX_VALUE;
+		this.memoryBudget = memoryBudget;
+		this.itemSizer = itemSizer;
+		this.tempDirectory = tempDirectory;
+	}
+
+	/**
+	 * Sets the key to sort items held in memory by with a RadixSorter.  The order of the keys must be the 
+	 * same as the natural order of the items.  By default, items are sorted with Collections.sort.
+	 * 
+	 * @param sortKey			extracts the key of each item
+	 */
+	public void setSortKey(RadixSorter.KeyExtractor<? super T> sortKey) {
+		this.sortKey = sortKey;
+	}
+
+	private void sortItems() {
+		if (sortKey == null) {
+			Collections.sort(items);
+		} else {
+			RadixSorter.sort(items, sortKey);
+		}
+	}
+
+	/**
+	 * Add an item to be sorted.
+	 *
+	 * @param item				item to add
+	 *
+	 * @throws IOException		if a run file cannot be written
+	 */
+	public void add(T item) throws IOException {
+		items.add(item);
+		size++;
+		if (items.size() >= runSize || (memoryBudget != null && !reserve(item))) {
+			writeRun();
+		}
+	}
+
+	/**
+	 * Reserve memory for an item, returning false if the budget is used up and a run should be written.
+	 */
+	private boolean reserve(T item) {
+		long itemSize = itemSizer.sizeOf(item);
+		if (!memoryBudget.reserve(itemSize)) {
+			if (items.size() >= MINIMUM_RUN_SIZE) {
+				return false;
+			}
+			memoryBudget.forceReserve(itemSize);
+		}
+		reservedBytes += itemSize;
+		return true;
+	}
+
+	private void release() {
+		if (memoryBudget != null) {
+			memoryBudget.release(reservedBytes);
+		}
+		reservedBytes = 0;
+	}
+
+	/**
+	 * Returns the number of items added.
+	 *
+	 * @return			number of items added
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * Returns whether or not any items have been written to run files.
+	 *
+	 * @return			whether or not items have been written to disk
+	 */
+	public boolean isSpilled() {
+		return runFiles.size() > 0;
+	}
+
+	/**
+	 * Returns the items sorted in memory.  Only available if no items have been written to run files.
+	 *
+	 * @return			sorted list of items
+	 */
+	public List<T> getSortedList() {
+		if (isSpilled()) {
+			throw new IllegalStateException("Items have been written to disk and must be read with iterator().");
+		}
+		sortItems();
+		return items;
+	}
+
+	private void writeRun() throws IOException {
+		sortItems();
+		File runFile = File.createTempFile(RUN_FILE_PREFIX, RUN_FILE_SUFFIX, tempDirectory);
+		runFile.deleteOnExit();
+		runFiles.add(runFile);
+		ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(runFile)));
+		try {
+			oos.writeInt(items.size());
+			int i = 0;
+			for (T item : items) {
+				oos.writeObject(item);
+				if (++i % RESET_INTERVAL == 0) {
+					oos.reset();
+				}
+			}
+		} finally {
+			oos.close();
+		}
+		items = new ArrayList<T>();
+		release();
+	}
+
+	/**
+	 * Returns an iterator over all items in sorted order.  Should only be called once, after all items
+	 * have been added.  If reading a run file fails, the iterator throws IllegalStateException.
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		if (!isSpilled()) {
+			return getSortedList().iterator();
+		}
+		sortItems();
+		final PriorityQueue<Run> queue = new PriorityQueue<Run>();
+		try {
+			for (File runFile : runFiles) {
+				ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(runFile)));
+				openRuns.add(ois);
+				Run run = new Run(new RunIterator(ois, ois.readInt()));
+				if (run.advance()) {
+					queue.add(run);
+				}
+			}
+			Run memoryRun = new Run(items.iterator());
+			if (memoryRun.advance()) {
+				queue.add(memoryRun);
+			}
+		} catch (IOException e) {
+			close();
+			throw new IllegalStateException("Unable to read sorted run file.", e);
+		}
+		return new Iterator<T>() {
+			public boolean hasNext() {
+				if (queue.isEmpty()) {
+					close();
+					return false;
+				}
+				return true;
+			}
+			public T next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				Run run = queue.poll();
+				T item = run.head;
+				if (run.advance()) {
+					queue.add(run);
+				}
+				return item;
+			}
+		};
+	}
+
+	/**
+	 * Delete any run files and release any memory reserved from the memory budget.  Run files are deleted
+	 * automatically once all items have been returned, but memory for a sorter that was never written to
+	 * disk is only released by closing the sorter.
+	 */
+	public void close() {
+		for (ObjectInputStream ois : openRuns) {
+			try {
+				ois.close();
+			} catch (IOException e) {
+				// nothing more can be done
+			}
+		}
+		openRuns.clear();
+		for (File runFile : runFiles) {
+			runFile.delete();
+		}
+		runFiles.clear();
+		items = new ArrayList<T>();
+		release();
+	}
+
+	/**
+	 * One sorted run being merged, with its next item.
+	 */
+	private class Run implements Comparable<Run> {
+		private Iterator<T> iterator;
+		private T head;
+
+		private Run(Iterator<T> iterator) {
+			this.iterator = iterator;
+		}
+
+		private boolean advance() {
+			head = iterator.hasNext()? iterator.next() : null;
+			return head != null;
+		}
+
+		public int compareTo(Run other) {
+			return head.compareTo(other.head);
+		}
+	}
+
+	/**
+	 * Iterator over the items of a run file.
+	 */
+	private class RunIterator implements Iterator<T> {
+		private ObjectInputStream ois;
+		private int remaining;
+
+		private RunIterator(ObjectInputStream ois, int count) {
+			this.ois = ois;
+			this.remaining = count;
+		}
+
+		public boolean hasNext() {
+			return remaining > 0;
+		}
+
+		@SuppressWarnings("unchecked")
+		public T next() {
+			if (remaining <= 0) {
+				throw new NoSuchElementException();
+			}
+			remaining--;
+			try {
+				return (T) ois.readObject();
+			} catch (Exception e) {
+				throw new IllegalStateException("Unable to read sorted run file.", e);
+			}
+		}
+	}
+}
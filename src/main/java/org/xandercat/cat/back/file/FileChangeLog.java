@@ -0,0 +1,243 @@
+package org.xandercat.cat.back.file;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * FileChangeLog is a plain text log of the source locations that have changed while a FileChangeWatcher
+ * was watching the files of a backup.  The log is kept in a file so that it can be used by a backup run
+ * from another process (such as a scheduled backup run from the command line).
+ *
+ * Each line of the log starts with a record type and the time the record was written.  A session start
+ * record is written once all source directories are being watched; changed location records follow, and
+ * a session end record is written when watching stops.  While a session is active, the log file's last
+ * modified time is updated periodically so that a log left behind by a process that was killed can be
+ * recognized as stale.
+ *
+ * The log can only be used to limit which files are inspected when it covers the entire time since the
+ * previous inspection; in every other case getChangedFiles returns null and all files must be inspected.
+ *
+ * @author Scott Arnold
+ */
+public class FileChangeLog {
+
+	private static final Logger log = LogManager.getLogger(FileChangeLog.class);
+
+	public static final long HEARTBEAT_INTERVAL = 10000;
+
+	private static final char SESSION_STARTED = 'S';
+	private static final char CHANGED = 'D';
+	private static final char OVERFLOW = 'O';
+	private static final char SESSION_ENDED = 'E';
+	private static final long STALE_AGE = 3 * HEARTBEAT_INTERVAL;
+	private static final long CHANGE_TIME_SLACK = 2000;	// allows for changes logged just before a scan started
+
+	private File logFile;
+	private Writer out;
+
+	/**
+	 * Returns the change log file for the backup with the given id.
+	 *
+	 * @param backupId		backup id
+	 *
+	 * @return				change log file
+	 */
+	public static File getLogFile(String backupId) {
+		return new File("catback_changes_" + backupId + ".log");
+	}
+
+	/**
+	 * Generates a key for the given included and excluded files.  Change logs and file scans are only used
+	 * together when they were made for the same included and excluded files.
+	 *
+	 * @param includedFiles		files included in the backup
+	 * @param excludedFiles		files excluded from the backup
+	 * @param excludedPatterns	patterns of files excluded from the backup (can be null)
+	 *
+	 * @return					key for the given selection of files
+	 */
+	public static String generateSelectionKey(Set<File> includedFiles, Set<File> excludedFiles, String excludedPatterns) {
+		CRC32 crc = new CRC32();
+		for (File file : new TreeSet<File>(includedFiles)) {
+			crc.update(("+" + file.getAbsolutePath() + "\n").getBytes(StandardCharsets.UTF_8));
+		}
+		for (File file : new TreeSet<File>(excludedFiles)) {
+			crc.update(("-" + file.getAbsolutePath() + "\n").getBytes(StandardCharsets.UTF_8));
+		}
+		for (ExclusionRule exclusionRule : ExclusionRule.compile(excludedPatterns)) {
+			crc.update(("*" + exclusionRule.getPattern() + "\n").getBytes(StandardCharsets.UTF_8));
+		}
+		return Long.toHexString(crc.getValue()) + Integer.toHexString(includedFiles.size() + excludedFiles.size());
+	}
+
+	/**
+	 * Returns the files and directories recorded as changed in the given log since the given time, or
+	 * null if the log does not reliably cover all changes since that time.  The log is only reliable if
+	 * a session for the same selection of files was started no later than the given time and that session
+	 * is still active without any lost changes.
+	 *
+	 * @param logFile			change log file
+	 * @param selectionKey		key for selection of files the backup is for
+	 * @param since				time from which changes are needed
+	 *
+	 * @return					changed files and directories, or null if changes are unknown
+	 */
+	public static Set<File> getChangedFiles(File logFile, String selectionKey, long since) {
+		if (!logFile.exists() || System.currentTimeMillis() - logFile.lastModified() > STALE_AGE) {
+			return null;
+		}
+		Set<File> changedFiles = null;
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(logFile), StandardCharsets.UTF_8));
+			try {
+				String line = null;
+				while ((line = in.readLine()) != null) {
+					int timeEnd = line.indexOf(' ', 2);
+					if (line.length() < 3 || line.charAt(1) != ' ') {
+						return null;
+					}
+					long time = Long.parseLong(line.substring(2, (timeEnd < 0)? line.length() : timeEnd));
+					switch (line.charAt(0)) {
+					case SESSION_STARTED:
+						String key = (timeEnd < 0)? null : line.substring(timeEnd + 1);
+						changedFiles = (time <= since && selectionKey.equals(key))? new HashSet<File>() : null;
+						break;
+					case CHANGED:
+						if (timeEnd < 0) {
+							return null;
+						}
+						if (changedFiles != null && time >= since - CHANGE_TIME_SLACK) {
+							changedFiles.add(new File(line.substring(timeEnd + 1)));
+						}
+						break;
+					case OVERFLOW:
+					case SESSION_ENDED:
+						changedFiles = null;
+						break;
+					default:
+						return null;
+					}
+				}
+			} finally {
+				in.close();
+			}
+		} catch (Exception e) {
+			log.warn("Unable to read file change log " + logFile.getAbsolutePath(), e);
+			return null;
+		}
+		return changedFiles;
+	}
+
+	/**
+	 * Constructs a new change log that writes to the given file.
+	 *
+	 * @param logFile		change log file
+	 */
+	public FileChangeLog(File logFile) {
+		this.logFile = logFile;
+	}
+
+	/**
+	 * Start a new session, replacing any previous contents of the log.
+	 *
+	 * @param selectionKey		key for the selection of files being watched
+	 *
+	 * @throws IOException		if the log cannot be written
+	 */
+	public synchronized void sessionStarted(String selectionKey) throws IOException {
+		close();
+		this.out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(logFile, false), StandardCharsets.UTF_8));
+		writeRecord(SESSION_STARTED, selectionKey);
+	}
+
+	/**
+	 * Record that the given file or directory has changed.
+	 *
+	 * @param file				changed file or directory
+	 *
+	 * @throws IOException		if the log cannot be written
+	 */
+	public synchronized void fileChanged(File file) throws IOException {
+		String path = file.getAbsolutePath();
+		if (path.indexOf('\n') >= 0 || path.indexOf('\r') >= 0) {
+			// path cannot be recorded on a single line
+			log.warn("Unable to record change to " + path + "; full inspection will be required");
+			writeRecord(OVERFLOW, null);
+		} else {
+			writeRecord(CHANGED, path);
+		}
+	}
+
+	/**
+	 * Record that changes may have been lost.  Changes recorded in the log cannot be used after this
+	 * until a new session is started.
+	 *
+	 * @throws IOException		if the log cannot be written
+	 */
+	public synchronized void overflow() throws IOException {
+		writeRecord(OVERFLOW, null);
+	}
+
+	/**
+	 * Update the last modified time of the log to show that the session is still active.
+	 */
+	public synchronized void heartbeat() {
+		if (out != null) {
+			logFile.setLastModified(System.currentTimeMillis());
+		}
+	}
+
+	/**
+	 * End the current session and close the log.
+	 */
+	public synchronized void sessionEnded() {
+		if (out != null) {
+			try {
+				writeRecord(SESSION_ENDED, null);
+			} catch (IOException e) {
+				log.warn("Unable to end session in file change log " + logFile.getAbsolutePath(), e);
+			}
+		}
+		close();
+	}
+
+	private void writeRecord(char recordType, String value) throws IOException {
+		if (out != null) {
+			out.write(recordType);
+			out.write(' ');
+			out.write(Long.toString(System.currentTimeMillis()));
+			if (value != null) {
+				out.write(' ');
+				out.write(value);
+			}
+			out.write('\n');
+			out.flush();
+		}
+	}
+
+	private void close() {
+		if (out != null) {
+			try {
+				out.close();
+			} catch (IOException e) {
+				log.warn("Unable to close file change log " + logFile.getAbsolutePath(), e);
+			}
+			out = null;
+		}
+	}
+}
@@ -0,0 +1,306 @@
+package org.xandercat.cat.back.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * FileChangeWatcher watches the source directories of a backup for changes and records the directories
+ * in which changes occur to a FileChangeLog.  The next backup can then inspect only the recorded
+ * directories instead of all source files.
+ *
+ * Every directory within the included files (other than excluded directories) is registered with a
+ * WatchService; for included files that are not directories, the parent directory is registered and only
+ * changes to the included file itself are recorded.  Directories created while watching are registered as
+ * they are found.  If the WatchService reports that events were lost, a new log session is started so that
+ * the next backup will inspect all files.  If any directory cannot be registered, the log is marked as
+ * incomplete and watching stops.
+ *
+ * @author Scott Arnold
+ */
+public class FileChangeWatcher implements Runnable {
+
+	private static final Logger log = LogManager.getLogger(FileChangeWatcher.class);
+
+	private static final long DUPLICATE_CHANGE_INTERVAL = 1000;
+	private static final int MAX_RECENT_CHANGES = 10000;
+
+	private static class WatchedDirectory {
+		private Path directory;
+		private boolean allFiles;						// whether or not all files in the directory are watched
+		private Set<Path> files = new HashSet<Path>();	// individually watched files when not all files are watched
+	}
+
+	private Set<File> includedFiles;
+	private ExclusionMatcher exclusionMatcher;
+	private List<ExclusionRule> exclusionRules;
+	private String selectionKey;
+	private File logFile;
+	private FileChangeLog changeLog;
+	private WatchService watchService;
+	private Map<WatchKey, WatchedDirectory> watchedDirectories = new HashMap<WatchKey, WatchedDirectory>();
+	private Map<Path, Long> recentChanges = new HashMap<Path, Long>();
+	private Thread thread;
+	private Thread shutdownHook;
+	private volatile boolean running;
+
+	/**
+	 * Constructs a new file change watcher for the given included and excluded files.
+	 *
+	 * @param includedFiles		files included in the backup
+	 * @param excludedFiles		files excluded from the backup
+	 * @param excludedPatterns	patterns of files excluded from the backup (can be null)
+	 * @param logFile			file to log changes to
+	 */
+	public FileChangeWatcher(Set<File> includedFiles, Set<File> excludedFiles, String excludedPatterns, File logFile) {
+		this.includedFiles = new HashSet<File>(includedFiles);
+		this.exclusionMatcher = new ExclusionMatcher(excludedFiles);
+		this.exclusionRules = ExclusionRule.compile(excludedPatterns);
+		this.selectionKey = FileChangeLog.generateSelectionKey(includedFiles, excludedFiles, excludedPatterns);
+		this.logFile = logFile.getAbsoluteFile();
+		this.changeLog = new FileChangeLog(this.logFile);
+	}
+
+	/**
+	 * Returns the key for the selection of files being watched.
+	 *
+	 * @return		selection key
+	 */
+	public String getSelectionKey() {
+		return selectionKey;
+	}
+
+	/**
+	 * Start watching for changes on a background thread.
+	 *
+	 * @throws IOException		if a WatchService cannot be created
+	 */
+	public synchronized void start() throws IOException {
+		if (thread != null) {
+			throw new IllegalStateException("File change watcher has already been started.");
+		}
+		this.watchService = FileSystems.getDefault().newWatchService();
+		this.running = true;
+		this.thread = new Thread(this, "CatBack File Change Watcher");
+		this.thread.setDaemon(true);
+		this.shutdownHook = new Thread(() -> {
+			changeLog.sessionEnded();
+		});
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+		this.thread.start();
+	}
+
+	/**
+	 * Stop watching for changes.  This method does not return until the watching thread has finished.
+	 */
+	public synchronized void stop() {
+		if (thread == null) {
+			return;
+		}
+		this.running = false;
+		try {
+			watchService.close();
+		} catch (IOException e) {
+			log.warn("Unable to close watch service.", e);
+		}
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			Runtime.getRuntime().removeShutdownHook(shutdownHook);
+		} catch (IllegalStateException e) {
+			// already shutting down; hook will end the session
+		}
+		changeLog.sessionEnded();
+		this.thread = null;
+	}
+
+	@Override
+	public void run() {
+		try {
+			// any log left from an earlier session must not be used while directories are registered
+			logFile.delete();
+			for (File file : includedFiles) {
+				if (!running) {
+					return;
+				}
+				if (isExcluded(file.toPath())) {
+					continue;
+				}
+				Path path = file.toPath();
+				if (Files.isDirectory(path)) {
+					registerAll(path, false);
+				} else if (path.getParent() != null && Files.isDirectory(path.getParent())) {
+					register(path.getParent(), path);
+				}
+			}
+			changeLog.sessionStarted(selectionKey);
+			log.info("Watching " + watchedDirectories.size() + " directories for changes.");
+			long lastHeartbeat = System.currentTimeMillis();
+			while (running) {
+				WatchKey key = watchService.poll(FileChangeLog.HEARTBEAT_INTERVAL, TimeUnit.MILLISECONDS);
+				if (System.currentTimeMillis() - lastHeartbeat >= FileChangeLog.HEARTBEAT_INTERVAL) {
+					changeLog.heartbeat();
+					lastHeartbeat = System.currentTimeMillis();
+				}
+				if (key != null) {
+					processEvents(key);
+				}
+			}
+		} catch (ClosedWatchServiceException e) {
+			// watcher stopped
+		} catch (InterruptedException e) {
+			// watcher stopped
+		} catch (IOException e) {
+			log.warn("Unable to watch all files for changes; changes will not be recorded.", e);
+			try {
+				changeLog.overflow();
+			} catch (IOException ioe) {
+				log.warn("Unable to write to file change log.", ioe);
+			}
+		} finally {
+			changeLog.sessionEnded();
+		}
+	}
+
+	private void processEvents(WatchKey key) throws IOException {
+		WatchedDirectory watchedDirectory = watchedDirectories.get(key);
+		if (watchedDirectory == null) {
+			key.reset();
+			return;
+		}
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				log.info("File change events were lost; next backup will inspect all files.");
+				recentChanges.clear();
+				changeLog.sessionStarted(selectionKey);
+				continue;
+			}
+			Path path = watchedDirectory.directory.resolve((Path) event.context());
+			if (path.equals(logFile.toPath())) {
+				continue;
+			}
+			if (!watchedDirectory.allFiles) {
+				if (watchedDirectory.files.contains(path)) {
+					logChange(path);
+				}
+				continue;
+			}
+			boolean directory = Files.isDirectory(path);
+			if (isExcluded(path) || isExcludedByRule(path, directory)) {
+				continue;
+			}
+			if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && directory) {
+				registerAll(path, true);
+			}
+			logChange(watchedDirectory.directory);
+		}
+		if (!key.reset()) {
+			watchedDirectories.remove(key);
+		}
+	}
+
+	private void logChange(Path path) throws IOException {
+		long now = System.currentTimeMillis();
+		Long lastLogged = recentChanges.get(path);
+		if (lastLogged != null && now - lastLogged.longValue() < DUPLICATE_CHANGE_INTERVAL) {
+			return;
+		}
+		if (recentChanges.size() >= MAX_RECENT_CHANGES) {
+			recentChanges.clear();
+		}
+		recentChanges.put(path, Long.valueOf(now));
+		changeLog.fileChanged(path.toFile());
+	}
+
+	/**
+	 * Register the given directory and all non-excluded directories within it.  If logChanges is true,
+	 * each directory registered is also logged as changed (used for directories created while watching,
+	 * since files may have been created within them before they were registered).
+	 */
+	private void registerAll(Path start, final boolean logChanges) throws IOException {
+		Files.walkFileTree(start, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				if (!running) {
+					return FileVisitResult.TERMINATE;
+				}
+				if (isExcluded(dir) || (!dir.equals(start) && isExcludedByRule(dir, true))) {
+					return FileVisitResult.SKIP_SUBTREE;
+				}
+				try {
+					register(dir, null);
+				} catch (NoSuchFileException e) {
+					// directory removed before it could be registered; removal is recorded by its parent
+					return FileVisitResult.SKIP_SUBTREE;
+				}
+				if (logChanges) {
+					logChange(dir);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException exc) {
+				// unreadable directories and link loops are skipped, the same as when inspecting files
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * Register the given directory.  If file is null, all files in the directory are watched; otherwise,
+	 * only the given file is watched (unless all files in the directory are already watched).
+	 */
+	private void register(Path directory, Path file) throws IOException {
+		WatchKey key = directory.register(watchService,
+				StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+		WatchedDirectory watchedDirectory = watchedDirectories.get(key);
+		if (watchedDirectory == null) {
+			watchedDirectory = new WatchedDirectory();
+			watchedDirectory.directory = directory;
+			watchedDirectories.put(key, watchedDirectory);
+		}
+		if (file == null) {
+			watchedDirectory.allFiles = true;
+		} else {
+			watchedDirectory.files.add(file);
+		}
+	}
+
+	private boolean isExcludedByRule(Path path, boolean directory) {
+		for (ExclusionRule exclusionRule : exclusionRules) {
+			if (exclusionRule.matches(path.toFile(), directory)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean isExcluded(Path path) {
+		return exclusionMatcher.isExcluded(path.toAbsolutePath().toString());
+	}
+}
@@ -0,0 +1,170 @@
+package org.xandercat.cat.back.file;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FileIdentity identifies a version of a source file on Unix-like platforms: the device and inode number of
+ * the file, and its status change time (ctime).  The status change time is set by the file system whenever
+ * the file is written or its attributes are changed, and unlike the last modified time it cannot be set
+ * back, so a file rewritten by a tool that restores its last modified time afterwards still has a new status
+ * change time.  A file replaced by another (as many programs save files) has a new inode number.
+ *
+ * The identity is read together with the other attributes of a file, with the single call to the file
+ * system that reads them (see readAttributes(Path)); the attributes returned carry the identity.  Status
+ * change times are kept to the nanosecond.
+ *
+ * @author Scott Arnold
+ */
+public class FileIdentity implements Serializable {
+
+	private static final long serialVersionUID = 2026101801L;
+
+	public static final String ATTRIBUTE_VIEW = "unix";
+
+	private static final String ATTRIBUTES = ATTRIBUTE_VIEW + ":size,lastModifiedTime,lastAccessTime,creationTime,isRegularFile,isDirectory,isSymbolicLink,isOther,fileKey,dev,ino,ctime";
+
+	private long device;
+	private long inode;
+	private long changeTime;
+
+	/**
+	 * Attributes of a file read with its identity.
+	 */
+	public static class Attributes implements BasicFileAttributes {
+		private Map<String, Object> attributes;
+		private FileIdentity fileIdentity;
+
+		private Attributes(Map<String, Object> attributes) {
+			this.attributes = attributes;
+			FileTime changeTime = (FileTime) attributes.get("ctime");
+			this.fileIdentity = new FileIdentity(((Number) attributes.get("dev")).longValue(), ((Number) attributes.get("ino")).longValue(),
+					changeTime.to(TimeUnit.NANOSECONDS));
+		}
+
+		public FileIdentity getFileIdentity() {
+			return fileIdentity;
+		}
+
+		public FileTime lastModifiedTime() {
+			return (FileTime) attributes.get("lastModifiedTime");
+		}
+
+		public FileTime lastAccessTime() {
+			return (FileTime) attributes.get("lastAccessTime");
+		}
+
+		public FileTime creationTime() {
+			return (FileTime) attributes.get("creationTime");
+		}
+
+		public boolean isRegularFile() {
+			return ((Boolean) attributes.get("isRegularFile")).booleanValue();
+		}
+
+		public boolean isDirectory() {
+			return ((Boolean) attributes.get("isDirectory")).booleanValue();
+		}
+
+		public boolean isSymbolicLink() {
+			return ((Boolean) attributes.get("isSymbolicLink")).booleanValue();
+		}
+
+		public boolean isOther() {
+			return ((Boolean) attributes.get("isOther")).booleanValue();
+		}
+
+		public long size() {
+			return ((Long) attributes.get("size")).longValue();
+		}
+
+		public Object fileKey() {
+			return attributes.get("fileKey");
+		}
+	}
+
+	public FileIdentity(long device, long inode, long changeTime) {
+		this.device = device;
+		this.inode = inode;
+		this.changeTime = changeTime;
+	}
+
+	/**
+	 * Returns whether or not file identities can be read on this platform.
+	 *
+	 * @return		whether or not file identities are supported
+	 */
+	public static boolean isSupported() {
+		return FileSystems.getDefault().supportedFileAttributeViews().contains(ATTRIBUTE_VIEW);
+	}
+
+	/**
+	 * Returns the attributes of the given file, including its identity, read with a single call to the file
+	 * system.  File identities must be supported on the platform (see isSupported()).
+	 *
+	 * @param path				file to read the attributes of
+	 *
+	 * @return					attributes of the file
+	 *
+	 * @throws IOException		if the attributes cannot be read
+	 */
+	public static Attributes readAttributes(Path path) throws IOException {
+		return new Attributes(Files.readAttributes(path, ATTRIBUTES));
+	}
+
+	public long getDevice() {
+		return device;
+	}
+
+	public long getInode() {
+		return inode;
+	}
+
+	/**
+	 * Returns the status change time of the file, in nanoseconds since the epoch.
+	 *
+	 * @return		status change time
+	 */
+	public long getChangeTime() {
+		return changeTime;
+	}
+
+	/**
+	 * Returns whether or not the given identity is of a file on the same device as this one.  Device numbers
+	 * of removable and network file systems can change each time they are mounted, so identities of files on
+	 * different devices cannot be compared.
+	 *
+	 * @param other		other file identity
+	 *
+	 * @return			whether or not the files are on the same device
+	 */
+	public boolean isSameDevice(FileIdentity other) {
+		return device == other.device;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof FileIdentity)) {
+			return false;
+		}
+		FileIdentity other = (FileIdentity) obj;
+		return device == other.device && inode == other.inode && changeTime == other.changeTime;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (device ^ inode ^ changeTime ^ (changeTime >>> 32));
+	}
+
+	@Override
+	public String toString() {
+		return "device " + device + ", inode " + inode + ", changed " + changeTime;
+	}
+}
@@ -0,0 +1,37 @@
+package org.xandercat.cat.back.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Change detector that also compares files by file identity (see FileIdentity) on platforms that support
+ * it.  Source files are given their identities as they are inspected, and the identity of each source file is
+ * recorded with its backup in the backup file list.  A file whose inode number or status change time differs
+ * from the one recorded has changed, even if its length and last modified time have not; this includes files 
+ * whose attributes alone have changed, as the status change time does not tell those apart.  Files without a
+ * recorded identity, or that were on another device when they were backed up, are compared by length and last 
+ * modified time only.
+ *
+ * @author Scott Arnold
+ */
+public class FileIdentityChangeDetector extends LengthAndTimeChangeDetector {
+
+	@Override
+	public BasicFileAttributes readAttributes(File file) throws IOException {
+		return FileIdentity.readAttributes(file.toPath());
+	}
+
+	@Override
+	public boolean isFileEquivalent(BackupFile previousFile, BackupFile currentFile, long lastModPrecision) {
+		if (!super.isFileEquivalent(previousFile, currentFile, lastModPrecision)) {
+			return false;
+		}
+		FileIdentity previousIdentity = previousFile.getFileIdentity();
+		FileIdentity currentIdentity = currentFile.getFileIdentity();
+		if (currentFile.isDirectory() || previousIdentity == null || currentIdentity == null || !previousIdentity.isSameDevice(currentIdentity)) {
+			return true;
+		}
+		return previousIdentity.equals(currentIdentity);
+	}
+}
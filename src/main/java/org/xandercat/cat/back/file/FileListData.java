@@ -8,13 +8,16 @@ import java.util.List;
  * This information enables the backup process to skip scanning of the last backup
  * when doing a new backup.
  * 
+ * As of v1.6.1, file list data is saved with FileListWriter and loaded with FileListReader; it remains 
+ * Serializable so file lists saved by earlier versions can be loaded.
+ * 
  * @author Scott Arnold
  */
 public class FileListData implements Serializable {
 
 	private static final long serialVersionUID = 2013080301L;
 
-	private List<BackupFile> backupFiles;
+	private List<BackupFile> backupFiles;	// saved with FileListWriter as of v1.6.1; earlier versions serialized an ArrayList
 	private long backupSize;
 	
 	public FileListData(List<BackupFile> backupFiles, long backupSize) {
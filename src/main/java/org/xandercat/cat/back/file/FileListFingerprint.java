@@ -0,0 +1,57 @@
+package org.xandercat.cat.back.file;
+
+import java.io.Serializable;
+
+/**
+ * FileListFingerprint identifies the contents of a saved backup file list: the number of files, the backup
+ * size, and the checksum written in the trailer of the file list.  Two file lists with the same files and
+ * backup size have the same fingerprint, so a file list that would be saved with the fingerprint of an
+ * existing file list does not need to be saved again.
+ *
+ * @author Scott Arnold
+ */
+public class FileListFingerprint implements Serializable {
+
+	private static final long serialVersionUID = 2023052001L;
+
+	private long count;
+	private long backupSize;
+	private long checksum;
+
+	public FileListFingerprint(long count, long backupSize, long checksum) {
+		this.count = count;
+		this.backupSize = backupSize;
+		this.checksum = checksum;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getBackupSize() {
+		return backupSize;
+	}
+
+	public long getChecksum() {
+		return checksum;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof FileListFingerprint)) {
+			return false;
+		}
+		FileListFingerprint other = (FileListFingerprint) obj;
+		return count == other.count && backupSize == other.backupSize && checksum == other.checksum;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (count ^ backupSize ^ checksum ^ (checksum >>> 32));
+	}
+
+	@Override
+	public String toString() {
+		return count + " files, " + backupSize + " bytes, checksum " + Long.toHexString(checksum);
+	}
+}
@@ -0,0 +1,738 @@
+package org.xandercat.cat.back.file;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.xandercat.swing.file.FileManager;
+import org.xandercat.swing.util.PlatformTool;
+
+/**
+ * FileListJournal keeps the latest backup file list valid while files are being moved out of and
+ * copied into the latest backup directory.  Each completed move or copy is appended to a journal
+ * file next to the file list.  The file list is a snapshot that is only rewritten when the journal is
+ * applied to it and the journal is cleared (a checkpoint); otherwise, each backup appends a segment of
+ * records to the journal, and loading the file list applies every segment to the snapshot.  A checkpoint
+ * is made once the journal grows past COMPACTION_RATIO of the size of the file list, so the metadata
+ * written by a backup depends on the number of files changed rather than the number of files backed up.
+ * The checkpoint is made on a background thread once the backup finishes (compaction); loading or saving
+ * the same file list waits for it to finish.  Only if a single backup records so many changes that the
+ * journal grows past CHECKPOINT_FACTOR times that size is a checkpoint made while the backup is running.
+ *
+ * The file list is divided into shards by included root (see FileListShards), and changes are made to the
+ * shard each file belongs to.  Each shard is saved to its own file, listed with its fingerprint in a
+ * FileListManifest saved as the file list file, and a checkpoint saves only the shards that have changed;
+ * a shard with the fingerprint of the saved shard is not saved again.  When the included roots change,
+ * the file list is divided into the new shards and saved at the end of the backup.
+ *
+ * Shard files are never overwritten and the manifest is only ever replaced by renaming a fully written
+ * temporary file over it, and journal records are only written after the change they describe has taken
+ * place, so an interrupted backup always leaves a file list (plus journal) that describes the latest backup
+ * directory.  Applying a journal record more than once has no additional effect.  The content digest, quick
+ * fingerprint and source file identity of an added file, if it has any, are appended to its record after a byte
+ * of RECORD_DIGEST, RECORD_QUICK_FINGERPRINT and RECORD_FILE_IDENTITY flags.  Each segment records the
+ * JOURNAL_VERSION its records were written with; a journal with a segment or flag of a later version cannot
+ * be read.
+ *
+ * Shards are saved with FileListWriter and, where possible, mapped as a MappedBackupFileList rather than
+ * loaded into memory.  Shards are saved through MetadataFiles, so they are compressed if metadata compression
+ * is enabled; compressed shards cannot be mapped and are loaded into memory.  The journal and manifest are
+ * never compressed.  Unsharded file lists saved with FileListWriter, and file lists saved prior to v1.6.1
+ * with Java serialization, are still loaded, and are saved as shards at the end of the backup.
+ *
+ * @author Scott Arnold
+ */
+public class FileListJournal {
+
+	private static final Logger log = LogManager.getLogger(FileListJournal.class);
+
+	private static final byte RECORD_ADD = 1;
+	private static final byte RECORD_REMOVE = 2;
+	private static final byte RECORD_SEGMENT = 3;		// start of the records of a backup
+	private static final byte RECORD_DIGEST = 1;
+	private static final byte RECORD_QUICK_FINGERPRINT = 2;
+	private static final byte RECORD_FILE_IDENTITY = 4;
+	private static final byte RECORD_CONTENT_FLAGS = RECORD_DIGEST | RECORD_QUICK_FINGERPRINT | RECORD_FILE_IDENTITY;
+	private static final byte JOURNAL_VERSION = 1;
+	private static final int MAX_RECORD_LENGTH = 1 << 20;
+	
+	public static final double COMPACTION_RATIO = 0.25;
+	public static final long MIN_COMPACTION_BYTES = 64 * 1024;
+	public static final int CHECKPOINT_FACTOR = 4;
+	
+	private static final ExecutorService compactionExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "CatBack File List Compaction");
+			thread.setDaemon(true);		// interrupted compaction leaves the file list and journal valid
+			return thread;
+		}
+	});
+	private static final Map<File, Future<?>> compactions = new HashMap<File, Future<?>>();
+
+	private File fileListFile;
+	private File journalFile;
+	private File latestBackupDirectory;
+	private FileListShards shards;
+	private FileListManifest manifest;				// manifest of the saved file list, if known
+	private SortedMap<String, BackupFileListEditor> editors = new TreeMap<String, BackupFileListEditor>();
+	private Set<String> savedShards = new HashSet<String>();	// shards unchanged since saved in the manifest
+	private boolean resharded;						// whether shards differ from those of the saved file list
+	private int recordsSinceCheckpoint;
+	private long journalLength;
+	private long compactionLength;
+	private DataOutputStream journalOut;
+	private MetadataFiles metadataFiles = new MetadataFiles(false);
+
+	/**
+	 * Load the file list data from the given file list file, applying any changes recorded in the
+	 * journal file from a backup that did not finish.
+	 *
+	 * @param fileListFile				file list file
+	 * @param journalFile				journal file
+	 * @param latestBackupDirectory		latest backup directory
+	 *
+	 * @return							file list data
+	 *
+	 * @throws IOException				if the file list cannot be loaded
+	 */
+	public static FileListData loadFileListData(File fileListFile, File journalFile, File latestBackupDirectory) throws IOException {
+		awaitCompaction(fileListFile);
+		FileListData fileListData = null;
+		FileListShards shards = null;
+		if (FileListManifest.isManifest(fileListFile)) {
+			ShardedBackupFileList fileList = loadShards(fileListFile, latestBackupDirectory);
+			fileListData = new FileListData(fileList, fileList.getBackupSize());
+			shards = new FileListShards(fileList.getShardKeys());
+		} else {
+			if (FileListReader.isFileList(fileListFile)) {
+				fileListData = mapFileListData(fileListFile, latestBackupDirectory, null);
+			} else {
+				fileListData = loadSerializedFileListData(fileListFile, latestBackupDirectory);
+			}
+			shards = new FileListShards(Collections.<String>emptyList());	// unsharded
+		}
+		if (!journalFile.exists()) {
+			return fileListData;
+		}
+		FileListJournal journal = new FileListJournal(fileListFile, journalFile, latestBackupDirectory, fileListData, shards);
+		journal.replay();
+		return journal.getFileListData();
+	}
+
+	/**
+	 * Load the shards listed in the manifest saved as the given file list file, verifying that each has the
+	 * fingerprint recorded in the manifest.
+	 */
+	private static ShardedBackupFileList loadShards(File fileListFile, File latestBackupDirectory) throws IOException {
+		FileListManifest manifest = FileListManifest.load(fileListFile);
+		File shardDirectory = FileListManifest.getShardDirectory(fileListFile);
+		ShardedBackupFileList fileList = new ShardedBackupFileList(manifest);
+		for (FileListManifest.Shard shard : manifest.getShards()) {
+			File shardFile = new File(shardDirectory, shard.getFileName());
+			FileListData shardData = mapFileListData(shardFile, latestBackupDirectory, shard.getFingerprint());
+			fileList.addShard(shard.getKey(), shardData.getBackupFiles(), shardData.getBackupSize(), true);
+		}
+		return fileList;
+	}
+
+	/**
+	 * Map the file list, or load it into memory if it cannot be mapped.  File lists are not mapped on 
+	 * Windows, where a mapped file list could not be deleted once replaced, or when compressed.
+	 */
+	private static FileListData mapFileListData(File fileListFile, File latestBackupDirectory, FileListFingerprint fingerprint) throws IOException {
+		if (!PlatformTool.isWindows() && !MetadataFiles.isCompressed(fileListFile)) {
+			MappedBackupFileList mappedList = null;
+			try {
+				mappedList = MappedBackupFileList.map(fileListFile, latestBackupDirectory, true);
+			} catch (IOException e) {
+				log.info("Unable to map file list " + fileListFile.getAbsolutePath() + "; loading file list into memory instead: " + e.getMessage());
+			}
+			if (mappedList != null) {
+				if (fingerprint != null && !fingerprint.equals(mappedList.getFingerprint())) {
+					throw new IOException("File list " + fileListFile.getAbsolutePath() + " does not match its fingerprint (" + fingerprint + ").");
+				}
+				return new FileListData(mappedList, mappedList.getBackupSize());
+			}
+		}
+		return FileListReader.load(fileListFile, latestBackupDirectory, fingerprint);
+	}
+	
+	/**
+	 * Load file list data saved prior to v1.6.1 with Java serialization.  It is saved as shards at the end
+	 * of the backup, so it only needs to be converted once.
+	 */
+	private static FileListData loadSerializedFileListData(File fileListFile, File latestBackupDirectory) throws IOException {
+		FileListData fileListData = FileManager.loadObject(fileListFile, FileListData.class);
+		if (fileListData == null) {
+			throw new IOException("File list could not be loaded from " + fileListFile.getAbsolutePath());
+		}
+		BackupFileIndex index = BackupFileIndex.copyOf(fileListData.getBackupFiles(), latestBackupDirectory);
+		return new FileListData(index, fileListData.getBackupSize());
+	}
+	
+	/**
+	 * Wait for any compaction of the given file list to finish.
+	 */
+	private static void awaitCompaction(File fileListFile) {
+		Future<?> compaction = null;
+		synchronized (compactions) {
+			compaction = compactions.remove(fileListFile.getAbsoluteFile());
+		}
+		if (compaction != null) {
+			try {
+				compaction.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				// failure is logged by the compaction; file list and journal remain valid
+			}
+		}
+	}
+	
+	/**
+	 * Save the shards of the given file list that are not already saved, then a manifest listing every
+	 * shard, then delete the shard files no longer listed.  A shard that has the fingerprint of the saved
+	 * shard with the same key, and whose saved shard file is intact, is not saved again even if it was not
+	 * loaded from the saved shard (for example, after the last backup was inspected in step 2).  Shards are
+	 * saved through the given metadata files.
+	 *
+	 * @return		new manifest
+	 */
+	private static FileListManifest save(File fileListFile, ShardedBackupFileList fileList, MetadataFiles metadataFiles) throws IOException {
+		FileListManifest previous = fileList.getManifest();
+		if (previous == null && fileListFile.exists() && FileListManifest.isManifest(fileListFile)) {
+			try {
+				previous = FileListManifest.load(fileListFile);
+			} catch (IOException e) {
+				log.warn("Unable to load file list manifest " + fileListFile.getAbsolutePath() + "; all shards will be saved", e);
+			}
+		}
+		File shardDirectory = FileListManifest.getShardDirectory(fileListFile);
+		if (!shardDirectory.isDirectory() && !shardDirectory.mkdir()) {
+			throw new IOException("Unable to create file list shard directory " + shardDirectory.getAbsolutePath());
+		}
+		FileListManifest manifest = new FileListManifest((previous == null)? 0 : previous.getNextFileNumber());
+		int shardsSaved = 0;
+		for (String key : fileList.getShardKeys()) {
+			FileListData shardData = new FileListData(fileList.getShard(key), fileList.getShardBackupSize(key));
+			FileListManifest.Shard previousShard = (previous == null)? null : previous.getShard(key);
+			if (previousShard != null && (fileList.isSaved(key) || isUnchanged(previousShard, shardData, shardDirectory))) {
+				manifest.putShard(previousShard);
+				continue;
+			}
+			String fileName = manifest.newFileName(shardDirectory);
+			File shardFile = new File(shardDirectory, fileName);
+			FileListFingerprint fingerprint = FileListWriter.save(metadataFiles.openOutput(shardFile), shardData);
+			manifest.putShard(new FileListManifest.Shard(key, fileName, shardFile.length(), fingerprint));
+			shardsSaved++;
+		}
+		manifest.save(fileListFile);
+		manifest.deleteUnlistedFiles(shardDirectory);
+		log.debug("Saved " + shardsSaved + " of " + fileList.getShardKeys().size() + " file list shards to " + shardDirectory.getAbsolutePath());
+		return manifest;
+	}
+	
+	/**
+	 * Returns whether or not the given shard data has the fingerprint of the given saved shard, and the
+	 * saved shard file is intact.  The file count and size are compared first, as the checksum requires 
+	 * encoding the whole shard.  The saved shard file is read in full, as it may be the reason the file 
+	 * list could not be loaded.
+	 */
+	private static boolean isUnchanged(FileListManifest.Shard shard, FileListData shardData, File shardDirectory) {
+		FileListFingerprint fingerprint = shard.getFingerprint();
+		if (fingerprint.getCount() != shardData.getBackupFiles().size() || fingerprint.getBackupSize() != shardData.getBackupSize()
+				|| !fingerprint.equals(FileListWriter.fingerprint(shardData))) {
+			return false;
+		}
+		File shardFile = new File(shardDirectory, shard.getFileName());
+		try {
+			FileListReader reader = new FileListReader(shardFile, null);
+			try {
+				while (reader.readNext()) {
+					// reading every file verifies the checksum
+				}
+			} finally {
+				reader.close();
+			}
+			return fingerprint.equals(reader.getFingerprint());
+		} catch (IOException e) {
+			log.info("Saved file list shard " + shardFile.getAbsolutePath() + " cannot be read and will be saved again: " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Constructs a new journal for the given file list data.  The file list data must describe the
+	 * current contents of the latest backup directory, and the list of backup files must be sorted.
+	 * Unless the file list data is a ShardedBackupFileList with the given shards, the files are divided 
+	 * into the given shards.
+	 *
+	 * @param fileListFile				file list file
+	 * @param journalFile				journal file
+	 * @param latestBackupDirectory		latest backup directory
+	 * @param fileListData				current file list data
+	 * @param shards					shards to divide the file list into
+	 */
+	public FileListJournal(File fileListFile, File journalFile, File latestBackupDirectory, FileListData fileListData, FileListShards shards) {
+		this.fileListFile = fileListFile;
+		this.journalFile = journalFile;
+		this.latestBackupDirectory = latestBackupDirectory;
+		this.shards = shards;
+		List<BackupFile> backupFiles = fileListData.getBackupFiles();
+		if (backupFiles instanceof ShardedBackupFileList) {
+			ShardedBackupFileList fileList = (ShardedBackupFileList) backupFiles;
+			this.manifest = fileList.getManifest();
+			if (fileList.getShardKeys().equals(shards.getKeys())) {
+				for (String key : shards.getKeys()) {
+					editors.put(key, new BackupFileListEditor(fileList.getShard(key), fileList.getShardBackupSize(key)));
+					if (fileList.isSaved(key)) {
+						savedShards.add(key);
+					}
+				}
+				return;
+			}
+		}
+		divide(backupFiles, fileListData.getBackupSize());
+		this.resharded = true;
+	}
+
+	/**
+	 * Sets the metadata files the shards of the file list are saved through.  By default, shards are not
+	 * compressed.
+	 *
+	 * @param metadataFiles		metadata files
+	 */
+	public synchronized void setMetadataFiles(MetadataFiles metadataFiles) {
+		this.metadataFiles = metadataFiles;
+	}
+
+	/**
+	 * Divide the given sorted list of backup files into the shards of this journal.
+	 */
+	private void divide(List<BackupFile> backupFiles, long backupSize) {
+		if (shards.getKeys().size() == 1) {
+			editors.put(FileListShards.BASE_SHARD, new BackupFileListEditor(backupFiles, backupSize));
+			return;
+		}
+		Map<String, BackupFileIndex> indexes = new HashMap<String, BackupFileIndex>();
+		Map<String, long[]> backupSizes = new HashMap<String, long[]>();
+		for (String key : shards.getKeys()) {
+			indexes.put(key, new BackupFileIndex(latestBackupDirectory));
+			backupSizes.put(key, new long[1]);
+		}
+		if (backupFiles instanceof BackupFileColumns) {
+			BackupFileColumns columns = (BackupFileColumns) backupFiles;
+			for (int i = 0; i < columns.size(); i++) {
+				String criticalPath = columns.getCriticalPath(i);
+				String key = shards.getShard(criticalPath);
+				indexes.get(key).add(criticalPath, columns.getLength(i), columns.getLastModified(i), columns.isDirectory(i), columns.getDigest(i), columns.getQuickFingerprint(i), 
+						columns.getFileIdentity(i));
+				backupSizes.get(key)[0] += columns.getLength(i);
+			}
+		} else {
+			for (BackupFile backupFile : backupFiles) {
+				String key = shards.getShard(backupFile.getCriticalPath());
+				indexes.get(key).add(backupFile.getCriticalPath(), backupFile.getLength(), backupFile.getLastModified(), backupFile.isDirectory(), backupFile.getDigest(), backupFile.getQuickFingerprint(), 
+						backupFile.getFileIdentity());
+				backupSizes.get(key)[0] += backupFile.getLength();
+			}
+		}
+		for (String key : shards.getKeys()) {
+			BackupFileIndex index = indexes.get(key);
+			index.trimToSize();
+			editors.put(key, new BackupFileListEditor(index, backupSizes.get(key)[0]));
+		}
+	}
+
+	/**
+	 * Returns the size of the backup including all changes recorded so far.
+	 *
+	 * @return		backup size
+	 */
+	public synchronized long getBackupSize() {
+		long backupSize = 0;
+		for (BackupFileListEditor editor : editors.values()) {
+			backupSize += editor.getBackupSize();
+		}
+		return backupSize;
+	}
+
+	/**
+	 * Returns the file list with all changes recorded so far.
+	 */
+	private ShardedBackupFileList getFileList() {
+		ShardedBackupFileList fileList = new ShardedBackupFileList(manifest);
+		for (Map.Entry<String, BackupFileListEditor> entry : editors.entrySet()) {
+			String key = entry.getKey();
+			BackupFileListEditor editor = entry.getValue();
+			fileList.addShard(key, editor.getBackupFiles(), editor.getBackupSize(), savedShards.contains(key));
+		}
+		return fileList;
+	}
+	
+	private FileListData getFileListData() {
+		ShardedBackupFileList fileList = getFileList();
+		return new FileListData(fileList, fileList.getBackupSize());
+	}
+
+	/**
+	 * Returns the editor for the shard the given file belongs to, which is no longer saved.
+	 */
+	private BackupFileListEditor getEditor(String criticalPath) {
+		String key = shards.getShard(criticalPath);
+		savedShards.remove(key);
+		return editors.get(key);
+	}
+	
+	private void applyRemove(String criticalPath, boolean directory) {
+		getEditor(criticalPath).removeFile(criticalPath, directory);
+		if (directory) {
+			// the shards of roots within the directory are also removed
+			for (Map.Entry<String, BackupFileListEditor> entry : editors.entrySet()) {
+				String key = entry.getKey();
+				if (FileListShards.isWithin(key, criticalPath)) {
+					entry.getValue().removeFile(key, true);
+					savedShards.remove(key);
+				}
+			}
+		}
+	}
+	
+	private void applyAdd(BackupFile backupFile) {
+		getEditor(backupFile.getCriticalPath()).addFile(backupFile);
+	}
+
+	/**
+	 * Record that the given file (or directory and everything within it) has been removed from the
+	 * latest backup directory.
+	 *
+	 * @param backupFile		file removed
+	 *
+	 * @throws IOException		if the journal cannot be written
+	 */
+	public synchronized void fileRemoved(BackupFile backupFile) throws IOException {
+		applyRemove(backupFile.getCriticalPath(), backupFile.isDirectory());
+		writeRecord(RECORD_REMOVE, backupFile);
+	}
+
+	/**
+	 * Record that the given file has been added to or replaced within the latest backup directory.
+	 * The given backup file should be a destination backup file with attributes read after the file
+	 * was written.
+	 *
+	 * @param backupFile		file added
+	 *
+	 * @throws IOException		if the journal cannot be written
+	 */
+	public synchronized void fileAdded(BackupFile backupFile) throws IOException {
+		applyAdd(backupFile);
+		writeRecord(RECORD_ADD, backupFile);
+	}
+
+	/**
+	 * Record that the content digests, quick fingerprints or source file identities recorded for the given
+	 * files have been updated, though the files themselves are unchanged.  The records are written together
+	 * and flushed once; if they would grow the journal past CHECKPOINT_FACTOR times the compaction length, a
+	 * checkpoint is made instead, so updating the records of a large backup does not journal every file.
+	 *
+	 * @param backupFiles		files updated, as they are to be recorded
+	 *
+	 * @throws IOException		if the journal or file list cannot be written
+	 */
+	public synchronized void filesUpdated(List<BackupFile> backupFiles) throws IOException {
+		if (backupFiles.isEmpty()) {
+			return;
+		}
+		for (BackupFile backupFile : backupFiles) {
+			applyAdd(backupFile);
+		}
+		if (journalOut == null) {
+			openJournal();
+		}
+		for (BackupFile backupFile : backupFiles) {
+			byte[] record = toRecord(RECORD_ADD, backupFile);
+			if (journalLength + record.length + 12 > compactionLength * CHECKPOINT_FACTOR) {
+				// every update is already applied, so the records written so far are discarded with the journal
+				log.info("Saving file list with " + backupFiles.size() + " updated files rather than journaling them");
+				checkpoint();
+				return;
+			}
+			writeRecord(record, false);
+			recordsSinceCheckpoint++;
+		}
+		journalOut.flush();
+	}
+
+	/**
+	 * Apply all recorded changes to the file list, save the changed shards of the file list, and clear
+	 * the journal.
+	 *
+	 * @throws IOException		if the file list cannot be saved
+	 */
+	public synchronized void checkpoint() throws IOException {
+		closeJournal();
+		awaitCompaction(fileListFile);
+		ShardedBackupFileList fileList = getFileList();
+		this.manifest = save(fileListFile, fileList, metadataFiles);
+		journalFile.delete();
+		savedShards.addAll(editors.keySet());
+		resharded = false;
+		recordsSinceCheckpoint = 0;
+		journalLength = 0;
+		log.debug("File list checkpoint saved (" + fileList.size() + " files)");
+	}
+
+	/**
+	 * Close the journal, leaving the changes recorded in it to be applied when the file list is next
+	 * loaded.  If the journal has grown past COMPACTION_RATIO of the size of the file list, or the file list
+	 * has been divided into different shards, the file list is compacted on a background thread.
+	 *
+	 * @return					the final file list data
+	 *
+	 * @throws IOException		if the journal cannot be closed
+	 */
+	public synchronized FileListData commit() throws IOException {
+		closeJournal();
+		final ShardedBackupFileList fileList = getFileList();
+		final MetadataFiles metadataFiles = this.metadataFiles;
+		if (recordsSinceCheckpoint > 0) {
+			log.info("Recorded " + recordsSinceCheckpoint + " changes in file list journal " + journalFile.getAbsolutePath() 
+					+ " (" + journalFile.length() + " bytes)");
+		}
+		if (resharded || journalFile.length() > getCompactionLength()) {
+			awaitCompaction(fileListFile);
+			Future<?> compaction = compactionExecutor.submit(new Runnable() {
+				public void run() {
+					try {
+						save(fileListFile, fileList, metadataFiles);
+						journalFile.delete();
+						log.info("File list " + fileListFile.getAbsolutePath() + " compacted (" + fileList.size() + " files in " 
+								+ fileList.getShardKeys().size() + " shards)");
+					} catch (IOException e) {
+						log.warn("Unable to compact file list " + fileListFile.getAbsolutePath() + "; it will be compacted after the next backup", e);
+					}
+				}
+			});
+			synchronized (compactions) {
+				compactions.put(fileListFile.getAbsoluteFile(), compaction);
+			}
+		}
+		recordsSinceCheckpoint = 0;
+		return new FileListData(fileList, fileList.getBackupSize());
+	}
+	
+	/**
+	 * Returns the length the journal can grow to before the file list should be compacted.
+	 */
+	private long getCompactionLength() {
+		long fileListLength = (manifest == null)? fileListFile.length() : manifest.getFileLength();
+		return Math.max(MIN_COMPACTION_BYTES, (long) (fileListLength * COMPACTION_RATIO));
+	}
+
+	private void writeRecord(byte recordType, BackupFile backupFile) throws IOException {
+		byte[] record = toRecord(recordType, backupFile);
+		if (journalOut == null) {
+			openJournal();
+		}
+		writeRecord(record, true);
+		recordsSinceCheckpoint++;
+		if (journalLength > compactionLength * CHECKPOINT_FACTOR) {
+			checkpoint();
+		}
+	}
+	
+	private static byte[] toRecord(byte recordType, BackupFile backupFile) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(recordType);
+		out.writeUTF(backupFile.getCriticalPath());
+		out.writeBoolean(backupFile.isDirectory());
+		out.writeLong(backupFile.getLength());
+		out.writeLong(backupFile.getLastModified());
+		FileIdentity fileIdentity = backupFile.getFileIdentity();
+		if (recordType == RECORD_ADD && (backupFile.getDigest() != null || backupFile.getQuickFingerprint() != 0 || fileIdentity != null)) {
+			out.writeByte(((backupFile.getDigest() == null)? 0 : RECORD_DIGEST) | ((backupFile.getQuickFingerprint() == 0)? 0 : RECORD_QUICK_FINGERPRINT)
+					| ((fileIdentity == null)? 0 : RECORD_FILE_IDENTITY));
+			if (backupFile.getDigest() != null) {
+				out.write(backupFile.getDigest());
+			}
+			if (backupFile.getQuickFingerprint() != 0) {
+				out.writeLong(backupFile.getQuickFingerprint());
+			}
+			if (fileIdentity != null) {
+				out.writeLong(fileIdentity.getDevice());
+				out.writeLong(fileIdentity.getInode());
+				out.writeLong(fileIdentity.getChangeTime());
+			}
+		}
+		out.close();
+		return bytes.toByteArray();
+	}
+	
+	private void writeRecord(byte[] record, boolean flush) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(record);
+		journalOut.writeInt(record.length);
+		journalOut.write(record);
+		journalOut.writeLong(crc.getValue());
+		if (flush) {
+			journalOut.flush();
+		}
+		journalLength += record.length + 12;
+	}
+	
+	/**
+	 * Open the journal for appending a new segment.  Any damaged record left at the end of the journal by 
+	 * an interrupted backup is removed first, as records after it would otherwise never be replayed.
+	 */
+	private void openJournal() throws IOException {
+		if (journalFile.exists()) {
+			long validLength = scan(false);
+			if (validLength < journalFile.length()) {
+				log.warn("Removing damaged record from end of journal " + journalFile.getAbsolutePath());
+				FileChannel channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.WRITE);
+				try {
+					channel.truncate(validLength);
+				} finally {
+					channel.close();
+				}
+			}
+			journalLength = validLength;
+		} else {
+			journalLength = 0;
+		}
+		compactionLength = getCompactionLength();
+		journalOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journalFile, true)));
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(RECORD_SEGMENT);
+		out.writeLong(System.currentTimeMillis());
+		out.writeByte(JOURNAL_VERSION);
+		out.close();
+		writeRecord(bytes.toByteArray(), true);
+	}
+
+	private void closeJournal() throws IOException {
+		if (journalOut != null) {
+			journalOut.close();
+			journalOut = null;
+		}
+	}
+
+	/**
+	 * Replay the journal file into this journal's pending changes.
+	 */
+	private void replay() throws IOException {
+		scan(true);
+	}
+	
+	/**
+	 * Read the journal file, applying its records to this journal's pending changes if apply is true.  
+	 * Reading stops at the first incomplete or damaged record, which can only be the last record written 
+	 * before an interruption.
+	 *
+	 * @return		length of the journal up to the first incomplete or damaged record
+	 */
+	private long scan(boolean apply) throws IOException {
+		int records = 0;
+		int segments = 0;
+		long validLength = 0;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)));
+		try {
+			while (true) {
+				int recordLength = in.readInt();
+				if (recordLength <= 0 || recordLength > MAX_RECORD_LENGTH) {
+					log.warn("Damaged record found in journal " + journalFile.getAbsolutePath() + "; remaining records ignored");
+					break;
+				}
+				byte[] record = new byte[recordLength];
+				in.readFully(record);
+				long checksum = in.readLong();
+				CRC32 crc = new CRC32();
+				crc.update(record);
+				if (crc.getValue() != checksum) {
+					log.warn("Damaged record found in journal " + journalFile.getAbsolutePath() + "; remaining records ignored");
+					break;
+				}
+				validLength += recordLength + 12;
+				DataInputStream recordIn = new DataInputStream(new ByteArrayInputStream(record));
+				byte recordType = recordIn.readByte();
+				if (recordType == RECORD_SEGMENT) {
+					recordIn.readLong();
+					if (recordIn.available() == 0) {
+						throw new IOException("Journal " + journalFile.getAbsolutePath() + " has a segment without a version");
+					}
+					int version = recordIn.readByte();
+					if (version > JOURNAL_VERSION) {
+						throw new IOException("Journal " + journalFile.getAbsolutePath() + " was written by a later version (" + version + ")");
+					}
+					segments++;
+					continue;
+				}
+				records++;
+				if (!apply) {
+					continue;
+				}
+				String criticalPath = recordIn.readUTF();
+				boolean directory = recordIn.readBoolean();
+				long length = recordIn.readLong();
+				long lastModified = recordIn.readLong();
+				if (recordType == RECORD_ADD) {
+					BackupFile backupFile = new BackupFile(criticalPath, BackupFile.Type.DESTINATION, latestBackupDirectory, length, lastModified, directory);
+					byte contentFlags = (recordIn.available() > 0)? recordIn.readByte() : 0;
+					if ((contentFlags & ~RECORD_CONTENT_FLAGS) != 0) {
+						throw new IOException("Journal " + journalFile.getAbsolutePath() + " has unknown record flags " + contentFlags);
+					}
+					if ((contentFlags & RECORD_DIGEST) != 0) {
+						byte[] digest = new byte[ContentDigester.DIGEST_LENGTH];
+						recordIn.readFully(digest);
+						backupFile.setDigest(digest);
+					}
+					if ((contentFlags & RECORD_QUICK_FINGERPRINT) != 0) {
+						backupFile.setQuickFingerprint(recordIn.readLong());
+					}
+					if ((contentFlags & RECORD_FILE_IDENTITY) != 0) {
+						backupFile.setFileIdentity(new FileIdentity(recordIn.readLong(), recordIn.readLong(), recordIn.readLong()));
+					}
+					applyAdd(backupFile);
+				} else {
+					applyRemove(criticalPath, directory);
+				}
+			}
+		} catch (EOFException e) {
+			// end of journal, or incomplete last record
+		} finally {
+			in.close();
+		}
+		if (apply) {
+			log.info("Applied " + records + " journal records from " + segments + " backups to file list " + fileListFile.getAbsolutePath());
+		}
+		return validLength;
+	}
+}
@@ -0,0 +1,259 @@
+package org.xandercat.cat.back.file;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * FileListManifest lists the shards of a sharded backup file list (see FileListShards).  Each shard is
+ * saved with FileListWriter to its own file in the shard directory next to the manifest, and the manifest
+ * records the key, file name, file length and fingerprint of each shard.
+ *
+ * Shard files are never overwritten; a changed shard is saved to a new file, the manifest is replaced by
+ * renaming a fully written temporary file over it, and only then are shard files no longer listed in the
+ * manifest deleted.  The manifest therefore always lists complete shard files.
+ *
+ * The format is the MAGIC number, the format VERSION, the next shard file number, the number of shards,
+ * for each shard its key, file name, file length, file count, backup size and checksum, and finally a
+ * CRC32 of everything before it.
+ *
+ * @author Scott Arnold
+ */
+public class FileListManifest {
+
+	public static final int MAGIC = 0x4342464D;		// "CBFM"
+	public static final short VERSION = 1;
+	public static final String SHARD_DIRECTORY_SUFFIX = "_shards";
+	public static final String SHARD_FILE_EXTENSION = ".cbfl";
+
+	/**
+	 * A shard of the file list as saved.
+	 */
+	public static class Shard {
+
+		private String key;
+		private String fileName;
+		private long fileLength;
+		private FileListFingerprint fingerprint;
+
+		public Shard(String key, String fileName, long fileLength, FileListFingerprint fingerprint) {
+			this.key = key;
+			this.fileName = fileName;
+			this.fileLength = fileLength;
+			this.fingerprint = fingerprint;
+		}
+		public String getKey() {
+			return key;
+		}
+		public String getFileName() {
+			return fileName;
+		}
+		public long getFileLength() {
+			return fileLength;
+		}
+		public FileListFingerprint getFingerprint() {
+			return fingerprint;
+		}
+	}
+
+	private long nextFileNumber;
+	private SortedMap<String, Shard> shards = new TreeMap<String, Shard>();
+
+	/**
+	 * Returns whether or not the given file is a file list manifest.
+	 *
+	 * @param file				file to check
+	 *
+	 * @return					whether or not the file is a manifest
+	 *
+	 * @throws IOException		if the file cannot be read
+	 */
+	public static boolean isManifest(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			return in.readInt() == MAGIC;
+		} catch (EOFException e) {
+			return false;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Returns the directory the shard files of the given manifest are saved in.
+	 *
+	 * @param manifestFile		manifest file
+	 *
+	 * @return					shard directory
+	 */
+	public static File getShardDirectory(File manifestFile) {
+		return new File(manifestFile.getAbsolutePath() + SHARD_DIRECTORY_SUFFIX);
+	}
+
+	/**
+	 * Load the manifest from the given file.
+	 *
+	 * @param file				manifest file
+	 *
+	 * @return					manifest
+	 *
+	 * @throws IOException		if the manifest cannot be read or is damaged
+	 */
+	public static FileListManifest load(File file) throws IOException {
+		CheckedInputStream checkedIn = new CheckedInputStream(new BufferedInputStream(new FileInputStream(file)), new CRC32());
+		DataInputStream in = new DataInputStream(checkedIn);
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("File " + file.getAbsolutePath() + " is not a file list manifest.");
+			}
+			short version = in.readShort();
+			if (version > VERSION) {
+				throw new IOException("File list manifest " + file.getAbsolutePath() + " was saved by a newer version of CatBack (format version " + version + ").");
+			}
+			FileListManifest manifest = new FileListManifest(in.readLong());
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String key = in.readUTF();
+				String fileName = in.readUTF();
+				long fileLength = in.readLong();
+				FileListFingerprint fingerprint = new FileListFingerprint(in.readLong(), in.readLong(), in.readLong());
+				manifest.putShard(new Shard(key, fileName, fileLength, fingerprint));
+			}
+			long expectedCrc = checkedIn.getChecksum().getValue();
+			if (in.readLong() != expectedCrc) {
+				throw new IOException("File list manifest " + file.getAbsolutePath() + " is damaged.");
+			}
+			return manifest;
+		} catch (EOFException e) {
+			throw new IOException("File list manifest " + file.getAbsolutePath() + " is incomplete.", e);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Constructs a new, empty manifest.
+	 *
+	 * @param nextFileNumber		number to use for the next shard file name
+	 */
+	public FileListManifest(long nextFileNumber) {
+		this.nextFileNumber = nextFileNumber;
+	}
+
+	public long getNextFileNumber() {
+		return nextFileNumber;
+	}
+
+	/**
+	 * Returns a new shard file name that is not in use within the given shard directory.
+	 *
+	 * @param shardDirectory		shard directory
+	 *
+	 * @return						new shard file name
+	 */
+	public String newFileName(File shardDirectory) {
+		String fileName = null;
+		do {
+			fileName = String.format("%08d", Long.valueOf(nextFileNumber++)) + SHARD_FILE_EXTENSION;
+		} while (new File(shardDirectory, fileName).exists());
+		return fileName;
+	}
+
+	public Shard getShard(String key) {
+		return shards.get(key);
+	}
+
+	public Collection<Shard> getShards() {
+		return shards.values();
+	}
+
+	public void putShard(Shard shard) {
+		shards.put(shard.getKey(), shard);
+	}
+
+	/**
+	 * Returns the total length of the shard files.
+	 *
+	 * @return		total length of shard files
+	 */
+	public long getFileLength() {
+		long fileLength = 0;
+		for (Shard shard : shards.values()) {
+			fileLength += shard.getFileLength();
+		}
+		return fileLength;
+	}
+
+	/**
+	 * Save the manifest by writing a temporary file and renaming it over the given file.
+	 *
+	 * @param file				manifest file
+	 *
+	 * @throws IOException		if the manifest cannot be saved
+	 */
+	public void save(File file) throws IOException {
+		File tempFile = new File(file.getAbsolutePath() + ".tmp");
+		CheckedOutputStream checkedOut = new CheckedOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)), new CRC32());
+		DataOutputStream out = new DataOutputStream(checkedOut);
+		try {
+			out.writeInt(MAGIC);
+			out.writeShort(VERSION);
+			out.writeLong(nextFileNumber);
+			out.writeInt(shards.size());
+			for (Shard shard : shards.values()) {
+				out.writeUTF(shard.getKey());
+				out.writeUTF(shard.getFileName());
+				out.writeLong(shard.getFileLength());
+				out.writeLong(shard.getFingerprint().getCount());
+				out.writeLong(shard.getFingerprint().getBackupSize());
+				out.writeLong(shard.getFingerprint().getChecksum());
+			}
+			out.flush();
+			out.writeLong(checkedOut.getChecksum().getValue());
+		} finally {
+			out.close();
+		}
+		Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Delete the files in the given shard directory that are not shard files of this manifest.
+	 *
+	 * @param shardDirectory		shard directory
+	 *
+	 * @return						number of files deleted
+	 */
+	public int deleteUnlistedFiles(File shardDirectory) {
+		int deleted = 0;
+		File[] files = shardDirectory.listFiles();
+		if (files == null) {
+			return 0;
+		}
+		Set<String> listed = new HashSet<String>();
+		for (Shard shard : shards.values()) {
+			listed.add(shard.getFileName());
+		}
+		for (File file : files) {
+			if (!listed.contains(file.getName()) && file.delete()) {
+				deleted++;
+			}
+		}
+		return deleted;
+	}
+}
@@ -0,0 +1,378 @@
+package org.xandercat.cat.back.file;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * FileListReader reads a backup file list written by FileListWriter one file at a time, in critical path
+ * order, without holding the whole list in memory.  Files can be read either with readNext() and the
+ * accessors for the current file, which does not create a BackupFile for each file, or as an iterator of
+ * BackupFile.
+ *
+ * The checksum of the file list is verified once the last file has been read; the backup size is only
+ * available after that.  A file list that is damaged or incomplete causes an IOException (or
+ * IllegalStateException when read as an iterator), so files read before the damage was found should be
+ * discarded.
+ *
+ * @author Scott Arnold
+ */
+public class FileListReader implements Iterator<BackupFile> {
+
+	private static final int MAX_PATH_LENGTH = 1 << 20;
+
+	private File file;
+	private File latestBackupDirectory;
+	private short version;
+	private int blockSize;
+	private CheckedInputStream checkedIn;
+	private DataInputStream in;
+	private byte[] path = new byte[256];
+	private int pathLength;
+	private String criticalPath;
+	private long length;
+	private long lastModified;
+	private boolean directory;
+	private byte[] digest;
+	private long quickFingerprint;
+	private FileIdentity fileIdentity;
+	private long count;
+	private long backupSize = -1;
+	private long checksum;
+	private boolean ended;
+	private boolean pending;
+
+	/**
+	 * Returns whether or not the given file starts with the header of the file list format, once
+	 * decompressed if compressed (see MetadataFiles).  File lists saved prior to v1.6.1 were saved with Java
+	 * serialization and do not.
+	 *
+	 * @param file				file to check
+	 *
+	 * @return					whether or not the file is in the file list format
+	 *
+	 * @throws IOException		if the file cannot be read
+	 */
+	public static boolean isFileList(File file) throws IOException {
+		DataInputStream in = new DataInputStream(MetadataFiles.openInput(file));
+		try {
+			return in.readInt() == FileListWriter.MAGIC;
+		} catch (EOFException e) {
+			return false;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Load the file list data from the given file into a BackupFileIndex.
+	 *
+	 * @param file						file list file
+	 * @param latestBackupDirectory		latest backup directory
+	 *
+	 * @return							file list data
+	 *
+	 * @throws IOException				if the file list cannot be read or is damaged
+	 */
+	public static FileListData load(File file, File latestBackupDirectory) throws IOException {
+		return load(file, latestBackupDirectory, null);
+	}
+
+	/**
+	 * Load the file list data from the given file into a BackupFileIndex, verifying that the file list has
+	 * the given fingerprint.
+	 *
+	 * @param file						file list file
+	 * @param latestBackupDirectory		latest backup directory
+	 * @param fingerprint				expected fingerprint of the file list, or null for any
+	 *
+	 * @return							file list data
+	 *
+	 * @throws IOException				if the file list cannot be read, is damaged, or has another fingerprint
+	 */
+	public static FileListData load(File file, File latestBackupDirectory, FileListFingerprint fingerprint) throws IOException {
+		BackupFileIndex index = new BackupFileIndex(latestBackupDirectory);
+		FileListReader reader = new FileListReader(file, latestBackupDirectory);
+		try {
+			while (reader.readNext()) {
+				try {
+					index.add(reader.getCriticalPath(), reader.getLength(), reader.getLastModified(), reader.isDirectory(), reader.getDigest(), reader.getQuickFingerprint(), 
+							reader.getFileIdentity());
+				} catch (IllegalArgumentException e) {
+					throw new IOException("File list " + file.getAbsolutePath() + " is not sorted.", e);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		if (fingerprint != null && !fingerprint.equals(reader.getFingerprint())) {
+			throw new IOException("File list " + file.getAbsolutePath() + " does not match its fingerprint (" + fingerprint + ").");
+		}
+		index.trimToSize();
+		return new FileListData(index, reader.getBackupSize());
+	}
+
+	/**
+	 * Constructs a new file list reader, reading and verifying the header of the given file.  The file is
+	 * decompressed as it is read if it is compressed (see MetadataFiles).
+	 *
+	 * @param file						file list file
+	 * @param latestBackupDirectory		latest backup directory (used to create BackupFile only)
+	 *
+	 * @throws IOException				if the file cannot be read or is not a file list
+	 */
+	public FileListReader(File file, File latestBackupDirectory) throws IOException {
+		this.file = file;
+		this.latestBackupDirectory = latestBackupDirectory;
+		this.checkedIn = new CheckedInputStream(new BufferedInputStream(MetadataFiles.openInput(file)), new CRC32());
+		this.in = new DataInputStream(checkedIn);
+		try {
+			byte[] header = new byte[FileListWriter.HEADER_LENGTH - 4];
+			in.readFully(header);
+			int headerCrc = in.readInt();
+			CRC32 crc = new CRC32();
+			crc.update(header);
+			DataInputStream headerIn = new DataInputStream(new ByteArrayInputStream(header));
+			if (headerIn.readInt() != FileListWriter.MAGIC) {
+				throw new IOException("File " + file.getAbsolutePath() + " is not a file list.");
+			}
+			if ((int) crc.getValue() != headerCrc) {
+				throw new IOException("File list " + file.getAbsolutePath() + " has a damaged header.");
+			}
+			this.version = headerIn.readShort();
+			if (version > FileListWriter.VERSION) {
+				throw new IOException("File list " + file.getAbsolutePath() + " was saved by a newer version of CatBack (format version " + version + ").");
+			}
+			this.blockSize = headerIn.readShort();	// 0 prior to version 2
+			if (version >= 2 && blockSize <= 0) {
+				throw new IOException("File list " + file.getAbsolutePath() + " has a damaged header.");
+			}
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Read the next file.  Once all files have been read, the checksum is verified and false is returned.
+	 *
+	 * @return					whether or not a file was read
+	 *
+	 * @throws IOException		if the file list cannot be read or is damaged
+	 */
+	public boolean readNext() throws IOException {
+		if (ended) {
+			return false;
+		}
+		try {
+			byte flags = in.readByte();
+			if (flags == FileListWriter.END) {
+				readTrailer();
+				return false;
+			}
+			if ((flags & FileListWriter.ENTRY_FILE) == 0) {
+				throw new IOException("File list " + file.getAbsolutePath() + " is damaged.");
+			}
+			if (blockSize > 0 && count % blockSize == 0) {
+				lastModified = 0;		// first entry of block
+			}
+			long shared = readVarLong();
+			long suffixLength = readVarLong();
+			if (shared > pathLength || shared + suffixLength > MAX_PATH_LENGTH) {
+				throw new IOException("File list " + file.getAbsolutePath() + " is damaged.");
+			}
+			int newLength = (int) (shared + suffixLength);
+			if (newLength > path.length) {
+				path = Arrays.copyOf(path, Math.max(newLength, path.length * 2));
+			}
+			in.readFully(path, (int) shared, (int) suffixLength);
+			pathLength = newLength;
+			criticalPath = new String(path, 0, pathLength, StandardCharsets.UTF_8);
+			directory = (flags & FileListWriter.ENTRY_DIRECTORY) != 0;
+			length = readVarLong();
+			long zigzag = readVarLong();
+			lastModified += (zigzag >>> 1) ^ -(zigzag & 1);
+			digest = null;
+			if ((flags & FileListWriter.ENTRY_DIGEST) != 0) {
+				long digestLength = readVarLong();
+				if (version < 3 || digestLength <= 0 || digestLength > FileListWriter.MAX_DIGEST_LENGTH) {
+					throw new IOException("File list " + file.getAbsolutePath() + " is damaged.");
+				}
+				digest = new byte[(int) digestLength];
+				in.readFully(digest);
+				if (digestLength != ContentDigester.DIGEST_LENGTH) {
+					digest = null;		// not a digest this version of CatBack computes
+				}
+			}
+			quickFingerprint = 0;
+			if ((flags & FileListWriter.ENTRY_QUICK_FINGERPRINT) != 0) {
+				quickFingerprint = in.readLong();
+				if (version < 3 || quickFingerprint == 0) {
+					throw new IOException("File list " + file.getAbsolutePath() + " is damaged.");
+				}
+			}
+			fileIdentity = null;
+			if ((flags & FileListWriter.ENTRY_FILE_IDENTITY) != 0) {
+				if (version < 3) {
+					throw new IOException("File list " + file.getAbsolutePath() + " is damaged.");
+				}
+				long device = readVarLong();
+				long inode = readVarLong();
+				fileIdentity = new FileIdentity(device, inode, in.readLong());
+			}
+			count++;
+			return true;
+		} catch (EOFException e) {
+			throw new IOException("File list " + file.getAbsolutePath() + " is incomplete.", e);
+		}
+	}
+
+	private void readTrailer() throws IOException {
+		if (version >= 2) {
+			int blocks = in.readInt();
+			for (int i = 0; i < blocks; i++) {
+				in.readLong();		// block offsets are only used by MappedBackupFileList
+			}
+		}
+		long expectedCount = in.readLong();
+		long size = in.readLong();
+		if (version >= 2) {
+			in.readLong();			// block index offset
+		}
+		long expectedCrc = checkedIn.getChecksum().getValue();
+		long crc = in.readLong();
+		ended = true;
+		if (crc != expectedCrc || expectedCount != count) {
+			throw new IOException("File list " + file.getAbsolutePath() + " is damaged.");
+		}
+		backupSize = size;
+		checksum = crc;
+	}
+
+	private long readVarLong() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("File list " + file.getAbsolutePath() + " is damaged.");
+	}
+
+	public String getCriticalPath() {
+		return criticalPath;
+	}
+
+	public long getLength() {
+		return length;
+	}
+
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	public boolean isDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Returns the content digest of the current file, or null if the file has no digest.
+	 *
+	 * @return			digest of the file contents
+	 */
+	public byte[] getDigest() {
+		return digest;
+	}
+
+	/**
+	 * Returns the quick fingerprint of the current file, or 0 if the file has no quick fingerprint.
+	 *
+	 * @return			quick fingerprint of the file contents
+	 */
+	public long getQuickFingerprint() {
+		return quickFingerprint;
+	}
+
+	/**
+	 * Returns the identity of the source file of the current file, or null if unknown.
+	 *
+	 * @return			identity of the source file
+	 */
+	public FileIdentity getFileIdentity() {
+		return fileIdentity;
+	}
+
+	/**
+	 * Returns the number of files read so far.
+	 *
+	 * @return			number of files read
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the backup size, or -1 if not all files have been read.
+	 *
+	 * @return			backup size
+	 */
+	public long getBackupSize() {
+		return backupSize;
+	}
+
+	/**
+	 * Returns the fingerprint of the file list, or null if not all files have been read.
+	 *
+	 * @return			fingerprint of the file list
+	 */
+	public FileListFingerprint getFingerprint() {
+		return (backupSize < 0)? null : new FileListFingerprint(count, backupSize, checksum);
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (!pending) {
+			try {
+				pending = readNext();
+			} catch (IOException e) {
+				throw new IllegalStateException(e.getMessage(), e);
+			}
+		}
+		return pending;
+	}
+
+	@Override
+	public BackupFile next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		pending = false;
+		BackupFile backupFile = new BackupFile(criticalPath, BackupFile.Type.DESTINATION, latestBackupDirectory, length, lastModified, directory);
+		backupFile.setDigest(digest);
+		backupFile.setQuickFingerprint(quickFingerprint);
+		backupFile.setFileIdentity(fileIdentity);
+		return backupFile;
+	}
+
+	/**
+	 * Close the file list.
+	 */
+	public void close() {
+		try {
+			in.close();
+		} catch (IOException e) {
+			// nothing more can be done
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package org.xandercat.cat.back.file;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * FileListShards divides the backup file list into shards, one for each included root (by the critical path
+ * of the root) plus the BASE_SHARD for everything else, such as the parent directories of the roots.  A
+ * root within another root belongs to the shard of the outer root.  Each shard of the file list is saved
+ * separately, so shards with no changes do not need to be saved again.
+ *
+ * Shards are not contiguous ranges of the sorted file list ("home/a-b" sorts between "home/a" and
+ * "home/a/b"), so a ShardedBackupFileList merges its shards to present them as one sorted list.
+ *
+ * @author Scott Arnold
+ */
+public class FileListShards {
+
+	public static final String BASE_SHARD = "";
+
+	private Set<String> roots = new HashSet<String>();
+	private SortedSet<String> keys = new TreeSet<String>();
+
+	/**
+	 * Returns the shards for the given included files and directories.
+	 *
+	 * @param includedFiles		included files and directories of the backup
+	 *
+	 * @return					file list shards
+	 */
+	public static FileListShards forIncludedFiles(Collection<File> includedFiles) {
+		List<String> rootPaths = new ArrayList<String>();
+		for (File includedFile : includedFiles) {
+			String rootPath = BackupPathGenerator.generateCriticalPath(includedFile);
+			if (BASE_SHARD.equals(rootPath)) {
+				// a file system root is included, so everything is within it
+				return new FileListShards(Collections.<String>emptyList());
+			}
+			rootPaths.add(rootPath);
+		}
+		return new FileListShards(rootPaths);
+	}
+
+	/**
+	 * Constructs the shards for the given root critical paths.
+	 *
+	 * @param rootPaths			critical paths of the roots; the BASE_SHARD, if included, is ignored
+	 */
+	public FileListShards(Collection<String> rootPaths) {
+		keys.add(BASE_SHARD);
+		// add outer roots before the roots within them
+		List<String> paths = new ArrayList<String>(rootPaths);
+		Collections.sort(paths, new Comparator<String>() {
+			public int compare(String path1, String path2) {
+				return path1.length() - path2.length();
+			}
+		});
+		for (String path : paths) {
+			if (!BASE_SHARD.equals(path) && BASE_SHARD.equals(getShard(path))) {
+				roots.add(path);
+				keys.add(path);
+			}
+		}
+	}
+
+	/**
+	 * Returns the keys of the shards, including the BASE_SHARD, in sorted order.
+	 *
+	 * @return		shard keys
+	 */
+	public SortedSet<String> getKeys() {
+		return Collections.unmodifiableSortedSet(keys);
+	}
+
+	/**
+	 * Returns the key of the shard the file with the given critical path belongs to.
+	 *
+	 * @param criticalPath		critical path of a file
+	 *
+	 * @return					shard key
+	 */
+	public String getShard(String criticalPath) {
+		if (roots.isEmpty()) {
+			return BASE_SHARD;
+		}
+		int i = criticalPath.indexOf(File.separatorChar);
+		while (i > 0) {
+			String parentPath = criticalPath.substring(0, i);
+			if (roots.contains(parentPath)) {
+				return parentPath;
+			}
+			i = criticalPath.indexOf(File.separatorChar, i + 1);
+		}
+		return roots.contains(criticalPath)? criticalPath : BASE_SHARD;
+	}
+
+	/**
+	 * Returns whether or not the file with the given critical path is within the directory with the given
+	 * critical path.
+	 *
+	 * @param criticalPath		critical path of a file
+	 * @param directoryPath		critical path of a directory
+	 *
+	 * @return					whether or not the file is within the directory
+	 */
+	public static boolean isWithin(String criticalPath, String directoryPath) {
+		return criticalPath.length() > directoryPath.length()
+				&& criticalPath.charAt(directoryPath.length()) == File.separatorChar
+				&& criticalPath.startsWith(directoryPath);
+	}
+}
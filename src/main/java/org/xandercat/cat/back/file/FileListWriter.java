@@ -0,0 +1,316 @@
+package org.xandercat.cat.back.file;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * FileListWriter writes a backup file list in the CatBack file list format, one file at a time.  Files
+ * must be written in critical path order.
+ *
+ * The format is:
+ * <ul>
+ * <li>A header of the MAGIC number, the format VERSION, the BLOCK_SIZE (a reserved 0 in version 1), and a
+ * CRC32 of the header.</li>
+ * <li>An entry for each file: a flags byte (ENTRY_FILE, plus ENTRY_DIRECTORY for directories, ENTRY_DIGEST
+ * for files with a content digest, ENTRY_QUICK_FINGERPRINT for files with a quick fingerprint and
+ * ENTRY_FILE_IDENTITY for files with a source file identity), the number of UTF-8 bytes of the critical path
+ * shared with the previous entry, the number of remaining bytes, the remaining bytes, the length of the file,
+ * the difference between the last modified time of the file and that of the previous entry, for ENTRY_DIGEST
+ * (version 3 and later) the length of the digest followed by the digest, for ENTRY_QUICK_FINGERPRINT (version
+ * 3 and later) the quick fingerprint, and for ENTRY_FILE_IDENTITY (version 3 and later) the device, the inode
+ * number and the status change time of the source file.</li>
+ * <li>A flags byte of END.</li>
+ * <li>A block index (version 2 and later): the number of blocks followed by the offset of each block.</li>
+ * <li>A trailer of the number of files, the backup size, the offset of the block index (version 2 and
+ * later), and a CRC32 of everything before it.</li>
+ * </ul>
+ * Entries are grouped into blocks of BLOCK_SIZE entries.  The first entry of each block shares nothing
+ * with the previous entry and its last modified difference is from 0, so a block can be decoded without
+ * the blocks before it.  Together with the block index, this allows a MappedBackupFileList to find a file
+ * without decoding the whole list.
+ * Numbers within entries are written as variable length integers of 7 bits per byte, low bits first, with
+ * the high bit set on every byte but the last.  Last modified differences are zigzag encoded so small
+ * negative differences are also short.  Header and trailer numbers are written as fixed length big-endian
+ * integers.
+ *
+ * @author Scott Arnold
+ */
+public class FileListWriter {
+
+	public static final int MAGIC = 0x4342464C;		// "CBFL"
+	public static final short VERSION = 3;
+	public static final short BLOCK_SIZE = 64;
+	public static final int HEADER_LENGTH = 12;
+	public static final int TRAILER_LENGTH = 32;
+	static final byte END = 0;
+	static final byte ENTRY_FILE = 1;
+	static final byte ENTRY_DIRECTORY = 2;
+	static final byte ENTRY_DIGEST = 4;
+	static final byte ENTRY_QUICK_FINGERPRINT = 8;
+	static final byte ENTRY_FILE_IDENTITY = 16;
+	static final int MAX_DIGEST_LENGTH = 64;
+
+	private CheckedOutputStream checkedOut;
+	private DataOutputStream out;
+	private byte[] lastPath = new byte[0];
+	private long lastModified;
+	private long count;
+	private List<Long> blockOffsets = new ArrayList<Long>();
+	private FileListFingerprint fingerprint;
+
+	/**
+	 * Save the given file list data to the given file.
+	 *
+	 * @param file				file to write
+	 * @param fileListData		file list data to save; backup files must be sorted
+	 *
+	 * @return					fingerprint of the saved file list
+	 *
+	 * @throws IOException		if the file cannot be written
+	 */
+	public static FileListFingerprint save(File file, FileListData fileListData) throws IOException {
+		return save(new BufferedOutputStream(new FileOutputStream(file)), fileListData);
+	}
+
+	/**
+	 * Save the given file list data to the given stream, which is closed once the file list is written.
+	 *
+	 * @param fileOut			stream to write
+	 * @param fileListData		file list data to save; backup files must be sorted
+	 *
+	 * @return					fingerprint of the saved file list
+	 *
+	 * @throws IOException		if the stream cannot be written
+	 */
+	public static FileListFingerprint save(OutputStream fileOut, FileListData fileListData) throws IOException {
+		FileListWriter writer = new FileListWriter(fileOut);
+		try {
+			writer.writeAll(fileListData);
+		} finally {
+			writer.close();
+		}
+		return writer.getFingerprint();
+	}
+
+	/**
+	 * Returns the fingerprint the given file list data would be saved with, without saving it.
+	 *
+	 * @param fileListData		file list data; backup files must be sorted
+	 *
+	 * @return					fingerprint of the file list data
+	 */
+	public static FileListFingerprint fingerprint(FileListData fileListData) {
+		try {
+			FileListWriter writer = new FileListWriter(new OutputStream() {
+				public void write(int b) {
+				}
+				public void write(byte[] b, int off, int len) {
+				}
+			});
+			writer.writeAll(fileListData);
+			return writer.getFingerprint();
+		} catch (IOException e) {
+			throw new IllegalStateException("Unexpected exception computing file list fingerprint", e);
+		}
+	}
+
+	/**
+	 * Constructs a new file list writer, writing the header to the given file.
+	 *
+	 * @param file				file to write
+	 *
+	 * @throws IOException		if the file cannot be written
+	 */
+	public FileListWriter(File file) throws IOException {
+		this(new BufferedOutputStream(new FileOutputStream(file)));
+	}
+
+	/**
+	 * Constructs a new file list writer, writing the header to the given stream.
+	 *
+	 * @param fileOut			stream to write
+	 *
+	 * @throws IOException		if the stream cannot be written
+	 */
+	public FileListWriter(OutputStream fileOut) throws IOException {
+		this.checkedOut = new CheckedOutputStream(fileOut, new CRC32());
+		this.out = new DataOutputStream(checkedOut);
+		CRC32 headerCrc = new CRC32();
+		byte[] header = new byte[] {
+				(byte) (MAGIC >>> 24), (byte) (MAGIC >>> 16), (byte) (MAGIC >>> 8), (byte) MAGIC,
+				(byte) (VERSION >>> 8), (byte) VERSION, (byte) (BLOCK_SIZE >>> 8), (byte) BLOCK_SIZE };
+		headerCrc.update(header);
+		out.write(header);
+		out.writeInt((int) headerCrc.getValue());
+	}
+
+	private void writeAll(FileListData fileListData) throws IOException {
+		List<BackupFile> backupFiles = fileListData.getBackupFiles();
+		if (backupFiles instanceof BackupFileColumns) {
+			// write from the columns without creating BackupFile
+			BackupFileColumns columns = (BackupFileColumns) backupFiles;
+			for (int i = 0; i < columns.size(); i++) {
+				write(columns.getCriticalPath(i), columns.getLength(i), columns.getLastModified(i), columns.isDirectory(i), columns.getDigest(i), columns.getQuickFingerprint(i), 
+						columns.getFileIdentity(i));
+			}
+		} else {
+			for (BackupFile backupFile : backupFiles) {
+				write(backupFile);
+			}
+		}
+		finish(fileListData.getBackupSize());
+	}
+
+	/**
+	 * Write a file.
+	 *
+	 * @param backupFile		file to write
+	 *
+	 * @throws IOException		if the file cannot be written
+	 */
+	public void write(BackupFile backupFile) throws IOException {
+		write(backupFile.getCriticalPath(), backupFile.getLength(), backupFile.getLastModified(), backupFile.isDirectory(), backupFile.getDigest(), backupFile.getQuickFingerprint(), 
+				backupFile.getFileIdentity());
+	}
+
+	/**
+	 * Write a file.
+	 *
+	 * @param criticalPath		critical path of the file
+	 * @param length			length of the file
+	 * @param lastModified		last modified time of the file
+	 * @param directory			whether or not the file is a directory
+	 *
+	 * @throws IOException		if the file cannot be written
+	 */
+	public void write(String criticalPath, long length, long lastModified, boolean directory) throws IOException {
+		write(criticalPath, length, lastModified, directory, null, 0, null);
+	}
+
+	/**
+	 * Write a file with a content digest, quick fingerprint or source file identity.
+	 *
+	 * @param criticalPath		critical path of the file
+	 * @param length			length of the file
+	 * @param lastModified		last modified time of the file
+	 * @param directory			whether or not the file is a directory
+	 * @param digest			digest of the contents of the file, or null if none
+	 * @param quickFingerprint	quick fingerprint of the contents of the file, or 0 if none
+	 * @param fileIdentity		identity of the source file, or null if unknown
+	 *
+	 * @throws IOException		if the file cannot be written
+	 */
+	public void write(String criticalPath, long length, long lastModified, boolean directory, byte[] digest, long quickFingerprint, 
+			FileIdentity fileIdentity) throws IOException {
+		if (digest != null && (digest.length == 0 || digest.length > MAX_DIGEST_LENGTH)) {
+			throw new IllegalArgumentException("Invalid digest length " + digest.length + ": " + criticalPath);
+		}
+		byte[] path = criticalPath.getBytes(StandardCharsets.UTF_8);
+		if (count % BLOCK_SIZE == 0) {
+			blockOffsets.add(Long.valueOf(out.size()));
+			lastPath = new byte[0];
+			this.lastModified = 0;
+		}
+		int shared = 0;
+		int n = Math.min(path.length, lastPath.length);
+		while (shared < n && path[shared] == lastPath[shared]) {
+			shared++;
+		}
+		int flags = ENTRY_FILE;
+		if (directory) {
+			flags |= ENTRY_DIRECTORY;
+		}
+		if (digest != null) {
+			flags |= ENTRY_DIGEST;
+		}
+		if (quickFingerprint != 0) {
+			flags |= ENTRY_QUICK_FINGERPRINT;
+		}
+		if (fileIdentity != null) {
+			flags |= ENTRY_FILE_IDENTITY;
+		}
+		out.writeByte(flags);
+		writeVarLong(shared);
+		writeVarLong(path.length - shared);
+		out.write(path, shared, path.length - shared);
+		writeVarLong(length);
+		long delta = lastModified - this.lastModified;
+		writeVarLong((delta << 1) ^ (delta >> 63));
+		if (digest != null) {
+			writeVarLong(digest.length);
+			out.write(digest);
+		}
+		if (quickFingerprint != 0) {
+			out.writeLong(quickFingerprint);
+		}
+		if (fileIdentity != null) {
+			writeVarLong(fileIdentity.getDevice());
+			writeVarLong(fileIdentity.getInode());
+			out.writeLong(fileIdentity.getChangeTime());
+		}
+		this.lastPath = path;
+		this.lastModified = lastModified;
+		this.count++;
+	}
+
+	private void writeVarLong(long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	/**
+	 * Write the block index and trailer and close the file.  Block offsets are only recorded correctly for
+	 * files smaller than 2 GB, the largest that can be mapped.  A file list that is closed without being finished is
+	 * incomplete and cannot be read.
+	 *
+	 * @param backupSize		size of the backup
+	 *
+	 * @throws IOException		if the file cannot be written
+	 */
+	public void finish(long backupSize) throws IOException {
+		out.writeByte(END);
+		long blockIndexOffset = out.size();
+		out.writeInt(blockOffsets.size());
+		for (Long blockOffset : blockOffsets) {
+			out.writeLong(blockOffset.longValue());
+		}
+		out.writeLong(count);
+		out.writeLong(backupSize);
+		out.writeLong(blockIndexOffset);
+		out.flush();
+		long checksum = checkedOut.getChecksum().getValue();
+		out.writeLong(checksum);
+		out.close();
+		this.fingerprint = new FileListFingerprint(count, backupSize, checksum);
+	}
+
+	/**
+	 * Returns the fingerprint of the file list, or null if it has not been finished.
+	 *
+	 * @return			fingerprint of the file list
+	 */
+	public FileListFingerprint getFingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * Close the file.
+	 *
+	 * @throws IOException		if the file cannot be closed
+	 */
+	public void close() throws IOException {
+		out.close();
+	}
+}
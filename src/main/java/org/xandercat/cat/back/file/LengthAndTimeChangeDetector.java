@@ -0,0 +1,24 @@
+package org.xandercat.cat.back.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Change detector that compares files by length and last modified time, and by quick fingerprint where 
+ * both files have one (see BackupFile.isFileEquivalent(BackupFile, long)).  This is the default change 
+ * detector, and works on every platform.
+ *
+ * @author Scott Arnold
+ */
+public class LengthAndTimeChangeDetector implements ChangeDetector {
+
+	public BasicFileAttributes readAttributes(File file) throws IOException {
+		return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+	}
+
+	public boolean isFileEquivalent(BackupFile previousFile, BackupFile currentFile, long lastModPrecision) {
+		return previousFile.isFileEquivalent(currentFile, lastModPrecision);
+	}
+}
@@ -0,0 +1,448 @@
+package org.xandercat.cat.back.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.zip.CRC32;
+
+/**
+ * MappedBackupFileList is a read-only list of the files in a backup file list file, read through a
+ * memory-mapped buffer rather than loaded into memory.  Files are decoded only as they are accessed:
+ * iterating decodes one file after another, while access by position or critical path uses the block
+ * index of the file list to decode only the block holding the file.  See FileListWriter for the format;
+ * only file lists of version 2 or later, smaller than 2 GB, can be mapped.
+ *
+ * The structure of the file list is checked when it is mapped.  The checksum of the whole file list is
+ * verified either when it is mapped or, if not, once an iterator has returned every file; a file list
+ * found to be damaged while it is being read causes IllegalStateException.
+ *
+ * A list is not safe for use by multiple threads, although each iterator can be used by its own thread.
+ * As mapped files cannot be replaced on Windows, file lists should not be mapped on Windows.
+ *
+ * @author Scott Arnold
+ */
+public class MappedBackupFileList extends AbstractList<BackupFile> implements BackupFileColumns, RandomAccess {
+
+	private File file;
+	private File latestBackupDirectory;
+	private ByteBuffer buffer;
+	private short version;
+	private int size;
+	private int blockSize;
+	private int blocks;
+	private int blockIndexOffset;
+	private long backupSize;
+	private long checksum;
+	private boolean verified;
+	private Cursor cursor = new Cursor();
+
+	/**
+	 * Decoding position within the file list.
+	 */
+	private class Cursor {
+		private int index = -1;
+		private int offset;
+		private byte[] path = new byte[256];
+		private int pathLength;
+		private String criticalPath;
+		private long length;
+		private long lastModified;
+		private boolean directory;
+		private int digestOffset = -1;		// offset of the content digest, or -1 if the file has no digest
+		private long quickFingerprint;
+		private int identityOffset = -1;	// offset of the source file identity, or -1 if the file has none
+
+		/**
+		 * Move to the file at the given index, decoding from the start of its block unless the cursor is
+		 * already before it within the block.
+		 */
+		private void seek(int target) {
+			if (target < 0 || target >= size) {
+				throw new IndexOutOfBoundsException("Index: " + target + ", Size: " + size);
+			}
+			if (index < 0 || target < index || target / blockSize != index / blockSize) {
+				int block = target / blockSize;
+				offset = getBlockOffset(block);
+				index = block * blockSize - 1;
+			}
+			while (index < target) {
+				next();
+			}
+		}
+
+		/**
+		 * Decode the next file.
+		 */
+		private void next() {
+			index++;
+			byte flags = buffer.get(offset++);
+			if ((flags & FileListWriter.ENTRY_FILE) == 0) {
+				throw damaged();
+			}
+			if (index % blockSize == 0) {
+				pathLength = 0;
+				lastModified = 0;
+			}
+			long shared = readVarLong();
+			long suffixLength = readVarLong();
+			if (shared > pathLength || suffixLength > blockIndexOffset - offset) {
+				throw damaged();
+			}
+			int newLength = (int) (shared + suffixLength);
+			if (newLength > path.length) {
+				path = Arrays.copyOf(path, Math.max(newLength, path.length * 2));
+			}
+			for (int i = (int) shared; i < newLength; i++) {
+				path[i] = buffer.get(offset++);
+			}
+			pathLength = newLength;
+			criticalPath = null;
+			directory = (flags & FileListWriter.ENTRY_DIRECTORY) != 0;
+			length = readVarLong();
+			long zigzag = readVarLong();
+			lastModified += (zigzag >>> 1) ^ -(zigzag & 1);
+			digestOffset = -1;
+			if ((flags & FileListWriter.ENTRY_DIGEST) != 0) {
+				long digestLength = readVarLong();
+				if (version < 3 || digestLength <= 0 || digestLength > FileListWriter.MAX_DIGEST_LENGTH || digestLength > blockIndexOffset - offset) {
+					throw damaged();
+				}
+				if (digestLength == ContentDigester.DIGEST_LENGTH) {
+					digestOffset = offset;		// digests of other lengths are not digests this version of CatBack computes
+				}
+				offset += (int) digestLength;
+			}
+			quickFingerprint = 0;
+			if ((flags & FileListWriter.ENTRY_QUICK_FINGERPRINT) != 0) {
+				if (version < 3 || blockIndexOffset - offset < 8) {
+					throw damaged();
+				}
+				quickFingerprint = buffer.getLong(offset);
+				offset += 8;
+			}
+			identityOffset = -1;
+			if ((flags & FileListWriter.ENTRY_FILE_IDENTITY) != 0) {
+				if (version < 3) {
+					throw damaged();
+				}
+				identityOffset = offset;
+				readVarLong();
+				readVarLong();
+				if (blockIndexOffset - offset < 8) {
+					throw damaged();
+				}
+				offset += 8;
+			}
+		}
+
+		private long readVarLong() {
+			long value = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				if (offset >= blockIndexOffset) {
+					throw damaged();
+				}
+				int b = buffer.get(offset++) & 0xFF;
+				value |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					return value;
+				}
+			}
+			throw damaged();
+		}
+
+		private String getCriticalPath() {
+			if (criticalPath == null) {
+				criticalPath = new String(path, 0, pathLength, StandardCharsets.UTF_8);
+			}
+			return criticalPath;
+		}
+
+		private byte[] getDigest() {
+			if (digestOffset < 0) {
+				return null;
+			}
+			byte[] digest = new byte[ContentDigester.DIGEST_LENGTH];
+			for (int i = 0; i < digest.length; i++) {
+				digest[i] = buffer.get(digestOffset + i);
+			}
+			return digest;
+		}
+
+		private FileIdentity getFileIdentity() {
+			if (identityOffset < 0) {
+				return null;
+			}
+			int entryOffset = offset;
+			offset = identityOffset;
+			try {
+				long device = readVarLong();
+				long inode = readVarLong();
+				return new FileIdentity(device, inode, buffer.getLong(offset));
+			} finally {
+				offset = entryOffset;
+			}
+		}
+
+		private BackupFile getBackupFile() {
+			BackupFile backupFile = new BackupFile(getCriticalPath(), BackupFile.Type.DESTINATION, latestBackupDirectory, length, lastModified, directory);
+			backupFile.setDigest(getDigest());
+			backupFile.setQuickFingerprint(quickFingerprint);
+			backupFile.setFileIdentity(getFileIdentity());
+			return backupFile;
+		}
+	}
+
+	/**
+	 * Map the given file list file.
+	 *
+	 * @param file						file list file
+	 * @param latestBackupDirectory		latest backup directory
+	 * @param verify					whether or not to verify the checksum of the whole file list now
+	 *
+	 * @return							mapped file list
+	 *
+	 * @throws IOException				if the file list cannot be mapped or is damaged
+	 */
+	public static MappedBackupFileList map(File file, File latestBackupDirectory, boolean verify) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		ByteBuffer buffer = null;
+		try {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("File list " + file.getAbsolutePath() + " is too large to map.");
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			channel.close();	// mapping remains valid after the channel is closed
+		}
+		MappedBackupFileList list = new MappedBackupFileList(file, latestBackupDirectory, buffer);
+		if (verify) {
+			list.verify();
+		}
+		return list;
+	}
+
+	private MappedBackupFileList(File file, File latestBackupDirectory, ByteBuffer buffer) throws IOException {
+		this.file = file;
+		this.latestBackupDirectory = latestBackupDirectory;
+		this.buffer = buffer;
+		int fileLength = buffer.capacity();
+		if (fileLength < FileListWriter.HEADER_LENGTH + 1 + FileListWriter.TRAILER_LENGTH || buffer.getInt(0) != FileListWriter.MAGIC) {
+			throw new IOException("File " + file.getAbsolutePath() + " is not a file list.");
+		}
+		CRC32 headerCrc = new CRC32();
+		for (int i = 0; i < FileListWriter.HEADER_LENGTH - 4; i++) {
+			headerCrc.update(buffer.get(i));
+		}
+		if ((int) headerCrc.getValue() != buffer.getInt(FileListWriter.HEADER_LENGTH - 4)) {
+			throw new IOException("File list " + file.getAbsolutePath() + " has a damaged header.");
+		}
+		this.version = buffer.getShort(4);
+		if (version < 2 || version > FileListWriter.VERSION) {
+			throw new IOException("File list " + file.getAbsolutePath() + " is format version " + version + " and cannot be mapped.");
+		}
+		this.blockSize = buffer.getShort(6);
+		int trailerOffset = fileLength - FileListWriter.TRAILER_LENGTH;
+		long count = buffer.getLong(trailerOffset);
+		this.backupSize = buffer.getLong(trailerOffset + 8);
+		long indexOffset = buffer.getLong(trailerOffset + 16);
+		this.checksum = buffer.getLong(trailerOffset + 24);
+		if (blockSize <= 0 || count < 0 || count > Integer.MAX_VALUE || indexOffset <= FileListWriter.HEADER_LENGTH || indexOffset + 4 > trailerOffset) {
+			throw new IOException("File list " + file.getAbsolutePath() + " is damaged.");
+		}
+		this.size = (int) count;
+		this.blockIndexOffset = (int) indexOffset;
+		this.blocks = buffer.getInt(blockIndexOffset);
+		if (blocks != (size + blockSize - 1) / blockSize || blockIndexOffset + 4 + 8L * blocks != trailerOffset
+				|| buffer.get(blockIndexOffset - 1) != FileListWriter.END) {
+			throw new IOException("File list " + file.getAbsolutePath() + " is damaged.");
+		}
+	}
+
+	private int getBlockOffset(int block) {
+		long offset = buffer.getLong(blockIndexOffset + 4 + 8 * block);
+		if (offset < FileListWriter.HEADER_LENGTH || offset >= blockIndexOffset) {
+			throw damaged();
+		}
+		return (int) offset;
+	}
+
+	private IllegalStateException damaged() {
+		return new IllegalStateException("File list " + file.getAbsolutePath() + " is damaged.");
+	}
+
+	/**
+	 * Verify the checksum of the whole file list, which reads every page of the file.
+	 *
+	 * @throws IOException		if the file list is damaged
+	 */
+	public void verify() throws IOException {
+		if (verified) {
+			return;
+		}
+		ByteBuffer checked = buffer.duplicate();
+		checked.position(0);
+		checked.limit(buffer.capacity() - 8);
+		CRC32 crc = new CRC32();
+		crc.update(checked);
+		if (crc.getValue() != checksum) {
+			throw new IOException("File list " + file.getAbsolutePath() + " is damaged.");
+		}
+		verified = true;
+	}
+
+	public File getLatestBackupDirectory() {
+		return latestBackupDirectory;
+	}
+
+	/**
+	 * Returns the backup size saved with the file list.
+	 *
+	 * @return		backup size
+	 */
+	public long getBackupSize() {
+		return backupSize;
+	}
+
+	/**
+	 * Returns the fingerprint saved with the file list.
+	 *
+	 * @return		fingerprint of the file list
+	 */
+	public FileListFingerprint getFingerprint() {
+		return new FileListFingerprint(size, backupSize, checksum);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public BackupFile get(int index) {
+		cursor.seek(index);
+		return cursor.getBackupFile();
+	}
+
+	public String getCriticalPath(int index) {
+		cursor.seek(index);
+		return cursor.getCriticalPath();
+	}
+
+	public long getLength(int index) {
+		cursor.seek(index);
+		return cursor.length;
+	}
+
+	public long getLastModified(int index) {
+		cursor.seek(index);
+		return cursor.lastModified;
+	}
+
+	public boolean isDirectory(int index) {
+		cursor.seek(index);
+		return cursor.directory;
+	}
+
+	public byte[] getDigest(int index) {
+		cursor.seek(index);
+		return cursor.getDigest();
+	}
+
+	public long getQuickFingerprint(int index) {
+		cursor.seek(index);
+		return cursor.quickFingerprint;
+	}
+
+	public FileIdentity getFileIdentity(int index) {
+		cursor.seek(index);
+		return cursor.getFileIdentity();
+	}
+
+	/**
+	 * Returns the index of the first file whose critical path is not less than the given critical path.  The
+	 * block holding the file is found by binary search of the first file of each block, so at most one
+	 * block is decoded in full.
+	 */
+	public int search(String criticalPath) {
+		int low = 0;
+		int high = blocks - 1;
+		int block = -1;		// last block whose first file is not greater than the critical path
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int c = getCriticalPath(mid * blockSize).compareTo(criticalPath);
+			if (c == 0) {
+				return mid * blockSize;
+			} else if (c < 0) {
+				block = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		if (block < 0) {
+			return 0;
+		}
+		int end = Math.min(size, (block + 1) * blockSize);
+		for (int i = block * blockSize + 1; i < end; i++) {
+			if (getCriticalPath(i).compareTo(criticalPath) >= 0) {
+				return i;
+			}
+		}
+		return end;
+	}
+
+	/**
+	 * Returns the backed up file with the given critical path.
+	 *
+	 * @param criticalPath		critical path of the file
+	 *
+	 * @return					backed up file, or null if the file is not in the list
+	 */
+	public BackupFile getFile(String criticalPath) {
+		int i = search(criticalPath);
+		if (i < size && getCriticalPath(i).equals(criticalPath)) {
+			return cursor.getBackupFile();
+		}
+		return null;
+	}
+
+	/**
+	 * Returns an iterator that decodes the files one after another.  If the checksum of the file list was
+	 * not verified when it was mapped, it is verified once the last file has been returned.
+	 */
+	@Override
+	public Iterator<BackupFile> iterator() {
+		return new Iterator<BackupFile>() {
+			private Cursor iteratorCursor = new Cursor();
+			public boolean hasNext() {
+				return iteratorCursor.index + 1 < size;
+			}
+			public BackupFile next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				if (iteratorCursor.index < 0) {
+					iteratorCursor.seek(0);
+				} else {
+					iteratorCursor.next();
+				}
+				if (iteratorCursor.index + 1 == size && !verified) {
+					try {
+						verify();
+					} catch (IOException e) {
+						throw new IllegalStateException(e.getMessage(), e);
+					}
+				}
+				return iteratorCursor.getBackupFile();
+			}
+		};
+	}
+}
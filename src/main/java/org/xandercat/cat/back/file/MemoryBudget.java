@@ -0,0 +1,92 @@
+package org.xandercat.cat.back.file;
+
+/**
+ * MemoryBudget limits the total memory used by items held in memory by a group of ExternalSorter.  Sorters
+ * reserve an estimated number of bytes for each item they hold, and write their items to disk once a
+ * reservation is refused.  Reservations are released as sorters write their items to disk or are closed.
+ *
+ * Sizes are estimates of heap usage, so the budget limits the memory used by sorting rather than the total
+ * memory used by the application.
+ *
+ * @author Scott Arnold
+ */
+public class MemoryBudget {
+
+	public static final long BYTES_PER_MEGABYTE = 1024L * 1024L;
+
+	private long budget;
+	private long reserved;
+	private long peakReserved;
+	private int refusals;
+
+	/**
+	 * Constructs a new memory budget.
+	 *
+	 * @param budget			number of bytes that can be reserved
+	 */
+	public MemoryBudget(long budget) {
+		if (budget < 1) {
+			throw new IllegalArgumentException("Budget must be at least 1 byte.");
+		}
+		this.budget = budget;
+	}
+
+	/**
+	 * Reserve the given number of bytes if doing so does not exceed the budget.
+	 *
+	 * @param bytes				number of bytes to reserve
+	 *
+	 * @return					whether or not the bytes were reserved
+	 */
+	public synchronized boolean reserve(long bytes) {
+		if (reserved + bytes > budget) {
+			refusals++;
+			return false;
+		}
+		forceReserve(bytes);
+		return true;
+	}
+
+	/**
+	 * Reserve the given number of bytes even if doing so exceeds the budget.  Used where too little is
+	 * held for writing it to disk to be worthwhile.
+	 *
+	 * @param bytes				number of bytes to reserve
+	 */
+	public synchronized void forceReserve(long bytes) {
+		reserved += bytes;
+		if (reserved > peakReserved) {
+			peakReserved = reserved;
+		}
+	}
+
+	/**
+	 * Release bytes previously reserved.
+	 *
+	 * @param bytes				number of bytes to release
+	 */
+	public synchronized void release(long bytes) {
+		reserved -= bytes;
+	}
+
+	public long getBudget() {
+		return budget;
+	}
+
+	public synchronized long getReserved() {
+		return reserved;
+	}
+
+	public synchronized long getPeakReserved() {
+		return peakReserved;
+	}
+
+	/**
+	 * Returns the number of reservations refused because the budget was used up.
+	 *
+	 * @return			number of reservations refused
+	 */
+	public synchronized int getRefusals() {
+		return refusals;
+	}
+}
@@ -0,0 +1,247 @@
+package org.xandercat.cat.back.file;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * MetadataFiles saves the metadata files of a backup (file list shards, stats, incremental backup sizes and
+ * the source file list), compressing them with a BlockDeflaterOutputStream if compression is enabled, and
+ * counts the bytes saved before and after compression.  Files smaller than MIN_COMPRESSED_LENGTH are never
+ * compressed, as compression would only add to their size.
+ *
+ * Compressed files start with the BlockDeflaterOutputStream.MAGIC number, which no uncompressed metadata
+ * file starts with, so files are read the same way whether or not they are compressed, and whether or not
+ * compression is enabled.
+ *
+ * @author Scott Arnold
+ */
+public class MetadataFiles {
+
+	public static final int MIN_COMPRESSED_LENGTH = 4096;
+
+	private boolean compress;
+	private AtomicLong bytes = new AtomicLong();
+	private AtomicLong bytesWritten = new AtomicLong();
+
+	/**
+	 * Output stream that holds data in memory until MIN_COMPRESSED_LENGTH bytes have been written, then
+	 * compresses it.
+	 */
+	private class MetadataOutputStream extends OutputStream {
+		private File file;
+		private OutputStream fileOut;
+		private ByteArrayOutputStream pending;
+		private OutputStream out;
+		private long length;
+		private boolean closed;
+
+		private MetadataOutputStream(File file) throws IOException {
+			this.file = file;
+			this.fileOut = new BufferedOutputStream(new FileOutputStream(file));
+			if (compress) {
+				this.pending = new ByteArrayOutputStream(MIN_COMPRESSED_LENGTH);
+			} else {
+				this.out = fileOut;
+			}
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (out == null) {
+				pending.write(b);
+				compressPending();
+			} else {
+				out.write(b);
+			}
+			length++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (out == null) {
+				pending.write(b, off, len);
+				compressPending();
+			} else {
+				out.write(b, off, len);
+			}
+			length += len;
+		}
+
+		/**
+		 * Start compressing once enough data is pending.
+		 */
+		private void compressPending() throws IOException {
+			if (pending.size() >= MIN_COMPRESSED_LENGTH) {
+				out = new BlockDeflaterOutputStream(fileOut);
+				pending.writeTo(out);
+				pending = null;
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			if (out != null) {
+				out.flush();
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			if (out == null) {
+				// too small to be worth compressing
+				pending.writeTo(fileOut);
+				out = fileOut;
+			}
+			out.close();
+			bytes.addAndGet(length);
+			bytesWritten.addAndGet(file.length());
+		}
+	}
+
+	/**
+	 * Constructs a new metadata files instance.
+	 *
+	 * @param compress		whether or not to compress metadata files
+	 */
+	public MetadataFiles(boolean compress) {
+		this.compress = compress;
+	}
+
+	public boolean isCompress() {
+		return compress;
+	}
+
+	/**
+	 * Returns the number of bytes of metadata saved so far, before compression.
+	 *
+	 * @return		number of bytes of metadata
+	 */
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	/**
+	 * Returns the number of bytes written to metadata files so far, after compression.
+	 *
+	 * @return		number of bytes written
+	 */
+	public long getBytesWritten() {
+		return bytesWritten.get();
+	}
+
+	/**
+	 * Open the given metadata file for writing.  The bytes are counted when the stream is closed.
+	 *
+	 * @param file				file to write
+	 *
+	 * @return					output stream for the file
+	 *
+	 * @throws IOException		if the file cannot be opened
+	 */
+	public OutputStream openOutput(File file) throws IOException {
+		return new MetadataOutputStream(file);
+	}
+
+	/**
+	 * Save the given object to the given metadata file with Java serialization.
+	 *
+	 * @param file				file to write
+	 * @param object			object to save
+	 *
+	 * @throws IOException		if the file cannot be written
+	 */
+	public void saveObject(File file, Object object) throws IOException {
+		ObjectOutputStream out = new ObjectOutputStream(openOutput(file));
+		try {
+			out.writeObject(object);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Open the given metadata file for reading, decompressing it if it is compressed.
+	 *
+	 * @param file				file to read
+	 *
+	 * @return					input stream for the file
+	 *
+	 * @throws IOException		if the file cannot be opened
+	 */
+	public static InputStream openInput(File file) throws IOException {
+		BufferedInputStream in = new BufferedInputStream(new FileInputStream(file));
+		try {
+			in.mark(4);
+			int magic = new DataInputStream(in).readInt();
+			in.reset();
+			if (magic == BlockDeflaterOutputStream.MAGIC) {
+				return new BlockInflaterInputStream(in);
+			}
+		} catch (EOFException e) {
+			in.reset();
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+		return in;
+	}
+
+	/**
+	 * Returns whether or not the given metadata file is compressed.
+	 *
+	 * @param file				file to check
+	 *
+	 * @return					whether or not the file is compressed
+	 *
+	 * @throws IOException		if the file cannot be read
+	 */
+	public static boolean isCompressed(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			return in.readInt() == BlockDeflaterOutputStream.MAGIC;
+		} catch (EOFException e) {
+			return false;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Load an object saved with Java serialization from the given metadata file.
+	 *
+	 * @param file				file to read
+	 * @param objectClass		class of the object
+	 *
+	 * @return					object loaded
+	 *
+	 * @throws IOException		if the file cannot be read or does not hold an object of the given class
+	 */
+	public static <T> T loadObject(File file, Class<T> objectClass) throws IOException {
+		InputStream in = openInput(file);
+		try {
+			return objectClass.cast(new ObjectInputStream(in).readObject());
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Unable to load object from " + file.getAbsolutePath(), e);
+		} catch (ClassCastException e) {
+			throw new IOException("Unable to load object from " + file.getAbsolutePath(), e);
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package org.xandercat.cat.back.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.xandercat.swing.util.PlatformTool;
+
+/**
+ * ParallelDirectoryWalker walks a directory tree using a work-stealing fork/join pool, with one
+ * task per directory.  Every non-excluded file and directory beneath the starting directory is
+ * passed to the listener exactly once along with its attributes; attributes are read with a single
+ * call per file.  The order in which files are found is not defined.
+ *
+ * Directories are read with a directory stream, and each subdirectory is walked as soon as it is found,
+ * so large directories are never held in memory in full.
+ *
+ * @author Scott Arnold
+ */
+public class ParallelDirectoryWalker {
+
+	public static final int LISTING_PROGRESS_INTERVAL = 10000;
+
+	private class DirectoryTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 2023040101L;
+
+		private File directory;
+
+		public DirectoryTask(File directory) {
+			this.directory = directory;
+		}
+
+		@Override
+		protected void compute() {
+			if (listener.isWalkCancelled()) {
+				return;
+			}
+			DirectoryStream<Path> directoryStream = null;
+			try {
+				directoryStream = Files.newDirectoryStream(directory.toPath());
+			} catch (IOException e) {
+				return;		// unreadable directories are treated as empty, the same as java.io.File would report them
+			}
+			List<DirectoryTask> subtasks = null;
+			try {
+				int listed = 0;
+				for (Path path : directoryStream) {
+					if (++listed % LISTING_PROGRESS_INTERVAL == 0) {
+						if (listener.isWalkCancelled()) {
+							break;
+						}
+						listener.listingProgress(directory, listed);
+					}
+					File file = path.toFile();
+					if (!PlatformTool.FILE_FILTER.accept(file)) {
+						continue;
+					}
+					DirectoryTask subtask = fileFound(file);
+					if (subtask != null) {
+						// subdirectories are walked while the rest of this directory is listed
+						subtask.fork();
+						if (subtasks == null) {
+							subtasks = new ArrayList<DirectoryTask>();
+						}
+						subtasks.add(subtask);
+					}
+				}
+			} catch (DirectoryIteratorException e) {
+				throw new IllegalStateException("Unable to finish listing directory " + directory.getAbsolutePath(), e.getCause());
+			} finally {
+				try {
+					directoryStream.close();
+				} catch (IOException e) {
+					// listing is already complete
+				}
+				if (subtasks != null) {
+					for (DirectoryTask subtask : subtasks) {
+						subtask.join();
+					}
+				}
+			}
+		}
+		
+		/**
+		 * Pass a file found while listing the directory to the listener, returning a task to walk it if it
+		 * is a directory.
+		 */
+		private DirectoryTask fileFound(File file) {
+			BasicFileAttributes attributes = null;
+			try {
+				attributes = listener.readAttributes(file);
+			} catch (IOException e) {
+				// unreadable files are still passed on, the same as java.io.File would report them
+			}
+			if (listener.isExcluded(file, attributes)) {
+				return null;
+			}
+			listener.fileFound(file, attributes);
+			return (attributes != null && attributes.isDirectory())? new DirectoryTask(file) : null;
+		}
+	}
+
+	private int parallelism;
+	private DirectoryWalkerListener listener;
+
+	/**
+	 * Constructs a new directory walker.
+	 *
+	 * @param parallelism		number of threads to walk with
+	 * @param listener			listener to pass found files to
+	 */
+	public ParallelDirectoryWalker(int parallelism, DirectoryWalkerListener listener) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be at least 1.");
+		}
+		this.parallelism = parallelism;
+		this.listener = listener;
+	}
+
+	/**
+	 * Walk all files and directories within the given directory.  The directory itself is not
+	 * passed to the listener.  This method does not return until the walk is complete or cancelled.
+	 *
+	 * @param directory		directory to walk
+	 */
+	public void walk(File directory) {
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			pool.invoke(new DirectoryTask(directory));
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
@@ -0,0 +1,220 @@
+package org.xandercat.cat.back.file;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * RadixSorter sorts items by a string key using a most significant digit first radix sort.  Keys are
+ * extracted from the items once, and items are distributed into buckets by one character of their key at a
+ * time, so shared leading characters are examined once per item rather than once per comparison.  Large
+ * buckets are sorted in parallel using the common fork/join pool.
+ *
+ * Keys are sorted by their UTF-16 characters, so the order is exactly that of String.compareTo, the order
+ * used for critical paths by BackupFile and when comparing files.  (The order of UTF-8 bytes is not, as it
+ * differs for characters outside the basic multilingual plane.)  Buckets cover only the range of characters
+ * found at each position; where that range is very wide, the bucket is sorted by comparison instead.  Items
+ * with equal keys remain in their original order.
+ *
+ * @author Scott Arnold
+ */
+public class RadixSorter {
+
+	public static final int INSERTION_SORT_THRESHOLD = 32;
+	public static final int PARALLEL_THRESHOLD = 1 << 16;
+	private static final int MAX_BUCKETS = 1 << 12;
+
+	/**
+	 * Extracts the key to sort an item by.
+	 */
+	public interface KeyExtractor<T> {
+		public String getKey(T item);
+	}
+
+	/**
+	 * Sort the given list by the keys of its items.
+	 *
+	 * @param list				list to sort
+	 * @param keyExtractor		extracts the key of each item
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> void sort(List<T> list, KeyExtractor<? super T> keyExtractor) {
+		int n = list.size();
+		if (n < 2) {
+			return;
+		}
+		Object[] items = list.toArray();
+		String[] keys = new String[n];
+		for (int i = 0; i < n; i++) {
+			keys[i] = keyExtractor.getKey((T) items[i]);
+		}
+		Sort sort = new Sort(keys, items, new String[n], new Object[n], 0, n, 0);
+		if (n >= PARALLEL_THRESHOLD) {
+			ForkJoinPool.commonPool().invoke(sort);
+		} else {
+			sort.compute();
+		}
+		ListIterator<T> iterator = list.listIterator();
+		for (Object item : items) {
+			iterator.next();
+			iterator.set((T) item);
+		}
+	}
+
+	/**
+	 * Sorts items lo (inclusive) to hi (exclusive), whose keys are known to be equal before the given depth.
+	 */
+	private static class Sort extends RecursiveAction {
+
+		private static final long serialVersionUID = 2023050601L;
+
+		private String[] keys;
+		private Object[] items;
+		private String[] auxKeys;
+		private Object[] auxItems;
+		private int lo;
+		private int hi;
+		private int depth;
+
+		private Sort(String[] keys, Object[] items, String[] auxKeys, Object[] auxItems, int lo, int hi, int depth) {
+			this.keys = keys;
+			this.items = items;
+			this.auxKeys = auxKeys;
+			this.auxItems = auxItems;
+			this.lo = lo;
+			this.hi = hi;
+			this.depth = depth;
+		}
+
+		@Override
+		protected void compute() {
+			if (hi - lo <= INSERTION_SORT_THRESHOLD) {
+				insertionSort();
+				return;
+			}
+			int[] chars = new int[hi - lo];
+			int min;
+			int max;
+			boolean ended;
+			while (true) {
+				min = Character.MAX_VALUE;
+				max = -1;
+				ended = false;
+				for (int i = lo; i < hi; i++) {
+					int c = charAt(keys[i], depth);
+					chars[i - lo] = c;
+					if (c < 0) {
+						ended = true;
+					} else {
+						min = Math.min(min, c);
+						max = Math.max(max, c);
+					}
+				}
+				if (max < 0) {
+					return;		// all keys end at this depth and are equal
+				}
+				if (min < max || ended) {
+					break;
+				}
+				depth++;		// all keys share this character; no need to distribute them
+			}
+			int buckets = max - min + 2;	// bucket 0 holds keys that end at this depth
+			if (buckets > MAX_BUCKETS) {
+				comparisonSort();
+				return;
+			}
+			int[] starts = new int[buckets + 1];
+			for (int i = 0; i < chars.length; i++) {
+				starts[bucket(chars[i], min) + 1]++;
+			}
+			for (int b = 0; b < buckets; b++) {
+				starts[b + 1] += starts[b];
+			}
+			int[] next = Arrays.copyOf(starts, buckets);
+			for (int i = lo; i < hi; i++) {
+				int j = lo + next[bucket(chars[i - lo], min)]++;
+				auxKeys[j] = keys[i];
+				auxItems[j] = items[i];
+			}
+			System.arraycopy(auxKeys, lo, keys, lo, hi - lo);
+			System.arraycopy(auxItems, lo, items, lo, hi - lo);
+			boolean parallel = (hi - lo >= PARALLEL_THRESHOLD);
+			List<Sort> tasks = parallel? new ArrayList<Sort>() : null;
+			for (int b = 1; b < buckets; b++) {
+				int start = lo + starts[b];
+				int end = lo + starts[b + 1];
+				if (end - start > 1) {
+					Sort sort = new Sort(keys, items, auxKeys, auxItems, start, end, depth + 1);
+					if (parallel) {
+						tasks.add(sort);
+					} else {
+						sort.compute();
+					}
+				}
+			}
+			if (parallel) {
+				invokeAll(tasks);
+			}
+		}
+
+		private static int bucket(int c, int min) {
+			return (c < 0)? 0 : c - min + 1;
+		}
+
+		private void insertionSort() {
+			for (int i = lo + 1; i < hi; i++) {
+				String key = keys[i];
+				Object item = items[i];
+				int j = i - 1;
+				while (j >= lo && compareFrom(keys[j], key, depth) > 0) {
+					keys[j + 1] = keys[j];
+					items[j + 1] = items[j];
+					j--;
+				}
+				keys[j + 1] = key;
+				items[j + 1] = item;
+			}
+		}
+
+		private void comparisonSort() {
+			Integer[] order = new Integer[hi - lo];
+			for (int i = 0; i < order.length; i++) {
+				order[i] = Integer.valueOf(lo + i);
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					return compareFrom(keys[a.intValue()], keys[b.intValue()], depth);
+				}
+			});
+			for (int i = 0; i < order.length; i++) {
+				auxKeys[lo + i] = keys[order[i].intValue()];
+				auxItems[lo + i] = items[order[i].intValue()];
+			}
+			System.arraycopy(auxKeys, lo, keys, lo, hi - lo);
+			System.arraycopy(auxItems, lo, items, lo, hi - lo);
+		}
+	}
+
+	private static int charAt(String key, int depth) {
+		return (depth < key.length())? key.charAt(depth) : -1;
+	}
+
+	/**
+	 * Compare keys known to be equal before the given depth, the same as String.compareTo.
+	 */
+	private static int compareFrom(String a, String b, int depth) {
+		int n = Math.min(a.length(), b.length());
+		for (int i = depth; i < n; i++) {
+			char c = a.charAt(i);
+			char d = b.charAt(i);
+			if (c != d) {
+				return c - d;
+			}
+		}
+		return a.length() - b.length();
+	}
+}
@@ -0,0 +1,39 @@
+package org.xandercat.cat.back.file;
+
+/**
+ * RenamedFile pairs a file of the latest backup that no longer exists at its critical path with a new source
+ * file that is found to be the same file renamed or moved (see RenamedFileDetector).  The backup of the
+ * previous file can be relocated to the critical path of the current file rather than the current file
+ * being copied again.
+ *
+ * @author Scott Arnold
+ */
+public class RenamedFile {
+
+	private BackupFile previousFile;
+	private BackupFile currentFile;
+
+	/**
+	 * Constructs a new renamed file.
+	 *
+	 * @param previousFile		file in the latest backup that no longer exists
+	 * @param currentFile		new source file it was renamed to
+	 */
+	public RenamedFile(BackupFile previousFile, BackupFile currentFile) {
+		this.previousFile = previousFile;
+		this.currentFile = currentFile;
+	}
+
+	public BackupFile getPreviousFile() {
+		return previousFile;
+	}
+
+	public BackupFile getCurrentFile() {
+		return currentFile;
+	}
+
+	@Override
+	public String toString() {
+		return previousFile.getCriticalPath() + " -> " + currentFile.getCriticalPath();
+	}
+}
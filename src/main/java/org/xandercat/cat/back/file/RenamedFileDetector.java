@@ -0,0 +1,214 @@
+package org.xandercat.cat.back.file;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * RenamedFileDetector finds source files that were renamed or moved since the latest backup, which a comparison
+ * by critical path sees as a file removed and a file added.  Removed files of the latest backup and added source
+ * files are matched by length and last modified time, and a removed file matches an added file only if there is
+ * also something more to show they are the same file:
+ *
+ *   - both have the same source file identity inode on the same device (see FileIdentity), or
+ *   - both have the same quick fingerprint or digest, or
+ *   - both have the same name.
+ *
+ * Where both files have a quick fingerprint or digest, they must be the same.  If a content digester is set, files
+ * that do not match by identity or by recorded fingerprint or digest are always compared by content, reading the
+ * added source file and the backup of the removed file: by quick fingerprint if they are large enough to have one,
+ * otherwise by digest (files under QUICK_FINGERPRINT_MIN_LENGTH, so digesting them is cheap).  Where more than one
+ * removed file matches an added file, the best match is taken, in the order above; each removed file is matched to
+ * one added file at most.
+ *
+ * Files are matched by name only if no content digester is set.  That match does not look at the contents of either
+ * file, so a file replaced by another of the same name, length and last modified time (to within the timestamp
+ * precision, which is about 16 minutes where the precision of the backup drive could not be probed) in another
+ * directory is taken as renamed, and the backup of the file removed is relocated as the backup of the file added.
+ * Set a content digester (compare contents) to rule this out.
+ *
+ * Only files of at least MIN_LENGTH bytes are matched; smaller files are quick to copy and the most likely to match
+ * another file by length and last modified time alone.
+ *
+ * @author Scott Arnold
+ */
+public class RenamedFileDetector {
+
+	private static final Logger log = LogManager.getLogger(RenamedFileDetector.class);
+
+	public static final long MIN_LENGTH = 64 * 1024;
+
+	private static final int NO_MATCH = 0;
+	private static final int NAME_MATCH = 1;
+	private static final int CONTENT_MATCH = 2;
+	private static final int IDENTITY_MATCH = 3;
+
+	private Map<Long, List<BackupFile>> removedFiles = new HashMap<Long, List<BackupFile>>();
+	private List<BackupFile> addedFiles = new ArrayList<BackupFile>();
+	private TimestampPrecision timestampPrecision;
+	private ContentDigester contentDigester;
+
+	/**
+	 * Constructs a new renamed file detector.
+	 *
+	 * @param timestampPrecision	precision last modified times are compared with, or null for BackupFile.LAST_MOD_PRECISION
+	 * @param contentDigester		content digester to compare quick fingerprints with, or null to compare only those recorded
+	 */
+	public RenamedFileDetector(TimestampPrecision timestampPrecision, ContentDigester contentDigester) {
+		this.timestampPrecision = timestampPrecision;
+		this.contentDigester = contentDigester;
+	}
+
+	/**
+	 * Returns whether or not the given file could be matched as renamed.
+	 *
+	 * @param file		removed or added file
+	 *
+	 * @return			whether or not the file is matched
+	 */
+	public static boolean isMatched(BackupFile file) {
+		return !file.isDirectory() && file.getLength() >= MIN_LENGTH;
+	}
+
+	/**
+	 * Add a file of the latest backup that no longer exists.  Files that cannot be matched are ignored.
+	 *
+	 * @param previousFile		file in the latest backup
+	 */
+	public void fileRemoved(BackupFile previousFile) {
+		if (isMatched(previousFile)) {
+			Long length = Long.valueOf(previousFile.getLength());
+			List<BackupFile> files = removedFiles.get(length);
+			if (files == null) {
+				files = new ArrayList<BackupFile>(1);
+				removedFiles.put(length, files);
+			}
+			files.add(previousFile);
+		}
+	}
+
+	/**
+	 * Add a source file that is not in the latest backup.  Files that cannot be matched are ignored.
+	 *
+	 * @param currentFile		source file
+	 */
+	public void fileAdded(BackupFile currentFile) {
+		if (isMatched(currentFile)) {
+			addedFiles.add(currentFile);
+		}
+	}
+
+	/**
+	 * Match the files removed to the files added, in the order they were added.  The files added and removed are
+	 * cleared.
+	 *
+	 * @return		renamed files
+	 */
+	public List<RenamedFile> detect() {
+		List<RenamedFile> renamedFiles = new ArrayList<RenamedFile>();
+		if (!removedFiles.isEmpty()) {
+			for (BackupFile currentFile : addedFiles) {
+				List<BackupFile> candidates = removedFiles.get(Long.valueOf(currentFile.getLength()));
+				if (candidates == null) {
+					continue;
+				}
+				BackupFile bestMatch = null;
+				int bestMatchLevel = NO_MATCH;
+				for (BackupFile previousFile : candidates) {
+					int matchLevel = getMatchLevel(previousFile, currentFile);
+					if (matchLevel > bestMatchLevel) {
+						bestMatch = previousFile;
+						bestMatchLevel = matchLevel;
+					}
+				}
+				if (bestMatch != null) {
+					candidates.remove(bestMatch);
+					renamedFiles.add(new RenamedFile(bestMatch, currentFile));
+					log.debug("Renamed file detected: " + bestMatch.getCriticalPath() + " -> " + currentFile.getCriticalPath());
+				}
+			}
+		}
+		removedFiles.clear();
+		addedFiles.clear();
+		return renamedFiles;
+	}
+
+	/**
+	 * Returns how well the given removed file matches the given added file of the same length.
+	 */
+	private int getMatchLevel(BackupFile previousFile, BackupFile currentFile) {
+		long precision = (timestampPrecision == null)? BackupFile.LAST_MOD_PRECISION : timestampPrecision.getPrecision(currentFile.getCriticalPath());
+		if (Math.abs(previousFile.getLastModified() - currentFile.getLastModified()) >= precision
+				|| isDifferent(previousFile.getQuickFingerprint(), currentFile.getQuickFingerprint())
+				|| (previousFile.getDigest() != null && currentFile.getDigest() != null && !ContentDigester.isEqual(previousFile.getDigest(), currentFile.getDigest()))) {
+			return NO_MATCH;
+		}
+		FileIdentity previousIdentity = previousFile.getFileIdentity();
+		FileIdentity currentIdentity = currentFile.getFileIdentity();
+		if (previousIdentity != null && currentIdentity != null && previousIdentity.isSameDevice(currentIdentity)
+				&& previousIdentity.getInode() == currentIdentity.getInode()) {
+			return IDENTITY_MATCH;
+		}
+		if ((previousFile.getQuickFingerprint() != 0 && previousFile.getQuickFingerprint() == currentFile.getQuickFingerprint())
+				|| ContentDigester.isEqual(previousFile.getDigest(), currentFile.getDigest())) {
+			return CONTENT_MATCH;
+		}
+		if (contentDigester != null) {
+			if (ContentDigester.isQuickFingerprinted(currentFile.getLength())) {
+				return isQuickFingerprintEqual(previousFile, currentFile)? CONTENT_MATCH : NO_MATCH;
+			}
+			return isDigestEqual(previousFile, currentFile)? CONTENT_MATCH : NO_MATCH;
+		}
+		return previousFile.getName().equals(currentFile.getName())? NAME_MATCH : NO_MATCH;
+	}
+
+	/**
+	 * Returns whether or not the given quick fingerprints are both known and different.
+	 */
+	private static boolean isDifferent(long quickFingerprint1, long quickFingerprint2) {
+		return quickFingerprint1 != 0 && quickFingerprint2 != 0 && quickFingerprint1 != quickFingerprint2;
+	}
+
+	/**
+	 * Returns whether or not the quick fingerprints of the given files are the same, reading those not yet known.
+	 * Files that cannot be read do not match.
+	 */
+	private boolean isQuickFingerprintEqual(BackupFile previousFile, BackupFile currentFile) {
+		try {
+			if (currentFile.getQuickFingerprint() == 0) {
+				currentFile.setQuickFingerprint(contentDigester.quickFingerprint(currentFile.getFile()));
+			}
+			if (previousFile.getQuickFingerprint() == 0) {
+				previousFile.setQuickFingerprint(contentDigester.quickFingerprint(previousFile.getFile()));
+			}
+		} catch (IOException e) {
+			log.debug("Unable to compare quick fingerprints of " + previousFile.getCriticalPath() + " and " + currentFile.getCriticalPath() + ": " + e.getMessage());
+			return false;
+		}
+		return previousFile.getQuickFingerprint() == currentFile.getQuickFingerprint();
+	}
+
+	/**
+	 * Returns whether or not the digests of the given files are the same, reading those not yet known.  Files that 
+	 * cannot be read do not match.
+	 */
+	private boolean isDigestEqual(BackupFile previousFile, BackupFile currentFile) {
+		try {
+			if (currentFile.getDigest() == null) {
+				currentFile.setDigest(contentDigester.digest(currentFile.getFile()));
+			}
+			if (previousFile.getDigest() == null) {
+				previousFile.setDigest(contentDigester.digest(previousFile.getFile()));
+			}
+		} catch (IOException e) {
+			log.debug("Unable to compare digests of " + previousFile.getCriticalPath() + " and " + currentFile.getCriticalPath() + ": " + e.getMessage());
+			return false;
+		}
+		return ContentDigester.isEqual(previousFile.getDigest(), currentFile.getDigest());
+	}
+}
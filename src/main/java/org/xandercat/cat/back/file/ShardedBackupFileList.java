@@ -0,0 +1,173 @@
+package org.xandercat.cat.back.file;
+
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * ShardedBackupFileList presents the shards of a backup file list (see FileListShards) as one sorted,
+ * read-only list.  Iterating merges the shards, which are each sorted; access by position is intended
+ * for sequential access only, as each access before the previous position restarts the merge.
+ *
+ * The list also records the manifest the shards were loaded from and which shards are unchanged since
+ * (saved), so only the other shards need to be saved again.
+ *
+ * @author Scott Arnold
+ */
+public class ShardedBackupFileList extends AbstractList<BackupFile> {
+
+	private FileListManifest manifest;
+	private SortedMap<String, List<BackupFile>> shards = new TreeMap<String, List<BackupFile>>();
+	private Map<String, Long> backupSizes = new HashMap<String, Long>();
+	private Set<String> savedShards = new HashSet<String>();
+	private int size;
+	private Iterator<BackupFile> cursor;
+	private int cursorIndex;
+	private BackupFile cursorFile;
+
+	/**
+	 * Merges the shards one file at a time.
+	 */
+	private static class ShardIterator implements Comparable<ShardIterator> {
+		private Iterator<BackupFile> iterator;
+		private BackupFile next;
+
+		private ShardIterator(Iterator<BackupFile> iterator) {
+			this.iterator = iterator;
+			this.next = iterator.next();
+		}
+
+		public int compareTo(ShardIterator other) {
+			return next.getCriticalPath().compareTo(other.next.getCriticalPath());
+		}
+	}
+
+	/**
+	 * Constructs a new sharded list with no shards.
+	 *
+	 * @param manifest		manifest the shards were loaded from, or null if unknown
+	 */
+	public ShardedBackupFileList(FileListManifest manifest) {
+		this.manifest = manifest;
+	}
+
+	/**
+	 * Add a shard.
+	 *
+	 * @param key				shard key
+	 * @param backupFiles		sorted list of the files of the shard
+	 * @param backupSize		size of the files of the shard
+	 * @param saved				whether or not the shard is saved as listed in the manifest
+	 */
+	public void addShard(String key, List<BackupFile> backupFiles, long backupSize, boolean saved) {
+		List<BackupFile> replaced = shards.put(key, backupFiles);
+		if (replaced != null) {
+			size -= replaced.size();
+		}
+		size += backupFiles.size();
+		backupSizes.put(key, Long.valueOf(backupSize));
+		if (saved) {
+			savedShards.add(key);
+		} else {
+			savedShards.remove(key);
+		}
+		cursor = null;
+	}
+
+	public FileListManifest getManifest() {
+		return manifest;
+	}
+
+	public Set<String> getShardKeys() {
+		return Collections.unmodifiableSet(shards.keySet());
+	}
+
+	public List<BackupFile> getShard(String key) {
+		return shards.get(key);
+	}
+
+	public long getShardBackupSize(String key) {
+		return backupSizes.get(key).longValue();
+	}
+
+	/**
+	 * Returns whether or not the given shard is saved as listed in the manifest.
+	 *
+	 * @param key		shard key
+	 *
+	 * @return			whether or not the shard is saved
+	 */
+	public boolean isSaved(String key) {
+		return savedShards.contains(key);
+	}
+
+	/**
+	 * Returns the total size of the files of all shards.
+	 *
+	 * @return		backup size
+	 */
+	public long getBackupSize() {
+		long backupSize = 0;
+		for (Long shardBackupSize : backupSizes.values()) {
+			backupSize += shardBackupSize.longValue();
+		}
+		return backupSize;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public BackupFile get(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		if (cursor == null || index < cursorIndex) {
+			cursor = iterator();
+			cursorIndex = -1;
+		}
+		while (cursorIndex < index) {
+			cursorFile = cursor.next();
+			cursorIndex++;
+		}
+		return cursorFile;
+	}
+
+	@Override
+	public Iterator<BackupFile> iterator() {
+		final PriorityQueue<ShardIterator> queue = new PriorityQueue<ShardIterator>(Math.max(1, shards.size()));
+		for (List<BackupFile> shard : shards.values()) {
+			if (shard.size() > 0) {
+				queue.add(new ShardIterator(shard.iterator()));
+			}
+		}
+		return new Iterator<BackupFile>() {
+			public boolean hasNext() {
+				return !queue.isEmpty();
+			}
+			public BackupFile next() {
+				ShardIterator shardIterator = queue.poll();
+				if (shardIterator == null) {
+					throw new NoSuchElementException();
+				}
+				BackupFile next = shardIterator.next;
+				if (shardIterator.iterator.hasNext()) {
+					shardIterator.next = shardIterator.iterator.next();
+					queue.add(shardIterator);
+				}
+				return next;
+			}
+		};
+	}
+}
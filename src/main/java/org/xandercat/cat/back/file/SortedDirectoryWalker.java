@@ -0,0 +1,416 @@
+package org.xandercat.cat.back.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.xandercat.swing.util.PlatformTool;
+
+/**
+ * SortedDirectoryWalker walks directory trees and returns the files found one at a time in critical path
+ * order, so that files can be compared as they are found without first collecting and sorting them.
+ *
+ * The children of each directory are sorted as the directory is listed.  For the order to match critical
+ * path order, a directory's own entry is sorted by its name while the files within it are sorted as if by
+ * the name followed by a file separator (for example, "a", "a-b", then everything within "a").  Only the
+ * listings of the directories currently being walked are held in memory, so memory use depends on the
+ * depth of the tree and the number of files per directory rather than the total number of files.
+ *
+ * Directories that will be walked soon are listed ahead of time using the threads of the device they are
+ * on, so walks of different devices proceed at the same time; the number of listings read ahead for each
+ * device is limited.  A directory that has not been read ahead when it is reached is listed by the thread
+ * consuming the walk.
+ *
+ * Directories are read with a directory stream, so files are inspected as they are listed rather than
+ * after the whole directory has been read.  Listings are sorted with an ExternalSorter (using a RadixSorter
+ * on the entry keys held in memory), so a directory with more files than fit in memory is sorted in runs
+ * written to disk.  If a sort memory budget is set,
+ * the listings being walked and read ahead share the budget; otherwise a listing is written to disk once
+ * it has more than SPILL_THRESHOLD files.
+ *
+ * @author Scott Arnold
+ */
+public class SortedDirectoryWalker implements Iterator<BackupFile> {
+
+	private static final int READ_AHEAD_PER_THREAD = 4;
+	
+	public static final int SPILL_THRESHOLD = 100000;
+	public static final int LISTING_PROGRESS_INTERVAL = 10000;
+	
+	// estimated heap usage of an entry and of the backup file and strings it holds
+	private static final long ENTRY_BYTES = 32;
+	private static final long BACKUP_FILE_BYTES = 64;
+	private static final long STRING_BYTES = 40;
+	
+	private static final RadixSorter.KeyExtractor<Entry> ENTRY_KEY = new RadixSorter.KeyExtractor<Entry>() {
+		public String getKey(Entry entry) {
+			return entry.key;
+		}
+	};
+	
+	private static final ExternalSorter.ItemSizer<Entry> ENTRY_SIZER = new ExternalSorter.ItemSizer<Entry>() {
+		public long sizeOf(Entry entry) {
+			long bytes = ENTRY_BYTES + STRING_BYTES + 2L * entry.key.length();
+			if (entry.directory == null && entry.backupFile != null) {	// walk entries share the backup file of the directory's own entry
+				bytes += BACKUP_FILE_BYTES + STRING_BYTES + 2L * entry.backupFile.getCriticalPath().length();
+			}
+			return bytes;
+		}
+	};
+
+	private static class Entry implements Comparable<Entry>, Serializable {
+		private static final long serialVersionUID = 2023042201L;
+		private String key;
+		private BackupFile backupFile;							// null for the contents of a directory added with addDirectory
+		private File directory;									// directory to walk if entry represents the files within it
+		private transient DeviceConcurrency.Device device;
+		private transient Future<ExternalSorter<Entry>> listing;	// listing read ahead, if any
+
+		private Entry(String key, BackupFile backupFile, boolean walk, DeviceConcurrency.Device device) {
+			this.key = key;
+			this.backupFile = backupFile;
+			this.directory = walk? backupFile.getFile() : null;
+			this.device = device;
+		}
+		
+		private Entry(String key, File directory, DeviceConcurrency.Device device) {
+			this.key = key;
+			this.directory = directory;
+			this.device = device;
+		}
+
+		public int compareTo(Entry other) {
+			return key.compareTo(other.key);
+		}
+	}
+	
+	/**
+	 * Sorted entries being walked, along with the listing they came from, if any.
+	 */
+	private static class Frame {
+		private Iterator<Entry> entries;
+		private ExternalSorter<Entry> listing;
+		
+		private Frame(Iterator<Entry> entries, ExternalSorter<Entry> listing) {
+			this.entries = entries;
+			this.listing = listing;
+		}
+		
+		private void close() {
+			if (listing != null) {
+				listing.close();
+			}
+		}
+	}
+
+	private DeviceConcurrency deviceConcurrency;
+	private DirectoryWalkerFilter filter;
+	private BackupFile.Type type;
+	private File latestBackupDirectory;
+	private MemoryBudget sortMemory;
+	private File sortDirectory;
+	private boolean walkSubdirectories = true;
+	private List<Entry> startEntries = new ArrayList<Entry>();
+	private Deque<Frame> stack;
+	private BackupFile next;
+	private Map<DeviceConcurrency.Device, Integer> readAheadCounts = new HashMap<DeviceConcurrency.Device, Integer>();
+	private Set<Future<ExternalSorter<Entry>>> readAheadListings = new HashSet<Future<ExternalSorter<Entry>>>();
+	private volatile boolean closed;
+
+	/**
+	 * Constructs a new sorted directory walker.
+	 *
+	 * @param deviceConcurrency			devices and threads to list directories with
+	 * @param filter					filter for files to walk
+	 * @param type						type of backup files to create
+	 * @param latestBackupDirectory		latest backup directory (used for destination files only)
+	 */
+	public SortedDirectoryWalker(DeviceConcurrency deviceConcurrency, DirectoryWalkerFilter filter, BackupFile.Type type, File latestBackupDirectory) {
+		this.deviceConcurrency = deviceConcurrency;
+		this.filter = filter;
+		this.type = type;
+		this.latestBackupDirectory = latestBackupDirectory;
+	}
+	
+	/**
+	 * Sets the memory to be shared by directory listings as they are sorted and the directory for sorted
+	 * runs that do not fit in memory.  By default, a listing is written to disk once it has more than
+	 * SPILL_THRESHOLD files, and runs are written to the default temporary file directory.
+	 * 
+	 * @param sortMemory				memory budget for sorting listings (can be null)
+	 * @param sortDirectory				directory for sorted runs (can be null)
+	 */
+	public void setSortMemory(MemoryBudget sortMemory, File sortDirectory) {
+		this.sortMemory = sortMemory;
+		this.sortDirectory = sortDirectory;
+	}
+
+	/**
+	 * Sets whether or not directories found while walking are walked in turn.  By default the walk descends
+	 * into every directory found; if false, only the files directly within the directories added are returned.
+	 * 
+	 * @param walkSubdirectories		whether or not to walk directories found while walking
+	 */
+	public void setWalkSubdirectories(boolean walkSubdirectories) {
+		this.walkSubdirectories = walkSubdirectories;
+	}
+
+	/**
+	 * Add a file to be returned by this walker.  If walk is true and the file is a directory, everything
+	 * within the directory is also returned.  Files must be added before iteration begins, and should not
+	 * be within any other directory that is walked.
+	 *
+	 * @param backupFile		file to return
+	 * @param walk				whether or not to walk the file if it is a directory
+	 */
+	public void addFile(BackupFile backupFile, boolean walk) {
+		if (stack != null) {
+			throw new IllegalStateException("Files cannot be added once iteration has begun.");
+		}
+		startEntries.add(new Entry(backupFile.getCriticalPath(), backupFile, false, null));
+		if (walk && backupFile.isDirectory()) {
+			DeviceConcurrency.Device device = deviceConcurrency.getDevice(backupFile.getFile());
+			startEntries.add(new Entry(backupFile.getCriticalPath() + File.separator, backupFile, true, device));
+		}
+	}
+
+	/**
+	 * Add the files within the given directory to be returned by this walker; the directory itself is
+	 * not returned.  Files must be added before iteration begins.
+	 *
+	 * @param directory			directory to walk
+	 */
+	public void addDirectory(File directory) {
+		if (stack != null) {
+			throw new IllegalStateException("Files cannot be added once iteration has begun.");
+		}
+		startEntries.add(new Entry("", directory, deviceConcurrency.getDevice(directory)));
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (next == null) {
+			next = findNext();
+		}
+		return next != null;
+	}
+
+	@Override
+	public BackupFile next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		BackupFile backupFile = next;
+		next = null;
+		return backupFile;
+	}
+
+	/**
+	 * Stop walking; listings already read ahead are discarded and those not yet started are skipped.  This
+	 * is done automatically when the last file has been returned.
+	 */
+	public void close() {
+		closed = true;
+		if (stack != null) {
+			for (Frame frame : stack) {
+				frame.close();
+			}
+		}
+		stack = new ArrayDeque<Frame>();
+		startEntries.clear();
+		for (Future<ExternalSorter<Entry>> readAheadListing : readAheadListings) {
+			// listings still being read are closed by the thread reading them
+			if (!readAheadListing.cancel(false) && readAheadListing.isDone()) {
+				try {
+					readAheadListing.get().close();
+				} catch (Exception e) {
+					// listing failed; nothing to close
+				}
+			}
+		}
+		readAheadListings.clear();
+	}
+
+	private BackupFile findNext() {
+		if (stack == null) {
+			stack = new ArrayDeque<Frame>();
+			Collections.sort(startEntries);
+			push(startEntries, null);
+			startEntries = new ArrayList<Entry>();
+		}
+		while (!stack.isEmpty()) {
+			if (filter.isWalkCancelled()) {
+				close();
+				return null;
+			}
+			Frame frame = stack.peek();
+			if (!frame.entries.hasNext()) {
+				stack.pop().close();
+				continue;
+			}
+			Entry entry = frame.entries.next();
+			if (entry.directory == null) {
+				return entry.backupFile;
+			}
+			ExternalSorter<Entry> listing = getListing(entry);
+			if (listing.isSpilled()) {
+				stack.push(new Frame(withDevice(listing.iterator(), entry.device), listing));
+			} else {
+				push(listing.getSortedList(), listing);
+			}
+		}
+		close();
+		return null;
+	}
+
+	/**
+	 * Push sorted entries onto the stack, reading ahead the listings of the directories to be walked.
+	 */
+	private void push(List<Entry> entries, ExternalSorter<Entry> listing) {
+		for (final Entry entry : entries) {
+			if (entry.directory != null) {
+				int readAheadCount = getReadAheadCount(entry.device);
+				if (readAheadCount < entry.device.getThreads() * READ_AHEAD_PER_THREAD) {
+					readAheadCounts.put(entry.device, Integer.valueOf(readAheadCount + 1));
+					entry.listing = entry.device.submit(new Callable<ExternalSorter<Entry>>() {
+						public ExternalSorter<Entry> call() {
+							ExternalSorter<Entry> listing = list(entry.directory, entry.device);
+							if (closed) {
+								listing.close();
+							}
+							return listing;
+						}
+					});
+					readAheadListings.add(entry.listing);
+				}
+			}
+		}
+		stack.push(new Frame(entries.iterator(), listing));
+	}
+
+	private int getReadAheadCount(DeviceConcurrency.Device device) {
+		Integer readAheadCount = readAheadCounts.get(device);
+		return (readAheadCount == null)? 0 : readAheadCount.intValue();
+	}
+	
+	/**
+	 * Returns an iterator over entries read back from disk that restores the device of each entry.
+	 */
+	private static Iterator<Entry> withDevice(final Iterator<Entry> entries, final DeviceConcurrency.Device device) {
+		return new Iterator<Entry>() {
+			public boolean hasNext() {
+				return entries.hasNext();
+			}
+			public Entry next() {
+				Entry entry = entries.next();
+				entry.device = device;
+				return entry;
+			}
+		};
+	}
+	
+	private ExternalSorter<Entry> getListing(Entry entry) {
+		if (entry.listing != null) {
+			readAheadCounts.put(entry.device, Integer.valueOf(getReadAheadCount(entry.device) - 1));
+			readAheadListings.remove(entry.listing);
+			try {
+				return entry.listing.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				// listing will be read again below
+			}
+		}
+		return list(entry.directory, entry.device);
+	}
+
+	/**
+	 * List the given directory, returning an entry for each file and an additional entry for each
+	 * directory that represents the files within it.  Files within the directory are taken to be on the
+	 * same device as the directory.  A directory that cannot be read is treated as empty, the same as 
+	 * java.io.File would report it, but an error part way through listing a directory stops the walk, as 
+	 * a partial listing would make the missing files appear to have been deleted.
+	 */
+	private ExternalSorter<Entry> list(File directory, DeviceConcurrency.Device device) {
+		ExternalSorter<Entry> entries = (sortMemory == null)? 
+				new ExternalSorter<Entry>(SPILL_THRESHOLD, sortDirectory) : new ExternalSorter<Entry>(sortMemory, ENTRY_SIZER, sortDirectory);
+		entries.setSortKey(ENTRY_KEY);
+		if (closed || filter.isWalkCancelled()) {
+			return entries;
+		}
+		DirectoryStream<Path> directoryStream = null;
+		try {
+			directoryStream = Files.newDirectoryStream(directory.toPath());
+		} catch (IOException e) {
+			return entries;
+		}
+		try {
+			int listed = 0;
+			for (Path path : directoryStream) {
+				File file = path.toFile();
+				if (PlatformTool.FILE_FILTER.accept(file)) {
+					list(file, device, entries);
+				}
+				if (++listed % LISTING_PROGRESS_INTERVAL == 0) {
+					if (closed || filter.isWalkCancelled()) {
+						break;
+					}
+					filter.listingProgress(directory, listed);
+				}
+			}
+		} catch (IOException e) {
+			entries.close();
+			throw new IllegalStateException("Unable to sort listing of directory " + directory.getAbsolutePath(), e);
+		} catch (DirectoryIteratorException e) {
+			entries.close();
+			throw new IllegalStateException("Unable to finish listing directory " + directory.getAbsolutePath(), e.getCause());
+		} finally {
+			try {
+				directoryStream.close();
+			} catch (IOException e) {
+				// listing is already complete
+			}
+		}
+		return entries;
+	}
+	
+	/**
+	 * Inspect a file found while listing a directory, adding its entries unless it is excluded.
+	 */
+	private void list(File file, DeviceConcurrency.Device device, ExternalSorter<Entry> entries) throws IOException {
+		BasicFileAttributes attributes = null;
+		try {
+			attributes = filter.readAttributes(file);
+		} catch (IOException e) {
+			// unreadable files are still returned, the same as java.io.File would report them
+		}
+		if (filter.isExcluded(file, attributes)) {
+			return;
+		}
+		BackupFile backupFile = new BackupFile(file, type, latestBackupDirectory, attributes);
+		String name = file.getName();
+		entries.add(new Entry(name, backupFile, false, device));
+		if (walkSubdirectories && backupFile.isDirectory()) {
+			entries.add(new Entry(name + File.separator, backupFile, true, device));
+		}
+	}
+}
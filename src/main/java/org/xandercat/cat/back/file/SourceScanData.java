@@ -0,0 +1,34 @@
+package org.xandercat.cat.back.file;
+
+import java.io.Serializable;
+
+/**
+ * Class for storing when files were last inspected.  The source files found are saved as they are inspected 
+ * to a separate file list (see FileListWriter), identified here by its fingerprint.  Along with a FileChangeLog, 
+ * this information enables the next backup to inspect only the source directories that have changed.
+ *
+ * @author Scott Arnold
+ */
+public class SourceScanData implements Serializable {
+
+	private static final long serialVersionUID = 2023052001L;
+
+	private FileListFingerprint sourceFilesFingerprint;
+	private long scanStarted;
+	private String selectionKey;
+
+	public SourceScanData(FileListFingerprint sourceFilesFingerprint, long scanStarted, String selectionKey) {
+		this.sourceFilesFingerprint = sourceFilesFingerprint;
+		this.scanStarted = scanStarted;
+		this.selectionKey = selectionKey;
+	}
+	public FileListFingerprint getSourceFilesFingerprint() {
+		return sourceFilesFingerprint;
+	}
+	public long getScanStarted() {
+		return scanStarted;
+	}
+	public String getSelectionKey() {
+		return selectionKey;
+	}
+}
@@ -0,0 +1,186 @@
+package org.xandercat.cat.back.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * TimestampPrecision determines how closely the last modified times of a source file and its backup must
+ * match for the file to be considered unchanged.  The precision for each included root is the coarser of
+ * the timestamp granularity of the file store the root is on and that of the file store of the backup.
+ *
+ * The granularity of the backup file store is probed by setting the last modified time of a probe file and
+ * reading it back; file systems such as FAT store times to the nearest 2 seconds, and may round either way.
+ * Source file stores are never written to, so their granularity is taken from the type of file system.  A
+ * backup file store that cannot be probed, or that does not store the time set within 2 seconds, gets the
+ * DEFAULT_PRECISION used prior to v1.6.1.
+ *
+ * File stores are found by location as given, so a file store mounted within an included directory has the
+ * precision of the included directory.
+ *
+ * @author Scott Arnold
+ */
+public class TimestampPrecision {
+
+	private static final Logger log = LogManager.getLogger(TimestampPrecision.class);
+
+	public static final long DEFAULT_PRECISION = BackupFile.LAST_MOD_PRECISION;
+	public static final String PROBE_FILE_PREFIX = ".catback_probe";
+
+	private static final long[] GRANULARITIES = { 1, 10, 100, 1000, 2000 };
+	private static final long PROBE_OFFSET = 24L * 60 * 60 * 1000;		// probe times are a day in the past
+
+	private FileListShards roots;
+	private Map<String, Long> precisions = new HashMap<String, Long>();
+	private long destinationGranularity;
+	private long maximumPrecision;
+	private boolean uniform = true;
+
+	/**
+	 * Constructs the timestamp precision for a backup of the given included files to the given backup
+	 * directory.
+	 *
+	 * @param includedFiles			included files and directories of the backup
+	 * @param backupDirectory		existing directory on the backup file store
+	 * @param probe					whether or not to probe the backup file store by writing a probe file;
+	 * 								if not, its granularity is taken from the type of file system
+	 */
+	public TimestampPrecision(Collection<File> includedFiles, File backupDirectory, boolean probe) {
+		this.roots = FileListShards.forIncludedFiles(includedFiles);
+		long granularity = -1;
+		try {
+			granularity = probe? probeGranularity(backupDirectory) : getGranularity(Files.getFileStore(backupDirectory.toPath()));
+		} catch (IOException e) {
+			log.warn("Unable to determine timestamp granularity of backup directory " + backupDirectory.getAbsolutePath() + ": " + e.getMessage());
+		}
+		if (granularity < 0) {
+			this.destinationGranularity = DEFAULT_PRECISION;
+		} else {
+			this.destinationGranularity = granularity;
+		}
+		log.info("Timestamp granularity of backup directory " + backupDirectory.getAbsolutePath() + " is " + destinationGranularity + " ms");
+		this.maximumPrecision = destinationGranularity;
+		precisions.put(FileListShards.BASE_SHARD, Long.valueOf(destinationGranularity));
+		for (File includedFile : includedFiles) {
+			String key = roots.getShard(BackupPathGenerator.generateCriticalPath(includedFile));
+			if (!FileListShards.BASE_SHARD.equals(key) && !precisions.containsKey(key)) {
+				long sourceGranularity = 1;
+				try {
+					sourceGranularity = getGranularity(Files.getFileStore(includedFile.toPath()));
+				} catch (IOException e) {
+					// included file may not currently exist; the backup file store decides
+				}
+				long precision = Math.max(sourceGranularity, destinationGranularity);
+				precisions.put(key, Long.valueOf(precision));
+				if (precision != destinationGranularity) {
+					uniform = false;
+					log.info("Timestamp precision for " + includedFile.getAbsolutePath() + " is " + precision + " ms");
+				}
+				maximumPrecision = Math.max(maximumPrecision, precision);
+			}
+		}
+	}
+
+	/**
+	 * Returns the precision, in milliseconds, for the file with the given critical path.  Last modified times
+	 * that differ by less than the precision are considered the same.
+	 *
+	 * @param criticalPath		critical path of a source file
+	 *
+	 * @return					timestamp precision
+	 */
+	public long getPrecision(String criticalPath) {
+		if (uniform) {
+			return destinationGranularity;
+		}
+		return precisions.get(roots.getShard(criticalPath)).longValue();
+	}
+
+	/**
+	 * Returns the coarsest precision of any included root.
+	 *
+	 * @return					maximum timestamp precision
+	 */
+	public long getMaximumPrecision() {
+		return maximumPrecision;
+	}
+
+	/**
+	 * Returns the timestamp granularity of the file store of the given directory by setting the last modified
+	 * time of a probe file within it and reading it back, or -1 if the time read back is not within 2 seconds of
+	 * the time set.  Times are set at an odd whole second and at two fractions of a second; a file system that
+	 * stores even seconds must move the odd second by a full second whichever way it rounds, which a file system
+	 * that stores whole seconds never does.
+	 *
+	 * @param directory			directory to create the probe file in
+	 *
+	 * @return					granularity in milliseconds, or -1 if unknown
+	 *
+	 * @throws IOException		if the probe file cannot be written
+	 */
+	public static long probeGranularity(File directory) throws IOException {
+		File probeFile = File.createTempFile(PROBE_FILE_PREFIX, null, directory);
+		try {
+			long base = (System.currentTimeMillis() - PROBE_OFFSET) / 10000 * 10000;
+			long granularity = 0;
+			for (long time : new long[] { base + 1000, base + 1357, base + 2357 }) {
+				if (!probeFile.setLastModified(time)) {
+					throw new IOException("Unable to set last modified time of " + probeFile.getAbsolutePath());
+				}
+				long probed = getGranularity(time, Files.getLastModifiedTime(probeFile.toPath()).toMillis());
+				if (probed < 0) {
+					return -1;
+				}
+				granularity = Math.max(granularity, probed);
+			}
+			return granularity;
+		} finally {
+			if (!probeFile.delete()) {
+				probeFile.deleteOnExit();
+			}
+		}
+	}
+
+	/**
+	 * Returns the smallest granularity that could have stored the given time as the given stored time, or -1
+	 * if none.
+	 */
+	private static long getGranularity(long time, long storedTime) {
+		for (long granularity : GRANULARITIES) {
+			if (storedTime % granularity == 0 && Math.abs(storedTime - time) < granularity) {
+				return granularity;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the timestamp granularity of the given file store by type of file system.  File systems not
+	 * known to be coarser are assumed to store times to the millisecond.
+	 *
+	 * @param fileStore		file store
+	 *
+	 * @return				granularity in milliseconds
+	 */
+	public static long getGranularity(FileStore fileStore) {
+		String type = fileStore.type().toLowerCase(Locale.ROOT);
+		if (type.equals("vfat") || type.equals("msdos") || type.startsWith("fat")) {
+			return 2000;
+		}
+		if (type.equals("exfat")) {
+			return 10;
+		}
+		if (type.equals("hfs") || type.equals("iso9660") || type.equals("udf") || type.equals("cd9660")) {
+			return 1000;
+		}
+		return 1;
+	}
+}
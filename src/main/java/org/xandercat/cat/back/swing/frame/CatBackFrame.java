@@ -44,6 +44,7 @@ import org.xandercat.cat.back.CatBackup16;
 import org.xandercat.cat.back.CatBackupTreeStates;
 import org.xandercat.cat.back.CatBackupUpdater;
 import org.xandercat.cat.back.engine.BackupEngineManager;
+import org.xandercat.cat.back.engine.FileChangeWatcherManager;
 import org.xandercat.cat.back.engine.BackupStats;
 import org.xandercat.cat.back.importer.OldBackupImporter;
 import org.xandercat.cat.back.media.Icons;
@@ -198,6 +199,9 @@ public class CatBackFrame extends ApplicationFrame implements
 		BackupEngineManager bem = new BackupEngineManager(this, fileManager);
 		ResourceManager.getInstance().register(bem);
 		
+		// create File Change Watcher Manager
+		new FileChangeWatcherManager(fileManager);
+		
 		// create Look and Feel dialog
 		this.lafSelectionDialog = new LookAndFeelSelectionDialog(this);
 		
@@ -1,8 +1,6 @@
 package org.xandercat.cat.back.swing.frame;
 
 import java.awt.FlowLayout;
-import java.io.File;
-import java.util.Set;
 
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
@@ -19,8 +17,6 @@ import org.xandercat.swing.file.FileManager;
 import org.xandercat.swing.file.icon.FileIconCache;
 import org.xandercat.swing.file.icon.FileIconSet;
 import org.xandercat.swing.file.icon.FileIconSetFactory;
-import org.xandercat.swing.tree.CheckboxFileTree;
-import org.xandercat.swing.tree.CheckboxFileTreeFactory;
 import org.xandercat.swing.worker.SwingWorkerUtil;
 import org.xandercat.swing.zenput.processor.Processor;
 import org.xandercat.swing.zenput.processor.SourceProcessor;
@@ -68,15 +64,8 @@ public class ImmediateFileBackupFrame extends ApplicationFrame implements Backup
 				}
 				FileIconSet fileIconSet = FileIconSetFactory.buildIconSet(FileIconSetFactory.GLAZE);
 				FileIconCache fileIconCache = new FileIconCache(fileIconSet);
-				CheckboxFileTree excludedTree = CheckboxFileTreeFactory.createCheckboxFileTree(false, false, fileIconCache);
-				Set<File> excludedFiles = backup.getExcludedFiles();
-				if (excludedFiles != null) {
-					for (File bfile : excludedFiles) {
-						excludedTree.selectAddFile(bfile, backup.wasDirectory(bfile), true);
-					}
-				}			
 				BackupStats stats = new BackupStats(backup.getBackupDirectory());
-				BackupEngine backupEngine = new BackupEngine(this, backup, fileIconCache, excludedTree, stats);
+				BackupEngine backupEngine = new BackupEngine(this, backup, fileIconCache, stats);
 				backupEngine.addBackupEngineListener(this);
 				backupEngine.setDryRun(dryRun);
 				backupEngine.setDryRunSpeedFactor(dryRunSpeedFactor);
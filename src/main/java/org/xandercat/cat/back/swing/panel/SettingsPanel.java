@@ -43,8 +43,21 @@ public class SettingsPanel implements CatBackPanel, ItemListener {
 	private ByteSizeInputPanel keepNoMoreThanSizeInput;
 	private JLabel noteLabel;
 	private JCheckBox scanLastBackupCheckBox;
+	private JCheckBox watchForChangesCheckBox;
+	private JCheckBox compressMetadataCheckBox;
+	private JCheckBox compareContentsCheckBox;
+	private JCheckBox compareFileIdentitiesCheckBox;
+	private JCheckBox detectRenamedFilesCheckBox;
 	private JLabel errorsUntilBackupHaltLabel;
 	private JTextField errorsUntilBackupHaltTextField;
+	private JLabel scanThreadsLabel;
+	private JLabel excludedPatternsLabel;
+	private JTextField excludedPatternsTextField;
+	private JTextField scanThreadsTextField;
+	private JLabel deviceThreadsLabel;
+	private JTextField deviceThreadsTextField;
+	private JLabel sortMemoryLabel;
+	private JTextField sortMemoryTextField;
 	
 	public SettingsPanel() {
 		this.showMoveCopyDialogCheckBox = ComponentFactory.createInputCheckBox(null);
@@ -58,9 +71,22 @@ public class SettingsPanel implements CatBackPanel, ItemListener {
 		this.keepNoMoreThanSizeLabel = ComponentFactory.createInputLabel("Do not allow incremental backups to exceed:");
 		this.keepNoMoreThanSizeInput = new ByteSizeInputPanel(5);
 		this.scanLastBackupCheckBox = ComponentFactory.createInputCheckBox(null);
+		this.watchForChangesCheckBox = ComponentFactory.createInputCheckBox(null);
+		this.compressMetadataCheckBox = ComponentFactory.createInputCheckBox(null);
+		this.compareContentsCheckBox = ComponentFactory.createInputCheckBox(null);
+		this.compareFileIdentitiesCheckBox = ComponentFactory.createInputCheckBox(null);
+		this.detectRenamedFilesCheckBox = ComponentFactory.createInputCheckBox(null);
 		this.noteLabel = ComponentFactory.createDetailLabel("Keep for at least duration overrides other incremental backup limits.");
 		this.errorsUntilBackupHaltLabel = ComponentFactory.createInputLabel("Number of move/copy errors until backup is halted:");
 		this.errorsUntilBackupHaltTextField = new JTextField(4);
+		this.scanThreadsLabel = ComponentFactory.createInputLabel("Number of threads used to inspect files (per device; hard disks default to 1):");
+		this.scanThreadsTextField = new JTextField(4);
+		this.deviceThreadsLabel = ComponentFactory.createInputLabel("Override threads for devices (separate with ;  e.g. /mnt/backup=1; /home=8):");
+		this.deviceThreadsTextField = new JTextField(30);
+		this.sortMemoryLabel = ComponentFactory.createInputLabel("Memory used to sort directories before writing to disk (MB):");
+		this.sortMemoryTextField = new JTextField(4);
+		this.excludedPatternsLabel = ComponentFactory.createInputLabel("Exclude files matching patterns (separate with ;  e.g. **/node_modules/; *.iso):");
+		this.excludedPatternsTextField = new JTextField(30);
 		
 		updateIncrementalBackupEnabledStates();
 
@@ -68,15 +94,37 @@ public class SettingsPanel implements CatBackPanel, ItemListener {
 		this.leaveCopyWindowOpenCheckBox.setText("Leave copy window open after successful backup");
 		this.limitIncrementalBackupsCheckBox.setText("Limit incremental backups");
 		this.scanLastBackupCheckBox.setText("Perform full scan of previous backup");
+		this.watchForChangesCheckBox.setText("Watch for changes while open so only changed files are inspected");
+		this.compressMetadataCheckBox.setText("Compress file lists and statistics saved with the backup");
+		this.compareContentsCheckBox.setText("Compare contents of files whose size has not changed (reads a few blocks of each large file)");
+		this.compareFileIdentitiesCheckBox.setText("Also detect changed files by inode number and status change time (Linux and other Unix systems)");
+		this.detectRenamedFilesCheckBox.setText("Detect renamed and moved files and relocate their backups instead of copying them again");
 		
 		GroupAlignedPanelBuilder builder = new GroupAlignedPanelBuilder();
 		builder.addHeading(ComponentFactory.createTitlePanel("General Preferences"), 0, 10);
 		builder.addRow(null, this.showMoveCopyDialogCheckBox);
 		builder.addRow(null, this.leaveCopyWindowOpenCheckBox);
 		builder.addRow(null, this.scanLastBackupCheckBox);
+		builder.addRow(null, this.watchForChangesCheckBox);
+		builder.addRow(null, this.compressMetadataCheckBox);
+		builder.addRow(null, this.compareContentsCheckBox);
+		builder.addRow(null, this.compareFileIdentitiesCheckBox);
+		builder.addRow(null, this.detectRenamedFilesCheckBox);
 		builder.addVerticalStrut(10);
 		builder.addRow(null, this.errorsUntilBackupHaltLabel);
 		builder.addRow(null, this.errorsUntilBackupHaltTextField);
+		builder.addVerticalStrut(10);
+		builder.addRow(null, this.scanThreadsLabel);
+		builder.addRow(null, this.scanThreadsTextField);
+		builder.addVerticalStrut(10);
+		builder.addRow(null, this.deviceThreadsLabel);
+		builder.addRow(null, this.deviceThreadsTextField);
+		builder.addVerticalStrut(10);
+		builder.addRow(null, this.sortMemoryLabel);
+		builder.addRow(null, this.sortMemoryTextField);
+		builder.addVerticalStrut(10);
+		builder.addRow(null, this.excludedPatternsLabel);
+		builder.addRow(null, this.excludedPatternsTextField);
 		builder.addHeading(ComponentFactory.createTitlePanel("Incremental Backups"), 10, 10);
 		builder.addRow(null, this.limitIncrementalBackupsCheckBox);
 		builder.addVerticalStrut(10);
@@ -105,7 +153,16 @@ public class SettingsPanel implements CatBackPanel, ItemListener {
 		inputProcessor.registerInput("showFilesBeforeMoveCopy", this.showMoveCopyDialogCheckBox);
 		inputProcessor.registerInput("alwaysLeaveCopyWindowOpen", this.leaveCopyWindowOpenCheckBox);
 		inputProcessor.registerInput("scanLastBackup", this.scanLastBackupCheckBox);
+		inputProcessor.registerInput("watchForChanges", this.watchForChangesCheckBox);
+		inputProcessor.registerInput("compressMetadata", this.compressMetadataCheckBox);
+		inputProcessor.registerInput("compareContents", this.compareContentsCheckBox);
+		inputProcessor.registerInput("compareFileIdentities", this.compareFileIdentitiesCheckBox);
+		inputProcessor.registerInput("detectRenamedFiles", this.detectRenamedFilesCheckBox);
 		inputProcessor.registerInput("errorsUntilBackupHalt", this.errorsUntilBackupHaltTextField);
+		inputProcessor.registerInput("scanThreads", this.scanThreadsTextField);
+		inputProcessor.registerInput("deviceThreads", this.deviceThreadsTextField);
+		inputProcessor.registerInput("sortMemory", this.sortMemoryTextField);
+		inputProcessor.registerInput("excludedPatterns", this.excludedPatternsTextField);
 		inputProcessor.registerInput("limitIncrementalBackups", this.limitIncrementalBackupsCheckBox);
 		InputAccessor<TimeDuration> tdAccessor = new ReflectionAccessor<TimeDuration>(keepForAtLeastTimeInput, "timeDuration", TimeDuration.class);
 		inputProcessor.registerInput("keepAtLeastTime", tdAccessor, new SameTypeConverter<TimeDuration>());
@@ -529,7 +529,8 @@ public class FileUtil {
 	/**
 	 * Generates a regular expression to match file names based on the file name pattern.
 	 * File name pattern takes the form of that used by typical operating systems, with  
-	 * periods and asterisks as special characters.  
+	 * asterisks matching any number of characters and question marks matching any single 
+	 * character.  All other characters match themselves.
 	 * 
 	 * @param fileNamePattern		O/S style file name pattern
 	 * 
@@ -549,6 +550,22 @@ public class FileUtil {
 			case '*':
 				rxPattern.append(".*");
 				break;
+			case '?':
+				rxPattern.append(".");
+				break;
+			case '\\':
+			case '^':
+			case '$':
+			case '+':
+			case '|':
+			case '(':
+			case ')':
+			case '[':
+			case ']':
+			case '{':
+			case '}':
+				rxPattern.append('\\').append(fileNamePattern.charAt(i));
+				break;
 			default:
 				rxPattern.append(fileNamePattern.charAt(i));
 				break;
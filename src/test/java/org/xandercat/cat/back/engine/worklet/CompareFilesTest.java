@@ -0,0 +1,332 @@
+package org.xandercat.cat.back.engine.worklet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xandercat.cat.back.file.BackupFile;
+import org.xandercat.cat.back.file.BackupPathGenerator;
+import org.xandercat.cat.back.file.ContentDigester;
+import org.xandercat.cat.back.file.FileIdentity;
+import org.xandercat.cat.back.file.RenamedFile;
+import org.xandercat.cat.back.file.RenamedFileDetector;
+import org.xandercat.swing.worker.SwingWorkletManager;
+
+/**
+ * Tests that comparing files in partitions, in parallel, gives the same results as a serial merge of the current
+ * and previous files: the two-list walk CompareFiles used prior to v1.6.1, extended with the outcomes the test
+ * files are built to have where contents are compared, identities are recorded or files are renamed.  Only the
+ * files whose contents are compared (those whose last modified times differ, and renamed files) are written to
+ * disk.
+ *
+ * @author Scott Arnold
+ */
+public class CompareFilesTest {
+
+	private static final long LAST_MODIFIED = 1600000000000L;
+	private static final long RENAMED_LENGTH = RenamedFileDetector.MIN_LENGTH;
+	private static final int DIRECTORIES = 3000;
+
+	private static final int UNCHANGED = 0;
+	private static final int CHANGED = 1;
+	private static final int ADDED = 2;
+	private static final int REMOVED = 3;
+	private static final int TOUCHED = 4;
+	private static final int IDENTITY_NOT_RECORDED = 5;
+
+	private static final SwingWorkletManager<String> WORKLET_MANAGER = new SwingWorkletManager<String>() {
+		public boolean isCancelled() {
+			return false;
+		}
+		public void workletProgress(long progress, long progressMaximum) {
+		}
+		public void workletPublish(String message) {
+		}
+	};
+
+	private File directory;
+	private File latestBackupDirectory;
+	private String sourcePath;
+	private ContentDigester contentDigester;
+	private boolean filesWritten;
+
+	/**
+	 * Current and previous files, by critical path, with the critical paths of the touched files whose contents
+	 * differ and the critical paths of renamed files (removed files by added file).
+	 */
+	private class TestFiles {
+		private Map<String, BackupFile> currentFiles = new TreeMap<String, BackupFile>();
+		private Map<String, BackupFile> previousFiles = new TreeMap<String, BackupFile>();
+		private Set<String> changedContents = new HashSet<String>();
+		private Map<String, String> renamedFiles = new HashMap<String, String>();
+
+		private void add(String path, int change, boolean directory, long length) throws IOException {
+			String criticalPath = sourcePath + File.separator + path;
+			if (change != REMOVED) {
+				BackupFile currentFile = new BackupFile(criticalPath, BackupFile.Type.SOURCE, null,
+						(change == CHANGED)? length + 1 : length, (change == TOUCHED)? LAST_MODIFIED + 2 * BackupFile.LAST_MOD_PRECISION : LAST_MODIFIED, directory);
+				if (change == IDENTITY_NOT_RECORDED) {
+					currentFile.setFileIdentity(new FileIdentity(1, currentFiles.size(), LAST_MODIFIED));
+				}
+				currentFiles.put(criticalPath, currentFile);
+			}
+			if (change != ADDED) {
+				previousFiles.put(criticalPath, new BackupFile(criticalPath, BackupFile.Type.DESTINATION, latestBackupDirectory,
+						length, LAST_MODIFIED, directory));
+			}
+			if (change == TOUCHED) {
+				// contents differ in every third file
+				byte[] contents = new byte[(int) length];
+				if (currentFiles.size() % 3 == 0) {
+					changedContents.add(criticalPath);
+				}
+				if (!filesWritten) {
+					write(currentFiles.get(criticalPath).getFile(), contents);
+					contents[0] = changedContents.contains(criticalPath)? (byte) 1 : 0;
+					write(previousFiles.get(criticalPath).getFile(), contents);
+				}
+			}
+		}
+
+		private void rename(String fromPath, String toPath) throws IOException {
+			add(fromPath, REMOVED, false, RENAMED_LENGTH);
+			add(toPath, ADDED, false, RENAMED_LENGTH);
+			String fromCriticalPath = sourcePath + File.separator + fromPath;
+			String toCriticalPath = sourcePath + File.separator + toPath;
+			renamedFiles.put(toCriticalPath, fromCriticalPath);
+			if (!filesWritten) {
+				// renamed files under a megabyte are matched by digest
+				byte[] contents = new byte[(int) RENAMED_LENGTH];
+				write(previousFiles.get(fromCriticalPath).getFile(), contents);
+				write(currentFiles.get(toCriticalPath).getFile(), contents);
+			}
+		}
+	}
+
+	/**
+	 * Results of a comparison, with files described by critical path, length, last modified time and file identity.
+	 */
+	private static class Results {
+		private List<File> filesToCopy = new ArrayList<File>();
+		private List<String> filesToMove = new ArrayList<String>();
+		private List<String> filesToUpdate = new ArrayList<String>();
+		private List<String> filesToRecord = new ArrayList<String>();
+		private Set<String> recordedFilesToCopy = new HashSet<String>();
+		private List<String> renamedFiles = new ArrayList<String>();
+		private long bytesToCopy;
+		private long bytesToMove;
+		private int filesUnchangedByContent;
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("catback_compare_test").toFile().getCanonicalFile();
+		latestBackupDirectory = new File(directory, "latest");
+		sourcePath = BackupPathGenerator.generateCriticalPath(new File(directory, "source"));
+		contentDigester = new ContentDigester(2);
+	}
+
+	@After
+	public void tearDown() {
+		contentDigester.shutdown();
+		delete(directory);
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File child : files) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	private static void write(File file, byte[] contents) throws IOException {
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), contents);
+	}
+
+	/**
+	 * Builds more than PARTITION_SIZE current and previous files.  Directories are followed by files whose names
+	 * share the directory name as a prefix (sorting between the directory and the files within it), so the names
+	 * that collide are spread across partition boundaries.  Some directories are removed or added in full, files
+	 * are renamed from one directory to another far apart in critical path order, and previous files continue
+	 * well past the last current file.
+	 */
+	private TestFiles buildFiles() throws IOException {
+		Random random = new Random(2023050101L);
+		TestFiles files = new TestFiles();
+		for (int i = 0; i < DIRECTORIES; i++) {
+			String directory = String.format("d%04d", i);
+			int directoryChange = (i % 97 == 13)? REMOVED : (i % 89 == 7)? ADDED : UNCHANGED;
+			files.add(directory, directoryChange, true, 0);
+			files.add(directory + "-b", (directoryChange == UNCHANGED)? random.nextInt(6) : directoryChange, false, 100 + i);
+			files.add(directory + ".txt", (directoryChange == UNCHANGED)? random.nextInt(6) : directoryChange, false, 200 + i);
+			int filesInDirectory = random.nextInt(5);
+			for (int j = 0; j < filesInDirectory; j++) {
+				int change = (directoryChange == UNCHANGED)? random.nextInt(6) : directoryChange;
+				files.add(directory + File.separator + "f" + j, change, false, 300 + j);
+			}
+			if (i % 500 == 250) {
+				// a large directory removed or added in full
+				int change = (i % 1000 == 250)? REMOVED : ADDED;
+				String largeDirectory = directory + File.separator + "large";
+				files.add(largeDirectory, change, true, 0);
+				for (int j = 0; j <= CompareFiles.PARTITION_SIZE; j++) {
+					files.add(largeDirectory + File.separator + String.format("g%05d", j), change, false, 400);
+				}
+			}
+			if (i % 300 == 100) {
+				// a file renamed from the start of the tree to the end
+				files.rename("a" + File.separator + "from" + File.separator + directory + ".bin",
+						"r" + File.separator + "to" + File.separator + directory + ".bin");
+			}
+		}
+		for (int i = 0; i < 3 * CompareFiles.PARTITION_SIZE; i++) {
+			// previous files past the last current file
+			files.add("z" + File.separator + String.format("z%05d", i), REMOVED, false, 500);
+		}
+		filesWritten = true;
+		return files;
+	}
+
+	private Results compare(int partitionSize) throws Exception {
+		TestFiles files = buildFiles();
+		List<BackupFile> currentFiles = new ArrayList<BackupFile>(files.currentFiles.values());
+		List<BackupFile> previousFiles = new ArrayList<BackupFile>(files.previousFiles.values());
+		CompareFiles compareFiles = new CompareFiles(WORKLET_MANAGER, currentFiles.iterator(), previousFiles.iterator(),
+				currentFiles.size() + previousFiles.size(), latestBackupDirectory);
+		compareFiles.setContentDigester(contentDigester, -1);
+		compareFiles.setDetectRenamedFiles(true);
+		compareFiles.setPartitionSize(partitionSize);
+		assertEquals(Boolean.TRUE, compareFiles.execute());
+		Results results = new Results();
+		results.filesToCopy.addAll(compareFiles.getFilesToCopy());
+		for (BackupFile backupFile : compareFiles.getFilesToMove()) {
+			results.filesToMove.add(describe(backupFile));
+		}
+		for (BackupFile backupFile : compareFiles.getFilesToUpdate()) {
+			results.filesToUpdate.add(describe(backupFile));
+		}
+		for (BackupFile backupFile : compareFiles.getFilesToRecord()) {
+			results.filesToRecord.add(describe(backupFile));
+		}
+		results.recordedFilesToCopy.addAll(compareFiles.getRecordedFilesToCopy().keySet());
+		for (RenamedFile renamedFile : compareFiles.getRenamedFiles()) {
+			results.renamedFiles.add(renamedFile.getPreviousFile().getCriticalPath() + " -> " + renamedFile.getCurrentFile().getCriticalPath());
+		}
+		results.bytesToCopy = compareFiles.getBytesToCopy();
+		results.bytesToMove = compareFiles.getBytesToMove();
+		results.filesUnchangedByContent = compareFiles.getFilesUnchangedByContent();
+		return results;
+	}
+
+	/**
+	 * Compares the test files with a single walk of the current and previous files, file by file.  Files of the
+	 * same critical path are changed if their lengths differ or their contents were made to differ, updated if
+	 * their last modified times alone differ, and recorded if only their identity was not yet recorded.  Added
+	 * files are then taken out of the files to copy if they were renamed.
+	 */
+	private Results serialMerge() throws IOException {
+		TestFiles files = buildFiles();
+		Results results = new Results();
+		List<BackupFile> addedFiles = new ArrayList<BackupFile>();
+		Iterator<BackupFile> previousFilesIter = files.previousFiles.values().iterator();
+		Iterator<BackupFile> currentFilesIter = files.currentFiles.values().iterator();
+		BackupFile previousFile = previousFilesIter.hasNext()? previousFilesIter.next() : null;
+		BackupFile currentFile = currentFilesIter.hasNext()? currentFilesIter.next() : null;
+		while (previousFile != null || currentFile != null) {
+			if (previousFile == null || (currentFile != null && previousFile.getCriticalPath().compareTo(currentFile.getCriticalPath()) > 0)) {
+				results.filesToCopy.add(currentFile.getFile());
+				results.bytesToCopy += currentFile.getLength();
+				addedFiles.add(currentFile);
+				currentFile = currentFilesIter.hasNext()? currentFilesIter.next() : null;
+			} else if (currentFile == null || previousFile.getCriticalPath().compareTo(currentFile.getCriticalPath()) < 0) {
+				results.filesToMove.add(describe(previousFile));
+				results.bytesToMove += previousFile.getLength();
+				previousFile = previousFilesIter.hasNext()? previousFilesIter.next() : null;
+			} else {
+				String criticalPath = currentFile.getCriticalPath();
+				if (previousFile.getLength() != currentFile.getLength() || files.changedContents.contains(criticalPath)) {
+					results.filesToMove.add(describe(previousFile));
+					results.bytesToMove += previousFile.getLength();
+					results.filesToCopy.add(currentFile.getFile());
+					results.bytesToCopy += currentFile.getLength();
+					if (files.changedContents.contains(criticalPath)) {
+						// digested when its contents were compared
+						results.recordedFilesToCopy.add(criticalPath);
+					}
+				} else if (previousFile.getLastModified() != currentFile.getLastModified()) {
+					results.filesToUpdate.add(describe(currentFile));
+					results.filesUnchangedByContent++;
+				} else if (currentFile.getFileIdentity() != null) {
+					results.filesToRecord.add(previousFile.getCriticalPath() + " " + previousFile.getLength() + " "
+							+ previousFile.getLastModified() + " " + currentFile.getFileIdentity());
+				}
+				previousFile = previousFilesIter.hasNext()? previousFilesIter.next() : null;
+				currentFile = currentFilesIter.hasNext()? currentFilesIter.next() : null;
+			}
+		}
+		for (BackupFile addedFile : addedFiles) {
+			String previousPath = files.renamedFiles.get(addedFile.getCriticalPath());
+			if (previousPath != null) {
+				results.renamedFiles.add(previousPath + " -> " + addedFile.getCriticalPath());
+				results.filesToCopy.remove(addedFile.getFile());
+				results.bytesToCopy -= addedFile.getLength();
+			}
+		}
+		return results;
+	}
+
+	private static String describe(BackupFile backupFile) {
+		return backupFile.getCriticalPath() + " " + backupFile.getLength() + " " + backupFile.getLastModified() + " " + backupFile.getFileIdentity();
+	}
+
+	private static void assertSameResults(Results expected, Results actual) {
+		assertEquals("files to copy", expected.filesToCopy, actual.filesToCopy);
+		assertEquals("files to move", expected.filesToMove, actual.filesToMove);
+		assertEquals("files to update", expected.filesToUpdate, actual.filesToUpdate);
+		assertEquals("files to record", expected.filesToRecord, actual.filesToRecord);
+		assertEquals("recorded files to copy", expected.recordedFilesToCopy, actual.recordedFilesToCopy);
+		assertEquals("renamed files", expected.renamedFiles, actual.renamedFiles);
+		assertEquals("bytes to copy", expected.bytesToCopy, actual.bytesToCopy);
+		assertEquals("bytes to move", expected.bytesToMove, actual.bytesToMove);
+		assertEquals("files unchanged by content", expected.filesUnchangedByContent, actual.filesUnchangedByContent);
+	}
+
+	@Test
+	public void testPartitionedCompareMatchesSerialMerge() throws Exception {
+		Results serial = serialMerge();
+		assertTrue(serial.filesToCopy.size() > CompareFiles.PARTITION_SIZE);
+		assertTrue(serial.filesToMove.size() > CompareFiles.PARTITION_SIZE);
+		assertTrue(serial.filesToUpdate.size() > 0);
+		assertTrue(serial.filesToRecord.size() > 0);
+		assertTrue(serial.recordedFilesToCopy.size() > 0);
+		assertEquals(DIRECTORIES / 300, serial.renamedFiles.size());
+		assertSameResults(serial, compare(CompareFiles.PARTITION_SIZE));
+	}
+
+	@Test
+	public void testSmallPartitionsMatchSerialMerge() throws Exception {
+		Results serial = serialMerge();
+		assertSameResults(serial, compare(Integer.MAX_VALUE));
+		assertSameResults(serial, compare(7));
+		assertSameResults(serial, compare(1));
+	}
+}
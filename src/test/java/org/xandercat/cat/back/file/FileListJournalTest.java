@@ -0,0 +1,167 @@
+package org.xandercat.cat.back.file;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that journal records are read back as they were written, and that journals of another version of the
+ * journal format are not read.
+ *
+ * @author Scott Arnold
+ */
+public class FileListJournalTest {
+
+	private static final byte[] DIGEST = { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16 };
+
+	private File directory;
+	private File latestBackupDirectory;
+	private File fileListFile;
+	private File journalFile;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("catback_journal_test").toFile();
+		latestBackupDirectory = new File(directory, "latest");
+		latestBackupDirectory.mkdirs();
+		fileListFile = new File(directory, "filelist");
+		journalFile = new File(directory, "journal");
+		FileListWriter.save(fileListFile, new FileListData(new BackupFileIndex(latestBackupDirectory), 0));
+	}
+
+	@After
+	public void tearDown() {
+		delete(directory);
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File child : files) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	/**
+	 * The content digest, quick fingerprint and file identity of added files are read back from the journal.
+	 */
+	@Test
+	public void testContentFlags() throws IOException {
+		FileListData fileListData = FileListJournal.loadFileListData(fileListFile, journalFile, latestBackupDirectory);
+		FileListJournal journal = new FileListJournal(fileListFile, journalFile, latestBackupDirectory, fileListData,
+				new FileListShards(Collections.<String>emptyList()));
+		BackupFile digested = new BackupFile("a" + File.separator + "digested", BackupFile.Type.DESTINATION, latestBackupDirectory, 5, 1000, false);
+		digested.setDigest(DIGEST);
+		journal.fileAdded(digested);
+		BackupFile fingerprinted = new BackupFile("a" + File.separator + "fingerprinted", BackupFile.Type.DESTINATION, latestBackupDirectory, 6, 2000, false);
+		fingerprinted.setQuickFingerprint(42);
+		fingerprinted.setFileIdentity(new FileIdentity(1, 2, 3));
+		journal.fileAdded(fingerprinted);
+		journal.fileAdded(new BackupFile("a" + File.separator + "plain", BackupFile.Type.DESTINATION, latestBackupDirectory, 7, 3000, false));
+		journal.commit();
+		List<BackupFile> backupFiles = FileListJournal.loadFileListData(fileListFile, journalFile, latestBackupDirectory).getBackupFiles();
+		assertEquals(3, backupFiles.size());
+		assertEquals("a" + File.separator + "digested", backupFiles.get(0).getCriticalPath());
+		assertEquals(5, backupFiles.get(0).getLength());
+		assertEquals(1000, backupFiles.get(0).getLastModified());
+		assertArrayEquals(DIGEST, backupFiles.get(0).getDigest());
+		assertEquals(0, backupFiles.get(0).getQuickFingerprint());
+		assertNull(backupFiles.get(0).getFileIdentity());
+		assertEquals("a" + File.separator + "fingerprinted", backupFiles.get(1).getCriticalPath());
+		assertNull(backupFiles.get(1).getDigest());
+		assertEquals(42, backupFiles.get(1).getQuickFingerprint());
+		assertEquals(new FileIdentity(1, 2, 3), backupFiles.get(1).getFileIdentity());
+		assertEquals("a" + File.separator + "plain", backupFiles.get(2).getCriticalPath());
+		assertNull(backupFiles.get(2).getDigest());
+		assertEquals(0, backupFiles.get(2).getQuickFingerprint());
+		assertNull(backupFiles.get(2).getFileIdentity());
+	}
+
+	/**
+	 * Journals with a segment without a version cannot be read.
+	 */
+	@Test
+	public void testSegmentWithoutVersion() throws IOException {
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(journalFile));
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream recordOut = new DataOutputStream(bytes);
+			recordOut.writeByte(3);		// RECORD_SEGMENT
+			recordOut.writeLong(System.currentTimeMillis());
+			recordOut.close();
+			writeRecord(out, bytes.toByteArray());
+			writeRecord(out, add("a" + File.separator + "file", 5, 1000));
+		} finally {
+			out.close();
+		}
+		try {
+			FileListJournal.loadFileListData(fileListFile, journalFile, latestBackupDirectory);
+			fail("Journal with a segment without a version was read");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Journals with a segment of a later version cannot be read.
+	 */
+	@Test
+	public void testLaterVersionJournal() throws IOException {
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(journalFile));
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream recordOut = new DataOutputStream(bytes);
+			recordOut.writeByte(3);		// RECORD_SEGMENT
+			recordOut.writeLong(System.currentTimeMillis());
+			recordOut.writeByte(Byte.MAX_VALUE);
+			recordOut.close();
+			writeRecord(out, bytes.toByteArray());
+			writeRecord(out, add("a" + File.separator + "file", 5, 1000));
+		} finally {
+			out.close();
+		}
+		try {
+			FileListJournal.loadFileListData(fileListFile, journalFile, latestBackupDirectory);
+			fail("Journal of a later version was read");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	private static byte[] add(String criticalPath, long length, long lastModified) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(1);		// RECORD_ADD
+		out.writeUTF(criticalPath);
+		out.writeBoolean(false);
+		out.writeLong(length);
+		out.writeLong(lastModified);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private static void writeRecord(DataOutputStream out, byte[] record) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(record);
+		out.writeInt(record.length);
+		out.write(record);
+		out.writeLong(crc.getValue());
+	}
+}